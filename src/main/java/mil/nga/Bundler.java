@@ -1,34 +1,62 @@
 package mil.nga;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Date;
 import java.util.List;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.HEAD;
 import javax.ws.rs.POST;
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import mil.nga.bundler.BandwidthLimiter;
 import mil.nga.bundler.BundleRequest;
+import mil.nga.bundler.exceptions.ArchiveException;
+import mil.nga.bundler.exceptions.InvalidRequestException;
 import mil.nga.bundler.exceptions.ServiceUnavailableException;
+import mil.nga.bundler.exceptions.ValidationErrorCodes;
 import mil.nga.bundler.interfaces.BundlerConstantsI;
 import mil.nga.bundler.messages.BundleRequestMessage;
 import mil.nga.bundler.messages.BundlerMessageSerializer;
 import mil.nga.bundler.messages.JobTrackerMessage;
+import mil.nga.bundler.model.ArchiveElement;
+import mil.nga.bundler.model.ArchiveJob;
+import mil.nga.bundler.model.FileEntry;
+import mil.nga.bundler.services.AdmissionService;
+import mil.nga.bundler.services.AdmissionService.AdmissionDecision;
+import mil.nga.bundler.services.ArchiveJobService;
+import mil.nga.bundler.services.ArchiveQueue;
+import mil.nga.bundler.services.CancellationService;
+import mil.nga.bundler.services.DownloadService;
+import mil.nga.bundler.services.DownloadService.ByteRange;
 import mil.nga.bundler.services.JobFactoryService;
 import mil.nga.bundler.services.JobService;
 import mil.nga.bundler.services.JobTrackerService;
+import mil.nga.bundler.services.MetricsService;
 import mil.nga.bundler.services.RequestArchiveService;
+import mil.nga.bundler.services.StagingSpaceManager;
+import mil.nga.bundler.services.StreamingService;
+import mil.nga.bundler.types.ArchiveType;
 import mil.nga.bundler.types.JobStateType;
 import mil.nga.util.FileUtils;
 
@@ -99,7 +127,8 @@ public class Bundler extends PropertyLoader implements BundlerConstantsI {
     
     /**
      * Simple method used to determine whether or not the bundler 
-     * application is responding to requests.
+     * application is responding to requests.  The response also reports 
+     * the free and reserved space in the staging area.
      */
     @GET
     @HEAD
@@ -113,9 +142,134 @@ public class Bundler extends PropertyLoader implements BundlerConstantsI {
         sb.append(" ] and called by user [ ");
         sb.append(getUser(headers));
         sb.append(" ] is alive!");
+        StagingSpaceManager space = StagingSpaceManager.getInstance();
+        long                free  = space.getFreeSpace();
+        sb.append("  Staging space free [ ");
+        sb.append(free < 0 ? "unknown" : 
+                Long.toString(free / BYTES_PER_MEGABYTE));
+        sb.append(" ] MB, reserved [ ");
+        sb.append(space.getReservedSpace() / BYTES_PER_MEGABYTE);
+        sb.append(" ] MB.");
         return Response.status(Status.OK).entity(sb.toString()).build();
     }
     
+    /**
+     * Simple method used to expose the operational metrics maintained by 
+     * the bundler (queue wait times per size class, deadlines met/missed, 
+     * etc.) in plain text.
+     */
+    @GET
+    @Path("/Metrics")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response metrics() {
+        ArchiveQueue  queue = ArchiveQueue.getInstance();
+        MetricsService.getInstance().set(
+                "queue.queued_archives", queue.getQueuedArchives());
+        MetricsService.getInstance().set(
+                "queue.queued_bytes", queue.getQueuedBytes());
+        MetricsService.getInstance().set(
+                "queue.running", queue.getRunning());
+        MetricsService.getInstance().set(
+                "staging.free_bytes", 
+                StagingSpaceManager.getInstance().getFreeSpace());
+        MetricsService.getInstance().set(
+                "staging.reserved_bytes", 
+                StagingSpaceManager.getInstance().getReservedSpace());
+        return Response.status(Status.OK)
+                .entity(MetricsService.getInstance().toString())
+                .build();
+    }
+    
+    /**
+     * Administrative end point used to display the bandwidth limits
+     * applied to source reads and staging writes.
+     */
+    @GET
+    @Path("/Bandwidth")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response bandwidth() {
+        return Response.status(Status.OK)
+                .entity(BandwidthLimiter.getInstance().toString())
+                .build();
+    }
+
+    /**
+     * Administrative end point used to change a bandwidth limit without
+     * restarting the application.  The change is not persisted.
+     *
+     * @param target "job" for the per-job limit, "default" for the limit
+     * applied to unlisted mounts, otherwise the mount key (e.g.
+     * /mnt/raster, store:&lt;name&gt;, s3://&lt;bucket&gt;).
+     * @param rate The new limit in MB per second (0 for no limit).
+     * @return The bandwidth limits after the change, or 400 (Bad Request) 
+     * if the target or rate is missing or invalid.
+     */
+    @POST
+    @Path("/Bandwidth")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response bandwidth(
+                    @QueryParam("target") String target,
+                    @QueryParam("mb_per_second") String rate) {
+
+        long limit = -1L;
+        if (rate != null) {
+            try {
+                limit = Long.parseLong(rate.trim());
+            }
+            catch (NumberFormatException nfe) {
+                LOGGER.warn("Unable to parse mb_per_second [ "
+                        + rate
+                        + " ].  Exception message => [ "
+                        + nfe.getMessage()
+                        + " ].");
+            }
+        }
+        if ((target == null) || (target.trim().isEmpty()) || (limit < 0)) {
+            String msg = "The target and a non-negative integer "
+                    + "mb_per_second must be supplied.  Found target [ "
+                    + target
+                    + " ] mb_per_second [ "
+                    + rate
+                    + " ].";
+            LOGGER.error(msg);
+            return Response.status(Status.BAD_REQUEST)
+                    .entity(msg)
+                    .type(MediaType.TEXT_PLAIN)
+                    .build();
+        }
+        LOGGER.info("Bandwidth limit change requested for [ "
+                + target
+                + " ] to [ "
+                + limit
+                + " ] MB/s.");
+        if (target.trim().equalsIgnoreCase("job")) {
+            BandwidthLimiter.getInstance().setJobLimit(limit);
+        }
+        else if (target.trim().equalsIgnoreCase("default")) {
+            BandwidthLimiter.getInstance().setDefaultMountLimit(limit);
+        }
+        else {
+            BandwidthLimiter.getInstance().setMountLimit(target, limit);
+        }
+        return bandwidth();
+    }
+
+    /**
+     * Build the response returned when a bundle request is refused by
+     * admission control.  The response carries the HTTP status (429 or
+     * 503) and a Retry-After header.
+     * 
+     * @param decision The admission decision.
+     * @return The rejection response.
+     */
+    private Response reject(AdmissionDecision decision) {
+    	return Response.status(decision.getStatus())
+    			.header("Retry-After", Long.toString(decision.getRetryAfter()))
+    			.entity(decision.getReason())
+    			.type(MediaType.TEXT_PLAIN)
+    			.build();
+    }
+    
     /**
      * Alternate version of the bundler entry point allowing clients to 
      * call the bundler with media type of text/plain.  This was implemented 
@@ -141,6 +295,11 @@ public class Bundler extends PropertyLoader implements BundlerConstantsI {
         BundleRequest     request = null;
         JobTrackerMessage message = null;
         
+        AdmissionDecision decision = AdmissionService.getInstance().admit();
+        if (!decision.isAdmitted()) {
+        	return reject(decision);
+        }
+        
         if (requestString != null) {
             
             request = BundlerMessageSerializer
@@ -166,17 +325,26 @@ public class Bundler extends PropertyLoader implements BundlerConstantsI {
             	// Archive the incoming request
             	RequestArchiveService.getInstance().archiveRequest(request, jobID);
             	
-            	new JobFactoryService.JobFactoryServiceBuilder()
-		    			.jobID(jobID)
-		    			.bundleRequest(request)
-		    			.build()
-		    			.start();
+            	try {
+            		new JobFactoryService.JobFactoryServiceBuilder()
+            					.jobID(jobID)
+            					.bundleRequest(request)
+            					.build()
+            					.start();
+            	}
+            	catch (ServiceUnavailableException sue) {
+            		return reject(new AdmissionDecision(
+            				AdmissionService.SERVICE_UNAVAILABLE,
+            				AdmissionService.getInstance().getDefaultRetryAfter(),
+            				sue.getMessage()));
+            	}
 
                 // Build the return message.
                 message = new JobTrackerMessage.JobTrackerMessageBuilder()
                 		.jobID(jobID)
                 		.userName(request.getUserName())
                 		.state(JobStateType.NOT_STARTED)
+                		.queuedArchives(ArchiveQueue.getInstance().getQueuedArchives())
                 		.build();
                 
             }
@@ -201,6 +369,11 @@ public class Bundler extends PropertyLoader implements BundlerConstantsI {
         
         JobTrackerMessage message = null;
         
+        AdmissionDecision decision = AdmissionService.getInstance().admit();
+        if (!decision.isAdmitted()) {
+        	return reject(decision);
+        }
+        
         // Make sure the input request was parsed.
         if (request != null) {
             
@@ -223,17 +396,26 @@ public class Bundler extends PropertyLoader implements BundlerConstantsI {
         	// Archive the incoming request
         	RequestArchiveService.getInstance().archiveRequest(request, jobID);
         	
-        	new JobFactoryService.JobFactoryServiceBuilder()
-						.jobID(jobID)
-						.bundleRequest(request)
-						.build()
-						.start();
+        	try {
+        		new JobFactoryService.JobFactoryServiceBuilder()
+        					.jobID(jobID)
+        					.bundleRequest(request)
+        					.build()
+        					.start();
+        	}
+        	catch (ServiceUnavailableException sue) {
+        		return reject(new AdmissionDecision(
+        				AdmissionService.SERVICE_UNAVAILABLE,
+        				AdmissionService.getInstance().getDefaultRetryAfter(),
+        				sue.getMessage()));
+        	}
 
             // Build the return message.
             message = new JobTrackerMessage.JobTrackerMessageBuilder()
             			.jobID(jobID)
             			.userName(request.getUserName())
             			.state(JobStateType.NOT_STARTED)
+            			.queuedArchives(ArchiveQueue.getInstance().getQueuedArchives())
             			.build();
             
         }
@@ -259,6 +441,11 @@ public class Bundler extends PropertyLoader implements BundlerConstantsI {
         
         JobTrackerMessage message     = null;
         
+        AdmissionDecision decision = AdmissionService.getInstance().admit();
+        if (!decision.isAdmitted()) {
+        	return reject(decision);
+        }
+        
         // Make sure the input request was parsed.
         if (request != null) {
             
@@ -279,23 +466,235 @@ public class Bundler extends PropertyLoader implements BundlerConstantsI {
         	// Archive the incoming request
         	RequestArchiveService.getInstance().archiveRequest(request, jobID);
         	
-        	new JobFactoryService.JobFactoryServiceBuilder()
-        			.jobID(jobID)
-        			.bundleRequestMessage(request)
-        			.build()
-        			.start();
+        	try {
+        		new JobFactoryService.JobFactoryServiceBuilder()
+        					.jobID(jobID)
+        					.bundleRequestMessage(request)
+        					.build()
+        					.start();
+        	}
+        	catch (ServiceUnavailableException sue) {
+        		return reject(new AdmissionDecision(
+        				AdmissionService.SERVICE_UNAVAILABLE,
+        				AdmissionService.getInstance().getDefaultRetryAfter(),
+        				sue.getMessage()));
+        	}
 
             // Build the return message.
             message = new JobTrackerMessage.JobTrackerMessageBuilder()
             			.jobID(jobID)
             			.userName(request.getUserName())
             			.state(JobStateType.NOT_STARTED)
+            			.queuedArchives(ArchiveQueue.getInstance().getQueuedArchives())
             			.build();
 
         }
         return Response.ok(message, MediaType.APPLICATION_JSON).build();
     }
     
+    /**
+     * Synchronous bundle end point for small and medium requests.  The 
+     * input files are validated and the archive (ZIP, TAR, GZIP or BZIP2) 
+     * is written straight into the response as it is built, using chunked 
+     * transfer encoding.  Nothing is staged and there is no job to poll.  
+     * Requests over the streaming limits are refused with HTTP 413 and 
+     * should be submitted to <code>BundleFiles</code> instead.  See 
+     * <code>StreamingService</code>.
+     * 
+     * @param headers The HTTP request headers.
+     * @param request The bundle request.
+     * @return The streamed archive.
+     */
+    @POST
+    @Path("/StreamFiles")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response stream(
+            @Context HttpHeaders headers,
+            BundleRequestMessage request) {
+        
+        final StreamingService service = StreamingService.getInstance();
+        
+        if ((request == null) || (request.getType() == null)) {
+            String msg = "Unable to parse the streamed bundle request.";
+            LOGGER.error(msg);
+            throw new WebArchiveException(msg);
+        }
+        if ((request.getUserName() == null) || 
+                (request.getUserName().isEmpty()) || 
+                (request.getUserName().equalsIgnoreCase(DEFAULT_USERNAME))) {
+            request.setUserName(getUser(headers));
+        }
+        LOGGER.info("Incoming streamed request parsed [ "
+                + request.toString()
+                + " ].");
+        
+        AdmissionDecision decision = service.acquire();
+        if (!decision.isAdmitted()) {
+            return reject(decision);
+        }
+        
+        final List<ArchiveElement> files;
+        final ArchiveType          type = request.getType();
+        try {
+            files = service.validate(request);
+        }
+        catch (InvalidRequestException ire) {
+            service.release();
+            LOGGER.error("Streamed request rejected.  "
+                    + ire.getMessage());
+            if (ire.getErrorCode() == 
+                    ValidationErrorCodes.STREAM_LIMIT_EXCEEDED.getID()) {
+                return Response.status(Status.REQUEST_ENTITY_TOO_LARGE)
+                        .entity(ire.getMessage())
+                        .type(MediaType.TEXT_PLAIN)
+                        .build();
+            }
+            throw new WebArchiveException(ire.getMessage());
+        }
+        catch (RuntimeException re) {
+            service.release();
+            throw re;
+        }
+        
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                try {
+                    service.write(files, type, out);
+                }
+                catch (ArchiveException ae) {
+                    throw new IOException(ae.getMessage());
+                }
+                finally {
+                    service.release();
+                }
+            }
+        };
+        return Response.ok(output, service.getContentType(type))
+                .header("Content-Disposition", 
+                        "attachment; filename=\""
+                        + service.getFilename(request)
+                        + "\"")
+                .build();
+    }
+    
+    /**
+     * Download a staged archive or hash file.  The path is the path of the
+     * archive (or hash) URL returned for the job, i.e. the location of the
+     * file relative to the staging base directory.  Unlike the web server
+     * behind those URLs this end point supports single byte ranges
+     * (<code>Range</code>/<code>If-Range</code>) and strong entity tags,
+     * allowing clients to resume interrupted downloads of large archives
+     * or to download parts of an archive in parallel.  Where the connector
+     * supports it the file is sent by the container with sendfile.
+     * 
+     * @param path The path of the staged file.
+     * @param headers The HTTP request headers.
+     * @param request The request (used to evaluate preconditions).
+     * @param servletRequest The servlet request (used for sendfile).
+     * @return The file, the requested range, or an error response.
+     */
+    @GET
+    @HEAD
+    @Path("/Download/{path: .+}")
+    public Response download(
+            @PathParam("path") String path,
+            @Context HttpHeaders headers,
+            @Context Request request,
+            @Context HttpServletRequest servletRequest) {
+        
+        final DownloadService    service = DownloadService.getInstance();
+        final java.nio.file.Path file    = service.resolve(path);
+        long                     size;
+        long                     modified;
+        
+        MetricsService.getInstance().increment("download.requests");
+        try {
+            if (file == null) {
+                throw new IOException("File not available.");
+            }
+            size     = Files.size(file);
+            modified = Files.getLastModifiedTime(file).toMillis();
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("Download request for [ "
+                    + path
+                    + " ] rejected.  " 
+                    + ioe.getMessage());
+            return Response.status(Status.NOT_FOUND)
+                    .entity("File [ " + path + " ] not found.")
+                    .type(MediaType.TEXT_PLAIN)
+                    .build();
+        }
+        
+        EntityTag       tag          = service.getEntityTag(size, modified);
+        Date            lastModified = new Date(modified);
+        ResponseBuilder builder      = request.evaluatePreconditions(
+                lastModified, tag);
+        if (builder != null) {
+            // 304 (Not Modified) or 412 (Precondition Failed)
+            return builder.tag(tag).build();
+        }
+        
+        ByteRange range = null;
+        if (service.isRangeApplicable(
+                headers.getHeaderString("If-Range"), tag, modified)) {
+            range = service.parseRange(
+                    headers.getHeaderString("Range"), size);
+        }
+        if ((range != null) && (!range.isSatisfiable())) {
+            return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + size)
+                    .header("Accept-Ranges", "bytes")
+                    .tag(tag)
+                    .build();
+        }
+        
+        final long start = (range == null) ? 0L : range.getStart();
+        final long end   = (range == null) ? size - 1L : range.getEnd();
+        if (range == null) {
+            builder = Response.status(Status.OK);
+        }
+        else {
+            MetricsService.getInstance().increment("download.partial");
+            builder = Response.status(Status.PARTIAL_CONTENT)
+                    .header("Content-Range", "bytes " 
+                            + start + "-" + end + "/" + size);
+        }
+        builder.type(service.getContentType(file))
+                .tag(tag)
+                .lastModified(lastModified)
+                .header("Accept-Ranges", "bytes")
+                .header("Content-Length", Long.toString(end - start + 1L))
+                .header("Content-Disposition", 
+                        "attachment; filename=\""
+                        + file.getFileName().toString()
+                        + "\"");
+        
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Download of [ "
+                    + file.toString()
+                    + " ] bytes [ "
+                    + start
+                    + "-"
+                    + end
+                    + " ] of [ "
+                    + size
+                    + " ].");
+        }
+        if ((end < start) || ("HEAD".equalsIgnoreCase(request.getMethod())) ||
+                (service.sendfile(servletRequest, file, start, end))) {
+            return builder.build();
+        }
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                service.transfer(file, start, end, out);
+            }
+        };
+        return builder.entity(output).build();
+    }
+    
     /**
      * Provide status information on the bundle operations associated with the
      * input job id.
@@ -330,6 +729,108 @@ public class Bundler extends PropertyLoader implements BundlerConstantsI {
         return status;
     }
     
+    /**
+     * Cancel the bundle operations associated with the input job ID.  
+     * Archive jobs that have not started will not be started, and archive 
+     * jobs in progress stop at the next file (or buffer) boundary and 
+     * remove their partial output.  Cancelling a job that has already 
+     * finished has no effect.
+     * 
+     * @param jobID The ID of the job to cancel.
+     * @return JSON representation of the job status after cancellation.
+     */
+    @POST
+    @Path("/CancelJob")
+    @Produces(MediaType.APPLICATION_JSON)
+    public JobTrackerMessage cancel(
+                    @QueryParam("job_id") String jobID) {
+    	
+    	JobTrackerMessage status = null;
+    	
+        if ((jobID != null) && (!jobID.isEmpty())) {
+        	LOGGER.info("Cancel requested for job ID [ "
+        			+ jobID
+        			+ " ].");
+        	try {
+        		CancellationService.getInstance().cancel(jobID);
+        	}
+        	catch (ServiceUnavailableException sue) {
+        		LOGGER.error("Unexpected ServiceUnavailableException exception "
+        				+ "encountered while cancelling job ID [ "
+        				+ jobID
+        				+ " ].  Exception message => [ "
+        				+ sue.getMessage()
+        				+ " ].");
+        		throw new WebArchiveException(sue.getMessage());
+        	}
+            try (JobTrackerService service = new JobTrackerService()) {
+                status = service.getJobTracker(jobID);
+            }
+        }
+        else {
+            String msg =  "Null or empty job_id provided in request.";
+            LOGGER.error(msg);
+            throw new WebArchiveException(msg);
+        }
+        return status;
+    }
+    
+    /**
+     * Diagnostic end-point used to retrieve the individual file entries 
+     * associated with a single archive job.  When the bundler is running 
+     * in "manifest" file storage mode the file entries are materialized 
+     * from the compressed manifest on demand (the state of each file is 
+     * derived from the archive high-water mark).
+     * 
+     * @param jobID The ID of the job in question.
+     * @param archiveID The ID of the archive in question.
+     * @return JSON representation of the list of file entries.
+     */
+    @GET
+    @HEAD
+    @Path("/GetFileEntries")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<FileEntry> getFileEntries(
+                    @QueryParam("job_id") String jobID,
+                    @QueryParam("archive_id") long archiveID) {
+    	
+    	List<FileEntry> entries = null;
+    	
+        if ((jobID != null) && (!jobID.isEmpty())) {
+        	try (ArchiveJobService service = new ArchiveJobService()) {
+        		ArchiveJob archive = service.getArchiveJob(jobID, archiveID);
+        		if (archive != null) {
+        			entries = archive.getFileEntries();
+        		}
+        		else {
+        			String msg = "Unable to find archive ID [ "
+        					+ archiveID
+        					+ " ] for job ID [ "
+        					+ jobID
+        					+ " ].";
+        			LOGGER.error(msg);
+        			throw new WebArchiveException(msg);
+        		}
+        	}
+        	catch (ServiceUnavailableException sue) {
+        		LOGGER.error("Unexpected ServiceUnavailableException exception "
+        				+ "encountered while retrieving the file entries for "
+        				+ "job ID [ "
+        				+ jobID
+        				+ " ].  Exception message => [ "
+        				+ sue.getMessage()
+        				+ " ].");
+        		throw new WebArchiveException(sue.getMessage());
+        	}
+        }
+        else {
+            String msg =  "Null or empty job_id provided in request.";
+            LOGGER.error(msg);
+            throw new WebArchiveException(msg);
+        }
+        return entries;
+    }
+    
     @GET
     @HEAD
     @Path("/DataSourceTest")
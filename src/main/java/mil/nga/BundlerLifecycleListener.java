@@ -0,0 +1,64 @@
+package mil.nga;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.bundler.IOExecutor;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.services.ArchiveQueue;
+import mil.nga.bundler.services.JobFactoryExecutor;
+import mil.nga.bundler.services.RecoveryService;
+import mil.nga.bundler.services.RetentionService;
+import mil.nga.bundler.services.S3SourceService;
+import mil.nga.bundler.services.S3UploadService;
+
+/**
+ * This class is responsible for starting and stopping the background
+ * services (e.g. the retention engine, start up job recovery) that run
+ * for the lifetime of the web application.  When the application is
+ * stopped every service owning threads is shut down, so that no thread
+ * outlives the application and keeps its class loader alive.
+ *
+ * @author L. Craig Carpenter
+ */
+@WebListener
+public class BundlerLifecycleListener
+        implements ServletContextListener, BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            BundlerLifecycleListener.class);
+
+    /**
+     * Start the background services.
+     */
+    public void contextInitialized(ServletContextEvent sce) {
+        LOGGER.info("Starting bundler background services...");
+        RecoveryService.getInstance().start();
+        RetentionService.getInstance().start();
+    }
+
+    /**
+     * Stop the background services.  The services that start work
+     * (including the threads expanding accepted requests into jobs) are
+     * stopped first, then the archive workers (which close the reader and
+     * writer threads of the archives they were building) and finally the
+     * shared thread pools.
+     */
+    public void contextDestroyed(ServletContextEvent sce) {
+        LOGGER.info("Stopping bundler background services...");
+        RecoveryService.getInstance().stop();
+        RetentionService.getInstance().stop();
+        JobFactoryExecutor.getInstance().shutdown();
+        ArchiveQueue.getInstance().shutdown();
+        S3UploadService.getInstance().shutdown();
+        S3SourceService.getInstance().shutdown();
+        IOExecutor.getInstance().shutdown();
+    }
+}
@@ -221,6 +221,41 @@ public class PropertyLoader {
         return properties.getProperty(key, value);
     }
     
+    /**
+     * Getter method for a single numeric property.  If the property is not 
+     * defined, or cannot be parsed, the supplied default value is returned.
+     * 
+     * @param key The key of the property to look up.
+     * @param defaultValue The default value for the key.
+     * @return The numeric value of the property.
+     */
+    public long getLongProperty(String key, long defaultValue) {
+        long value = defaultValue;
+        try {
+            String prop = getProperty(key);
+            if ((prop != null) && (!prop.trim().isEmpty())) {
+                value = Long.parseLong(prop.trim());
+            }
+        }
+        catch (NumberFormatException nfe) {
+            LOGGER.warn("Value associated with property [ "
+                    + key
+                    + " ] is not numeric.  Using default value [ "
+                    + defaultValue
+                    + " ].");
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.warn("Unable to load properties.  Using default value [ "
+                    + defaultValue
+                    + " ] for property [ "
+                    + key
+                    + " ].  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        return value;
+    }
+    
     /**
      * Setter method for the name of the target properties file.
      * @param value The name of the target properties file.
@@ -14,6 +14,7 @@ import mil.nga.bundler.model.ExtendedArchiveElement;
 import mil.nga.bundler.model.ExtendedFileEntry;
 import mil.nga.bundler.model.FileEntry;
 import mil.nga.bundler.types.ArchiveType;
+import mil.nga.util.URIUtils;
 
 /**
  * 
@@ -43,6 +44,18 @@ public class ArchiveJobFactory implements BundlerConstantsI {
      */
     private FileNameGenerator fnGenerator;
     
+    /**
+     * Flag indicating that the archives are split by the archiver as they 
+     * are written (size-exact rollover) rather than up front.
+     */
+    private boolean rollover = false;
+    
+    /**
+     * Flag indicating that ZIP output is written as a single split archive 
+     * made of volumes of the target archive size.
+     */
+    private boolean splitVolumes = false;
+    
     /**
      * Default no-arg constructor
      */
@@ -170,7 +183,14 @@ public class ArchiveJobFactory implements BundlerConstantsI {
     		LOGGER.debug(this.toString());
     	}
     	
-    	if ((fileList != null) && (!fileList.isEmpty())) {
+    	if ((fileList != null) && (!fileList.isEmpty()) && 
+    			(isRollover() || isSplitVolumes())) {
+    		
+    		// The archiver decides where each archive (or volume) ends, so 
+    		// the files are simply handed over in order.
+    		archives.add(createRolloverArchive(fileList));
+    	}
+    	else if ((fileList != null) && (!fileList.isEmpty())) {
     		
     		// Get the estimated compressed size of each file.
             List<ExtendedFileEntry> decorated = CompressionEstimator
@@ -244,6 +264,34 @@ public class ArchiveJobFactory implements BundlerConstantsI {
     	return archives;
     }
     
+    /**
+     * Place every input file (in order) into a single archive.  Used in 
+     * size-exact rollover mode, where the archiver moves the files that do 
+     * not fit into new archive jobs as the archive is written, and for 
+     * split ZIP output, where the archiver starts a new volume instead.  
+     * No compressed size estimates are needed.
+     * 
+     * @param fileList The list of files to archive.
+     * @return The archive containing all of the files.
+     */
+    private Archive createRolloverArchive(List<FileEntry> fileList) {
+    	Archive.ArchiveBuilder builder = new Archive.ArchiveBuilder();
+    	for (FileEntry file : fileList) {
+    		builder.element(
+    				new ArchiveElement.ArchiveElementBuilder()
+    					.entryPath(file.getEntryPath())
+    					.size(file.getSize())
+    					.uri(URIUtils.getInstance()
+    							.getURI(file.getFilePath()))
+    					.build(), 
+    				file.getSize());
+    	}
+    	builder.type(getArchiveType());
+    	builder.id(0);
+    	builder.outputFileName(getFileNameGenerator().getOutputFile(0));
+    	return builder.build();
+    }
+    
     /**
      * Main method used to break up a list of files into individual output 
      * archives that will ultimately be passed through the bundler for 
@@ -345,6 +393,61 @@ public class ArchiveJobFactory implements BundlerConstantsI {
     	return targetArchiveSize;
     }
     
+    /**
+     * Getter method for the flag indicating that the archives are split 
+     * as they are written (size-exact rollover).
+     * 
+     * @return True if size-exact rollover is used.
+     */
+    public boolean isRollover() {
+    	return rollover;
+    }
+    
+    /**
+     * Determine whether the archiver for the input type is able to split 
+     * the archives as they are written.  The size of ZIP and TAR output 
+     * can be accounted for exactly as each entry is added; the size of 
+     * the compressed TAR formats is only known after compression.
+     * 
+     * @param type The output archive type.
+     * @return True if the type supports size-exact rollover.
+     */
+    public static boolean supportsRollover(ArchiveType type) {
+    	return ((type == ArchiveType.ZIP) || (type == ArchiveType.TAR));
+    }
+    
+    /**
+     * Setter method for the flag indicating that the archives are split 
+     * as they are written.  Ignored for archive types that do not support 
+     * size-exact rollover.
+     * 
+     * @param value True to use size-exact rollover.
+     */
+    public void setRollover(boolean value) {
+    	rollover = (value && supportsRollover(getArchiveType()));
+    }
+    
+    /**
+     * Getter method for the flag indicating that the output is written as 
+     * a single split archive.
+     * 
+     * @return True if split ZIP output is used.
+     */
+    public boolean isSplitVolumes() {
+    	return splitVolumes;
+    }
+    
+    /**
+     * Setter method for the flag indicating that the output is written as 
+     * a single split archive.  Only ZIP output can be split; the flag is 
+     * ignored for the other archive types.
+     * 
+     * @param value True to use split ZIP output.
+     */
+    public void setSplitVolumes(boolean value) {
+    	splitVolumes = (value && (getArchiveType() == ArchiveType.ZIP));
+    }
+    
     /**
      * Setter method for the type of output archive to create.
      * @param type The output archive type.
@@ -422,6 +525,10 @@ public class ArchiveJobFactory implements BundlerConstantsI {
     	sb.append(getArchiveType().getText());
     	sb.append(" ], Target archive size => [ ");
     	sb.append(getTargetArchiveSize());
+    	sb.append(" ], Rollover => [ ");
+    	sb.append(isRollover());
+    	sb.append(" ], Split volumes => [ ");
+    	sb.append(isSplitVolumes());
     	sb.append(" ].");
     	sb.append(System.getProperty("line.separator"));
     	sb.append(getFileNameGenerator().toString());
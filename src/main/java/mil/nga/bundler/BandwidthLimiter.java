@@ -0,0 +1,350 @@
+package mil.nga.bundler;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.util.TokenBucket;
+
+/**
+ * Class managing the byte-rate limits applied to source file reads and
+ * staging writes.  This is separate from the concurrency limits enforced
+ * by the <code>MountLimiter</code>.  The NFS filers holding the source
+ * files are shared with production services and a few archive jobs
+ * streaming at full speed are enough to drive up the filers' latency for
+ * everyone else.
+ *
+ * Two sets of token buckets are maintained:
+ *
+ * <li>One per mount, keyed by the mount keys assigned by the
+ * <code>MountLimiter</code>.  Mounts listed in
+ * <code>bundler.bandwidth.mount_limits</code> get their own limit, all
+ * others use <code>bundler.bandwidth.mount_default_mb</code>.</li>
+ * <li>One per job, shared by all archives of the job that are running,
+ * limited to <code>bundler.bandwidth.job_mb</code>.</li>
+ *
+ * All limits are in MB per second and zero means unlimited.  The limits
+ * may be changed at runtime through the <code>/Bandwidth</code> end point;
+ * changes take effect immediately, including for archives that are
+ * already running.  Runtime changes are not persisted.
+ *
+ * @author L. Craig Carpenter
+ */
+public class BandwidthLimiter extends PropertyLoader
+        implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            BandwidthLimiter.class);
+
+    /**
+     * Mount buckets keyed by mount key.
+     */
+    private final ConcurrentMap<String, TokenBucket> mounts =
+            new ConcurrentHashMap<String, TokenBucket>();
+
+    /**
+     * Explicit limits (bytes per second) keyed by mount key.
+     */
+    private final ConcurrentMap<String, Long> mountLimits =
+            new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Job buckets keyed by job ID.
+     */
+    private final Map<String, JobBucket> jobs =
+            new ConcurrentHashMap<String, JobBucket>();
+
+    // Private internal members
+    private volatile long defaultMountLimit;
+    private volatile long jobLimit;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private BandwidthLimiter() {
+        super(PROPERTY_FILE_NAME);
+        defaultMountLimit = toBytes(getLongProperty(
+                BANDWIDTH_MOUNT_DEFAULT_PROPERTY,
+                DEFAULT_BANDWIDTH_LIMIT));
+        jobLimit = toBytes(getLongProperty(
+                BANDWIDTH_JOB_LIMIT_PROPERTY,
+                DEFAULT_BANDWIDTH_LIMIT));
+        try {
+            loadLimits(getProperty(BANDWIDTH_MOUNT_LIMITS_PROPERTY));
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+    }
+
+    /**
+     * Return a singleton instance to the BandwidthLimiter object.
+     * @return The BandwidthLimiter
+     */
+    public static BandwidthLimiter getInstance() {
+        return BandwidthLimiterHolder.getFactorySingleton();
+    }
+
+    /**
+     * Convert a limit in MB per second to bytes per second.
+     *
+     * @param mb The limit in MB per second.
+     * @return The limit in bytes per second (0 if not limited).
+     */
+    private static long toBytes(long mb) {
+        return (mb > 0 ? mb * BYTES_PER_MEGABYTE : 0L);
+    }
+
+    /**
+     * Parse the configured list of <code>mount=limit</code> pairs.
+     *
+     * @param value The property value.
+     */
+    private void loadLimits(String value) {
+        if ((value != null) && (!value.trim().isEmpty())) {
+            for (String pair : value.split(",")) {
+                int index = pair.lastIndexOf('=');
+                if (index > 0) {
+                    String mount = pair.substring(0, index).trim();
+                    try {
+                        setMountLimit(mount, Long.parseLong(
+                                pair.substring(index + 1).trim()));
+                    }
+                    catch (NumberFormatException nfe) {
+                        LOGGER.warn("Invalid limit for mount [ "
+                                + mount
+                                + " ] in property [ "
+                                + BANDWIDTH_MOUNT_LIMITS_PROPERTY
+                                + " ].  Entry ignored.");
+                    }
+                }
+                else if (!pair.trim().isEmpty()) {
+                    LOGGER.warn("Invalid entry [ "
+                            + pair
+                            + " ] in property [ "
+                            + BANDWIDTH_MOUNT_LIMITS_PROPERTY
+                            + " ].  Entry ignored.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the bandwidth limit for a single mount.
+     *
+     * @param mount The mount key.
+     * @param mb The limit in MB per second (0 for no limit).
+     */
+    public void setMountLimit(String mount, long mb) {
+        if ((mount != null) && (!mount.trim().isEmpty())) {
+            long rate = toBytes(mb);
+            mountLimits.put(mount.trim(), rate);
+            TokenBucket bucket = mounts.get(mount.trim());
+            if (bucket != null) {
+                bucket.setRate(rate);
+            }
+            LOGGER.info("Bandwidth for mount [ "
+                    + mount.trim()
+                    + " ] limited to [ "
+                    + mb
+                    + " ] MB/s.");
+        }
+    }
+
+    /**
+     * Set the bandwidth limit for mounts that do not have their own limit.
+     *
+     * @param mb The limit in MB per second (0 for no limit).
+     */
+    public void setDefaultMountLimit(long mb) {
+        defaultMountLimit = toBytes(mb);
+        for (Map.Entry<String, TokenBucket> entry : mounts.entrySet()) {
+            if (!mountLimits.containsKey(entry.getKey())) {
+                entry.getValue().setRate(defaultMountLimit);
+            }
+        }
+        LOGGER.info("Default mount bandwidth limited to [ "
+                + mb
+                + " ] MB/s.");
+    }
+
+    /**
+     * Set the bandwidth limit applied to each job.
+     *
+     * @param mb The limit in MB per second (0 for no limit).
+     */
+    public void setJobLimit(long mb) {
+        jobLimit = toBytes(mb);
+        for (JobBucket job : jobs.values()) {
+            job.bucket.setRate(jobLimit);
+        }
+        LOGGER.info("Per-job bandwidth limited to [ "
+                + mb
+                + " ] MB/s.");
+    }
+
+    /**
+     * Look up (creating if necessary) the token bucket for the mount
+     * containing the input file.
+     *
+     * @param file The source or target file.
+     * @return The token bucket.
+     */
+    public TokenBucket getMountBucket(URI file) {
+        String      mount  = MountLimiter.getInstance().getMount(file);
+        TokenBucket bucket = mounts.get(mount);
+        if (bucket == null) {
+            Long        limit    = mountLimits.get(mount);
+            TokenBucket created  = new TokenBucket(
+                    (limit == null ? defaultMountLimit : limit));
+            TokenBucket existing = mounts.putIfAbsent(mount, created);
+            bucket = (existing == null ? created : existing);
+        }
+        return bucket;
+    }
+
+    /**
+     * Register an archive of the input job.  The job bucket is created
+     * when the first archive of the job starts and discarded when the
+     * last one finishes (see <code>closeJob</code>).
+     *
+     * @param jobID The job ID.
+     */
+    public void openJob(String jobID) {
+        if (jobID != null) {
+            synchronized(jobs) {
+                JobBucket job = jobs.get(jobID);
+                if (job == null) {
+                    job = new JobBucket(new TokenBucket(jobLimit));
+                    jobs.put(jobID, job);
+                }
+                job.references++;
+            }
+        }
+    }
+
+    /**
+     * Unregister an archive of the input job.
+     *
+     * @param jobID The job ID.
+     */
+    public void closeJob(String jobID) {
+        if (jobID != null) {
+            synchronized(jobs) {
+                JobBucket job = jobs.get(jobID);
+                if ((job != null) && (--job.references <= 0)) {
+                    jobs.remove(jobID);
+                }
+            }
+        }
+    }
+
+    /**
+     * Getter method for the token bucket associated with the input job.
+     *
+     * @param jobID The job ID.
+     * @return The token bucket, or null if no archive of the job has been
+     * registered through <code>openJob</code>.
+     */
+    public TokenBucket getJobBucket(String jobID) {
+        if (jobID != null) {
+            JobBucket job = jobs.get(jobID);
+            if (job != null) {
+                return job.bucket;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Overridden toString method used to output the current limits (MB
+     * per second) and the time spent throttled by each mount, in plain
+     * text.
+     */
+    @Override
+    public String toString() {
+        String              newLine = System.getProperty("line.separator");
+        StringBuilder       sb      = new StringBuilder();
+        Map<String, String> sorted  = new TreeMap<String, String>();
+
+        for (Map.Entry<String, Long> entry : mountLimits.entrySet()) {
+            sorted.put(entry.getKey(),
+                    "limit_mb=" + (entry.getValue() / BYTES_PER_MEGABYTE));
+        }
+        for (Map.Entry<String, TokenBucket> entry : mounts.entrySet()) {
+            sorted.put(entry.getKey(),
+                    "limit_mb="
+                    + (entry.getValue().getRate() / BYTES_PER_MEGABYTE)
+                    + " throttled_ms="
+                    + entry.getValue().getThrottledMillis());
+        }
+        sb.append("default limit_mb=");
+        sb.append(defaultMountLimit / BYTES_PER_MEGABYTE);
+        sb.append(newLine);
+        sb.append("job limit_mb=");
+        sb.append(jobLimit / BYTES_PER_MEGABYTE);
+        sb.append(" active_jobs=");
+        sb.append(jobs.size());
+        sb.append(newLine);
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            sb.append("mount ");
+            sb.append(entry.getKey());
+            sb.append(" ");
+            sb.append(entry.getValue());
+            sb.append(newLine);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Token bucket shared by the running archives of a single job.
+     */
+    private static class JobBucket {
+        private final TokenBucket bucket;
+        private int               references = 0;
+
+        private JobBucket(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class BandwidthLimiterHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static BandwidthLimiter _factory = new BandwidthLimiter();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static BandwidthLimiter getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
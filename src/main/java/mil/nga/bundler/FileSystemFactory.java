@@ -12,6 +12,12 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.google.common.collect.ImmutableMap;
 
 import mil.nga.PropertyLoader;
@@ -66,6 +72,21 @@ public class FileSystemFactory
      */
     private String s3EndPoint;
     
+    /**
+     * The region used to sign requests to the S3 end-point.
+     */
+    private String s3Region = DEFAULT_S3_REGION;
+    
+    /**
+     * Whether S3 requests use path-style addressing.
+     */
+    private boolean s3PathStyle = false;
+    
+    /**
+     * Client used for direct S3 access (created on first use).
+     */
+    private AmazonS3 s3Client = null;
+    
     /**
      * Default constructor used to load the required properties.
      */
@@ -82,6 +103,13 @@ public class FileSystemFactory
         	s3EndPoint = getProperty(S3_END_POINT_PROPERTY);
         	accessKey  = getProperty(ACCESS_KEY_PROPERTY);
         	secretKey  = getProperty(SECRET_KEY_PROPERTY);
+        	String region = getProperty(S3_REGION_PROPERTY);
+        	if ((region != null) && (!region.trim().isEmpty())) {
+        		s3Region = region.trim();
+        	}
+        	String pathStyle = getProperty(S3_PATH_STYLE_PROPERTY);
+        	s3PathStyle = ((pathStyle != null) && 
+        			(pathStyle.trim().equalsIgnoreCase("true")));
         }
         catch (PropertiesNotLoadedException pnle) {
             LOGGER.warn("An unexpected PropertiesNotLoadedException " 
@@ -212,6 +240,45 @@ public class FileSystemFactory
         }
     }
     
+    /**
+     * Getter method for a client used to access S3 directly (e.g. for 
+     * multipart uploads, which the NIO2 file system provider does not 
+     * offer).  The client uses the same end-point and credentials as the 
+     * file system provider.  When no access/secret key pair is defined the 
+     * default AWS credentials chain (which includes the instance profile 
+     * of the IAM role) is used.  The end-point may include a scheme and 
+     * port (e.g. http://localhost:9000) so that an S3-compatible store can 
+     * stand in for AWS.
+     * 
+     * @return The S3 client.
+     */
+    public synchronized AmazonS3 getS3Client() {
+    	if (s3Client == null) {
+    		AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
+    				.withEndpointConfiguration(new EndpointConfiguration(
+    						getS3EndPoint(), s3Region))
+    				.withPathStyleAccessEnabled(s3PathStyle);
+    		if ((getAccessKey() != null) && 
+    				(!getAccessKey().isEmpty()) && 
+    				(getSecretKey() != null) && 
+    				(!getSecretKey().isEmpty())) {
+    			builder.withCredentials(new AWSStaticCredentialsProvider(
+    					new BasicAWSCredentials(getAccessKey(), getSecretKey())));
+    		}
+    		else {
+    			builder.withCredentials(
+    					DefaultAWSCredentialsProviderChain.getInstance());
+    		}
+    		s3Client = builder.build();
+    		LOGGER.info("S3 client created for end-point [ "
+    				+ getS3EndPoint()
+    				+ " ] region [ "
+    				+ s3Region
+    				+ " ].");
+    	}
+    	return s3Client;
+    }
+    
 	/**
 	 * Getter method for the access key that will be used for authentication to
 	 * AWS.
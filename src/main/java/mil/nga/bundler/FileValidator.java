@@ -2,6 +2,7 @@ package mil.nga.bundler;
 
 import mil.nga.bundler.messages.FileRequest;
 import mil.nga.bundler.model.FileEntry;
+import mil.nga.bundler.services.S3SourceService;
 import mil.nga.util.FileFinder;
 import mil.nga.util.URIUtils;
 
@@ -10,12 +11,16 @@ import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import mil.nga.bundler.exceptions.InvalidRequestException;
 import mil.nga.bundler.exceptions.ValidationErrorCodes;
@@ -23,6 +28,9 @@ import mil.nga.bundler.exceptions.ValidationErrorCodes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
 
 /** 
  * Class responsible for validating the input list of files that were POSTed
@@ -33,6 +41,16 @@ import org.slf4j.LoggerFactory;
  * 
  * During file visitation, the archive path is also calculated.
  * 
+ * Directory expansion and the per-file existence/size checks are I/O-bound
+ * (particularly on NFS and S3) so they are run concurrently through the 
+ * <code>IOExecutor</code>.  The order of the results matches the order of 
+ * the request.  When parallel S3 listing is enabled, S3 directories are 
+ * expanded by <code>S3SourceService</code> and the sizes returned by the 
+ * listing are used directly, so the objects found are not checked again.
+ * The modification time of each file is recorded along with its size so 
+ * that later stages (e.g. the result cache fingerprint) do not have to 
+ * access the file again.
+ * 
  * @author L. Craig Carpenter
  */
 public class FileValidator {
@@ -108,6 +126,106 @@ public class FileValidator {
         return deDupList;
     }
     
+    /**
+     * Convert a requested file into the URI used to select the source 
+     * mount I/O limit.
+     * 
+     * @param file The requested file.
+     * @return The URI, or null if it cannot be determined.
+     */
+    private URI getSource(String file) {
+        URI uri = null;
+        if ((file != null) && (!file.isEmpty())) {
+            try {
+                uri = URIUtils.getInstance().getURI(file);
+            }
+            catch (RuntimeException re) { 
+                // Validation will report the problem.
+            }
+        }
+        return uri;
+    }
+    
+    /**
+     * Convert a requested file into the URI used to select the source 
+     * mount I/O limit.
+     * 
+     * @param file The requested file.
+     * @return The URI, or null if it cannot be determined.
+     */
+    private URI getSource(FileRequest file) {
+        return (file == null ? null : getSource(file.getFile()));
+    }
+    
+    /**
+     * Expand a requested S3 directory with concurrent prefix listing.  The 
+     * size and modification time of each object found are saved in the 
+     * input map so that the object does not have to be checked again 
+     * during validation.  Most requests name objects, so a URI not ending 
+     * in "/" is checked with a HEAD request first and is only listed if 
+     * there is no such object.
+     * 
+     * @param file The requested file.
+     * @param uri The URI of the requested file.
+     * @param listed Map receiving the objects listed.
+     * @return The objects below the directory, or null if parallel listing 
+     * does not apply, the URI names an object (which is then saved in the 
+     * input map), nothing lies below the URI or the listing failed.  
+     * Unless the object was saved, the caller falls back to the file 
+     * system provider.
+     */
+    private Map<URI, S3ObjectSummary> listPrefix(
+            String file, 
+            URI uri, 
+            Map<String, FileEntry> listed) {
+        Map<URI, S3ObjectSummary> objects = null;
+        if ((listed != null) && (S3SourceService.getInstance().lists(uri))) {
+            try {
+                ObjectMetadata metadata = S3SourceService.getInstance().head(uri);
+                if (metadata != null) {
+                    FileEntry entry = new FileEntry(
+                            uri.toString(), 
+                            null, 
+                            metadata.getContentLength());
+                    if (metadata.getLastModified() != null) {
+                        entry.setLastModified(
+                                metadata.getLastModified().getTime());
+                    }
+                    listed.put(file, entry);
+                    return null;
+                }
+                objects = S3SourceService.getInstance().list(uri);
+                if (objects.isEmpty()) {
+                    objects = null;
+                }
+                else {
+                    for (Map.Entry<URI, S3ObjectSummary> object : 
+                            objects.entrySet()) {
+                        FileEntry entry = new FileEntry(
+                                object.getKey().toString(), 
+                                null,
+                                object.getValue().getSize());
+                        if (object.getValue().getLastModified() != null) {
+                            entry.setLastModified(object.getValue()
+                                    .getLastModified().getTime());
+                        }
+                        listed.put(object.getKey().toString(), entry);
+                    }
+                }
+            }
+            catch (IOException ioe) {
+                LOGGER.warn("Unable to list S3 directory [ "
+                        + file
+                        + " ].  Falling back to the file system provider.  "
+                        + "Error message [ "
+                        + ioe.getMessage()
+                        + " ].");
+                objects = null;
+            }
+        }
+        return objects;
+    }
+    
     /**
      * Accessor method for the singleton instance of the FileValidator.
      * @return Handle to the singleton instance of the FileValidator.
@@ -135,11 +253,14 @@ public class FileValidator {
             
             if (Files.exists(file)) {
                 try {
-                    long size = Files.size(file);
+                    BasicFileAttributes attrs = Files.readAttributes(
+                            file, BasicFileAttributes.class);
                     validated = new FileEntry(
                             uri.toString(),
                             requestedFile.getArchivePath(),
-                            size);
+                            attrs.size());
+                    validated.setLastModified(
+                            attrs.lastModifiedTime().toMillis());
                 }
                 catch (IOException ioe) {
                     LOGGER.warn("Unexpected IOException accessing file [ "
@@ -177,11 +298,14 @@ public class FileValidator {
             
             if ((Files.exists(file)) && (!Files.isDirectory(file))) {
                 try {
-                    long size = Files.size(file);
+                    BasicFileAttributes attrs = Files.readAttributes(
+                            file, BasicFileAttributes.class);
                     validated = new FileEntry(
                             requestedFile,
                             null,
-                            size);
+                            attrs.size());
+                    validated.setLastModified(
+                            attrs.lastModifiedTime().toMillis());
                 }
                 catch (IOException ioe) {
                     LOGGER.warn("Unexpected IOException accessing file [ "
@@ -218,14 +342,30 @@ public class FileValidator {
                     ValidationErrorCodes.NO_INPUT_FILES_FOUND);
         }
         
+        final Map<String, FileEntry> listed = 
+                new ConcurrentHashMap<String, FileEntry>();
         filesRequested = eliminateStringDuplicates(filesRequested);
-        filesRequested = expandStringList(filesRequested);
+        filesRequested = expandStringList(filesRequested, listed);
         
         if ((filesRequested != null) && (!filesRequested.isEmpty())) { 
-            for (String file : filesRequested) {
-                
-                
-                FileEntry obj = validateOneFile(file);
+            List<Callable<FileEntry>> tasks = 
+                    new ArrayList<Callable<FileEntry>>(filesRequested.size());
+            List<URI> sources = new ArrayList<URI>(filesRequested.size());
+            for (final String file : filesRequested) {
+                sources.add(getSource(file));
+                tasks.add(new Callable<FileEntry>() {
+                    @Override
+                    public FileEntry call() {
+                        FileEntry entry = listed.get(file);
+                        if (entry != null) {
+                            return entry;
+                        }
+                        return validateOneFile(file);
+                    }
+                });
+            }
+            for (FileEntry obj : 
+                    IOExecutor.getInstance().invokeAll(tasks, sources)) {
                 if (obj != null) {
                     PathGenerator.getInstance().setOneEntry(obj);
                     validated.add(obj);
@@ -236,6 +376,69 @@ public class FileValidator {
         
     }
     
+    /**
+     * Expand a single requested file.  If the file is a directory, the 
+     * directory tree is walked and all regular files are returned.  
+     * Otherwise the file itself is returned.
+     * 
+     * @param file A single user-submitted file.
+     * @param listed Map receiving the S3 objects listed.
+     * @return The list of files it expands to.
+     */
+    private List<String> expandOne(String file, Map<String, FileEntry> listed) {
+        List<String> expandedList = new ArrayList<String>();
+        if ((file != null) && (!file.isEmpty())) {
+        	
+        	URI  uri = URIUtils.getInstance().getURI(file);
+            Map<URI, S3ObjectSummary> objects = listPrefix(file, uri, listed);
+            if (objects != null) {
+                for (URI name : objects.keySet()) {
+                    expandedList.add(name.toString());
+                }
+                return expandedList;
+            }
+            if ((listed != null) && (listed.containsKey(file))) {
+                expandedList.add(file);
+                return expandedList;
+            }
+            Path p   = Paths.get(uri);
+            
+            if (Files.isDirectory(p)) {
+                try {
+                    List<Path> files = FileFinder.find(
+                            uri, "*");
+                    if ((files != null) && (!files.isEmpty())) { 
+                        for (Path name : files) {
+                            expandedList.add(
+                            		URIUtils.getInstance().getURI(
+                            				name.toString()).toString());
+                        }
+                    }
+                    else {
+                    	LOGGER.warn("Directory contains no files.");
+                    }
+                }
+                catch (IOException ioe) {
+                    LOGGER.warn("Client requested bundling of directory [ "
+                            + file
+                            + " ] but an unexpected IOException was "
+                            + "raised while walking the file system.  "
+                            + "Error message [ "
+                            + ioe.getMessage()
+                            + " ].");
+                }
+            }
+            else {
+                expandedList.add(file);
+            }
+        }
+        else {
+            LOGGER.warn("Client submitted an empty String filename "
+                    + "for bundling.  Skipping...");
+        }
+        return expandedList;
+    }
+    
     /**
      * This method was added to facilitate the bundling of directories. 
      * If any directories have been included in the request this method 
@@ -247,48 +450,131 @@ public class FileValidator {
      * @return A list of FileEntry objects.
      */
     public List<String> expandStringList(List<String> filesRequested) {
+        return expandStringList(filesRequested, null);
+    }
+    
+    /**
+     * Expand the directories in the input list.  See 
+     * <code>expandStringList(List)</code>.
+     * 
+     * @param filesRequested Original user-submitted list of files that 
+     * are to be bundled.
+     * @param listed Map receiving the S3 objects listed (may 
+     * be null, in which case parallel S3 listing is not used).
+     * @return A list of files.
+     */
+    private List<String> expandStringList(
+            List<String> filesRequested, 
+            final Map<String, FileEntry> listed) {
         List<String> expandedList = new ArrayList<String>();
         if ((filesRequested != null) && (!filesRequested.isEmpty())) { 
-            for (String file : filesRequested) {
-                if ((file != null) && (!file.isEmpty())) {
+            List<Callable<List<String>>> tasks = 
+                    new ArrayList<Callable<List<String>>>(filesRequested.size());
+            List<URI> sources = new ArrayList<URI>(filesRequested.size());
+            for (final String file : filesRequested) {
+                sources.add(getSource(file));
+                tasks.add(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        return expandOne(file, listed);
+                    }
+                });
+            }
+            for (List<String> files : 
+                    IOExecutor.getInstance().invokeAll(tasks, sources)) {
+                if (files != null) {
+                    expandedList.addAll(files);
+                }
+            }
+        }
+        return expandedList;
+    }
+    
+    /**
+     * Expand a single requested file.  If the file is a directory, the 
+     * directory tree is walked and a <code>FileRequest</code> is returned 
+     * for each regular file (with the archive path calculated relative to 
+     * the directory).  Otherwise the request itself is returned.
+     * 
+     * @param file A single user-submitted file request.
+     * @param listed Map receiving the S3 objects listed.
+     * @return The list of file requests it expands to.
+     */
+    private List<FileRequest> expandOne(
+            FileRequest file, 
+            Map<String, FileEntry> listed) {
+        List<FileRequest> expandedList = new ArrayList<FileRequest>();
+        if ((file != null) && 
+                (file.getFile() != null) && 
+                (!file.getFile().isEmpty())) {
+        	
+        	URI  uri = URIUtils.getInstance().getURI(file.getFile());
+            Map<URI, S3ObjectSummary> objects = listPrefix(file.getFile(), uri, listed);
+            if (objects != null) {
+                String baseDir = uri.getPath().replaceAll("/+$", "");
+                for (URI name : objects.keySet()) {
+                    expandedList.add(
+                            new FileRequest.FileRequestBuilder()
+                                    .file(name.toString())
+                                    .archivePath(
+                                            PathGenerator.getInstance()
+                                                .getEntryPath(
+                                                        baseDir, 
+                                                        file.getArchivePath(), 
+                                                        name.toString()))
+                            .build());
+                }
+                return expandedList;
+            }
+            if ((listed != null) && (listed.containsKey(file.getFile()))) {
+                expandedList.add(file);
+                return expandedList;
+            }
+            Path p   = Paths.get(uri);
+            
+            if (Files.isDirectory(p)) {
+                
+            	String baseDir = p.toAbsolutePath().toString();
+                try {
                 	
-                	URI  uri = URIUtils.getInstance().getURI(file);
-                    Path p   = Paths.get(uri);
+                    List<URI> files = FileFinder.listFiles(uri);
                     
-                    if (Files.isDirectory(p)) {
-                        try {
-                            List<Path> files = FileFinder.find(
-                                    uri, "*");
-                            if ((files != null) && (!files.isEmpty())) { 
-                                for (Path name : files) {
-                                    expandedList.add(
-                                    		URIUtils.getInstance().getURI(
-                                    				name.toString()).toString());
-                                }
-                            }
-                            else {
-                            	LOGGER.warn("Directory contains no files.");
-                            }
-                        }
-                        catch (IOException ioe) {
-                            LOGGER.warn("Client requested bundling of directory [ "
-                                    + file
-                                    + " ] but an unexpected IOException was "
-                                    + "raised while walking the file system.  "
-                                    + "Error message [ "
-                                    + ioe.getMessage()
-                                    + " ].");
+                    if ((files != null) && (!files.isEmpty())) { 
+                        for (URI name : files) {
+                        
+                            expandedList.add(
+                                    new FileRequest.FileRequestBuilder()
+                                    		.file(name.toString())
+                                    		.archivePath(
+                                    				PathGenerator.getInstance()
+                                    					.getEntryPath(
+                                    							baseDir, 
+                                    							file.getArchivePath(), 
+                                    							name.toString()))
+                                    .build());
                         }
                     }
                     else {
-                        expandedList.add(file);
+                    	LOGGER.warn("Directory contains no files.");
                     }
                 }
-                else {
-                    LOGGER.warn("Client submitted an empty String filename "
-                            + "for bundling.  Skipping...");
+                catch (IOException ioe) {
+                    LOGGER.warn("Client requested bundling of directory [ "
+                            + file.getFile()
+                            + " ] but an unexpected IOException was "
+                            + "raised while walking the file system.  "
+                            + "Error message [ "
+                            + ioe.getMessage()
+                            + " ].");
                 }
             }
+            else {
+                expandedList.add(file);
+            }
+        }
+        else {
+            LOGGER.warn("Client submitted an empty String filename "
+                    + "for bundling.  Skipping...");
         }
         return expandedList;
     }
@@ -304,60 +590,41 @@ public class FileValidator {
      * @return A list of FileEntry objects.
      */
     public List<FileRequest> expand(List<FileRequest> filesRequested) {
+        return expand(filesRequested, null);
+    }
+    
+    /**
+     * Expand the directories in the input list.  See 
+     * <code>expand(List)</code>.
+     * 
+     * @param filesRequested Original user-submitted list of files that 
+     * are to be bundled.
+     * @param listed Map receiving the S3 objects listed (may 
+     * be null, in which case parallel S3 listing is not used).
+     * @return A list of file requests.
+     */
+    private List<FileRequest> expand(
+            List<FileRequest> filesRequested, 
+            final Map<String, FileEntry> listed) {
         List<FileRequest> expandedList = new ArrayList<FileRequest>();
         if ((filesRequested != null) && (!filesRequested.isEmpty())) { 
-            for (FileRequest file : filesRequested) {
-               
-                if ((file != null) && 
-                        (file.getFile() != null) && 
-                        (!file.getFile().isEmpty())) {
-                	
-                	URI  uri = URIUtils.getInstance().getURI(file.getFile());
-                    Path p   = Paths.get(uri);
-                    
-                    if (Files.isDirectory(p)) {
-                        
-                    	String baseDir = p.toAbsolutePath().toString();
-                        try {
-                        	
-                            List<URI> files = FileFinder.listFiles(uri);
-                            
-                            if ((files != null) && (!files.isEmpty())) { 
-                                for (URI name : files) {
-                                
-                                    expandedList.add(
-                                            new FileRequest.FileRequestBuilder()
-                                            		.file(name.toString())
-                                            		.archivePath(
-                                            				PathGenerator.getInstance()
-                                            					.getEntryPath(
-                                            							baseDir, 
-                                            							file.getArchivePath(), 
-                                            							name.toString()))
-                                            .build());
-                                }
-                            }
-                            else {
-                            	LOGGER.warn("Directory contains no files.");
-                            }
-                        }
-                        catch (IOException ioe) {
-                            LOGGER.warn("Client requested bundling of directory [ "
-                                    + file.getFile()
-                                    + " ] but an unexpected IOException was "
-                                    + "raised while walking the file system.  "
-                                    + "Error message [ "
-                                    + ioe.getMessage()
-                                    + " ].");
-                        }
-                    }
-                    else {
-                        expandedList.add(file);
+            List<Callable<List<FileRequest>>> tasks = 
+                    new ArrayList<Callable<List<FileRequest>>>(
+                            filesRequested.size());
+            List<URI> sources = new ArrayList<URI>(filesRequested.size());
+            for (final FileRequest file : filesRequested) {
+                sources.add(getSource(file));
+                tasks.add(new Callable<List<FileRequest>>() {
+                    @Override
+                    public List<FileRequest> call() {
+                        return expandOne(file, listed);
                     }
-                }
-                else {
-                    LOGGER.warn("Client submitted an empty String filename "
-                            + "for bundling.  Skipping...");
+                });
+            }
+            for (List<FileRequest> files : 
+                    IOExecutor.getInstance().invokeAll(tasks, sources)) {
+                if (files != null) {
+                    expandedList.addAll(files);
                 }
             }
         }
@@ -383,13 +650,31 @@ public class FileValidator {
                     ValidationErrorCodes.NO_INPUT_FILES_FOUND);
         }
         
+        final Map<String, FileEntry> listed = 
+                new ConcurrentHashMap<String, FileEntry>();
         filesRequested = eliminateDuplicates(filesRequested);
-        filesRequested = expand(filesRequested);
+        filesRequested = expand(filesRequested, listed);
         
         if ((filesRequested != null) && (!filesRequested.isEmpty())) { 
-            for (FileRequest file : filesRequested) {
-                
-                FileEntry obj = validateOneFile(file);
+            List<Callable<FileEntry>> tasks = 
+                    new ArrayList<Callable<FileEntry>>(filesRequested.size());
+            List<URI> sources = new ArrayList<URI>(filesRequested.size());
+            for (final FileRequest file : filesRequested) {
+                sources.add(getSource(file));
+                tasks.add(new Callable<FileEntry>() {
+                    @Override
+                    public FileEntry call() {
+                        FileEntry entry = listed.get(file.getFile());
+                        if (entry != null) {
+                            entry.setEntryPath(file.getArchivePath());
+                            return entry;
+                        }
+                        return validateOneFile(file);
+                    }
+                });
+            }
+            for (FileEntry obj : 
+                    IOExecutor.getInstance().invokeAll(tasks, sources)) {
                 if (obj != null) {
                     PathGenerator.getInstance().setOneEntry(obj);
                     validated.add(obj);
@@ -0,0 +1,332 @@
+package mil.nga.bundler;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+
+/**
+ * Executor used for the I/O-bound stages of the bundler (file validation,
+ * directory expansion and source file reads).  Most of the time spent in
+ * these stages is blocked on NFS/S3 round trips so they are run
+ * concurrently rather than one file at a time.
+ *
+ * When <code>bundler.execution.virtual_threads</code> is true and the JVM
+ * supports them (JDK 21+), each task is run on its own virtual thread.
+ * Otherwise a platform pool of <code>bundler.execution.io_threads</code>
+ * threads is used.  The application is still compiled for Java 8 so the
+ * virtual thread executor is obtained reflectively.  In both modes the
+ * number of concurrent I/O operations is bounded by a semaphore
+ * (<code>bundler.execution.io_concurrency</code>) rather than by the number
+ * of threads.  Operations against a known source file are additionally
+ * limited per source mount by the <code>MountLimiter</code>.  The mount
+ * permit is obtained before the global permit so that readers waiting on a
+ * saturated mount do not hold global permits needed by readers of other
+ * mounts.
+ *
+ * CPU-bound work (compression) is not run here; it stays on the fixed pool
+ * of platform threads owned by the <code>ArchiveQueue</code>.
+ *
+ * @author L. Craig Carpenter
+ */
+public class IOExecutor extends PropertyLoader implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            IOExecutor.class);
+
+    // Private internal members
+    private final ExecutorService executor;
+    private final Semaphore       permits;
+    private final int             concurrency;
+    private boolean               virtual = false;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private IOExecutor() {
+        super(PROPERTY_FILE_NAME);
+        String value = null;
+        try {
+            value = getProperty(EXECUTION_VIRTUAL_THREADS_PROPERTY);
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        concurrency = (int)Math.max(1L, getLongProperty(
+                EXECUTION_IO_CONCURRENCY_PROPERTY,
+                DEFAULT_EXECUTION_IO_CONCURRENCY));
+        permits     = new Semaphore(concurrency, true);
+
+        ExecutorService service = null;
+        if ((value != null) && (value.trim().equalsIgnoreCase("true"))) {
+            service = createVirtualExecutor();
+        }
+        if (service != null) {
+            virtual = true;
+        }
+        else {
+            int threads = (int)Math.max(1L, getLongProperty(
+                    EXECUTION_IO_THREADS_PROPERTY,
+                    DEFAULT_EXECUTION_IO_THREADS));
+            service = Executors.newFixedThreadPool(
+                    threads, new IOThreadFactory());
+        }
+        executor = service;
+        LOGGER.info("I/O executor started using [ "
+                + (virtual ? "virtual" : "platform")
+                + " ] threads with an I/O concurrency limit of [ "
+                + concurrency
+                + " ].");
+    }
+
+    /**
+     * Return a singleton instance to the IOExecutor object.
+     * @return The IOExecutor
+     */
+    public static IOExecutor getInstance() {
+        return IOExecutorHolder.getFactorySingleton();
+    }
+
+    /**
+     * Stop the I/O threads.  Running tasks are interrupted and callers 
+     * waiting in <code>invokeAll()</code> see them as failed.
+     */
+    public void shutdown() {
+        LOGGER.info("Stopping the I/O executor.");
+        executor.shutdownNow();
+    }
+
+    /**
+     * Obtain a virtual-thread-per-task executor.  The method is looked up
+     * reflectively so the application still runs on older JVMs.
+     *
+     * @return The executor, or null if virtual threads are not available.
+     */
+    private ExecutorService createVirtualExecutor() {
+        ExecutorService service = null;
+        try {
+            Method method = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            service = (ExecutorService)method.invoke(null);
+        }
+        catch (NoSuchMethodException nsme) {
+            LOGGER.warn("Virtual threads were requested but are not "
+                    + "supported by this JVM [ "
+                    + System.getProperty("java.version")
+                    + " ].  Falling back to platform threads.");
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.warn("Unable to create the virtual thread executor.  "
+                    + "Falling back to platform threads.  Exception "
+                    + "message => [ "
+                    + e.getMessage()
+                    + " ].");
+        }
+        return service;
+    }
+
+    /**
+     * Getter method indicating whether I/O tasks run on virtual threads.
+     * @return True if virtual threads are in use.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Getter method for the maximum number of concurrent I/O operations.
+     * @return The I/O concurrency limit.
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Acquire the permits needed to perform I/O against the input source
+     * file: one for the mount containing the file and one from the global
+     * I/O limit.  Callers performing I/O outside of <code>invokeAll</code>
+     * (e.g. archive workers reading source files) must call
+     * <code>release()</code> with the returned mount key when finished.
+     *
+     * @param source The source file (may be null if unknown).
+     * @return The mount key to pass to <code>release()</code>.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    public String acquire(URI source) throws InterruptedException {
+        String mount = MountLimiter.getInstance().acquire(source);
+        try {
+            permits.acquire();
+        }
+        catch (InterruptedException ie) {
+            MountLimiter.getInstance().release(mount);
+            throw ie;
+        }
+        return mount;
+    }
+
+    /**
+     * Release the permits obtained through <code>acquire()</code>.
+     *
+     * @param mount The mount key returned by <code>acquire()</code>.
+     */
+    public void release(String mount) {
+        permits.release();
+        MountLimiter.getInstance().release(mount);
+    }
+
+    /**
+     * Run the input tasks concurrently and return their results in the
+     * same order as the tasks.  Each task holds an I/O permit for its
+     * source file while it runs.  Tasks that fail are logged and produce a
+     * null result.  If there is only a single task it is run on the
+     * calling thread, holding the same permits.
+     *
+     * @param tasks The tasks to run.
+     * @param sources The source file associated with each task (same order
+     * as the tasks).
+     * @return The results, in task order.
+     */
+    public <T> List<T> invokeAll(
+            List<Callable<T>> tasks,
+            final List<URI>   sources) {
+
+        List<T> results = new ArrayList<T>();
+
+        if ((tasks == null) || (tasks.isEmpty())) {
+            return results;
+        }
+        if (tasks.size() == 1) {
+            URI source = ((sources == null) || (sources.isEmpty()) ?
+                    null : sources.get(0));
+            try {
+                String mount = acquire(source);
+                try {
+                    results.add(tasks.get(0).call());
+                }
+                finally {
+                    release(mount);
+                }
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                LOGGER.warn("Interrupted while running I/O task.");
+                results.add(null);
+            }
+            catch (Exception e) {
+                LOGGER.error("Unexpected exception raised by I/O task.  "
+                        + "Exception message => [ "
+                        + e.getMessage()
+                        + " ].");
+                results.add(null);
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            final Callable<T> task   = tasks.get(i);
+            final URI         source = ((sources == null) ||
+                    (i >= sources.size()) ? null : sources.get(i));
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    String mount = acquire(source);
+                    try {
+                        return task.call();
+                    }
+                    finally {
+                        release(mount);
+                    }
+                }
+            }));
+        }
+        for (Future<T> future : futures) {
+            T result = null;
+            try {
+                result = future.get();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                for (Future<T> outstanding : futures) {
+                    outstanding.cancel(true);
+                }
+                LOGGER.warn("Interrupted while waiting for I/O tasks to "
+                        + "complete.");
+                break;
+            }
+            catch (ExecutionException ee) {
+                LOGGER.error("Unexpected exception raised by I/O task.  "
+                        + "Exception message => [ "
+                        + ee.getCause().getMessage()
+                        + " ].");
+            }
+            results.add(result);
+        }
+        // Keep results aligned with the tasks if interrupted.
+        while (results.size() < tasks.size()) {
+            results.add(null);
+        }
+        return results;
+    }
+
+    /**
+     * Thread factory naming the platform I/O threads.
+     */
+    private static class IOThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "bundler-io-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class IOExecutorHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static IOExecutor _factory = new IOExecutor();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static IOExecutor getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package mil.nga.bundler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.bundler.archive.CodecPool;
+import mil.nga.bundler.model.FileEntry;
+
+/**
+ * Class responsible for converting the list of files associated with a
+ * single archive job to/from the compact binary manifest that is stored
+ * on the <code>ARCHIVE_JOBS</code> table when the bundler is configured to
+ * use the <code>MANIFEST</code> file storage mode.
+ *
+ * The manifest layout (prior to deflation) is as follows:
+ * <pre>
+ *   version        : 1 byte
+ *   number of files: var-int
+ *   for each file:
+ *     path prefix length shared with the previous path  : var-int
+ *     remaining path characters                         : UTF
+ *     entry path prefix length shared with previous entry: var-int
+ *     remaining entry path characters                   : UTF
+ *     file size                                         : var-long
+ * </pre>
+ * The files requested in a single bundle job are typically clustered in a
+ * small number of directories so the prefix compression removes the
+ * majority of the redundant path data before the deflate step.  The order
+ * of the input list is preserved because the archive processing
+ * high-water mark depends on it.
+ *
+ * @author L. Craig Carpenter
+ */
+public class ManifestCodec {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    static final Logger LOGGER = LoggerFactory.getLogger(
+            ManifestCodec.class);
+
+    /**
+     * Current version of the manifest layout.
+     */
+    public static final byte MANIFEST_VERSION = 1;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private ManifestCodec() { }
+
+    /**
+     * Return a singleton instance to the ManifestCodec object.
+     * @return The ManifestCodec
+     */
+    public static ManifestCodec getInstance() {
+        return ManifestCodecHolder.getFactorySingleton();
+    }
+
+    /**
+     * Calculate the number of leading characters shared by the two input
+     * Strings.
+     *
+     * @param previous The previously encoded String.
+     * @param current The String to encode.
+     * @return The length of the common prefix.
+     */
+    private int getCommonPrefixLength(String previous, String current) {
+        int max    = Math.min(previous.length(), current.length());
+        int length = 0;
+        while ((length < max) &&
+                (previous.charAt(length) == current.charAt(length))) {
+            length++;
+        }
+        // Do not split a surrogate pair across the prefix boundary.
+        if ((length > 0) &&
+                (Character.isHighSurrogate(current.charAt(length - 1)))) {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * Write a prefix-compressed String to the output stream.
+     *
+     * @param out The output stream.
+     * @param previous The previously encoded String.
+     * @param current The String to encode.
+     * @throws IOException Thrown if there are problems writing to the
+     * stream.
+     */
+    private void writeString(
+            DataOutputStream out,
+            String previous,
+            String current) throws IOException {
+        int prefix = getCommonPrefixLength(previous, current);
+        writeVarLong(out, prefix);
+        out.writeUTF(current.substring(prefix));
+    }
+
+    /**
+     * Read a prefix-compressed String from the input stream.
+     *
+     * @param in The input stream.
+     * @param previous The previously decoded String.
+     * @return The decoded String.
+     * @throws IOException Thrown if there are problems reading from the
+     * stream or the data is corrupt.
+     */
+    private String readString(DataInputStream in, String previous)
+            throws IOException {
+        int prefix = (int)readVarLong(in);
+        if ((prefix < 0) || (prefix > previous.length())) {
+            throw new IOException("Corrupt manifest.  Prefix length [ "
+                    + prefix
+                    + " ] is out of range.");
+        }
+        return previous.substring(0, prefix) + in.readUTF();
+    }
+
+    /**
+     * Write an unsigned variable length integer (7 bits per byte).
+     *
+     * @param out The output stream.
+     * @param value The value to write (must not be negative).
+     * @throws IOException Thrown if there are problems writing to the
+     * stream.
+     */
+    private void writeVarLong(DataOutputStream out, long value)
+            throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    /**
+     * Read an unsigned variable length integer.
+     *
+     * @param in The input stream.
+     * @return The decoded value.
+     * @throws IOException Thrown if there are problems reading from the
+     * stream or the data is corrupt.
+     */
+    private long readVarLong(DataInputStream in) throws IOException {
+        long value = 0L;
+        int  shift = 0;
+        while (shift < 64) {
+            int b = in.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+        throw new IOException("Corrupt manifest.  Malformed variable length "
+                + "integer.");
+    }
+
+    /**
+     * Convert the input list of <code>FileEntry</code> objects into a
+     * compressed manifest.  Only the path, entry path, and size are
+     * stored.
+     *
+     * @param files The list of files associated with an archive job.
+     * @return The compressed manifest.  Null is returned if the input list
+     * is null or the encode fails.
+     */
+    public byte[] encode(List<FileEntry> files) {
+
+        long   startTime = System.currentTimeMillis();
+        byte[] manifest  = null;
+
+        if (files != null) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            Deflater deflater = CodecPool.getInstance().getDeflater(
+                    Deflater.BEST_COMPRESSION, false);
+            try (DataOutputStream out = new DataOutputStream(
+                    new DeflaterOutputStream(baos, deflater))) {
+
+                String previousPath  = "";
+                String previousEntry = "";
+
+                out.writeByte(MANIFEST_VERSION);
+                writeVarLong(out, files.size());
+                for (FileEntry file : files) {
+                    String path  = (file.getFilePath() == null ?
+                            "" : file.getFilePath());
+                    String entry = (file.getEntryPath() == null ?
+                            "" : file.getEntryPath());
+                    writeString(out, previousPath, path);
+                    writeString(out, previousEntry, entry);
+                    writeVarLong(out, Math.max(0L, file.getSize()));
+                    previousPath  = path;
+                    previousEntry = entry;
+                }
+            }
+            catch (IOException ioe) {
+                LOGGER.error("Unexpected IOException raised while encoding "
+                        + "the file manifest.  Exception message => [ "
+                        + ioe.getMessage()
+                        + " ].");
+                baos = null;
+            }
+            finally {
+                CodecPool.getInstance().returnDeflater(deflater);
+            }
+            if (baos != null) {
+                manifest = baos.toByteArray();
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Encoded [ "
+                            + files.size()
+                            + " ] files into a manifest of [ "
+                            + manifest.length
+                            + " ] bytes in [ "
+                            + (System.currentTimeMillis() - startTime)
+                            + " ] ms.");
+                }
+            }
+        }
+        else {
+            LOGGER.warn("Input list of files is null.  Manifest will not be "
+                    + "created.");
+        }
+        return manifest;
+    }
+
+    /**
+     * Convert the input compressed manifest back into a list of
+     * <code>FileEntry</code> objects.  The job ID, archive ID and file
+     * state of the output objects are not set.
+     *
+     * @param manifest The compressed manifest.
+     * @return The list of files in their original order.  The output may be
+     * empty, but it will not be null.
+     */
+    public List<FileEntry> decode(byte[] manifest) {
+
+        List<FileEntry> files = new ArrayList<FileEntry>();
+
+        if ((manifest != null) && (manifest.length > 0)) {
+            Inflater inflater = CodecPool.getInstance().getInflater(false);
+            try (DataInputStream in = new DataInputStream(
+                    new InflaterInputStream(
+                            new ByteArrayInputStream(manifest), 
+                            inflater))) {
+
+                byte version = in.readByte();
+                if (version != MANIFEST_VERSION) {
+                    throw new IOException("Unsupported manifest version [ "
+                            + version
+                            + " ].");
+                }
+
+                long   count         = readVarLong(in);
+                String previousPath  = "";
+                String previousEntry = "";
+
+                for (long i = 0; i < count; i++) {
+                    String path  = readString(in, previousPath);
+                    String entry = readString(in, previousEntry);
+                    long   size  = readVarLong(in);
+                    files.add(new FileEntry(path, entry, size));
+                    previousPath  = path;
+                    previousEntry = entry;
+                }
+            }
+            catch (IOException ioe) {
+                LOGGER.error("Unexpected IOException raised while decoding "
+                        + "the file manifest.  Exception message => [ "
+                        + ioe.getMessage()
+                        + " ].");
+                files.clear();
+            }
+            finally {
+                CodecPool.getInstance().returnInflater(inflater);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class ManifestCodecHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static ManifestCodec _factory = new ManifestCodec();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static ManifestCodec getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
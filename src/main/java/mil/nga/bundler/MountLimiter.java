@@ -0,0 +1,329 @@
+package mil.nga.bundler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.services.MetricsService;
+
+/**
+ * Class limiting the number of concurrent I/O operations issued against
+ * each source mount.  The input files come from several mounts (e.g.
+ * /mnt/raster, /mnt/fbga, /mnt/nonstd, S3) with very different
+ * capabilities.  Without coordination a single heavy job can saturate one
+ * device with far more concurrent reads than it can service while the
+ * others sit idle.
+ *
+ * Each source URI is mapped to a mount key:
+ *
+ * <li>The longest prefix listed in <code>bundler.io.mount_limits</code>
+ * that matches the file path (for file URIs) or the full URI (for other
+ * schemes).</li>
+ * <li>Otherwise, for local files, the <code>FileStore</code> containing the
+ * file.</li>
+ * <li>Otherwise the scheme and authority of the URI (e.g. the S3 bucket).
+ * </li>
+ *
+ * Each mount key has its own fair semaphore so waiting readers are served
+ * in order.  Unlisted mounts are limited to
+ * <code>bundler.io.mount_default_limit</code>.  Wait times are recorded in
+ * the <code>MetricsService</code> as <code>io.mount_wait_ms.&lt;key&gt;</code>.
+ *
+ * @author L. Craig Carpenter
+ */
+public class MountLimiter extends PropertyLoader implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MountLimiter.class);
+
+    /**
+     * Maximum number of directories for which the mount key is cached.
+     * The cache is simply cleared when this size is reached.
+     */
+    private static final int MAX_CACHED_DIRECTORIES = 10000;
+
+    /**
+     * Mount key used when the mount cannot be determined.
+     */
+    public static final String DEFAULT_MOUNT = "default";
+
+    /**
+     * Configured prefixes, longest first.
+     */
+    private final List<String> prefixes = new ArrayList<String>();
+
+    /**
+     * Semaphores keyed by mount key.
+     */
+    private final ConcurrentMap<String, Semaphore> semaphores =
+            new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * Limits for the configured prefixes.
+     */
+    private final ConcurrentMap<String, Integer> limits =
+            new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Cache of mount keys for unlisted local directories.
+     */
+    private final ConcurrentMap<String, String> directoryCache =
+            new ConcurrentHashMap<String, String>();
+
+    // Private internal members
+    private final int defaultLimit;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private MountLimiter() {
+        super(PROPERTY_FILE_NAME);
+        defaultLimit = (int)Math.max(1L, getLongProperty(
+                MOUNT_DEFAULT_LIMIT_PROPERTY,
+                DEFAULT_MOUNT_LIMIT));
+        try {
+            loadLimits(getProperty(MOUNT_LIMITS_PROPERTY));
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+    }
+
+    /**
+     * Return a singleton instance to the MountLimiter object.
+     * @return The MountLimiter
+     */
+    public static MountLimiter getInstance() {
+        return MountLimiterHolder.getFactorySingleton();
+    }
+
+    /**
+     * Parse the configured list of <code>prefix=limit</code> pairs.
+     *
+     * @param value The property value.
+     */
+    private void loadLimits(String value) {
+        if ((value != null) && (!value.trim().isEmpty())) {
+            for (String pair : value.split(",")) {
+                int index = pair.lastIndexOf('=');
+                if (index > 0) {
+                    String prefix = pair.substring(0, index).trim();
+                    try {
+                        int limit = Integer.parseInt(
+                                pair.substring(index + 1).trim());
+                        limits.put(prefix, Math.max(1, limit));
+                        prefixes.add(prefix);
+                        LOGGER.info("I/O concurrency for mount [ "
+                                + prefix
+                                + " ] limited to [ "
+                                + limit
+                                + " ].");
+                    }
+                    catch (NumberFormatException nfe) {
+                        LOGGER.warn("Invalid limit for mount [ "
+                                + prefix
+                                + " ] in property [ "
+                                + MOUNT_LIMITS_PROPERTY
+                                + " ].  Entry ignored.");
+                    }
+                }
+                else if (!pair.trim().isEmpty()) {
+                    LOGGER.warn("Invalid entry [ "
+                            + pair
+                            + " ] in property [ "
+                            + MOUNT_LIMITS_PROPERTY
+                            + " ].  Entry ignored.");
+                }
+            }
+            Collections.sort(prefixes, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    return Integer.compare(b.length(), a.length());
+                }
+            });
+        }
+    }
+
+    /**
+     * Determine whether the input path lies within the input prefix.  The
+     * prefix must match whole path elements, so that a prefix of
+     * <code>/mnt/data</code> does not match <code>/mnt/data2/file</code>.
+     *
+     * @param path The source file path (or URI).
+     * @param prefix The configured prefix.
+     * @return True if the path is the prefix itself or lies below it.
+     */
+    private static boolean isUnder(String path, String prefix) {
+        return (path.equals(prefix) ||
+                path.startsWith(prefix.endsWith("/") ? prefix : prefix + "/"));
+    }
+
+    /**
+     * Determine the mount key associated with the input source URI.
+     *
+     * @param uri The source file.
+     * @return The mount key.
+     */
+    public String getMount(URI uri) {
+
+        if (uri == null) {
+            return DEFAULT_MOUNT;
+        }
+        boolean local = ((uri.getScheme() == null) ||
+                (uri.getScheme().equalsIgnoreCase("file")));
+        String  path  = (local ? uri.getPath() : uri.toString());
+
+        if (path != null) {
+            for (String prefix : prefixes) {
+                if (isUnder(path, prefix)) {
+                    return prefix;
+                }
+            }
+        }
+        if (local) {
+            return getFileStoreMount(path);
+        }
+        return uri.getScheme()
+                + "://"
+                + (uri.getAuthority() == null ? "" : uri.getAuthority());
+    }
+
+    /**
+     * Determine the mount key of an unlisted local file from the
+     * <code>FileStore</code> containing it.  Results are cached by parent
+     * directory.
+     *
+     * @param path The local file path.
+     * @return The mount key.
+     */
+    private String getFileStoreMount(String path) {
+        if (path == null) {
+            return DEFAULT_MOUNT;
+        }
+        Path   parent    = Paths.get(path).getParent();
+        String directory = (parent == null ? path : parent.toString());
+        String mount     = directoryCache.get(directory);
+        if (mount == null) {
+            mount = DEFAULT_MOUNT;
+            try {
+                Path target = Paths.get(path);
+                while ((target != null) && (!Files.exists(target))) {
+                    target = target.getParent();
+                }
+                if (target != null) {
+                    FileStore store = Files.getFileStore(target);
+                    mount = "store:" + store.name();
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                LOGGER.debug("Unable to determine the file store for [ "
+                        + path
+                        + " ].  Exception message => [ "
+                        + e.getMessage()
+                        + " ].");
+            }
+            if (directoryCache.size() >= MAX_CACHED_DIRECTORIES) {
+                directoryCache.clear();
+            }
+            directoryCache.put(directory, mount);
+        }
+        return mount;
+    }
+
+    /**
+     * Look up (creating if necessary) the semaphore for the input mount.
+     *
+     * @param mount The mount key.
+     * @return The semaphore.
+     */
+    private Semaphore getSemaphore(String mount) {
+        Semaphore semaphore = semaphores.get(mount);
+        if (semaphore == null) {
+            Integer   limit    = limits.get(mount);
+            Semaphore created  = new Semaphore(
+                    (limit == null ? defaultLimit : limit), true);
+            Semaphore existing = semaphores.putIfAbsent(mount, created);
+            semaphore = (existing == null ? created : existing);
+        }
+        return semaphore;
+    }
+
+    /**
+     * Acquire a permit for the mount containing the input source file.
+     *
+     * @param uri The source file.
+     * @return The mount key, which must be passed to <code>release</code>.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    public String acquire(URI uri) throws InterruptedException {
+        String    mount     = getMount(uri);
+        Semaphore semaphore = getSemaphore(mount);
+        if (!semaphore.tryAcquire()) {
+            long start = System.currentTimeMillis();
+            semaphore.acquire();
+            MetricsService.getInstance().record(
+                    "io.mount_wait_ms." + mount,
+                    System.currentTimeMillis() - start);
+        }
+        return mount;
+    }
+
+    /**
+     * Release a permit obtained through <code>acquire</code>.
+     *
+     * @param mount The mount key returned by <code>acquire</code>.
+     */
+    public void release(String mount) {
+        if (mount != null) {
+            getSemaphore(mount).release();
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class MountLimiterHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static MountLimiter _factory = new MountLimiter();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static MountLimiter getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
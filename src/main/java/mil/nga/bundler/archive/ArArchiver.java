@@ -104,18 +104,11 @@ public class ArArchiver extends Archiver implements BundlerI {
             try (ArArchiveOutputStream aaos = 
                     new ArArchiveOutputStream(
                             new BufferedOutputStream(
-                                    Files.newOutputStream(
+                                    openOutput(Files.newOutputStream(
                                             Paths.get(getOutputFile()), 
                                             StandardOpenOption.CREATE, 
-                                            StandardOpenOption.WRITE)))) {
-                for (ArchiveElement element : files) {
-                    aaos.putArchiveEntry(
-                            getArchiveEntry(
-                                    element.getURI(),
-                                    element.getEntryPath()));
-                    copyOneFile(aaos, element.getURI());
-                    notify(element);
-                }
+                                            StandardOpenOption.WRITE))))) {
+                writeEntries(aaos, files);
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Output archive [ "
                             + getOutputFile()
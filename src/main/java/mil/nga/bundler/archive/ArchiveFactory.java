@@ -1,5 +1,7 @@
 package mil.nga.bundler.archive;
 
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
 import mil.nga.bundler.interfaces.BundlerI;
 import mil.nga.bundler.types.ArchiveType;
 //import mil.nga.bundler.archive.BZip2Archiver;
@@ -18,9 +20,13 @@ import org.slf4j.LoggerFactory;
  * support output archives of types contained in the ArchiveType 
  * enumeration. 
  * 
+ * The factory also applies the TAR checkpoint settings read from the 
+ * bundler properties file to the TAR-family archivers it creates.
+ * 
  * @author L. Craig Carpenter
  */
-public class ArchiveFactory {
+public class ArchiveFactory 
+        extends PropertyLoader implements BundlerConstantsI {
 
     /**
      * Set up the Log4j system for use throughout the class
@@ -28,10 +34,44 @@ public class ArchiveFactory {
     final static Logger LOGGER = LoggerFactory.getLogger(
             ArchiveFactory.class);
     
+    /**
+     * Bytes per megabyte.
+     */
+    private static final long BYTES_PER_MB = 1024L * 1024L;
+    
+    // TAR checkpoint settings
+    private final long checkpointInterval;
+    private final long checkpointRetries;
+    private final long checkpointRetryDelay;
+    
     /**
      * Hidden constructor enforcing the Singleton design pattern.
      */
-    private ArchiveFactory() {}
+    private ArchiveFactory() {
+        super(PROPERTY_FILE_NAME);
+        checkpointInterval   = getLongProperty(
+                CHECKPOINT_INTERVAL_PROPERTY, 
+                DEFAULT_CHECKPOINT_INTERVAL) * BYTES_PER_MB;
+        checkpointRetries    = getLongProperty(
+                CHECKPOINT_RETRIES_PROPERTY, 
+                DEFAULT_CHECKPOINT_RETRIES);
+        checkpointRetryDelay = getLongProperty(
+                CHECKPOINT_RETRY_DELAY_PROPERTY, 
+                DEFAULT_CHECKPOINT_RETRY_DELAY);
+    }
+    
+    /**
+     * Apply the checkpoint settings to a TAR-family archiver.
+     * 
+     * @param archiver The archiver to configure.
+     * @return The configured archiver.
+     */
+    private TarArchiver configure(TarArchiver archiver) {
+        archiver.setCheckpointInterval(checkpointInterval);
+        archiver.setMaxRetries(checkpointRetries);
+        archiver.setRetryDelay(checkpointRetryDelay);
+        return archiver;
+    }
 
     /**
      * Accessor method for the Singleton instance of the ArchiveFactory.
@@ -74,17 +114,17 @@ public class ArchiveFactory {
 	            if (LOGGER.isDebugEnabled()) {
 	                LOGGER.debug("Client requested TAR archive format.");
 	            }
-	            return new TarArchiver();
+	            return configure(new TarArchiver());
         	case GZIP:
         		if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Client requested GZIP archive format.");
                 }
-                return new GZipArchiver();
+                return configure(new GZipArchiver());
         	case BZIP2:
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Client requested BZIP2 archive format.");
                 }
-                return new BZip2Archiver();
+                return configure(new BZip2Archiver());
             default:
             	throw new UnknownArchiveTypeException("Client requested an "
             			+ "unsupported archive type [ "
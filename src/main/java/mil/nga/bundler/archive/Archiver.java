@@ -1,13 +1,15 @@
 package mil.nga.bundler.archive;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
@@ -15,9 +17,19 @@ import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import mil.nga.bundler.BandwidthLimiter;
+import mil.nga.bundler.IOExecutor;
+import mil.nga.bundler.exceptions.ArchiveCancelledException;
+import mil.nga.bundler.exceptions.ArchiveException;
 import mil.nga.bundler.interfaces.FileCompletionListenerI;
 import mil.nga.bundler.model.ArchiveElement;
+import mil.nga.bundler.services.ConcurrencyController;
+import mil.nga.bundler.services.MetricsService;
+import mil.nga.bundler.services.S3SourceService;
 import mil.nga.bundler.types.ArchiveType;
+import mil.nga.util.ThrottledInputStream;
+import mil.nga.util.ThrottledOutputStream;
+import mil.nga.util.TimedInputStream;
 
 /**
  * This is class was designed to encapsulate the logic used for creating the 
@@ -53,6 +65,30 @@ public abstract class Archiver {
      */
     private Object MUTEX = new Object();
     
+    /**
+     * Flag set when the job associated with the output archive has been 
+     * cancelled.
+     */
+    private volatile AtomicBoolean cancelled = new AtomicBoolean(false);
+    
+    /**
+     * ID of the job associated with the output archive (used for 
+     * bandwidth accounting).
+     */
+    private String jobID = null;
+    
+    /**
+     * Source read-ahead stage of the archive build pipeline (null when 
+     * the source files are read sequentially).
+     */
+    private SourcePrefetcher prefetcher = null;
+    
+    /**
+     * Concurrent reader of the <code>s3://</code> source files (null when 
+     * ranged S3 reads are disabled or no source file is on S3).
+     */
+    private S3SourceService.Reader s3Reader = null;
+    
     /**
      * Default constructor.
      */
@@ -78,19 +114,281 @@ public abstract class Archiver {
     	}
     }
     
+    /**
+     * Setter method for the flag used to signal that the job associated 
+     * with the output archive has been cancelled.
+     * 
+     * @param flag The cancellation flag.
+     */
+    public void setCancellationFlag(AtomicBoolean flag) {
+        if (flag != null) {
+            cancelled = flag;
+        }
+    }
+    
+    /**
+     * Setter method for the ID of the job associated with the output 
+     * archive.
+     * 
+     * @param value The job ID.
+     */
+    public void setJobID(String value) {
+        jobID = value;
+    }
+    
+    /**
+     * Determine whether the job associated with the output archive has 
+     * been cancelled.
+     * 
+     * @return True if the job has been cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+    
+    /**
+     * Called by the concrete archivers between entries (and by the copy 
+     * loops) to abort the bundle operation if the job has been cancelled.
+     * 
+     * @throws ArchiveCancelledException Thrown if the job has been 
+     * cancelled.
+     */
+    protected void checkCancelled() throws ArchiveCancelledException {
+        if (cancelled.get()) {
+            throw new ArchiveCancelledException("Job cancelled while "
+                    + "creating output archive [ "
+                    + getOutputFile()
+                    + " ].");
+        }
+    }
+    
+    /**
+     * Acquire I/O permits from the <code>IOExecutor</code> before reading
+     * a source file so that source reads share the same global and 
+     * per-mount I/O concurrency limits as validation and expansion.
+     * 
+     * @param file The source file that will be read.
+     * @return The mount key to pass to <code>releaseIOPermit()</code>.
+     * @throws ArchiveCancelledException Thrown if the thread is interrupted
+     * while waiting for a permit.
+     */
+    protected String acquireIOPermit(URI file) 
+            throws ArchiveCancelledException {
+        try {
+            return IOExecutor.getInstance().acquire(file);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ArchiveCancelledException("Interrupted while waiting "
+                    + "for an I/O permit creating output archive [ "
+                    + getOutputFile()
+                    + " ].");
+        }
+    }
+    
+    /**
+     * Release the I/O permits obtained through 
+     * <code>acquireIOPermit()</code>.
+     * 
+     * @param mount The mount key returned by <code>acquireIOPermit()</code>.
+     */
+    protected void releaseIOPermit(String mount) {
+        IOExecutor.getInstance().release(mount);
+    }
+    
+    /**
+     * Wrap the input stream so that the data read is charged against the 
+     * bandwidth limits of the mount containing the file and of the job.
+     * 
+     * @param in The stream to wrap.
+     * @param file The file being read.
+     * @return The throttled stream.
+     */
+    protected InputStream throttle(InputStream in, URI file) {
+        return new ThrottledInputStream(
+                in, 
+                BandwidthLimiter.getInstance().getMountBucket(file),
+                BandwidthLimiter.getInstance().getJobBucket(jobID));
+    }
+    
+    /**
+     * Wrap the output stream so that the data written is charged against 
+     * the bandwidth limits of the mount containing the file and of the job.
+     * 
+     * @param out The stream to wrap.
+     * @param file The file being written.
+     * @return The throttled stream.
+     */
+    protected OutputStream throttle(OutputStream out, URI file) {
+        return new ThrottledOutputStream(
+                out, 
+                BandwidthLimiter.getInstance().getMountBucket(file),
+                BandwidthLimiter.getInstance().getJobBucket(jobID));
+    }
+    
+    /**
+     * Publish the statistics gathered while reading a source file to the 
+     * <code>MetricsService</code>.  These feed the adaptive concurrency 
+     * controller.
+     * 
+     * @param source The stream used to read the source file.
+     */
+    protected void recordRead(TimedInputStream source) {
+        MetricsService metrics = MetricsService.getInstance();
+        metrics.add(ConcurrencyController.SOURCE_BYTES_METRIC, 
+                source.getBytes());
+        metrics.add(ConcurrencyController.SOURCE_READS_METRIC, 
+                source.getReads());
+        metrics.add(ConcurrencyController.SOURCE_NANOS_METRIC, 
+                source.getNanos());
+    }
+    
+    /**
+     * Start reading ahead the source files of the archive.  Concrete 
+     * archivers call this method before the first file is copied and 
+     * <code>stopPipeline()</code> when the archive is finished.  The 
+     * files must then be copied in list order.  If the 
+     * <code>BufferPool</code> cannot supply the buffers the files are 
+     * simply read sequentially.
+     * 
+     * @param files List of files to Archive.
+     * @param from Index of the first file that will be copied.
+     */
+    protected void startPipeline(List<ArchiveElement> files, int from) {
+        stopPipeline();
+        s3Reader   = S3SourceService.getInstance().newReader(files, from);
+        prefetcher = SourcePrefetcher.start(this, files, from);
+    }
+    
+    /**
+     * Stop the source read-ahead started by <code>startPipeline()</code> 
+     * and return its buffers to the <code>BufferPool</code>.
+     */
+    protected void stopPipeline() {
+        if (prefetcher != null) {
+            prefetcher.close();
+            prefetcher = null;
+        }
+        if (s3Reader != null) {
+            s3Reader.close();
+            s3Reader = null;
+        }
+    }
+    
+    /**
+     * Open a source file for reading.  Files on S3 are read with 
+     * concurrent GET requests when ranged S3 reads are enabled (see 
+     * <code>S3SourceService</code>), all others through the file system 
+     * provider of the URI.
+     * 
+     * @param file The source file.
+     * @return The stream reading the file.
+     * @throws IOException Thrown if the file could not be opened.
+     */
+    protected InputStream openSource(URI file) throws IOException {
+        S3SourceService.Reader reader = s3Reader;
+        if ((reader == null) && 
+                (S3SourceService.getInstance().handles(file))) {
+            return S3SourceService.getInstance().open(file, -1L);
+        }
+        InputStream in = (reader == null ? null : reader.open(file));
+        return (in == null ? Files.newInputStream(Paths.get(file)) : in);
+    }
+    
+    /**
+     * Wrap the stream writing the output archive so that writes are 
+     * charged against the bandwidth limits of the staging mount and of 
+     * the job, and are performed asynchronously by a writer thread (so 
+     * the throttling delays the writer rather than the archive).  If the 
+     * <code>BufferPool</code> cannot supply the buffers the writes are 
+     * only throttled.
+     * 
+     * @param out The stream writing the output file.
+     * @return The stream the archive should be written to.
+     */
+    protected OutputStream openOutput(OutputStream out) {
+        OutputStream throttled = throttle(out, getOutputFile());
+        OutputStream async     = AsyncOutputStream.open(throttled);
+        return (async == null ? throttled : async);
+    }
+    
+    /**
+     * Copy the contents of the input file to the input output stream.  
+     * The data is taken from the source read-ahead stage when it is 
+     * running, otherwise the file is read directly subject to the I/O 
+     * permits and the mount and job bandwidth limits.  The cancellation 
+     * flag is checked after each buffer is copied.
+     * 
+     * @param out The target stream.
+     * @param file The file to copy.
+     * @throws ArchiveCancelledException Thrown if the job is cancelled 
+     * while the file is being copied.
+     * @throws IOException Thrown if the file could not be read or the 
+     * output could not be written.
+     */
+    protected void copySource(OutputStream out, URI file) 
+            throws ArchiveCancelledException, IOException {
+        final byte[] buffer = BufferPool.getInstance().getBuffer();
+        try {
+            InputStream prefetched = 
+                    (prefetcher == null ? null : prefetcher.next(file));
+            if (prefetched != null) {
+                try (InputStream in = prefetched) {
+                    copy(in, out, buffer);
+                }
+                return;
+            }
+            String mount = acquireIOPermit(file);
+            try (TimedInputStream source = new TimedInputStream(
+                        openSource(file));
+                 InputStream in = throttle(source, file)) {
+                copy(in, out, buffer);
+                recordRead(source);
+            }
+            finally {
+                releaseIOPermit(mount);
+            }
+        }
+        finally {
+            BufferPool.getInstance().returnBuffer(buffer);
+        }
+    }
+    
+    /**
+     * Copy the input stream to the output stream checking the 
+     * cancellation flag after each buffer.
+     * 
+     * @param in The source stream.
+     * @param out The target stream.
+     * @param buffer The buffer to copy through.
+     * @throws ArchiveCancelledException Thrown if the job is cancelled.
+     * @throws IOException Thrown if the copy fails.
+     */
+    private void copy(InputStream in, OutputStream out, byte[] buffer) 
+            throws ArchiveCancelledException, IOException {
+        int n = 0;
+        while (-1 != (n = in.read(buffer))) {
+            checkCancelled();
+            out.write(buffer, 0, n);
+        }
+    }
+    
     /**
      * This method will copy the contents of the file identified by 
-     * the input URL into the input output stream object.
+     * the input URL into the input output stream object and close the 
+     * archive entry.  See <code>copySource()</code>.
      * 
      * @param out The target archive output stream.
      * @param file The file to copy.
+     * @throws ArchiveCancelledException Thrown if the job is cancelled 
+     * while the file is being copied.
      */
-    public void copyOneFile(ArchiveOutputStream out, URI file) {
+    public void copyOneFile(ArchiveOutputStream out, URI file) 
+            throws ArchiveCancelledException {
         if (file != null) {
             if (out != null) {
-                Path p = Paths.get(file);
                 try {
-                    Files.copy(p, out);
+                    copySource(out, file);
                     out.closeArchiveEntry();
                 }
                 catch (IOException ioe) {
@@ -113,9 +411,115 @@ public abstract class Archiver {
         }
     }
     
-    
     /**
-     * This method is part of the implementation of the Observer design 
+     * Write each file in the input list to the archive stream, notifying 
+     * the listeners as each file completes.  The source files are read 
+     * ahead when the <code>BufferPool</code> allows.
+     * 
+     * @param out The target archive output stream.
+     * @param files List of files to Archive.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if an archive entry cannot be written.
+     */
+    protected void writeEntries(
+            ArchiveOutputStream  out, 
+            List<ArchiveElement> files) 
+                    throws ArchiveException, IOException {
+        try {
+            startPipeline(files, 0);
+            for (ArchiveElement element : files) {
+                checkCancelled();
+                out.putArchiveEntry(
+                        getArchiveEntry(
+                                element.getURI(),
+                                element.getEntryPath()));
+                copyOneFile(out, element.getURI());
+                notify(element);
+            }
+        }
+        finally {
+            stopPipeline();
+        }
+    }
+
+    /**
+     * Write the files in the input list to the archive stream (in order)
+     * until the next file would make the completed archive larger than
+     * <code>limit</code> bytes.  The first file is always written.  Used
+     * by the archivers implementing <code>RolloverBundlerI</code>, which
+     * do the size accounting in <code>writeEntry()</code>.
+     *
+     * @param out The target archive output stream.
+     * @param files List of files to Archive.
+     * @param limit The maximum size of the output archive in bytes.
+     * @return The number of files written.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if an archive entry cannot be written.
+     */
+    protected int writeEntries(
+            ArchiveOutputStream  out,
+            List<ArchiveElement> files,
+            long                 limit)
+                    throws ArchiveException, IOException {
+        int count = 0;
+        try {
+            startPipeline(files, 0);
+            for (ArchiveElement element : files) {
+                checkCancelled();
+                if (!writeEntry(out, element, limit, (count == 0))) {
+                    LOGGER.info("Output archive [ "
+                            + getOutputFile()
+                            + " ] reached the size limit of [ "
+                            + limit
+                            + " ] bytes after [ "
+                            + count
+                            + " ] of [ "
+                            + files.size()
+                            + " ] files.");
+                    break;
+                }
+                notify(element);
+                count++;
+            }
+        }
+        finally {
+            stopPipeline();
+        }
+        return count;
+    }
+
+    /**
+     * Write a single file to the archive stream if the completed archive
+     * would not exceed <code>limit</code> bytes.  This implementation
+     * does no size accounting and always writes the file; archivers
+     * supporting rollover override it.
+     *
+     * @param out The target archive output stream.
+     * @param element The file to write.
+     * @param limit The maximum size of the output archive in bytes.
+     * @param first True if this is the first file of the archive (which
+     * is written regardless of the limit).
+     * @return False if the file was not written because the archive
+     * would exceed the limit.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if the archive entry cannot be written.
+     */
+    protected boolean writeEntry(
+            ArchiveOutputStream out,
+            ArchiveElement      element,
+            long                limit,
+            boolean             first)
+                    throws ArchiveException, IOException {
+        out.putArchiveEntry(
+                getArchiveEntry(
+                        element.getURI(),
+                        element.getEntryPath()));
+        copyOneFile(out, element.getURI());
+        return true;
+    }
+
+    /**
+     * This method is part of the implementation of the Observer design
      * pattern. This allows users of classes extending from Archiver to 
      * be notified when processing associated with a given file are 
      * complete.
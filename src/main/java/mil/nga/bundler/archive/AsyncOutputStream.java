@@ -0,0 +1,283 @@
+package mil.nga.bundler.archive;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mil.nga.bundler.services.MetricsService;
+
+/**
+ * Output stage of the archive build pipeline.  Data written to the stream
+ * is copied into buffers leased from the <code>BufferPool</code> and
+ * written to the underlying stream by a dedicated writer thread, so the
+ * archive thread does not block on the staging file system while it
+ * compresses the next block.
+ *
+ * The number of buffers is fixed so the writer can fall at most that many
+ * buffers behind before the archive thread waits.  <code>flush()</code>
+ * waits until everything written so far has reached the underlying
+ * stream (and the underlying stream has been flushed).  An error raised
+ * by the writer thread is re-thrown by the next call to
+ * <code>write</code>, <code>flush</code> or <code>close</code>.
+ *
+ * @author L. Craig Carpenter
+ */
+final class AsyncOutputStream extends OutputStream {
+
+    /**
+     * Number of buffers leased by each stream.
+     */
+    static final int BUFFERS = 4;
+
+    /**
+     * Number used to name the writer threads.
+     */
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(0);
+
+    // Private internal members
+    private final OutputStream          out;
+    private final byte[][]              lease;
+    private final BlockingQueue<byte[]> free;
+    private final BlockingQueue<Block>  full;
+    private final Thread                writer;
+    private volatile IOException        error   = null;
+    private byte[]                      current = null;
+    private int                         count   = 0;
+    private boolean                     closed  = false;
+
+    /**
+     * Constructor.
+     *
+     * @param out The underlying output stream.
+     * @param lease The buffers leased from the <code>BufferPool</code>.
+     */
+    private AsyncOutputStream(OutputStream out, byte[][] lease) {
+        this.out   = out;
+        this.lease = lease;
+        free = new ArrayBlockingQueue<byte[]>(lease.length);
+        for (byte[] buffer : lease) {
+            free.add(buffer);
+        }
+        // Room for every buffer plus a flush and an end marker.
+        full   = new ArrayBlockingQueue<Block>(lease.length + 2);
+        writer = new Thread(new Writer(),
+                "bundler-writer-" + THREAD_NUMBER.incrementAndGet());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Wrap the input stream with an asynchronous writer.
+     *
+     * @param out The underlying output stream.
+     * @return The asynchronous stream, or null if the pipeline is disabled
+     * or the <code>BufferPool</code> cannot supply the buffers.
+     */
+    static AsyncOutputStream open(OutputStream out) {
+        byte[][] lease = BufferPool.getInstance().lease(BUFFERS);
+        if (lease == null) {
+            return null;
+        }
+        return new AsyncOutputStream(out, lease);
+    }
+
+    /**
+     * Re-throw any error raised by the writer thread.
+     *
+     * @throws IOException The writer error.
+     */
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Hand a block to the writer thread.
+     *
+     * @param block The block.
+     * @throws IOException Thrown if interrupted.
+     */
+    private void enqueue(Block block) throws IOException {
+        try {
+            full.put(block);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queuing "
+                    + "output data.");
+        }
+    }
+
+    /**
+     * Hand the current buffer (if it holds any data) to the writer thread.
+     *
+     * @throws IOException Thrown if interrupted.
+     */
+    private void send() throws IOException {
+        if ((current != null) && (count > 0)) {
+            enqueue(new Block(current, count, null));
+            current = null;
+            count   = 0;
+        }
+    }
+
+    /**
+     * Make sure there is a buffer with free space.
+     *
+     * @throws IOException Thrown if interrupted.
+     */
+    private void reserve() throws IOException {
+        if ((current != null) && (count >= current.length)) {
+            send();
+        }
+        if (current == null) {
+            current = free.poll();
+            if (current == null) {
+                long start = System.currentTimeMillis();
+                try {
+                    current = free.take();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while "
+                            + "waiting for an output buffer.");
+                }
+                MetricsService.getInstance().add("pipeline.write_wait_ms",
+                        System.currentTimeMillis() - start);
+            }
+            count = 0;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkError();
+        reserve();
+        current[count++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkError();
+        while (len > 0) {
+            reserve();
+            int n = Math.min(len, current.length - count);
+            System.arraycopy(b, off, current, count, n);
+            count += n;
+            off   += n;
+            len   -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkError();
+        send();
+        CountDownLatch latch = new CountDownLatch(1);
+        enqueue(new Block(null, 0, latch));
+        try {
+            latch.await();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing "
+                    + "output data.");
+        }
+        checkError();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean stopped = false;
+        try {
+            send();
+            enqueue(Block.END);
+            writer.join();
+            stopped = true;
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing "
+                    + "output stream.");
+        }
+        finally {
+            if (!stopped) {
+                writer.interrupt();
+            }
+            // The buffers are only reused if the writer is known to be
+            // finished with them.
+            BufferPool.getInstance().release(lease, stopped);
+            out.close();
+        }
+        checkError();
+    }
+
+    /**
+     * Unit of work for the writer thread.  A block carrying a latch is a
+     * flush request.
+     */
+    private static final class Block {
+
+        private static final Block END = new Block(null, -1, null);
+
+        private final byte[]         data;
+        private final int            length;
+        private final CountDownLatch latch;
+
+        private Block(byte[] data, int length, CountDownLatch latch) {
+            this.data   = data;
+            this.length = length;
+            this.latch  = latch;
+        }
+    }
+
+    /**
+     * Writer thread.  After an error it keeps taking blocks (without
+     * writing them) so the archive thread never blocks on it.
+     */
+    private final class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Block block = full.take();
+                    if (block == Block.END) {
+                        break;
+                    }
+                    try {
+                        if (error == null) {
+                            if (block.latch != null) {
+                                out.flush();
+                            }
+                            else {
+                                out.write(block.data, 0, block.length);
+                            }
+                        }
+                    }
+                    catch (IOException ioe) {
+                        error = ioe;
+                    }
+                    if (block.latch != null) {
+                        block.latch.countDown();
+                    }
+                    else {
+                        free.put(block.data);
+                    }
+                }
+            }
+            catch (InterruptedException ie) {
+                // Stream abandoned.
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package mil.nga.bundler.archive;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -49,6 +50,19 @@ public class BZip2Archiver
      */
     public BZip2Archiver() { }
     
+    /**
+     * Wrap the input stream with a BZip2 compressor.
+     * 
+     * @param out The stream to which the compressed data is written.
+     * @return The compressing stream.
+     * @throws IOException Thrown if the BZip2 header cannot be written.
+     */
+    @Override
+    protected OutputStream openCompressor(OutputStream out) 
+            throws IOException {
+        return new BZip2CompressorOutputStream(out);
+    }
+    
     /**
      * Compress the data contained in the input file using the BZip2 
      * compression algorithms storing the compressed data in the file
@@ -59,7 +73,7 @@ public class BZip2Archiver
      */
     @Override
     public void compress(URI inputFile, URI outputFile) 
-            throws IOException {
+            throws ArchiveException, IOException {
         
         try (
             // s3fs file system provider does not currently support OpenOptions.
@@ -70,11 +84,11 @@ public class BZip2Archiver
             //                StandardOpenOption.READ));
         	BufferedInputStream bIn = new BufferedInputStream(
         	          Files.newInputStream(Paths.get(inputFile)));
-            BZip2CompressorOutputStream bzOut = new BZip2CompressorOutputStream(
-                    Files.newOutputStream(
+            OutputStream bzOut = openCompressor(
+                    openOutput(Files.newOutputStream(
                             Paths.get(outputFile), 
                             StandardOpenOption.CREATE, 
-                            StandardOpenOption.WRITE))) {
+                            StandardOpenOption.WRITE)))) {
             // Pipe the input stream to the output stream
             compress(bIn, bzOut);
         }
@@ -0,0 +1,256 @@
+package mil.nga.bundler.archive;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+
+/**
+ * Pool of fixed-size buffers shared by the archive build pipelines (see
+ * <code>SourcePrefetcher</code> and <code>AsyncOutputStream</code>).  The
+ * total memory handed out is capped at
+ * <code>bundler.pipeline.buffer_mb</code>.  Each pipeline leases all of
+ * the buffers it needs when it starts.  If the pool cannot satisfy the
+ * lease the archive is simply built without the pipeline, so a pipeline
+ * never waits on another pipeline for memory.
+ *
+ * The buffers are plain heap arrays rather than direct buffers because
+ * the commons-compress archive streams only accept byte arrays; direct
+ * buffers would add a copy for every block.  Returned buffers are kept
+ * for reuse.
+ *
+ * The pool also supplies the single I/O buffers
+ * (<code>bundler.io.buffer_kb</code>) used by the copy and compression
+ * loops.  These are borrowed for the duration of one file and returned,
+ * and up to <code>bundler.io.max_idle</code> of them are kept rather than
+ * being reallocated for every file.  Larger buffers mean fewer read and
+ * write calls per MB.
+ *
+ * The pool also holds the pipeline settings.
+ *
+ * @author L. Craig Carpenter
+ */
+public class BufferPool extends PropertyLoader implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            BufferPool.class);
+
+    /**
+     * Buffers available for reuse.
+     */
+    private final ConcurrentLinkedQueue<byte[]> free =
+            new ConcurrentLinkedQueue<byte[]>();
+
+    /**
+     * Idle I/O buffers.
+     */
+    private final ConcurrentLinkedQueue<byte[]> idle =
+            new ConcurrentLinkedQueue<byte[]>();
+
+    // Private internal members
+    private final boolean   enabled;
+    private final int       chunkSize;
+    private final int       totalChunks;
+    private final int       readAhead;
+    private final int       readers;
+    private final int       bufferSize;
+    private final int       maxIdle;
+    private final Semaphore available;
+
+    /**
+     * Number of idle I/O buffers (ConcurrentLinkedQueue.size() is not
+     * constant time).
+     */
+    private final AtomicInteger idleCount = new AtomicInteger(0);
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private BufferPool() {
+        super(PROPERTY_FILE_NAME);
+        String value = null;
+        try {
+            value = getProperty(PIPELINE_ENABLED_PROPERTY);
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        enabled     = ((value == null) ||
+                (!value.trim().equalsIgnoreCase("false")));
+        chunkSize   = (int)Math.max(8L, getLongProperty(
+                PIPELINE_CHUNK_KB_PROPERTY,
+                DEFAULT_PIPELINE_CHUNK_KB)) * 1024;
+        totalChunks = (int)(Math.max(0L, getLongProperty(
+                PIPELINE_BUFFER_MB_PROPERTY,
+                DEFAULT_PIPELINE_BUFFER_MB)) * BYTES_PER_MEGABYTE / chunkSize);
+        readAhead   = (int)Math.max(1L, getLongProperty(
+                PIPELINE_READ_AHEAD_PROPERTY,
+                DEFAULT_PIPELINE_READ_AHEAD));
+        readers     = (int)Math.max(1L, getLongProperty(
+                PIPELINE_READERS_PROPERTY,
+                DEFAULT_PIPELINE_READERS));
+        bufferSize  = (int)Math.max(8L, getLongProperty(
+                IO_BUFFER_KB_PROPERTY,
+                DEFAULT_IO_BUFFER_KB)) * 1024;
+        maxIdle     = (int)Math.max(0L, getLongProperty(
+                IO_MAX_IDLE_PROPERTY,
+                DEFAULT_IO_MAX_IDLE));
+        available   = new Semaphore(totalChunks);
+    }
+
+    /**
+     * Return a singleton instance to the BufferPool object.
+     * @return The BufferPool
+     */
+    public static BufferPool getInstance() {
+        return BufferPoolHolder.getFactorySingleton();
+    }
+
+    /**
+     * Getter method indicating whether the archive build pipeline is
+     * enabled.
+     * @return True if enabled.
+     */
+    public boolean isEnabled() {
+        return enabled && (totalChunks > 0);
+    }
+
+    /**
+     * Getter method for the size of each buffer.
+     * @return The buffer size in bytes.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Getter method for the number of source files read ahead.
+     * @return The read-ahead depth.
+     */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Getter method for the number of reader threads per archive.
+     * @return The number of reader threads.
+     */
+    public int getReaders() {
+        return readers;
+    }
+
+    /**
+     * Getter method for the number of buffers currently leased.
+     * @return The number of buffers in use.
+     */
+    public int getInUse() {
+        return totalChunks - available.availablePermits();
+    }
+
+    /**
+     * Lease the input number of buffers.  The call does not block.
+     *
+     * @param count The number of buffers required.
+     * @return The buffers, or null if the pool cannot supply them.
+     */
+    public byte[][] lease(int count) {
+        if ((!isEnabled()) || (count <= 0) || (!available.tryAcquire(count))) {
+            return null;
+        }
+        byte[][] buffers = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            byte[] buffer = free.poll();
+            buffers[i] = (buffer == null ? new byte[chunkSize] : buffer);
+        }
+        return buffers;
+    }
+
+    /**
+     * Return buffers obtained through <code>lease</code>.
+     *
+     * @param buffers The buffers.
+     * @param reuse False if the buffers may still be referenced (e.g. by a
+     * thread that could not be stopped), in which case they are discarded.
+     */
+    public void release(byte[][] buffers, boolean reuse) {
+        if (buffers != null) {
+            if (reuse) {
+                for (byte[] buffer : buffers) {
+                    free.offer(buffer);
+                }
+            }
+            available.release(buffers.length);
+        }
+    }
+
+    /**
+     * Borrow an I/O buffer.  The buffer must be returned with
+     * <code>returnBuffer</code> when it is no longer used.
+     *
+     * @return A buffer of <code>bundler.io.buffer_kb</code>.
+     */
+    public byte[] getBuffer() {
+        byte[] buffer = idle.poll();
+        if (buffer == null) {
+            return new byte[bufferSize];
+        }
+        idleCount.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer obtained through <code>getBuffer</code>.  The buffer
+     * is kept for reuse unless the maximum number of idle buffers has been
+     * reached.
+     *
+     * @param buffer The buffer.
+     */
+    public void returnBuffer(byte[] buffer) {
+        if ((buffer != null) && (buffer.length == bufferSize)) {
+            if (idleCount.incrementAndGet() <= maxIdle) {
+                idle.offer(buffer);
+            }
+            else {
+                idleCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class BufferPoolHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static BufferPool _factory = new BufferPool();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static BufferPool getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package mil.nga.bundler.archive;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+
+/**
+ * Pool of <code>Deflater</code> and <code>Inflater</code> instances.
+ * Each instance holds native zlib state that is only freed by
+ * <code>end()</code> (or, if that is never called, by finalization), so
+ * creating one per archive or manifest puts pressure on native memory when
+ * many jobs run at once.  Pooled instances are reset and reused instead.
+ *
+ * Deflaters are pooled separately for each compression level and header
+ * mode.  Up to <code>bundler.io.max_idle</code> idle instances of each
+ * kind are kept; any beyond that are ended when they are returned.
+ *
+ * Note: the ZIP archive stream in commons-compress creates (and ends) its
+ * own <code>Deflater</code> and does not accept one from outside, so the
+ * pool is used by the GZIP output (<code>GzipDeflaterOutputStream</code>)
+ * and the file manifest codec.
+ *
+ * @author L. Craig Carpenter
+ */
+public class CodecPool extends PropertyLoader implements BundlerConstantsI {
+
+    // Private internal members
+    private final int                               maxIdle;
+    private final Map<Integer, LinkedList<Deflater>> deflaters =
+            new HashMap<Integer, LinkedList<Deflater>>();
+    private final Map<Boolean, LinkedList<Inflater>> inflaters =
+            new HashMap<Boolean, LinkedList<Inflater>>();
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private CodecPool() {
+        super(PROPERTY_FILE_NAME);
+        maxIdle = (int)Math.max(0L, getLongProperty(
+                IO_MAX_IDLE_PROPERTY,
+                DEFAULT_IO_MAX_IDLE));
+    }
+
+    /**
+     * Return a singleton instance to the CodecPool object.
+     * @return The CodecPool
+     */
+    public static CodecPool getInstance() {
+        return CodecPoolHolder.getFactorySingleton();
+    }
+
+    /**
+     * Key identifying the deflaters that can be exchanged for one another.
+     *
+     * @param level The compression level.
+     * @param nowrap True if the zlib header and checksum are omitted.
+     * @return The pool key.
+     */
+    private static Integer key(int level, boolean nowrap) {
+        return Integer.valueOf((level * 2) + (nowrap ? 1 : 0));
+    }
+
+    /**
+     * Borrow a <code>Deflater</code>.  It must be returned with
+     * <code>returnDeflater</code> rather than ended.
+     *
+     * @param level The compression level.
+     * @param nowrap True if the zlib header and checksum are omitted
+     * (i.e. GZIP and ZIP data).
+     * @return A deflater in its initial state.
+     */
+    public Deflater getDeflater(int level, boolean nowrap) {
+        synchronized (deflaters) {
+            LinkedList<Deflater> list = deflaters.get(key(level, nowrap));
+            if ((list != null) && (!list.isEmpty())) {
+                return list.removeFirst();
+            }
+        }
+        return new PooledDeflater(level, nowrap);
+    }
+
+    /**
+     * Return a <code>Deflater</code> obtained through
+     * <code>getDeflater</code>.
+     *
+     * @param deflater The deflater.
+     */
+    public void returnDeflater(Deflater deflater) {
+        if (deflater instanceof PooledDeflater) {
+            PooledDeflater pooled = (PooledDeflater)deflater;
+            pooled.reset();
+            synchronized (deflaters) {
+                Integer key = key(pooled.level, pooled.nowrap);
+                LinkedList<Deflater> list = deflaters.get(key);
+                if (list == null) {
+                    list = new LinkedList<Deflater>();
+                    deflaters.put(key, list);
+                }
+                if (list.size() < maxIdle) {
+                    list.addFirst(pooled);
+                    return;
+                }
+            }
+        }
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Borrow an <code>Inflater</code>.  It must be returned with
+     * <code>returnInflater</code> rather than ended.
+     *
+     * @param nowrap True if the zlib header and checksum are omitted.
+     * @return An inflater in its initial state.
+     */
+    public Inflater getInflater(boolean nowrap) {
+        synchronized (inflaters) {
+            LinkedList<Inflater> list = inflaters.get(nowrap);
+            if ((list != null) && (!list.isEmpty())) {
+                return list.removeFirst();
+            }
+        }
+        return new PooledInflater(nowrap);
+    }
+
+    /**
+     * Return an <code>Inflater</code> obtained through
+     * <code>getInflater</code>.
+     *
+     * @param inflater The inflater.
+     */
+    public void returnInflater(Inflater inflater) {
+        if (inflater instanceof PooledInflater) {
+            PooledInflater pooled = (PooledInflater)inflater;
+            pooled.reset();
+            synchronized (inflaters) {
+                LinkedList<Inflater> list = inflaters.get(pooled.nowrap);
+                if (list == null) {
+                    list = new LinkedList<Inflater>();
+                    inflaters.put(pooled.nowrap, list);
+                }
+                if (list.size() < maxIdle) {
+                    list.addFirst(pooled);
+                    return;
+                }
+            }
+        }
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Deflater remembering the settings it was created with (which cannot
+     * be read back from <code>Deflater</code>).
+     */
+    private static final class PooledDeflater extends Deflater {
+
+        private final int     level;
+        private final boolean nowrap;
+
+        private PooledDeflater(int level, boolean nowrap) {
+            super(level, nowrap);
+            this.level  = level;
+            this.nowrap = nowrap;
+        }
+    }
+
+    /**
+     * Inflater remembering the header mode it was created with.
+     */
+    private static final class PooledInflater extends Inflater {
+
+        private final boolean nowrap;
+
+        private PooledInflater(boolean nowrap) {
+            super(nowrap);
+            this.nowrap = nowrap;
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class CodecPoolHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static CodecPool _factory = new CodecPool();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static CodecPool getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
@@ -3,11 +3,16 @@ package mil.nga.bundler.archive;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.List;
 
+import mil.nga.bundler.exceptions.ArchiveException;
+import mil.nga.bundler.model.ArchiveElement;
 import mil.nga.bundler.types.ArchiveType;
 
 import org.slf4j.Logger;
@@ -28,8 +33,9 @@ public abstract class Compressor extends TarArchiver {
     final static Logger LOGGER = LoggerFactory.getLogger(Compressor.class);
     
     /**
-     * Buffer size to use when creating the output compressed file.
-     * TODO: Tweak this value for better performance.
+     * Buffer size formerly used when creating the output compressed file.
+     * The buffer now comes from the <code>BufferPool</code> (see 
+     * <code>bundler.io.buffer_kb</code>).
      */
     protected static final int BUFFER_SIZE = 8192;
     
@@ -38,22 +44,46 @@ public abstract class Compressor extends TarArchiver {
      */
     public Compressor() { }
     
+    /**
+     * The intermediate TAR file is post-processed, so retain the TAR 
+     * checkpoint until the compressed file has been created.  This allows 
+     * the compression step to be restarted without rebuilding the TAR file.
+     * 
+     * @return Always true.
+     */
+    @Override
+    protected boolean retainCheckpoint() {
+        return true;
+    }
+    
     /**
      * This method takes an InputStream and pipes it through a compressor 
      * algorithm.  The specific algorithm used is determined by subclasses.
+     * Reads of the intermediate TAR file are charged against the bandwidth 
+     * limits of the staging mount and of the job, which also paces the 
+     * compressed output written back to the staging area.
      * 
      * @param in BufferedInputStream associated with the input TAR file to
      * be compressed.  
      * @param out Concrete implementation of an output Compressor.
+     * @throws ArchiveException Thrown if the job is cancelled during 
+     * compression.
      * @throws IOException Thrown if there are problems with any of processing
      * associated with reading or writing the data in the pipe operation. 
      */
     public void compress(BufferedInputStream in, OutputStream out) 
-            throws IOException {
-        final byte[] buffer = new byte[BUFFER_SIZE];
+            throws ArchiveException, IOException {
+        final byte[] buffer = BufferPool.getInstance().getBuffer();
+        InputStream  source = throttle(in, getOutputFile());
         int n = 0;
-        while (-1 != (n = in.read(buffer))) {
-            out.write(buffer, 0, n);
+        try {
+            while (-1 != (n = source.read(buffer))) {
+                checkCancelled();
+                out.write(buffer, 0, n);
+            }
+        }
+        finally {
+            BufferPool.getInstance().returnBuffer(buffer);
         }
     }
     
@@ -64,16 +94,37 @@ public abstract class Compressor extends TarArchiver {
      * @param tarFile Intermediate TAR file.
      * @param type Compression algorithm to use in creating the output 
      * compressed file.
+     * @throws ArchiveException Thrown if the job is cancelled during 
+     * compression.
      * @throws IOException Thrown if there are errors interacting with the
      * file system.
      */
     protected void compress(URI tarFile, ArchiveType type) 
-            throws IOException {
+            throws ArchiveException, IOException {
         
         URI compressedFile = null;
         
-        // Reset the output archive name
-        setOutputFile(tarFile, type.getText());
+        // Reset the output archive name.  The intermediate TAR file is 
+        // named by appending the TAR extension to the requested output 
+        // file so strip it back off (i.e. archive.gz.tar => archive.gz) 
+        // rather than creating archive.gz.tar.gz.
+        URI    target = tarFile;
+        String suffix = "." + ArchiveType.TAR.getText();
+        String path   = tarFile.getPath();
+        if (path.endsWith("." + type.getText() + suffix)) {
+            try {
+                target = new URI(
+                        tarFile.getScheme(), 
+                        tarFile.getAuthority(), 
+                        path.substring(0, path.length() - suffix.length()), 
+                        tarFile.getQuery(), 
+                        tarFile.getFragment());
+            }
+            // We're creating a URI from an existing URI so we should never 
+            // get this exception.
+            catch (URISyntaxException use) { }
+        }
+        setOutputFile(target, type.getText());
         compressedFile = getOutputFile();
         
         // Compress the tar file.
@@ -87,6 +138,7 @@ public abstract class Compressor extends TarArchiver {
                     + compressedFile.toString()
                     + " ] Deleting the intermediate TAR file.");
             Files.deleteIfExists(Paths.get(tarFile));
+            TarCheckpoint.delete(Paths.get(tarFile));
         }
         else {
             LOGGER.error("Output compressed file does not exist.  Unknown "
@@ -94,6 +146,36 @@ public abstract class Compressor extends TarArchiver {
         }
     }
     
+    /**
+     * Write the compressed TAR archive of the input files directly to the 
+     * input stream.  The TAR data is compressed as it is produced, so no 
+     * intermediate TAR file is created.
+     * 
+     * @param files List of files to Archive.
+     * @param out The stream to which the archive is written.  The stream 
+     * is closed when the archive is complete.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if there are problems accessing any of 
+     * the target files or writing the stream.
+     */
+    @Override
+    public void bundle(List<ArchiveElement> files, OutputStream out) 
+            throws ArchiveException, IOException {
+        super.bundle(files, openCompressor(out));
+    }
+    
+    /**
+     * Wrap the input stream with the compression algorithm implemented by 
+     * the subclass.
+     * 
+     * @param out The stream to which the compressed data is written.
+     * @return The compressing stream.  Closing it closes the input stream.
+     * @throws IOException Thrown if the compressed stream cannot be 
+     * initialized.
+     */
+    protected abstract OutputStream openCompressor(OutputStream out) 
+            throws IOException;
+    
     /**
      * Compress the data contained in the input file using the specified 
      * compression algorithms storing the compressed data in the file
@@ -101,7 +183,9 @@ public abstract class Compressor extends TarArchiver {
      * 
      * @param inputFile The input TAR archive
      * @param outputFile The compressed output file.
+     * @throws ArchiveException Thrown if the job is cancelled during 
+     * compression.
      */
     public abstract void compress(URI inputFile, URI outputFile) throws 
-            IOException;
+            ArchiveException, IOException;
 }
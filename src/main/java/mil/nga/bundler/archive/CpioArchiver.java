@@ -100,18 +100,11 @@ public class CpioArchiver extends Archiver implements BundlerI {
             try (CpioArchiveOutputStream cpioaos = 
                     new CpioArchiveOutputStream(
                             new BufferedOutputStream(
-                                    Files.newOutputStream(
+                                    openOutput(Files.newOutputStream(
                                             Paths.get(getOutputFile()), 
                                             StandardOpenOption.CREATE, 
-                                            StandardOpenOption.WRITE)))) {
-                for (ArchiveElement element : files) {
-                    cpioaos.putArchiveEntry(
-                            getArchiveEntry(
-                                    element.getURI(),
-                                    element.getEntryPath()));
-                    copyOneFile(cpioaos, element.getURI());
-                    notify(element);
-                }
+                                            StandardOpenOption.WRITE))))) {
+                writeEntries(cpioaos, files);
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Output archive [ "
                             + getOutputFile()
@@ -0,0 +1,519 @@
+package mil.nga.bundler.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.compress.utils.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.model.ArchiveElement;
+import mil.nga.bundler.services.MetricsService;
+
+/**
+ * Disk cache of compressed ZIP entries.  The same popular files are
+ * requested by many jobs; rather than deflating them again for every
+ * archive, <code>ZipArchiver</code> stores the raw deflate stream of each
+ * file it compresses here and copies it into later archives as a raw
+ * entry.
+ *
+ * Entries are keyed by the file URI, size, modification time and
+ * compression level, so a file that changes is simply compressed again
+ * (and the stale entry ages out).  Each cache file holds the deflate
+ * stream followed by a trailer with the CRC and uncompressed size.  The
+ * cache is bounded by <code>bundler.zip.deflate_cache_mb</code> and the
+ * least recently used entries are removed when it is exceeded.  Only
+ * local files of at least <code>bundler.zip.deflate_cache_min_kb</code>
+ * are cached.  The index is rebuilt from the cache directory at start-up
+ * (using the modification time of each cache file, which is updated on
+ * every hit, as the last use).
+ *
+ * @author L. Craig Carpenter
+ */
+public class DeflateCache extends PropertyLoader implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            DeflateCache.class);
+
+    /**
+     * Extension of the cache files.
+     */
+    private static final String CACHE_EXTENSION = ".deflate";
+
+    /**
+     * Extension of the cache files being written.
+     */
+    private static final String SPOOL_EXTENSION = ".tmp";
+
+    /**
+     * Marker at the end of each cache file.
+     */
+    private static final long TRAILER_MAGIC = 0x424e444c44464c31L;
+
+    /**
+     * Size of the trailer (CRC, uncompressed size and marker).
+     */
+    private static final int TRAILER_SIZE = 24;
+
+    /**
+     * The cache files (and their sizes) in least recently used order.
+     */
+    private final LinkedHashMap<String, Long> index =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    // Private internal members
+    private final long quota;
+    private final long minSize;
+    private Path       directory = null;
+    private long       total     = 0L;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private DeflateCache() {
+        super(PROPERTY_FILE_NAME);
+        String value = null;
+        try {
+            value = getProperty(DEFLATE_CACHE_DIR_PROPERTY);
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        quota   = Math.max(0L, getLongProperty(
+                DEFLATE_CACHE_MB_PROPERTY,
+                DEFAULT_DEFLATE_CACHE_MB)) * BYTES_PER_MEGABYTE;
+        minSize = Math.max(0L, getLongProperty(
+                DEFLATE_CACHE_MIN_KB_PROPERTY,
+                DEFAULT_DEFLATE_CACHE_MIN_KB)) * 1024L;
+        load(value);
+    }
+
+    /**
+     * Return a singleton instance to the DeflateCache object.
+     * @return The DeflateCache
+     */
+    public static DeflateCache getInstance() {
+        return DeflateCacheHolder.getFactorySingleton();
+    }
+
+    /**
+     * Create the cache directory and index the cache files it already
+     * holds.  The cache stays disabled if this fails.
+     *
+     * @param value The configured cache directory.
+     */
+    private void load(String value) {
+        if ((value == null) || (value.trim().isEmpty()) || (quota <= 0L)) {
+            LOGGER.info("Compressed entry cache is disabled.");
+            return;
+        }
+        Path dir = Paths.get(value.trim());
+        try {
+            Files.createDirectories(dir);
+            final Map<Path, FileTime> used  = new LinkedHashMap<Path, FileTime>();
+            List<Path>                files = new ArrayList<Path>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path file : stream) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(SPOOL_EXTENSION)) {
+                        Files.deleteIfExists(file);
+                    }
+                    else if (name.endsWith(CACHE_EXTENSION)) {
+                        used.put(file, Files.getLastModifiedTime(file));
+                        files.add(file);
+                    }
+                }
+            }
+            Collections.sort(files, new Comparator<Path>() {
+                @Override
+                public int compare(Path a, Path b) {
+                    return used.get(a).compareTo(used.get(b));
+                }
+            });
+            synchronized (index) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    long   size = Files.size(file);
+                    index.put(name.substring(
+                            0, name.length() - CACHE_EXTENSION.length()), size);
+                    total += size;
+                }
+            }
+            LOGGER.info("Compressed entry cache [ "
+                    + dir.toString()
+                    + " ] holds [ "
+                    + files.size()
+                    + " ] entries ([ "
+                    + total
+                    + " ] of [ "
+                    + quota
+                    + " ] bytes).");
+            directory = dir;
+            evict(null);
+        }
+        catch (IOException ioe) {
+            LOGGER.error("Unable to open the compressed entry cache [ "
+                    + dir.toString()
+                    + " ].  The cache is disabled.  Exception message => [ "
+                    + ioe.getMessage()
+                    + " ].");
+        }
+    }
+
+    /**
+     * Getter method indicating whether the cache is enabled.
+     * @return True if enabled.
+     */
+    public boolean isEnabled() {
+        return (directory != null);
+    }
+
+    /**
+     * Calculate the cache key of a file.
+     *
+     * @param element The file.
+     * @param level The compression level.
+     * @return The key, or null if the file is not cached (the cache is
+     * disabled, the file is not local, or is too small or too large).
+     */
+    public String getKey(ArchiveElement element, int level) {
+        URI file = element.getURI();
+        if ((!isEnabled()) ||
+                (file == null) ||
+                (!"file".equalsIgnoreCase(file.getScheme())) ||
+                (element.getSize() < minSize) ||
+                (element.getSize() > quota / 2L)) {
+            return null;
+        }
+        try {
+            Path path = Paths.get(file);
+            return DigestUtils.sha1Hex((file.toString()
+                    + "|"
+                    + Files.size(path)
+                    + "|"
+                    + Files.getLastModifiedTime(path).toMillis()
+                    + "|"
+                    + level).getBytes(Charset.forName("UTF-8")));
+        }
+        catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Determine whether the cache holds an entry.
+     *
+     * @param key The cache key.
+     * @return True if the entry is cached.
+     */
+    public boolean contains(String key) {
+        synchronized (index) {
+            return index.containsKey(key);
+        }
+    }
+
+    /**
+     * Open a cached entry.  The entry is marked as used.
+     *
+     * @param key The cache key.
+     * @return The entry, or null if it is not cached (or the cache file
+     * is unreadable, in which case it is removed).
+     */
+    public CachedEntry open(String key) {
+        synchronized (index) {
+            if (index.get(key) == null) {
+                return null;
+            }
+        }
+        Path        file    = getFile(key);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            long length = channel.size() - TRAILER_SIZE;
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            while (trailer.hasRemaining() &&
+                    (channel.read(trailer, length + trailer.position()) > 0)) { }
+            trailer.flip();
+            if ((length < 0L) ||
+                    (trailer.remaining() < TRAILER_SIZE) ||
+                    (trailer.getLong(16) != TRAILER_MAGIC)) {
+                throw new IOException("Invalid cache file trailer.");
+            }
+            try {
+                Files.setLastModifiedTime(file,
+                        FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            catch (IOException ioe) { }
+            return new CachedEntry(
+                    channel,
+                    trailer.getLong(0),
+                    trailer.getLong(8),
+                    length);
+        }
+        catch (IOException ioe) {
+            if (channel != null) {
+                try { channel.close(); } catch (IOException e) { }
+            }
+            LOGGER.warn("Unable to read the cached entry [ "
+                    + file.toString()
+                    + " ].  The entry is removed.  Exception message => [ "
+                    + ioe.getMessage()
+                    + " ].");
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Create the file into which an entry is compressed before it is
+     * added with <code>put()</code>.
+     *
+     * @param key The cache key.
+     * @return The spool file.  The caller deletes it if the entry is not
+     * added.
+     */
+    public Path newSpool(String key) {
+        return directory.resolve(key
+                + "."
+                + UUID.randomUUID().toString()
+                + SPOOL_EXTENSION);
+    }
+
+    /**
+     * Add an entry to the cache.  The trailer is appended to the spool
+     * file, which is then moved into place, and the least recently used
+     * entries are removed if the cache is over its quota.
+     *
+     * @param key The cache key.
+     * @param spool The raw deflate stream of the file.
+     * @param crc The CRC of the file.
+     * @param size The uncompressed size of the file.
+     * @return True if the entry was added.
+     */
+    public boolean put(String key, Path spool, long crc, long size) {
+        try {
+            try (FileChannel channel = FileChannel.open(
+                    spool, StandardOpenOption.APPEND)) {
+                ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+                trailer.putLong(crc).putLong(size).putLong(TRAILER_MAGIC);
+                trailer.flip();
+                while (trailer.hasRemaining()) {
+                    channel.write(trailer);
+                }
+            }
+            long length = Files.size(spool);
+            synchronized (index) {
+                Files.move(spool, getFile(key),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                Long previous = index.put(key, length);
+                total += length - (previous == null ? 0L : previous);
+            }
+            MetricsService.getInstance().increment("deflate_cache.writes");
+            evict(key);
+            return true;
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("Unable to add an entry to the compressed entry "
+                    + "cache.  Exception message => [ "
+                    + ioe.getMessage()
+                    + " ].");
+            try { Files.deleteIfExists(spool); } catch (IOException e) { }
+            return false;
+        }
+    }
+
+    /**
+     * Remove the least recently used entries until the cache is within
+     * its quota.
+     *
+     * @param keep An entry that must not be removed (the one just added).
+     */
+    private void evict(String keep) {
+        List<String> removed = new ArrayList<String>();
+        synchronized (index) {
+            Iterator<Map.Entry<String, Long>> iter =
+                    index.entrySet().iterator();
+            while ((total > quota) && (iter.hasNext())) {
+                Map.Entry<String, Long> entry = iter.next();
+                if (entry.getKey().equals(keep)) {
+                    continue;
+                }
+                total -= entry.getValue();
+                removed.add(entry.getKey());
+                iter.remove();
+            }
+        }
+        for (String key : removed) {
+            try {
+                Files.deleteIfExists(getFile(key));
+            }
+            catch (IOException ioe) {
+                LOGGER.warn("Unable to delete cache file [ "
+                        + getFile(key).toString()
+                        + " ].  Exception message => [ "
+                        + ioe.getMessage()
+                        + " ].");
+            }
+        }
+        MetricsService.getInstance().add(
+                "deflate_cache.evictions", removed.size());
+    }
+
+    /**
+     * Remove an entry from the cache.
+     *
+     * @param key The cache key.
+     */
+    private void remove(String key) {
+        synchronized (index) {
+            Long length = index.remove(key);
+            if (length != null) {
+                total -= length;
+            }
+        }
+        try {
+            Files.deleteIfExists(getFile(key));
+        }
+        catch (IOException ioe) { }
+    }
+
+    /**
+     * Get the cache file of an entry.
+     *
+     * @param key The cache key.
+     * @return The cache file.
+     */
+    private Path getFile(String key) {
+        return directory.resolve(key + CACHE_EXTENSION);
+    }
+
+    /**
+     * A cached entry opened for reading.  Closing the entry closes the
+     * stream.
+     */
+    public static final class CachedEntry implements Closeable {
+
+        // Private internal members
+        private final FileChannel channel;
+        private final long        crc;
+        private final long        size;
+        private final long        compressedSize;
+
+        /**
+         * Constructor.
+         *
+         * @param channel The open cache file.
+         * @param crc The CRC of the file.
+         * @param size The uncompressed size of the file.
+         * @param compressedSize The size of the deflate stream.
+         */
+        private CachedEntry(
+                FileChannel channel,
+                long        crc,
+                long        size,
+                long        compressedSize) {
+            this.channel        = channel;
+            this.crc            = crc;
+            this.size           = size;
+            this.compressedSize = compressedSize;
+        }
+
+        /**
+         * Getter method for the CRC of the file.
+         * @return The CRC.
+         */
+        public long getCrc() {
+            return crc;
+        }
+
+        /**
+         * Getter method for the uncompressed size of the file.
+         * @return The size in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Getter method for the size of the raw deflate stream.
+         * @return The compressed size in bytes.
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Open a stream over the raw deflate stream.
+         * @return The stream.
+         * @throws IOException Thrown if the cache file cannot be read.
+         */
+        public InputStream getInputStream() throws IOException {
+            channel.position(0L);
+            return new BoundedInputStream(
+                    Channels.newInputStream(channel), compressedSize);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class DeflateCacheHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static DeflateCache _factory = new DeflateCache();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static DeflateCache getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
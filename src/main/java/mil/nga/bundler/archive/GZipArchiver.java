@@ -2,6 +2,7 @@ package mil.nga.bundler.archive;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -14,8 +15,6 @@ import mil.nga.bundler.exceptions.ArchiveException;
 import mil.nga.bundler.model.ArchiveElement;
 import mil.nga.bundler.types.ArchiveType;
 
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +47,19 @@ public class GZipArchiver extends Compressor implements BundlerI {
      */
     public GZipArchiver() { }
     
+    /**
+     * Wrap the input stream with a GZIP compressor.
+     * 
+     * @param out The stream to which the compressed data is written.
+     * @return The compressing stream.
+     * @throws IOException Thrown if the GZIP header cannot be written.
+     */
+    @Override
+    protected OutputStream openCompressor(OutputStream out) 
+            throws IOException {
+        return new GzipDeflaterOutputStream(out);
+    }
+    
     /**
      * Compress the data contained in the input file using the GZip
      * compression algorithms storing the compressed data in the file
@@ -58,7 +70,7 @@ public class GZipArchiver extends Compressor implements BundlerI {
      */
     @Override
     public void compress(URI inputFile, URI outputFile) 
-            throws IOException {
+            throws ArchiveException, IOException {
         
         try (
         	// s3fs file system provider does not currently support OpenOptions.
@@ -69,11 +81,11 @@ public class GZipArchiver extends Compressor implements BundlerI {
             //                StandardOpenOption.READ));
             BufferedInputStream bIn = new BufferedInputStream(
                     Files.newInputStream(Paths.get(inputFile)));
-            GzipCompressorOutputStream bzOut = new GzipCompressorOutputStream(
-                    Files.newOutputStream(
+            OutputStream bzOut = openCompressor(
+                    openOutput(Files.newOutputStream(
                             Paths.get(outputFile), 
                             StandardOpenOption.CREATE, 
-                            StandardOpenOption.WRITE))) {
+                            StandardOpenOption.WRITE)))) {
             // Pipe the input stream to the output stream
             compress(bIn, bzOut);
         }
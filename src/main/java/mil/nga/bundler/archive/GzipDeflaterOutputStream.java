@@ -0,0 +1,107 @@
+package mil.nga.bundler.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * GZIP (RFC 1952) output stream using a <code>Deflater</code> and buffer
+ * borrowed from the <code>CodecPool</code> and <code>BufferPool</code>.
+ * Both <code>java.util.zip.GZIPOutputStream</code> and the commons-compress
+ * GZIP stream allocate a new <code>Deflater</code> per stream.  The output
+ * is a standard single-member GZIP file.
+ *
+ * @author L. Craig Carpenter
+ */
+final class GzipDeflaterOutputStream extends DeflaterOutputStream {
+
+    /**
+     * GZIP member header: magic number, deflate, no flags, no
+     * modification time, no extra flags, unknown OS.
+     */
+    private static final byte[] HEADER = {
+            (byte)0x1f, (byte)0x8b, Deflater.DEFLATED,
+            0, 0, 0, 0, 0, 0, (byte)0xff };
+
+    // Private internal members
+    private final CRC32 crc      = new CRC32();
+    private boolean     finished = false;
+    private boolean     closed   = false;
+
+    /**
+     * Constructor.  Writes the GZIP header.
+     *
+     * @param out The underlying output stream.
+     * @throws IOException Thrown if the header cannot be written.
+     */
+    GzipDeflaterOutputStream(OutputStream out) throws IOException {
+        super(out,
+                CodecPool.getInstance().getDeflater(
+                        Deflater.DEFAULT_COMPRESSION, true),
+                1);
+        buf = BufferPool.getInstance().getBuffer();
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        super.write(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    /**
+     * Write the remaining compressed data and the GZIP trailer (CRC-32 and
+     * uncompressed size, little-endian) without closing the underlying
+     * stream.
+     */
+    @Override
+    public void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            def.finish();
+            while (!def.finished()) {
+                deflate();
+            }
+            writeInt(crc.getValue());
+            writeInt(def.getBytesRead());
+        }
+    }
+
+    /**
+     * Finish the stream, close the underlying stream and return the
+     * deflater and buffer to their pools.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                finish();
+            }
+            finally {
+                try {
+                    out.close();
+                }
+                finally {
+                    CodecPool.getInstance().returnDeflater(def);
+                    BufferPool.getInstance().returnBuffer(buf);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the low 32 bits of the input value in little-endian order.
+     *
+     * @param value The value.
+     * @throws IOException Thrown if the value cannot be written.
+     */
+    private void writeInt(long value) throws IOException {
+        out.write((int)(value & 0xff));
+        out.write((int)((value >> 8) & 0xff));
+        out.write((int)((value >> 16) & 0xff));
+        out.write((int)((value >> 24) & 0xff));
+    }
+}
@@ -0,0 +1,450 @@
+package mil.nga.bundler.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.bundler.exceptions.ArchiveCancelledException;
+import mil.nga.bundler.model.ArchiveElement;
+import mil.nga.bundler.services.MetricsService;
+import mil.nga.util.TimedInputStream;
+
+/**
+ * Read-ahead stage of the archive build pipeline.  A small number of reader
+ * threads read the source files that follow the file currently being
+ * written to the archive into buffers leased from the
+ * <code>BufferPool</code>.  The archive thread then consumes each file
+ * from memory, so the source reads overlap with the compression and
+ * output of the preceding files.
+ *
+ * At most <code>bundler.pipeline.read_ahead</code> files are in flight and
+ * each file holds at most <code>CHUNKS_PER_FILE</code> buffers, so the
+ * memory used is fixed when the prefetcher starts.  Because every file has
+ * its own buffer quota, the file the archive thread is waiting on can
+ * always make progress.
+ *
+ * Source reads go through the same I/O permits, bandwidth limits and read
+ * statistics as the sequential copy in <code>Archiver</code>.  The I/O
+ * permit is only held while a buffer is being filled, not while a reader
+ * waits for buffer space.
+ *
+ * Files must be consumed in list order.  If the archive thread asks for a
+ * file out of order, or abandons a file part way through, the prefetcher
+ * shuts down and the remaining files are read sequentially.
+ *
+ * @author L. Craig Carpenter
+ */
+final class SourcePrefetcher implements Closeable {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            SourcePrefetcher.class);
+
+    /**
+     * Maximum number of buffers held by any one file.
+     */
+    static final int CHUNKS_PER_FILE = 4;
+
+    /**
+     * Maximum time (in milliseconds) to wait for the reader threads to
+     * exit when the prefetcher is closed.
+     */
+    private static final long JOIN_TIMEOUT = 5000L;
+
+    /**
+     * Marker placed on a file queue after the last buffer of the file.
+     */
+    private static final Chunk END = new Chunk(null, -1, null);
+
+    /**
+     * Number used to name the reader threads.
+     */
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(0);
+
+    // Private internal members
+    private final Archiver                archiver;
+    private final List<ArchiveElement>    files;
+    private final int                     end;
+    private final byte[][]                lease;
+    private final BlockingQueue<byte[]>   free;
+    private final Semaphore               window;
+    private final AtomicInteger           claimed;
+    private final Map<Integer, Slot>      slots   = new HashMap<Integer, Slot>();
+    private final List<Thread>            readers = new ArrayList<Thread>();
+    private volatile boolean              closed  = false;
+    private int                           consumed;
+
+    /**
+     * Constructor.
+     *
+     * @param archiver The archiver consuming the files.
+     * @param files The list of files in archive order.
+     * @param from Index of the first file to read.
+     * @param lease The buffers leased from the <code>BufferPool</code>.
+     * @param readAhead The number of files in flight.
+     */
+    private SourcePrefetcher(
+            Archiver             archiver,
+            List<ArchiveElement> files,
+            int                  from,
+            byte[][]             lease,
+            int                  readAhead) {
+        this.archiver = archiver;
+        this.files    = files;
+        this.end      = files.size();
+        this.lease    = lease;
+        this.consumed = from;
+        free    = new ArrayBlockingQueue<byte[]>(lease.length);
+        for (byte[] buffer : lease) {
+            free.add(buffer);
+        }
+        window  = new Semaphore(readAhead);
+        claimed = new AtomicInteger(from);
+    }
+
+    /**
+     * Start prefetching the input list of files.
+     *
+     * @param archiver The archiver consuming the files.
+     * @param files The list of files in archive order.
+     * @param from Index of the first file to read.
+     * @return The prefetcher, or null if the pipeline is disabled, there is
+     * nothing to prefetch, or the <code>BufferPool</code> cannot supply the
+     * buffers.
+     */
+    static SourcePrefetcher start(
+            Archiver             archiver,
+            List<ArchiveElement> files,
+            int                  from) {
+        BufferPool pool = BufferPool.getInstance();
+        if ((files == null) || (files.size() - from < 2) ||
+                (!pool.isEnabled())) {
+            return null;
+        }
+        int readAhead = Math.min(pool.getReadAhead(), files.size() - from);
+        byte[][] lease = pool.lease(readAhead * CHUNKS_PER_FILE);
+        if (lease == null) {
+            MetricsService.getInstance().increment("pipeline.fallbacks");
+            LOGGER.info("Pipeline buffers exhausted.  Output archive [ "
+                    + archiver.getOutputFile().toString()
+                    + " ] will be built without source read-ahead.");
+            return null;
+        }
+        SourcePrefetcher prefetcher = new SourcePrefetcher(
+                archiver, files, from, lease, readAhead);
+        int count = Math.min(pool.getReaders(), readAhead);
+        for (int i = 0; i < count; i++) {
+            Thread reader = new Thread(prefetcher.new Reader(),
+                    "bundler-prefetch-" + THREAD_NUMBER.incrementAndGet());
+            reader.setDaemon(true);
+            prefetcher.readers.add(reader);
+            reader.start();
+        }
+        return prefetcher;
+    }
+
+    /**
+     * Obtain the stream for the next file in the list.
+     *
+     * @param file The file the archive thread is about to copy.
+     * @return A stream over the prefetched data, or null if the file must
+     * be read directly (in which case the prefetcher has been closed).
+     */
+    InputStream next(URI file) {
+        if (closed) {
+            return null;
+        }
+        if ((consumed >= end) ||
+                (!files.get(consumed).getURI().equals(file))) {
+            LOGGER.warn("Archive file [ "
+                    + file
+                    + " ] requested out of order.  Source read-ahead "
+                    + "disabled for output archive [ "
+                    + archiver.getOutputFile().toString()
+                    + " ].");
+            close();
+            return null;
+        }
+        return new PrefetchedInputStream(getSlot(consumed++));
+    }
+
+    /**
+     * Stop the reader threads and return the buffers to the
+     * <code>BufferPool</code>.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Thread reader : readers) {
+            reader.interrupt();
+        }
+        boolean stopped = true;
+        try {
+            for (Thread reader : readers) {
+                reader.join(JOIN_TIMEOUT);
+                stopped = stopped && (!reader.isAlive());
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            stopped = false;
+        }
+        // A reader that could not be stopped may still write into the
+        // buffers so they are not reused.
+        BufferPool.getInstance().release(lease, stopped);
+    }
+
+    /**
+     * Look up (or create) the slot for the file at the input index.
+     *
+     * @param index The index of the file in the list.
+     * @return The slot.
+     */
+    private synchronized Slot getSlot(int index) {
+        Slot slot = slots.get(index);
+        if (slot == null) {
+            slot = new Slot();
+            slots.put(index, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Called when the archive thread has finished with a file.
+     *
+     * @param slot The slot of the file.
+     */
+    private void finished(Slot slot) {
+        synchronized (this) {
+            slots.values().remove(slot);
+        }
+        window.release();
+    }
+
+    /**
+     * Unit of data passed from a reader to the archive thread.
+     */
+    private static final class Chunk {
+
+        private final byte[]      data;
+        private final int         length;
+        private final IOException error;
+
+        private Chunk(byte[] data, int length, IOException error) {
+            this.data   = data;
+            this.length = length;
+            this.error  = error;
+        }
+    }
+
+    /**
+     * The buffers of one file in flight.
+     */
+    private static final class Slot {
+
+        private final BlockingQueue<Chunk> chunks =
+                new LinkedBlockingQueue<Chunk>();
+        private final Semaphore            quota  =
+                new Semaphore(CHUNKS_PER_FILE);
+    }
+
+    /**
+     * Reader thread.  Claims the files in list order and reads each one
+     * into its slot.
+     */
+    private final class Reader implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    window.acquire();
+                    int index = claimed.getAndIncrement();
+                    if (index >= end) {
+                        window.release();
+                        break;
+                    }
+                    read(files.get(index).getURI(), getSlot(index));
+                }
+            }
+            catch (InterruptedException ie) {
+                // Prefetcher closed.
+            }
+            catch (ArchiveCancelledException ace) {
+                // Interrupted while waiting for an I/O permit.
+            }
+        }
+
+        /**
+         * Read one file into its slot.  I/O errors are handed to the
+         * archive thread rather than raised here.
+         *
+         * @param file The file to read.
+         * @param slot The slot receiving the data.
+         * @throws InterruptedException Thrown if the prefetcher is closed.
+         * @throws ArchiveCancelledException Thrown if interrupted while
+         * waiting for an I/O permit.
+         */
+        private void read(URI file, Slot slot)
+                throws InterruptedException, ArchiveCancelledException {
+            byte[] buffer = null;
+            try (TimedInputStream source = new TimedInputStream(
+                        archiver.openSource(file));
+                 InputStream in = archiver.throttle(source, file)) {
+                int n = 0;
+                while (n != -1) {
+                    slot.quota.acquire();
+                    buffer = free.take();
+                    int length = 0;
+                    String mount = archiver.acquireIOPermit(file);
+                    try {
+                        while ((length < buffer.length) &&
+                                (-1 != (n = in.read(
+                                        buffer,
+                                        length,
+                                        buffer.length - length)))) {
+                            length += n;
+                        }
+                    }
+                    finally {
+                        archiver.releaseIOPermit(mount);
+                    }
+                    if (length > 0) {
+                        slot.chunks.put(new Chunk(buffer, length, null));
+                    }
+                    else {
+                        free.put(buffer);
+                        slot.quota.release();
+                    }
+                    buffer = null;
+                }
+                archiver.recordRead(source);
+                slot.chunks.put(END);
+            }
+            catch (IOException ioe) {
+                if (closed) {
+                    throw new InterruptedException();
+                }
+                if (buffer != null) {
+                    free.put(buffer);
+                    slot.quota.release();
+                }
+                slot.chunks.put(new Chunk(null, 0, ioe));
+            }
+        }
+    }
+
+    /**
+     * Stream over the prefetched data of one file.  Buffers are returned to
+     * the prefetcher as soon as they have been consumed.
+     */
+    private final class PrefetchedInputStream extends InputStream {
+
+        private final Slot slot;
+        private Chunk      current  = null;
+        private int        position = 0;
+        private boolean    done     = false;
+
+        private PrefetchedInputStream(Slot slot) {
+            this.slot = slot;
+        }
+
+        /**
+         * Make the next chunk of data current.
+         *
+         * @return False at the end of the file.
+         * @throws IOException Thrown if the file could not be read.
+         */
+        private boolean advance() throws IOException {
+            if (done) {
+                return false;
+            }
+            if (current != null) {
+                free.offer(current.data);
+                slot.quota.release();
+                current = null;
+            }
+            Chunk chunk = slot.chunks.poll();
+            if (chunk == null) {
+                long start = System.currentTimeMillis();
+                try {
+                    chunk = slot.chunks.take();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while "
+                            + "waiting for prefetched data.");
+                }
+                MetricsService.getInstance().add("pipeline.prefetch_wait_ms",
+                        System.currentTimeMillis() - start);
+            }
+            if ((chunk == END) || (chunk.error != null)) {
+                done = true;
+                finished(slot);
+                if (chunk.error != null) {
+                    throw chunk.error;
+                }
+                return false;
+            }
+            current  = chunk;
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while ((current == null) || (position >= current.length)) {
+                if (!advance()) {
+                    return -1;
+                }
+            }
+            return current.data[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while ((current == null) || (position >= current.length)) {
+                if (!advance()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current.data, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            if (!done) {
+                // The file was abandoned part way through.  The remaining
+                // chunks cannot be skipped safely so fall back to
+                // sequential reads.
+                done = true;
+                SourcePrefetcher.this.close();
+            }
+        }
+    }
+}
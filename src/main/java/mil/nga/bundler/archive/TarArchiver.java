@@ -2,7 +2,12 @@ package mil.nga.bundler.archive;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -10,13 +15,16 @@ import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 import mil.nga.bundler.types.ArchiveType;
-import mil.nga.bundler.interfaces.BundlerI;
+import mil.nga.bundler.interfaces.RolloverBundlerI;
+import mil.nga.bundler.interfaces.StreamingBundlerI;
 import mil.nga.bundler.exceptions.ArchiveException;
 import mil.nga.bundler.model.ArchiveElement;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,10 +33,28 @@ import org.slf4j.LoggerFactory;
  * Concrete class implementing the logic to create an archive file in 
  * TAR format.
  * 
+ * If a checkpoint interval has been configured (and the output resides on 
+ * the local file system) the archive is checkpointed as it is written. 
+ * After approximately every checkpoint interval bytes the output is forced 
+ * to disk and the offset of the last completed entry is recorded in a 
+ * <code>TarCheckpoint</code> sidecar file.  If a source file cannot be 
+ * read (e.g. a transient error on an NFS mount) the output is truncated 
+ * back to the last checkpoint and writing resumes from there.  The same 
+ * mechanism allows an archive interrupted by a restart to be resumed 
+ * rather than rebuilt.
+ * 
+ * The size of a TAR file follows directly from the sizes of its entries 
+ * (a header record per entry, the data padded to whole records and the 
+ * end-of-archive records padded to a whole block), so an archive built 
+ * with a size limit (see <code>RolloverBundlerI</code>) stops exactly at 
+ * the last entry that fits.  Size-limited archives are not checkpointed.  
+ * The compressors extending this class are not built with a size limit 
+ * as their output size is only known once the data is compressed.
+ * 
  * @author L. Craig Carpenter
  */
 public class TarArchiver 
-        extends Archiver implements BundlerI {
+        extends Archiver implements StreamingBundlerI, RolloverBundlerI {
 
     /**
      * Set up the Log4j system for use throughout the class
@@ -40,6 +66,36 @@ public class TarArchiver
      */
     final private ArchiveType type = ArchiveType.TAR;
     
+    /**
+     * Amount of data (in bytes) written between checkpoints.  A value of 
+     * zero disables checkpointing.
+     */
+    private long checkpointInterval = 0L;
+    
+    /**
+     * Number of times to roll back to the last checkpoint and retry after 
+     * an I/O error.
+     */
+    private long maxRetries = 0L;
+    
+    /**
+     * Delay (in milliseconds) before retrying from the last checkpoint.
+     */
+    private long retryDelay = 0L;
+    
+    /**
+     * Number of entries for which the file completion listeners have been 
+     * notified.  Used to ensure listeners are notified only once per file 
+     * when an archive is rolled back to a checkpoint.
+     */
+    private int notified = 0;
+    
+    /**
+     * Number of bytes taken by the entries written so far.  Only used 
+     * (i.e. non-negative) while an archive is built with a size limit.
+     */
+    private long written = -1L;
+    
     /**
      * Default constructor
      */
@@ -87,7 +143,18 @@ public class TarArchiver
         long startTime = System.currentTimeMillis();
         
         setOutputFile(outputFile);
-        if ((files != null) && (files.size() > 0)) {
+        if ((files != null) && (files.size() > 0) && 
+                (isCheckpointEnabled(Paths.get(getOutputFile())))) {
+            bundleWithCheckpoints(files, Paths.get(getOutputFile()));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Output archive [ "
+                        + getOutputFile()
+                        + " ] created in [ "
+                        + (System.currentTimeMillis() - startTime)
+                        + " ] ms.");
+            }
+        }
+        else if ((files != null) && (files.size() > 0)) {
            
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Creating output archive file [ "
@@ -102,18 +169,11 @@ public class TarArchiver
             try (TarArchiveOutputStream taos = 
                     new TarArchiveOutputStream(
                             new BufferedOutputStream(
-                                    Files.newOutputStream(
+                                    openOutput(Files.newOutputStream(
                                             Paths.get(getOutputFile()), 
                                             StandardOpenOption.CREATE, 
-                                            StandardOpenOption.WRITE)))) {
-                for (ArchiveElement element : files) {
-                    taos.putArchiveEntry(
-                            getArchiveEntry(
-                                    element.getURI(),
-                                    element.getEntryPath()));
-                    copyOneFile(taos, element.getURI());
-                    notify(element);
-                }
+                                            StandardOpenOption.WRITE))))) {
+                writeEntries(taos, files);
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Output archive [ "
                             + getOutputFile()
@@ -128,4 +188,376 @@ public class TarArchiver
                     + "archive not created.");
         }
     }
+    
+    /**
+     * Write a TAR archive containing the input files directly to the input 
+     * stream.  No checkpoints are taken.
+     * 
+     * @param files List of files to Archive.
+     * @param out The stream to which the archive is written.  The stream 
+     * is closed when the archive is complete.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if there are problems accessing any of 
+     * the target files or writing the stream.
+     */
+    @Override
+    public void bundle(List<ArchiveElement> files, OutputStream out) 
+            throws ArchiveException, IOException {
+        try (TarArchiveOutputStream taos = 
+                new TarArchiveOutputStream(new BufferedOutputStream(out))) {
+            writeEntries(taos, files);
+        }
+    }
+    
+    /**
+     * Execute the "bundle" operation to TAR the input files (in order) 
+     * into the output archive, stopping before the first file that would 
+     * make the archive larger than <code>limit</code> bytes.  No 
+     * checkpoints are taken.
+     * 
+     * @param files List of files to Archive.
+     * @param limit The maximum size of the output archive in bytes.
+     * @param outputFile The output file in which the files will be 
+     * archived.
+     * @return The number of files written to the archive.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if there are problems accessing any of 
+     * the target files. 
+     */
+    @Override
+    public int bundle(List<ArchiveElement> files, long limit, URI outputFile) 
+            throws ArchiveException, IOException {
+        
+        long startTime = System.currentTimeMillis();
+        int  count     = 0;
+        
+        setOutputFile(outputFile);
+        if ((files != null) && (files.size() > 0)) {
+            
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Creating output archive file [ "
+                        + getOutputFile().toString()
+                        + " ] with a size limit of [ "
+                        + limit
+                        + " ] bytes.");
+            }
+            
+            // Ensure the target output file does not already exist.
+            Files.deleteIfExists(Paths.get(getOutputFile()));
+            
+            count = bundle(files, limit, openOutput(Files.newOutputStream(
+                    Paths.get(getOutputFile()), 
+                    StandardOpenOption.CREATE, 
+                    StandardOpenOption.WRITE)));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Output archive [ "
+                        + getOutputFile()
+                        + " ] created in [ "
+                        + (System.currentTimeMillis() - startTime)
+                        + " ] ms.");
+            }
+        }
+        else {
+            LOGGER.warn("There are no input files to process.  Output "
+                    + "archive not created.");
+        }
+        return count;
+    }
+    
+    /**
+     * Write a TAR archive containing the input files (in order) to the 
+     * input stream, stopping before the first file that would make the 
+     * archive larger than <code>limit</code> bytes.
+     * 
+     * @param files List of files to Archive.
+     * @param limit The maximum size of the output archive in bytes.
+     * @param out The stream to which the archive is written.  The stream 
+     * is closed when the archive is complete.
+     * @return The number of files written to the archive.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if there are problems accessing any of 
+     * the target files or writing the stream.
+     */
+    @Override
+    public int bundle(List<ArchiveElement> files, long limit, OutputStream out) 
+            throws ArchiveException, IOException {
+        written = 0L;
+        try (TarArchiveOutputStream taos = 
+                new TarArchiveOutputStream(new BufferedOutputStream(out))) {
+            return writeEntries(taos, files, limit);
+        }
+        finally {
+            written = -1L;
+        }
+    }
+    
+    /**
+     * Write a single file to the archive if the completed archive (i.e. 
+     * including the end-of-archive records and the block padding) would 
+     * not exceed <code>limit</code> bytes.
+     * 
+     * @param out The target archive output stream.
+     * @param element The file to write.
+     * @param limit The maximum size of the output archive in bytes.
+     * @param first True if this is the first file of the archive.
+     * @return False if the file was not written because the archive 
+     * would exceed the limit.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if the archive entry cannot be written.
+     */
+    @Override
+    protected boolean writeEntry(
+            ArchiveOutputStream out, 
+            ArchiveElement      element, 
+            long                limit,
+            boolean             first) 
+                    throws ArchiveException, IOException {
+        
+        if (written < 0L) {
+            return super.writeEntry(out, element, limit, first);
+        }
+        
+        ArchiveEntry entry = getArchiveEntry(
+                element.getURI(), 
+                element.getEntryPath());
+        long record  = TarConstants.DEFAULT_RCDSIZE;
+        long size    = record + roundUp(entry.getSize(), record);
+        long archive = roundUp(
+                written + size + (2L * record), 
+                TarConstants.DEFAULT_BLKSIZE);
+        if ((!first) && (archive > limit)) {
+            return false;
+        }
+        out.putArchiveEntry(entry);
+        copyOneFile(out, element.getURI());
+        written += size;
+        return true;
+    }
+    
+    /**
+     * Round the input value up to a multiple of the input unit.
+     * 
+     * @param value The value.
+     * @param unit The unit.
+     * @return The rounded value.
+     */
+    private static long roundUp(long value, long unit) {
+        return ((value + unit - 1L) / unit) * unit;
+    }
+    
+    /**
+     * Determine whether the output archive should be checkpointed.  
+     * Checkpointing requires random access to the output file so it is only 
+     * used when the output resides on the default (local) file system.
+     * 
+     * @param output The output TAR file.
+     * @return True if checkpointing should be used.
+     */
+    private boolean isCheckpointEnabled(Path output) {
+        return ((checkpointInterval > 0) && 
+                (output.getFileSystem() == FileSystems.getDefault()));
+    }
+    
+    /**
+     * Sub-classes that post-process the TAR file (i.e. the compressors) 
+     * override this method to keep the checkpoint file after the TAR file 
+     * is finished.  A finished checkpoint allows the post-processing step to 
+     * be restarted without rebuilding the TAR file.
+     * 
+     * @return True if the checkpoint should be retained after the TAR file 
+     * has been finished.
+     */
+    protected boolean retainCheckpoint() {
+        return false;
+    }
+    
+    /**
+     * Create the output TAR file, checkpointing as the file is written.  If 
+     * a usable checkpoint already exists for the output file, writing 
+     * resumes from the checkpoint. 
+     * 
+     * @param files List of files to Archive.
+     * @param output The output TAR file.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if the archive could not be created after 
+     * the configured number of retries.
+     */
+    private void bundleWithCheckpoints(List<ArchiveElement> files, Path output) 
+            throws ArchiveException, IOException {
+        
+        TarCheckpoint checkpoint = TarCheckpoint.load(output);
+        if ((checkpoint != null) && (checkpoint.matches(files, output))) {
+            LOGGER.info("Resuming output archive [ "
+                    + output.toString()
+                    + " ] from checkpoint at entry [ "
+                    + checkpoint.getEntries()
+                    + " ] of [ "
+                    + files.size()
+                    + " ], offset [ "
+                    + checkpoint.getOffset()
+                    + " ].");
+        }
+        else {
+            checkpoint = new TarCheckpoint(files.size());
+            Files.deleteIfExists(output);
+            TarCheckpoint.delete(output);
+        }
+        
+        // Files that made it into the archive before the checkpoint are 
+        // complete.
+        notified = 0;
+        for (int i = 0; i < checkpoint.getEntries(); i++) {
+            notify(files.get(i));
+            notified++;
+        }
+        
+        int failures = 0;
+        while (!checkpoint.isComplete()) {
+            int entries = checkpoint.getEntries();
+            try {
+                writeFromCheckpoint(files, output, checkpoint);
+            }
+            catch (IOException ioe) {
+                // Only consecutive failures without progress count toward 
+                // the retry limit.
+                failures = (checkpoint.getEntries() > entries ? 1 : failures + 1);
+                if (failures > maxRetries) {
+                    throw ioe;
+                }
+                LOGGER.warn("Unexpected IOException raised while writing "
+                        + "output archive [ "
+                        + output.toString()
+                        + " ].  Rolling back to entry [ "
+                        + checkpoint.getEntries()
+                        + " ] and retrying in [ "
+                        + retryDelay
+                        + " ] ms.  Exception message => [ "
+                        + ioe.getMessage()
+                        + " ].");
+                try {
+                    Thread.sleep(retryDelay);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw ioe;
+                }
+            }
+        }
+        
+        if (!retainCheckpoint()) {
+            TarCheckpoint.delete(output);
+        }
+    }
+    
+    /**
+     * Write the entries following the last checkpoint to the output TAR 
+     * file.  The output is truncated to the checkpoint offset before 
+     * writing begins.  Unlike <code>copyOneFile</code>, any I/O error is 
+     * propagated to the caller so the archive can be rolled back. 
+     * 
+     * @param files List of files to Archive.
+     * @param output The output TAR file.
+     * @param checkpoint The last checkpoint.  Updated as entries are 
+     * written.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if there are problems reading the source 
+     * files or writing the output file.
+     */
+    private void writeFromCheckpoint(
+            List<ArchiveElement> files, 
+            Path                 output, 
+            TarCheckpoint        checkpoint) 
+                    throws ArchiveException, IOException {
+        
+        try (FileChannel channel = FileChannel.open(
+                output, 
+                StandardOpenOption.CREATE, 
+                StandardOpenOption.WRITE)) {
+            
+            channel.truncate(checkpoint.getOffset());
+            channel.position(checkpoint.getOffset());
+            
+            // The stream is intentionally not closed on failure.  Closing 
+            // would attempt to finish the archive.  The channel is closed 
+            // by the enclosing try block.
+            TarArchiveOutputStream taos = new TarArchiveOutputStream(
+                    new BufferedOutputStream(
+                            Channels.newOutputStream(channel)));
+            
+            long   sinceCheckpoint = 0L;
+            String lastEntry       = null;
+            try {
+                startPipeline(files, checkpoint.getEntries());
+                for (int i = checkpoint.getEntries(); i < files.size(); i++) {
+                    checkCancelled();
+                    ArchiveElement element = files.get(i);
+                    ArchiveEntry   entry   = getArchiveEntry(
+                            element.getURI(), 
+                            element.getEntryPath());
+                    taos.putArchiveEntry(entry);
+                    copySource(taos, element.getURI());
+                    taos.closeArchiveEntry();
+                    if (i >= notified) {
+                        notify(element);
+                        notified = i + 1;
+                    }
+                    lastEntry        = element.getEntryPath();
+                    sinceCheckpoint += entry.getSize();
+                    if ((sinceCheckpoint >= checkpointInterval) && 
+                            (i + 1 < files.size())) {
+                        taos.flush();
+                        channel.force(false);
+                        checkpoint.save(
+                                output, i + 1, channel.position(), lastEntry, false);
+                        sinceCheckpoint = 0L;
+                    }
+                }
+            }
+            finally {
+                stopPipeline();
+            }
+            
+            // Write the end-of-archive records.  When resuming, the block 
+            // padding written by the stream is relative to the checkpoint, 
+            // so pad the file out to a whole number of blocks.
+            taos.finish();
+            taos.flush();
+            long remainder = channel.position() % TarConstants.DEFAULT_BLKSIZE;
+            if (remainder != 0) {
+                ByteBuffer padding = ByteBuffer.allocate(
+                        (int)(TarConstants.DEFAULT_BLKSIZE - remainder));
+                while (padding.hasRemaining()) {
+                    channel.write(padding);
+                }
+            }
+            channel.force(false);
+            checkpoint.save(
+                    output, files.size(), channel.position(), lastEntry, true);
+        }
+    }
+    
+    /**
+     * Setter method for the amount of data written between checkpoints.
+     * @param value The checkpoint interval in bytes (0 disables 
+     * checkpointing).
+     */
+    public void setCheckpointInterval(long value) {
+        checkpointInterval = Math.max(0L, value);
+    }
+    
+    /**
+     * Setter method for the number of retries after an I/O error.
+     * @param value The number of retries.
+     */
+    public void setMaxRetries(long value) {
+        maxRetries = Math.max(0L, value);
+    }
+    
+    /**
+     * Setter method for the delay before retrying from a checkpoint.
+     * @param value The delay in milliseconds.
+     */
+    public void setRetryDelay(long value) {
+        retryDelay = Math.max(0L, value);
+    }
 }
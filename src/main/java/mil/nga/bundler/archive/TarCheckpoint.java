@@ -0,0 +1,227 @@
+package mil.nga.bundler.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.bundler.model.ArchiveElement;
+
+/**
+ * Simple class recording the last durable point reached while writing a
+ * TAR archive.  The checkpoint is stored in a small sidecar file next to
+ * the TAR file (the TAR file name with a <code>.ckpt</code> suffix) and
+ * contains the byte offset of the end of the last completed entry, the
+ * number of entries written, and the entry path of the last entry (used
+ * to verify that the checkpoint matches the list of files being
+ * archived).
+ *
+ * The TAR data up to the offset is forced to disk before the sidecar is
+ * written so a sidecar that survives a crash never points past the data
+ * that survived.  An older sidecar is always safe to use because the TAR
+ * file is truncated back to the recorded offset before writing resumes.
+ *
+ * @author L. Craig Carpenter
+ */
+public class TarCheckpoint {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    final static Logger LOGGER = LoggerFactory.getLogger(TarCheckpoint.class);
+
+    /**
+     * Suffix appended to the TAR file name to create the sidecar file name.
+     */
+    public static final String CHECKPOINT_SUFFIX = ".ckpt";
+
+    // Keys used in the sidecar file.
+    private static final String FILES_KEY      = "files";
+    private static final String ENTRIES_KEY    = "entries";
+    private static final String OFFSET_KEY     = "offset";
+    private static final String LAST_ENTRY_KEY = "last_entry";
+    private static final String COMPLETE_KEY   = "complete";
+
+    // Private internal members
+    private final int numFiles;
+    private int       entries   = 0;
+    private long      offset    = 0L;
+    private String    lastEntry = "";
+    private boolean   complete  = false;
+
+    /**
+     * Constructor for a new (empty) checkpoint.
+     *
+     * @param numFiles The number of files that will be written to the
+     * archive.
+     */
+    public TarCheckpoint(int numFiles) {
+        this.numFiles = numFiles;
+    }
+
+    /**
+     * Calculate the location of the sidecar file associated with the input
+     * TAR file.
+     *
+     * @param tarFile The TAR file.
+     * @return The associated checkpoint file.
+     */
+    public static Path getSidecar(Path tarFile) {
+        return tarFile.resolveSibling(
+                tarFile.getFileName().toString() + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Load the checkpoint associated with the input TAR file.
+     *
+     * @param tarFile The TAR file.
+     * @return The checkpoint, or null if there is no checkpoint or it
+     * could not be read.
+     */
+    public static TarCheckpoint load(Path tarFile) {
+
+        TarCheckpoint checkpoint = null;
+        Path          sidecar    = getSidecar(tarFile);
+
+        if (Files.exists(sidecar)) {
+            Properties props = new Properties();
+            try (InputStream in = Files.newInputStream(sidecar)) {
+                props.load(in);
+                checkpoint = new TarCheckpoint(
+                        Integer.parseInt(props.getProperty(FILES_KEY)));
+                checkpoint.entries   = Integer.parseInt(
+                        props.getProperty(ENTRIES_KEY));
+                checkpoint.offset    = Long.parseLong(
+                        props.getProperty(OFFSET_KEY));
+                checkpoint.lastEntry = props.getProperty(LAST_ENTRY_KEY, "");
+                checkpoint.complete  = Boolean.parseBoolean(
+                        props.getProperty(COMPLETE_KEY));
+            }
+            catch (IOException | RuntimeException e) {
+                LOGGER.warn("Unable to read checkpoint file [ "
+                        + sidecar.toString()
+                        + " ].  Archive will be rebuilt.  Exception "
+                        + "message => [ "
+                        + e.getMessage()
+                        + " ].");
+                checkpoint = null;
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Remove the checkpoint associated with the input TAR file.
+     *
+     * @param tarFile The TAR file.
+     * @throws IOException Thrown if the sidecar file could not be removed.
+     */
+    public static void delete(Path tarFile) throws IOException {
+        Files.deleteIfExists(getSidecar(tarFile));
+    }
+
+    /**
+     * Determine whether the checkpoint can be used to resume writing the
+     * input list of files to the input TAR file.
+     *
+     * @param files The list of files to archive.
+     * @param tarFile The TAR file.
+     * @return True if the checkpoint matches the files and the TAR file
+     * contains at least the checkpointed data.
+     * @throws IOException Thrown if the TAR file cannot be accessed.
+     */
+    public boolean matches(List<ArchiveElement> files, Path tarFile)
+            throws IOException {
+        if ((files == null) ||
+                (files.size() != numFiles) ||
+                (entries < 0) ||
+                (entries > numFiles) ||
+                (offset < 0) ||
+                (!Files.exists(tarFile))) {
+            return false;
+        }
+        if (entries > 0) {
+            String entryPath = files.get(entries - 1).getEntryPath();
+            if ((entryPath == null) || (!entryPath.equals(lastEntry))) {
+                return false;
+            }
+        }
+        long size = Files.size(tarFile);
+        return (complete ? (size == offset) : (size >= offset));
+    }
+
+    /**
+     * Record a new checkpoint and write it to the sidecar file.  The caller
+     * is responsible for ensuring the TAR data up to the offset has been
+     * forced to disk.
+     *
+     * @param tarFile The TAR file.
+     * @param entries The number of entries fully written.
+     * @param offset The offset of the end of the last entry.
+     * @param lastEntry Entry path of the last entry written.
+     * @param complete True if the TAR file has been finished.
+     * @throws IOException Thrown if the sidecar file cannot be written.
+     */
+    public void save(
+            Path    tarFile,
+            int     entries,
+            long    offset,
+            String  lastEntry,
+            boolean complete) throws IOException {
+
+        this.entries   = entries;
+        this.offset    = offset;
+        this.lastEntry = (lastEntry == null ? "" : lastEntry);
+        this.complete  = complete;
+
+        Properties props = new Properties();
+        props.setProperty(FILES_KEY,      Integer.toString(numFiles));
+        props.setProperty(ENTRIES_KEY,    Integer.toString(entries));
+        props.setProperty(OFFSET_KEY,     Long.toString(offset));
+        props.setProperty(LAST_ENTRY_KEY, this.lastEntry);
+        props.setProperty(COMPLETE_KEY,   Boolean.toString(complete));
+
+        // Write to a temporary file and rename so the sidecar is never
+        // observed half-written.
+        Path sidecar = getSidecar(tarFile);
+        Path temp    = sidecar.resolveSibling(
+                sidecar.getFileName().toString() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            props.store(out, null);
+        }
+        Files.move(temp, sidecar,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Getter method for the number of entries fully written.
+     * @return The number of entries fully written.
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * Getter method for the offset of the end of the last entry written.
+     * @return The checkpoint offset.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Getter method indicating whether the TAR file was finished.
+     * @return True if the TAR file was finished.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}
@@ -1,31 +1,84 @@
 package mil.nga.bundler.archive;
 
 import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipShort;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+import org.apache.commons.compress.utils.CountingOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import mil.nga.bundler.exceptions.ArchiveException;
-import mil.nga.bundler.interfaces.BundlerI;
+import mil.nga.bundler.interfaces.RolloverBundlerI;
+import mil.nga.bundler.interfaces.SplitBundlerI;
+import mil.nga.bundler.interfaces.StreamingBundlerI;
 import mil.nga.bundler.model.ArchiveElement;
+import mil.nga.bundler.services.MetricsService;
+import mil.nga.bundler.services.StagingSpaceManager;
 import mil.nga.bundler.types.ArchiveType;
 
 /**
  * Concrete class implementing the logic to create an archive file in 
  * ZIP format.
  * 
+ * When an archive is built with a size limit (see 
+ * <code>RolloverBundlerI</code>) the bytes written by the archive stream 
+ * are counted and the central directory each entry will add is reserved 
+ * as the entry is written.  An entry is written directly when the zlib 
+ * bound on its compressed size fits in the space left.  Otherwise it is 
+ * first compressed to a temporary file so that the exact compressed size 
+ * is known, and is then either copied into the archive as a raw entry or 
+ * left for the next archive.
+ * 
+ * A split archive (see <code>SplitBundlerI</code>) is written through a 
+ * <code>ZipVolumeOutputStream</code>.  The commons-compress ZIP stream 
+ * writes the entries, but its central directory (which has no volume 
+ * numbers) is discarded and replaced with one recording the volume and 
+ * volume-relative offset of each local header, as required by the split 
+ * archive format.
+ * 
+ * When the <code>DeflateCache</code> is enabled, files that have been 
+ * compressed before are copied into the archive from the cache as raw 
+ * entries rather than being compressed again.  Files that are not cached 
+ * yet are written through: the compressed bytes the archive stream 
+ * writes for the entry are copied to the cache as they are written, so 
+ * the file is compressed and written once and nothing is read back.  
+ * The files found in the cache when the archive is started are left out 
+ * of the source read-ahead.
+ * 
  * @author L. Craig Carpenter
  */
-public class ZipArchiver extends Archiver implements BundlerI {
+public class ZipArchiver 
+        extends Archiver 
+        implements StreamingBundlerI, RolloverBundlerI, SplitBundlerI {
     
     /**
      * Set up the Log4j system for use throughout the class
@@ -37,6 +90,122 @@ public class ZipArchiver extends Archiver implements BundlerI {
      */
     final private ArchiveType type = ArchiveType.ZIP;
     
+    /**
+     * Size of a local file header excluding the name and extra field.
+     */
+    private static final long LOCAL_HEADER = 30L;
+    
+    /**
+     * Size of the ZIP64 extra field of a local file header.
+     */
+    private static final long LOCAL_ZIP64_EXTRA = 20L;
+    
+    /**
+     * Size of a (ZIP64) data descriptor.
+     */
+    private static final long DATA_DESCRIPTOR = 24L;
+    
+    /**
+     * Size of a central directory header excluding the name and extra 
+     * field.
+     */
+    private static final long CENTRAL_HEADER = 46L;
+    
+    /**
+     * Size of the ZIP64 extra field of a central directory header.
+     */
+    private static final long CENTRAL_ZIP64_EXTRA = 28L;
+    
+    /**
+     * Size of the end of central directory record.
+     */
+    private static final long END_OF_DIRECTORY = 22L;
+    
+    /**
+     * Size of the ZIP64 end of central directory record and locator.
+     */
+    private static final long ZIP64_END_OF_DIRECTORY = 76L;
+    
+    /**
+     * Sizes and offsets at or above this value require ZIP64 records.
+     */
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    
+    /**
+     * Entry counts at or above this value require ZIP64 records.
+     */
+    private static final long ZIP64_ENTRIES = 0xFFFFL;
+    
+    /**
+     * Header ID of the ZIP64 extended information extra field.
+     */
+    private static final ZipShort ZIP64_EXTRA_ID = new ZipShort(0x0001);
+    
+    /**
+     * Version needed to extract an entry written with a data descriptor.
+     */
+    private static final int VERSION_DATA_DESCRIPTOR = 20;
+    
+    /**
+     * Version needed to extract an entry using ZIP64 records.
+     */
+    private static final int VERSION_ZIP64 = 45;
+    
+    /**
+     * General purpose flag set for entries with UTF-8 names.
+     */
+    private static final int UTF8_FLAG = 0x0800;
+    
+    /**
+     * General purpose flag set for entries followed by a data descriptor.
+     */
+    private static final int DATA_DESCRIPTOR_FLAG = 0x0008;
+    
+    /**
+     * Counts the bytes written by the archive stream.  Only set while an 
+     * archive is built with a size limit.
+     */
+    private CountingOutputStream counter = null;
+    
+    /**
+     * Size of the central directory for the entries written so far.
+     */
+    private long directory = 0L;
+    
+    /**
+     * Number of entries written so far.
+     */
+    private long entries = 0L;
+    
+    /**
+     * The volumes of the split archive being written.  Only set while a 
+     * split archive is built.
+     */
+    private ZipVolumeOutputStream volumes = null;
+    
+    /**
+     * The entries written to the split archive with the position of their 
+     * local headers.
+     */
+    private List<VolumeEntry> volumeEntries = null;
+    
+    /**
+     * The <code>DeflateCache</code> keys of the files being archived.  Only 
+     * set while an archive is built with the cache enabled.
+     */
+    private Map<ArchiveElement, String> cacheKeys = null;
+    
+    /**
+     * The keys of the files that were cached when the archive was started.
+     */
+    private Set<String> cacheHits = null;
+    
+    /**
+     * Stream below the archive stream that copies the bytes of an entry 
+     * being written through to the <code>DeflateCache</code>.
+     */
+    private CaptureOutputStream capture = null;
+    
     /**
      * Default constructor
      */
@@ -97,21 +266,88 @@ public class ZipArchiver extends Archiver implements BundlerI {
             
             // Construct the output stream to the target archive file.
             try (ZipArchiveOutputStream zaos = 
-                    new ZipArchiveOutputStream(
+                    newArchiveStream(
                             new BufferedOutputStream(
-                                    Files.newOutputStream(
+                                    openOutput(Files.newOutputStream(
                                             Paths.get(getOutputFile()), 
                                             StandardOpenOption.CREATE, 
-                                            StandardOpenOption.WRITE)))) {
-                for (ArchiveElement element : files) {
-                    zaos.putArchiveEntry(
-                            getArchiveEntry(
-                                    element.getURI(),
-                                    element.getEntryPath()));
-                    copyOneFile(zaos, element.getURI());
-                    notify(element);
-                }
+                                            StandardOpenOption.WRITE))))) {
+                writeEntries(zaos, files, Long.MAX_VALUE);
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Output archive [ "
+                        + getOutputFile()
+                        + " ] created in [ "
+                        + (System.currentTimeMillis() - startTime)
+                        + " ] ms.");
+            }
+        }
+        else {
+            LOGGER.warn("There are no input files to process.  Output "
+                    + "archive not created.");
+        }
+    }
+    
+    /**
+     * Write a ZIP archive containing the input files directly to the 
+     * input stream.  As the stream cannot seek, the sizes and CRC of each 
+     * entry are written in a data descriptor following the entry data.
+     * 
+     * @param files List of files to Archive.
+     * @param out The stream to which the archive is written.  The stream 
+     * is closed when the archive is complete.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if there are problems accessing any of 
+     * the target files or writing the stream.
+     */
+    @Override
+    public void bundle(List<ArchiveElement> files, OutputStream out) 
+            throws ArchiveException, IOException {
+        try (ZipArchiveOutputStream zaos = 
+                newArchiveStream(new BufferedOutputStream(out))) {
+            writeEntries(zaos, files, Long.MAX_VALUE);
+        }
+    }
+    
+    /**
+     * Execute the "bundle" operation to ZIP the input files (in order) 
+     * into the output archive, stopping before the first file that would 
+     * make the archive larger than <code>limit</code> bytes.
+     * 
+     * @param files List of files to Archive.
+     * @param limit The maximum size of the output archive in bytes.
+     * @param outputFile The output file in which the files will be 
+     * archived.
+     * @return The number of files written to the archive.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if there are problems accessing any of 
+     * the target files. 
+     */
+    @Override
+    public int bundle(List<ArchiveElement> files, long limit, URI outputFile) 
+            throws ArchiveException, IOException {
+        
+        long startTime = System.currentTimeMillis();
+        int  count     = 0;
+        
+        setOutputFile(outputFile);
+        if ((files != null) && (files.size() > 0)) {
+            
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Creating output archive file [ "
+                        + getOutputFile().toString()
+                        + " ] with a size limit of [ "
+                        + limit
+                        + " ] bytes.");
             }
+            
+            // Ensure the target output file does not already exist.
+            Files.deleteIfExists(Paths.get(getOutputFile()));
+            
+            count = bundle(files, limit, openOutput(Files.newOutputStream(
+                    Paths.get(getOutputFile()), 
+                    StandardOpenOption.CREATE, 
+                    StandardOpenOption.WRITE)));
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Output archive [ "
                         + getOutputFile()
@@ -124,5 +360,885 @@ public class ZipArchiver extends Archiver implements BundlerI {
             LOGGER.warn("There are no input files to process.  Output "
                     + "archive not created.");
         }
+        return count;
+    }
+    
+    /**
+     * Write a ZIP archive containing the input files (in order) to the 
+     * input stream, stopping before the first file that would make the 
+     * archive larger than <code>limit</code> bytes.
+     * 
+     * @param files List of files to Archive.
+     * @param limit The maximum size of the output archive in bytes.
+     * @param out The stream to which the archive is written.  The stream 
+     * is closed when the archive is complete.
+     * @return The number of files written to the archive.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if there are problems accessing any of 
+     * the target files or writing the stream.
+     */
+    @Override
+    public int bundle(List<ArchiveElement> files, long limit, OutputStream out) 
+            throws ArchiveException, IOException {
+        counter   = new CountingOutputStream(new BufferedOutputStream(out));
+        directory = 0L;
+        entries   = 0L;
+        try (ZipArchiveOutputStream zaos = newArchiveStream(counter)) {
+            return writeEntries(zaos, files, limit);
+        }
+        finally {
+            counter = null;
+        }
+    }
+    
+    /**
+     * Execute the "bundle" operation to ZIP all of the input files into a 
+     * split archive made of volumes of <code>volumeSize</code> bytes.  The 
+     * volumes are named <code>name.z01</code>, <code>name.z02</code>, ... 
+     * with the last (holding the central directory) named after the 
+     * output file.  A volume may be a few bytes short where a header 
+     * would otherwise cross into the next volume.
+     * 
+     * @param files List of files to Archive.
+     * @param volumeSize The size of each volume in bytes.
+     * @param outputFile The output file (the last volume).
+     * @return The volumes written, in order.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if there are problems accessing any of 
+     * the target files or writing the volumes. 
+     */
+    @Override
+    public List<URI> bundleVolumes(
+            List<ArchiveElement> files, 
+            long                 volumeSize, 
+            URI                  outputFile) 
+                    throws ArchiveException, IOException {
+        
+        long      startTime = System.currentTimeMillis();
+        List<URI> output    = new ArrayList<URI>();
+        
+        setOutputFile(outputFile);
+        if ((files != null) && (files.size() > 0)) {
+            
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Creating split output archive [ "
+                        + getOutputFile().toString()
+                        + " ] with a volume size of [ "
+                        + volumeSize
+                        + " ] bytes.");
+            }
+            
+            // Ensure the target output file does not already exist.
+            Files.deleteIfExists(Paths.get(getOutputFile()));
+            
+            ZipVolumeOutputStream stream = new ZipVolumeOutputStream(
+                    Paths.get(getOutputFile()), volumeSize);
+            volumes       = stream;
+            volumeEntries = new ArrayList<VolumeEntry>();
+            try (ZipArchiveOutputStream zaos = newArchiveStream(
+                    throttle(stream, getOutputFile()))) {
+                writeEntries(zaos, files, Long.MAX_VALUE);
+                stream.setDiscard(true);
+                zaos.finish();
+                stream.setDiscard(false);
+                writeCentralDirectory(stream);
+            }
+            finally {
+                volumes       = null;
+                volumeEntries = null;
+            }
+            for (Path volume : stream.getVolumes()) {
+                output.add(volume.toUri());
+            }
+            MetricsService.getInstance().add(
+                    "archive.split_volumes", output.size());
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Split output archive [ "
+                        + getOutputFile()
+                        + " ] of [ "
+                        + output.size()
+                        + " ] volumes created in [ "
+                        + (System.currentTimeMillis() - startTime)
+                        + " ] ms.");
+            }
+        }
+        else {
+            LOGGER.warn("There are no input files to process.  Output "
+                    + "archive not created.");
+        }
+        return output;
+    }
+    
+    /**
+     * Get the name of a volume of a split archive other than the last 
+     * (which is named after the output file).
+     * 
+     * @param output The output file.
+     * @param number The volume number (starting at 1).
+     * @return The volume path (e.g. <code>name.z01</code>).
+     */
+    public static Path getVolume(Path output, int number) {
+        return ZipVolumeOutputStream.getVolume(output, number);
+    }
+    
+    /**
+     * Write a single file to a split archive, keeping the local header 
+     * and the data descriptor within one volume and recording where the 
+     * local header was written.
+     * 
+     * @param out The target archive output stream.
+     * @param element The file to write.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if the archive entry cannot be written.
+     */
+    private void writeVolumeEntry(ArchiveOutputStream out, ArchiveElement element) 
+            throws ArchiveException, IOException {
+        ZipArchiveEntry entry = (ZipArchiveEntry)getArchiveEntry(
+                element.getURI(), 
+                element.getEntryPath());
+        long name = entry.getName().getBytes(Charset.forName("UTF-8")).length;
+        DeflateCache.CachedEntry cached = getCachedEntry(entry, element);
+        try {
+            volumes.reserve(LOCAL_HEADER + name + LOCAL_ZIP64_EXTRA + 
+                    entry.getLocalFileDataExtra().length);
+            VolumeEntry volumeEntry = new VolumeEntry(
+                    entry, 
+                    volumes.getVolumeNumber(), 
+                    volumes.getVolumeOffset());
+            if (cached != null) {
+                addCachedEntry(out, entry, cached);
+            }
+            else {
+                writeThrough(out, entry, element);
+            }
+            
+            // On a non-seekable stream every deflated entry, raw entries 
+            // included, is followed by a data descriptor.  It has 4 byte 
+            // sizes unless the local header carries a ZIP64 extra field.
+            volumes.keepTogether((int)(
+                    entry.getExtraField(ZIP64_EXTRA_ID) == null ? 
+                            DATA_DESCRIPTOR - 8L : DATA_DESCRIPTOR));
+            volumeEntries.add(volumeEntry);
+        }
+        finally {
+            if (cached != null) {
+                cached.close();
+            }
+        }
+    }
+    
+    /**
+     * Write the central directory of a split archive.  Each record holds 
+     * the volume number and volume-relative offset of the local header, 
+     * and each record is kept within one volume.  ZIP64 records are used 
+     * for values that do not fit the standard fields.
+     * 
+     * @param out The volumes of the archive.
+     * @throws IOException Thrown if the central directory cannot be 
+     * written.
+     */
+    private void writeCentralDirectory(ZipVolumeOutputStream out) 
+            throws IOException {
+        
+        long startVolume = -1L;
+        long startOffset = 0L;
+        long size        = 0L;
+        long lastVolume  = -1L;
+        long onVolume    = 0L;
+        
+        for (VolumeEntry volumeEntry : volumeEntries) {
+            byte[] record = volumeEntry.getCentralHeader();
+            out.reserve(record.length);
+            if (startVolume < 0L) {
+                startVolume = out.getVolumeNumber();
+                startOffset = out.getVolumeOffset();
+            }
+            if (out.getVolumeNumber() != lastVolume) {
+                lastVolume = out.getVolumeNumber();
+                onVolume   = 0L;
+            }
+            out.write(record);
+            onVolume++;
+            size += record.length;
+        }
+        
+        long    total = volumeEntries.size();
+        boolean zip64 = ((total >= ZIP64_ENTRIES) || 
+                (size >= ZIP64_LIMIT) || 
+                (startOffset >= ZIP64_LIMIT) || 
+                (out.getVolumeNumber() + 1L >= ZIP64_ENTRIES));
+        out.reserve(END_OF_DIRECTORY + 
+                (zip64 ? ZIP64_END_OF_DIRECTORY : 0L));
+        long volume = out.getVolumeNumber();
+        if (startVolume < 0L) {
+            startVolume = volume;
+            startOffset = out.getVolumeOffset();
+        }
+        if (volume != lastVolume) {
+            onVolume = 0L;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(
+                (int)(END_OF_DIRECTORY + ZIP64_END_OF_DIRECTORY))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (zip64) {
+            long zip64Offset = out.getVolumeOffset();
+            buffer.putInt(0x06064b50)
+                  .putLong(44L)
+                  .putShort((short)VERSION_ZIP64)
+                  .putShort((short)VERSION_ZIP64)
+                  .putInt((int)volume)
+                  .putInt((int)startVolume)
+                  .putLong(onVolume)
+                  .putLong(total)
+                  .putLong(size)
+                  .putLong(startOffset);
+            buffer.putInt(0x07064b50)
+                  .putInt((int)volume)
+                  .putLong(zip64Offset)
+                  .putInt((int)(volume + 1L));
+        }
+        buffer.putInt(0x06054b50)
+              .putShort((short)Math.min(volume, ZIP64_ENTRIES))
+              .putShort((short)Math.min(startVolume, ZIP64_ENTRIES))
+              .putShort((short)Math.min(onVolume, ZIP64_ENTRIES))
+              .putShort((short)Math.min(total, ZIP64_ENTRIES))
+              .putInt((int)Math.min(size, ZIP64_LIMIT))
+              .putInt((int)Math.min(startOffset, ZIP64_LIMIT))
+              .putShort((short)0);
+        out.write(buffer.array(), 0, buffer.position());
+    }
+    
+    /**
+     * Write a single file to the archive if the completed archive would 
+     * not exceed <code>limit</code> bytes.  The space needed is the local 
+     * header, the compressed data, the data descriptor, the central 
+     * directory header and the end of central directory record.  The 
+     * ZIP64 fields are included whenever the archive could need them.
+     * 
+     * @param out The target archive output stream.
+     * @param element The file to write.
+     * @param limit The maximum size of the output archive in bytes.
+     * @param first True if this is the first file of the archive.
+     * @return False if the file was not written because the archive 
+     * would exceed the limit.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if the archive entry cannot be written.
+     */
+    @Override
+    protected boolean writeEntry(
+            ArchiveOutputStream out, 
+            ArchiveElement      element, 
+            long                limit,
+            boolean             first) 
+                    throws ArchiveException, IOException {
+        
+        if (volumes != null) {
+            writeVolumeEntry(out, element);
+            return true;
+        }
+        ZipArchiveEntry entry = (ZipArchiveEntry)getArchiveEntry(
+                element.getURI(), 
+                element.getEntryPath());
+        if (counter == null) {
+            DeflateCache.CachedEntry cached = getCachedEntry(entry, element);
+            if (cached != null) {
+                try {
+                    addCachedEntry(out, entry, cached);
+                }
+                finally {
+                    cached.close();
+                }
+            }
+            else {
+                writeThrough(out, entry, element);
+            }
+            return true;
+        }
+        
+        long    name    = entry.getName().getBytes(
+                Charset.forName("UTF-8")).length;
+        boolean zip64   = ((limit >= ZIP64_LIMIT) || 
+                (element.getSize() >= ZIP64_LIMIT));
+        long    central = CENTRAL_HEADER + name + 
+                (zip64 ? CENTRAL_ZIP64_EXTRA : 0L);
+        long    end     = END_OF_DIRECTORY + 
+                ((zip64 || (entries + 1 >= ZIP64_ENTRIES)) ? 
+                        ZIP64_END_OF_DIRECTORY : 0L);
+        
+        // Space left for the compressed data of this entry.
+        long room = limit 
+                - counter.getBytesWritten() 
+                - directory 
+                - LOCAL_HEADER - name - LOCAL_ZIP64_EXTRA 
+                - DATA_DESCRIPTOR 
+                - central 
+                - end;
+        
+        DeflateCache.CachedEntry cached = getCachedEntry(entry, element);
+        if (cached != null) {
+            try {
+                if ((!first) && (cached.getCompressedSize() > room)) {
+                    return false;
+                }
+                addCachedEntry(out, entry, cached);
+            }
+            finally {
+                cached.close();
+            }
+        }
+        else if ((first) || (getDeflateBound(element.getSize()) <= room)) {
+            writeThrough(out, entry, element);
+        }
+        else {
+            // A cacheable file is compressed straight into a cache spool 
+            // file, which is kept whether or not the entry fits.
+            String key   = getCacheKey(element);
+            Path   spool = null;
+            if (key == null) {
+                spool = deflate(entry, element.getURI());
+            }
+            else {
+                MetricsService.getInstance().increment("deflate_cache.misses");
+                spool = DeflateCache.getInstance().newSpool(key);
+                deflate(entry, element.getURI(), spool);
+            }
+            boolean kept = false;
+            try {
+                MetricsService.getInstance().increment("archive.spooled_entries");
+                boolean fits = (entry.getCompressedSize() <= room);
+                if (fits) {
+                    try (InputStream in = Files.newInputStream(spool)) {
+                        ((ZipArchiveOutputStream)out).addRawArchiveEntry(entry, in);
+                    }
+                }
+                if (key != null) {
+                    kept = DeflateCache.getInstance().put(
+                            key, spool, entry.getCrc(), entry.getSize());
+                }
+                if (!fits) {
+                    return false;
+                }
+            }
+            finally {
+                if (!kept) {
+                    Files.deleteIfExists(spool);
+                }
+            }
+        }
+        directory += central;
+        entries++;
+        return true;
+    }
+    
+    /**
+     * Start the source read-ahead, leaving out the files found in the 
+     * <code>DeflateCache</code> (which are not read) and recording the 
+     * cache key of each file.
+     * 
+     * @param files List of files to Archive.
+     * @param from Index of the first file that will be copied.
+     */
+    @Override
+    protected void startPipeline(List<ArchiveElement> files, int from) {
+        DeflateCache cache = DeflateCache.getInstance();
+        if (!cache.isEnabled()) {
+            super.startPipeline(files, from);
+            return;
+        }
+        Map<ArchiveElement, String> keys = 
+                new IdentityHashMap<ArchiveElement, String>();
+        Set<String>                 hits = new HashSet<String>();
+        List<ArchiveElement>        read = new ArrayList<ArchiveElement>();
+        for (int i = from; i < files.size(); i++) {
+            ArchiveElement element = files.get(i);
+            String key = cache.getKey(element, Deflater.DEFAULT_COMPRESSION);
+            if (key != null) {
+                keys.put(element, key);
+                if (cache.contains(key)) {
+                    hits.add(key);
+                    continue;
+                }
+            }
+            read.add(element);
+        }
+        super.startPipeline(read, 0);
+        cacheKeys = keys;
+        cacheHits = hits;
+    }
+    
+    /**
+     * Stop the source read-ahead and forget the cache keys.
+     */
+    @Override
+    protected void stopPipeline() {
+        super.stopPipeline();
+        cacheKeys = null;
+        cacheHits = null;
+    }
+    
+    /**
+     * Create the archive stream writing to the input stream, with the 
+     * stream capturing written-through entries in between.
+     * 
+     * @param out The stream to which the archive is written.
+     * @return The archive stream.
+     */
+    private ZipArchiveOutputStream newArchiveStream(OutputStream out) {
+        capture = new CaptureOutputStream(out);
+        return new ZipArchiveOutputStream(capture);
+    }
+    
+    /**
+     * Look up the <code>DeflateCache</code> key of a file.
+     * 
+     * @param element The file.
+     * @return The key, or null if the file is not cacheable or the cache 
+     * is disabled.
+     */
+    private String getCacheKey(ArchiveElement element) {
+        return (cacheKeys == null ? null : cacheKeys.get(element));
+    }
+    
+    /**
+     * Obtain the compressed data of a file that was in the 
+     * <code>DeflateCache</code> when the archive was started.
+     * 
+     * @param entry The archive entry of the file.
+     * @param element The file.
+     * @return The cached entry (the caller must close it), or null if the 
+     * file is not cached and must be compressed by the archive stream 
+     * (see <code>writeThrough()</code>).
+     */
+    private DeflateCache.CachedEntry getCachedEntry(
+            ZipArchiveEntry entry, 
+            ArchiveElement  element) {
+        
+        String key = getCacheKey(element);
+        if ((key == null) || (!cacheHits.contains(key))) {
+            return null;
+        }
+        DeflateCache.CachedEntry cached = DeflateCache.getInstance().open(key);
+        if (cached != null) {
+            MetricsService.getInstance().increment("deflate_cache.hits");
+            return cached;
+        }
+        
+        // Evicted since the archive was started.  The file was not read 
+        // ahead so reading it now stops the read-ahead.
+        cacheHits.remove(key);
+        return null;
+    }
+    
+    /**
+     * Write a file to the archive through the archive stream.  If the 
+     * file is cacheable, the compressed bytes the archive stream writes 
+     * for the entry are copied to a <code>DeflateCache</code> spool file 
+     * as they pass, and the spool file is added to the cache once the 
+     * entry is complete.  The data descriptor written after the 
+     * compressed data is trimmed from the spool file.  A failure to write 
+     * the spool file only stops the copy; the archive is unaffected.
+     * 
+     * @param out The target archive output stream.
+     * @param entry The archive entry of the file.
+     * @param element The file.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if the archive entry cannot be written.
+     */
+    private void writeThrough(
+            ArchiveOutputStream out, 
+            ZipArchiveEntry     entry, 
+            ArchiveElement      element) throws ArchiveException, IOException {
+        
+        String key = getCacheKey(element);
+        out.putArchiveEntry(entry);
+        if ((key == null) || (capture == null)) {
+            copyOneFile(out, element.getURI());
+            return;
+        }
+        MetricsService.getInstance().increment("deflate_cache.misses");
+        DeflateCache cache = DeflateCache.getInstance();
+        Path         spool = cache.newSpool(key);
+        boolean      kept  = false;
+        try {
+            capture.start(new BufferedOutputStream(Files.newOutputStream(spool)));
+            boolean captured = false;
+            try {
+                copyOneFile(out, element.getURI());
+            }
+            finally {
+                captured = capture.stop();
+            }
+            
+            // The compressed size is only set once the entry was closed.
+            if ((captured) && 
+                    (entry.getMethod() == ZipEntry.DEFLATED) && 
+                    (entry.getCompressedSize() >= 0L) && 
+                    (entry.getSize() == element.getSize())) {
+                try (FileChannel channel = FileChannel.open(
+                        spool, StandardOpenOption.WRITE)) {
+                    channel.truncate(entry.getCompressedSize());
+                }
+                kept = cache.put(key, spool, entry.getCrc(), entry.getSize());
+            }
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("Unable to write file [ "
+                    + element.getURI().toString()
+                    + " ] to the compressed entry cache.  Exception "
+                    + "message => [ "
+                    + ioe.getMessage()
+                    + " ].");
+        }
+        finally {
+            if (!kept) {
+                Files.deleteIfExists(spool);
+            }
+        }
+    }
+    
+    /**
+     * Copy a cached deflate stream into the archive as a raw entry.
+     * 
+     * @param out The target archive output stream.
+     * @param entry The archive entry of the file.
+     * @param cached The cached entry.
+     * @throws IOException Thrown if the entry cannot be written.
+     */
+    private void addCachedEntry(
+            ArchiveOutputStream      out, 
+            ZipArchiveEntry          entry, 
+            DeflateCache.CachedEntry cached) throws IOException {
+        entry.setMethod(ZipEntry.DEFLATED);
+        entry.setCrc(cached.getCrc());
+        entry.setSize(cached.getSize());
+        entry.setCompressedSize(cached.getCompressedSize());
+        try (InputStream in = cached.getInputStream()) {
+            ((ZipArchiveOutputStream)out).addRawArchiveEntry(entry, in);
+        }
+    }
+    
+    /**
+     * Upper bound on the size of the raw deflate stream of a file (the 
+     * zlib <code>deflateBound()</code> calculation).
+     * 
+     * @param size The uncompressed size.
+     * @return The maximum compressed size.
+     */
+    private static long getDeflateBound(long size) {
+        return size + (size >> 12) + (size >> 14) + (size >> 25) + 13L;
+    }
+    
+    /**
+     * Select the directory for temporary spool files: the directory of 
+     * the output archive if it is on the local file system, otherwise 
+     * the staging area.  Spooling there keeps the data on the volume 
+     * sized (and space-reserved) for the job rather than the JVM 
+     * temporary directory, which is often a small root or tmpfs volume.
+     * 
+     * @return The spool directory, or null if neither is available (in 
+     * which case the JVM temporary directory is used).
+     */
+    private Path getSpoolDirectory() {
+        if ((outputFile != null) && 
+                ("file".equalsIgnoreCase(outputFile.getScheme()))) {
+            Path parent = Paths.get(outputFile).getParent();
+            if ((parent != null) && (Files.isDirectory(parent))) {
+                return parent;
+            }
+        }
+        Path staging = StagingSpaceManager.getInstance().getStagingArea();
+        if ((staging != null) && (Files.isDirectory(staging))) {
+            return staging;
+        }
+        return null;
+    }
+    
+    /**
+     * Compress a file to a temporary file so that its exact compressed 
+     * size is known before it is added to the archive.  The method, CRC 
+     * and sizes are set on the input entry so the temporary file can be 
+     * copied into the archive as a raw entry.  The temporary file is 
+     * created in the spool directory (see <code>getSpoolDirectory()</code>).
+     * 
+     * @param entry The archive entry of the file.
+     * @param file The file to compress.
+     * @return The temporary file.  The caller must delete it.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if the file cannot be read or the 
+     * temporary file cannot be written.
+     */
+    private Path deflate(ZipArchiveEntry entry, URI file) 
+            throws ArchiveException, IOException {
+        Path dir   = getSpoolDirectory();
+        Path spool = (dir == null ? 
+                Files.createTempFile("bundler_", ".deflate") : 
+                Files.createTempFile(dir, "bundler_", ".deflate"));
+        deflate(entry, file, spool);
+        return spool;
+    }
+    
+    /**
+     * Compress a file into the input spool file as a raw deflate stream.  
+     * The method, CRC and sizes are set on the input entry.  The spool 
+     * file is deleted if the file cannot be compressed.
+     * 
+     * @param entry The archive entry of the file.
+     * @param file The file to compress.
+     * @param spool The file receiving the deflate stream.
+     * @throws ArchiveException Thrown if the job is cancelled.
+     * @throws IOException Thrown if the file cannot be read or the 
+     * spool file cannot be written.
+     */
+    private void deflate(ZipArchiveEntry entry, URI file, Path spool) 
+            throws ArchiveException, IOException {
+        Deflater deflater = CodecPool.getInstance().getDeflater(
+                Deflater.DEFAULT_COMPRESSION, true);
+        CRC32    crc      = new CRC32();
+        boolean  success  = false;
+        try {
+            CountingOutputStream compressed = new CountingOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(spool)));
+            CountingOutputStream raw = new CountingOutputStream(
+                    new CheckedOutputStream(
+                            new PooledDeflaterOutputStream(compressed, deflater), 
+                            crc));
+            try (OutputStream target = raw) {
+                copySource(target, file);
+            }
+            entry.setMethod(ZipEntry.DEFLATED);
+            entry.setCrc(crc.getValue());
+            entry.setSize(raw.getBytesWritten());
+            entry.setCompressedSize(compressed.getBytesWritten());
+            success = true;
+        }
+        finally {
+            CodecPool.getInstance().returnDeflater(deflater);
+            if (!success) {
+                Files.deleteIfExists(spool);
+            }
+        }
+    }
+    
+    /**
+     * <code>DeflaterOutputStream</code> compressing through a buffer 
+     * borrowed from the <code>BufferPool</code>.  The buffer is returned 
+     * when the stream is closed.  The deflater is not ended.
+     */
+    private static final class PooledDeflaterOutputStream 
+            extends DeflaterOutputStream {
+        
+        // Private internal members
+        private boolean returned = false;
+        
+        /**
+         * Constructor.
+         * 
+         * @param out The stream receiving the deflate stream.
+         * @param deflater The deflater.
+         */
+        private PooledDeflaterOutputStream(OutputStream out, Deflater deflater) {
+            super(out, deflater, 1);
+            buf = BufferPool.getInstance().getBuffer();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                if (!returned) {
+                    returned = true;
+                    BufferPool.getInstance().returnBuffer(buf);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Stream passing everything through to the underlying stream and, 
+     * between <code>start()</code> and <code>stop()</code>, copying it to 
+     * a second stream as well.  A failure to write the copy stops the 
+     * copy but never fails the write to the underlying stream.
+     */
+    private static final class CaptureOutputStream extends FilterOutputStream {
+        
+        // Private internal members
+        private OutputStream target = null;
+        private boolean      failed = false;
+        
+        /**
+         * Constructor.
+         * 
+         * @param out The underlying stream.
+         */
+        private CaptureOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        /**
+         * Start copying to the input stream.
+         * 
+         * @param target The stream receiving the copy.
+         */
+        private void start(OutputStream target) {
+            this.target = target;
+            this.failed = false;
+        }
+        
+        /**
+         * Stop copying and close the stream receiving the copy.
+         * 
+         * @return True if the copy is complete.
+         */
+        private boolean stop() {
+            if (target != null) {
+                try {
+                    target.close();
+                }
+                catch (IOException ioe) {
+                    failed = true;
+                }
+                target = null;
+            }
+            return (!failed);
+        }
+        
+        /**
+         * Mark the copy as failed and drop the stream receiving it.
+         */
+        private void fail() {
+            failed = true;
+            try {
+                target.close();
+            }
+            catch (IOException ioe) {
+                // The copy is discarded anyway.
+            }
+            target = null;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (target != null) {
+                try {
+                    target.write(b);
+                }
+                catch (IOException ioe) {
+                    fail();
+                }
+            }
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (target != null) {
+                try {
+                    target.write(b, off, len);
+                }
+                catch (IOException ioe) {
+                    fail();
+                }
+            }
+        }
+    }
+    
+    /**
+     * An entry of a split archive with the volume number and 
+     * volume-relative offset of its local header.
+     */
+    private static final class VolumeEntry {
+        
+        // Private internal members
+        private final ZipArchiveEntry entry;
+        private final long            volume;
+        private final long            offset;
+        
+        /**
+         * Constructor.
+         * 
+         * @param entry The archive entry.
+         * @param volume The volume holding the local header.
+         * @param offset The offset of the local header in the volume.
+         */
+        private VolumeEntry(
+                ZipArchiveEntry entry, 
+                long            volume, 
+                long            offset) {
+            this.entry  = entry;
+            this.volume = volume;
+            this.offset = offset;
+        }
+        
+        /**
+         * Build the central directory header of the entry.  The CRC and 
+         * sizes are those set on the entry when it was closed.  The ZIP64 
+         * extra field written to the local header (if any) is replaced by 
+         * one holding only the values that overflow the header fields.
+         * 
+         * @return The central directory header.
+         */
+        private byte[] getCentralHeader() {
+            
+            byte[]  name        = entry.getName().getBytes(
+                    Charset.forName("UTF-8"));
+            boolean sizeOver    = (entry.getSize() >= ZIP64_LIMIT);
+            boolean csizeOver   = (entry.getCompressedSize() >= ZIP64_LIMIT);
+            boolean offsetOver  = (offset >= ZIP64_LIMIT);
+            boolean volumeOver  = (volume >= ZIP64_ENTRIES);
+            boolean zip64       = (sizeOver || csizeOver || offsetOver || volumeOver);
+            
+            if (entry.getExtraField(ZIP64_EXTRA_ID) != null) {
+                entry.removeExtraField(ZIP64_EXTRA_ID);
+            }
+            byte[] extra = entry.getCentralDirectoryExtra();
+            int    zip64Data = (sizeOver ? 8 : 0) + (csizeOver ? 8 : 0) + 
+                    (offsetOver ? 8 : 0) + (volumeOver ? 4 : 0);
+            int    version   = (zip64 ? VERSION_ZIP64 : VERSION_DATA_DESCRIPTOR);
+            
+            ByteBuffer buffer = ByteBuffer.allocate((int)CENTRAL_HEADER 
+                    + name.length 
+                    + (zip64 ? 4 + zip64Data : 0) 
+                    + extra.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0x02014b50)
+                  .putShort((short)((entry.getPlatform() << 8) | version))
+                  .putShort((short)version)
+                  .putShort((short)(UTF8_FLAG | DATA_DESCRIPTOR_FLAG))
+                  .putShort((short)entry.getMethod())
+                  .put(ZipUtil.toDosTime(entry.getTime()))
+                  .putInt((int)entry.getCrc())
+                  .putInt((int)Math.min(entry.getCompressedSize(), ZIP64_LIMIT))
+                  .putInt((int)Math.min(entry.getSize(), ZIP64_LIMIT))
+                  .putShort((short)name.length)
+                  .putShort((short)((zip64 ? 4 + zip64Data : 0) + extra.length))
+                  .putShort((short)0)
+                  .putShort((short)Math.min(volume, ZIP64_ENTRIES))
+                  .putShort((short)entry.getInternalAttributes())
+                  .putInt((int)entry.getExternalAttributes())
+                  .putInt((int)Math.min(offset, ZIP64_LIMIT))
+                  .put(name);
+            if (zip64) {
+                buffer.putShort((short)ZIP64_EXTRA_ID.getValue())
+                      .putShort((short)zip64Data);
+                if (sizeOver) {
+                    buffer.putLong(entry.getSize());
+                }
+                if (csizeOver) {
+                    buffer.putLong(entry.getCompressedSize());
+                }
+                if (offsetOver) {
+                    buffer.putLong(offset);
+                }
+                if (volumeOver) {
+                    buffer.putInt((int)volume);
+                }
+            }
+            buffer.put(extra);
+            return buffer.array();
+        }
     }
 }
@@ -0,0 +1,303 @@
+package mil.nga.bundler.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.compress.archivers.zip.ZipLong;
+
+import mil.nga.util.FileUtils;
+
+/**
+ * Output stream writing a split ZIP archive as a series of volumes.  The
+ * volumes of an archive <code>name.zip</code> are named
+ * <code>name.z01</code>, <code>name.z02</code>, ... and the last volume
+ * (holding the end of the central directory) is renamed to
+ * <code>name.zip</code> when the stream is closed.  The first volume
+ * begins with the split archive signature.
+ *
+ * Each volume is filled to exactly the volume size except where a ZIP
+ * record that must not span volumes (local file header, data descriptor,
+ * central directory header, end of central directory) would cross the
+ * boundary.  The caller announces those records with
+ * <code>reserve()</code> (before writing) and <code>keepTogether()</code>
+ * (after writing).  To allow the latter the last
+ * <code>HOLD_BACK</code> bytes written are held in memory until the
+ * next write, so the stream can still decide which volume they go in.
+ *
+ * If the archive fits in one volume the signature is replaced by the
+ * single segment marker, which readers skip, and the output is an
+ * ordinary ZIP file.
+ *
+ * @author L. Craig Carpenter
+ */
+final class ZipVolumeOutputStream extends OutputStream {
+
+    /**
+     * The smallest volume size accepted (the limit used by PKZIP).
+     */
+    static final long MIN_VOLUME_SIZE = 64L * 1024L;
+
+    /**
+     * Number of trailing bytes held back from the volumes.  Large enough
+     * for the biggest (ZIP64) data descriptor.
+     */
+    static final int HOLD_BACK = 24;
+
+    /**
+     * Signature at the start of the first volume of a split archive.
+     */
+    private static final long SPLIT_SIGNATURE = 0x08074b50L;
+
+    /**
+     * Signature replacing the split signature when the archive was
+     * written to a single volume.
+     */
+    private static final long SINGLE_SEGMENT_SIGNATURE = 0x30304b50L;
+
+    // Private internal members
+    private final Path         output;
+    private final long         volumeSize;
+    private final List<Path>   volumes = new ArrayList<Path>();
+    private final byte[]       held    = new byte[HOLD_BACK];
+    private int                numHeld = 0;
+    private OutputStream       current = null;
+    private long               written = 0L;
+    private boolean            discard = false;
+    private boolean            closed  = false;
+
+    /**
+     * Constructor.  Opens the first volume.
+     *
+     * @param output The output archive (the name of the last volume).
+     * @param volumeSize The size of each volume in bytes.  Raised to
+     * <code>MIN_VOLUME_SIZE</code> if smaller.
+     * @throws IOException Thrown if the first volume cannot be created.
+     */
+    ZipVolumeOutputStream(Path output, long volumeSize) throws IOException {
+        this.output     = output;
+        this.volumeSize = Math.max(MIN_VOLUME_SIZE, volumeSize);
+        nextVolume();
+        emit(ZipLong.getBytes(SPLIT_SIGNATURE), 0, 4);
+    }
+
+    /**
+     * Get the name of a volume other than the last.
+     *
+     * @param output The output archive.
+     * @param number The volume number (starting at 1).
+     * @return The volume path.
+     */
+    static Path getVolume(Path output, int number) {
+        return output.resolveSibling(String.format("%s.z%02d",
+                FileUtils.removeExtension(
+                        output.getFileName().toString()), number));
+    }
+
+    /**
+     * Close the current volume (if any) and start the next one.
+     *
+     * @throws IOException Thrown if the volume cannot be created.
+     */
+    private void nextVolume() throws IOException {
+        if (current != null) {
+            current.close();
+        }
+        Path volume = getVolume(output, volumes.size() + 1);
+        current = new BufferedOutputStream(Files.newOutputStream(
+                volume,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE));
+        volumes.add(volume);
+        written = 0L;
+    }
+
+    /**
+     * Write data to the volumes, starting a new volume each time the
+     * current one is full.
+     *
+     * @param b The data.
+     * @param off The offset of the first byte.
+     * @param len The number of bytes.
+     * @throws IOException Thrown if the data cannot be written.
+     */
+    private void emit(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (written >= volumeSize) {
+                nextVolume();
+            }
+            int n = (int)Math.min(len, volumeSize - written);
+            current.write(b, off, n);
+            written += n;
+            off     += n;
+            len     -= n;
+        }
+    }
+
+    /**
+     * Start a new volume if <code>length</code> bytes do not fit in the
+     * current one (or the current one is full).  Records larger than a 
+     * volume are left to span.
+     *
+     * @param length The number of bytes that must not be split.
+     * @throws IOException Thrown if the data cannot be written.
+     */
+    private void fit(long length) throws IOException {
+        if ((written >= volumeSize) || 
+                ((written + length > volumeSize) && (length <= volumeSize))) {
+            nextVolume();
+        }
+    }
+
+    /**
+     * Ensure the next <code>length</code> bytes written will be placed in
+     * one volume.  Afterwards <code>getVolumeNumber()</code> and
+     * <code>getVolumeOffset()</code> give the position of those bytes.
+     *
+     * @param length The size of the record about to be written.
+     * @throws IOException Thrown if the data cannot be written.
+     */
+    void reserve(long length) throws IOException {
+        emit(held, 0, numHeld);
+        numHeld = 0;
+        fit(length);
+    }
+
+    /**
+     * Ensure the last <code>length</code> bytes written are placed in one
+     * volume.
+     *
+     * @param length The size of the record just written.  At most
+     * <code>HOLD_BACK</code>.
+     * @throws IOException Thrown if the data cannot be written.
+     */
+    void keepTogether(int length) throws IOException {
+        if (length > numHeld) {
+            throw new IllegalStateException("Only [ "
+                    + numHeld
+                    + " ] bytes are held back, [ "
+                    + length
+                    + " ] requested.");
+        }
+        emit(held, 0, numHeld - length);
+        fit(length);
+        emit(held, numHeld - length, length);
+        numHeld = 0;
+    }
+
+    /**
+     * Getter method for the zero-based number of the volume being
+     * written.  Only meaningful after <code>reserve()</code>.
+     *
+     * @return The current volume number.
+     */
+    int getVolumeNumber() {
+        return volumes.size() - 1;
+    }
+
+    /**
+     * Getter method for the offset within the current volume at which the
+     * next byte will be written.  Only meaningful after
+     * <code>reserve()</code>.
+     *
+     * @return The offset in bytes.
+     */
+    long getVolumeOffset() {
+        return written;
+    }
+
+    /**
+     * When set, data written to the stream is dropped.  Used to discard
+     * the central directory the ZIP stream writes itself, which does not
+     * carry volume numbers.
+     *
+     * @param value True to drop the data written.
+     */
+    void setDiscard(boolean value) {
+        discard = value;
+    }
+
+    /**
+     * Getter method for the volumes written.  Complete once the stream
+     * is closed.
+     *
+     * @return The volumes in order.
+     */
+    List<Path> getVolumes() {
+        return volumes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (discard || (len <= 0)) {
+            return;
+        }
+        int release = numHeld + len - HOLD_BACK;
+        if (release <= 0) {
+            System.arraycopy(b, off, held, numHeld, len);
+            numHeld += len;
+            return;
+        }
+        int fromHeld = Math.min(numHeld, release);
+        emit(held, 0, fromHeld);
+        System.arraycopy(held, fromHeld, held, 0, numHeld - fromHeld);
+        numHeld -= fromHeld;
+        int fromInput = release - fromHeld;
+        emit(b, off, fromInput);
+        System.arraycopy(b, off + fromInput, held, numHeld, len - fromInput);
+        numHeld += len - fromInput;
+    }
+
+    /**
+     * Flush the current volume.  Held back bytes are not written.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (current != null) {
+            current.flush();
+        }
+    }
+
+    /**
+     * Write the held back bytes, close the last volume and rename it to
+     * the output archive name.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            emit(held, 0, numHeld);
+            numHeld = 0;
+            current.close();
+            if (volumes.size() == 1) {
+                try (FileChannel channel = FileChannel.open(
+                        volumes.get(0), StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.wrap(
+                            ZipLong.getBytes(SINGLE_SEGMENT_SIGNATURE)), 0L);
+                }
+            }
+            Files.move(
+                    volumes.get(volumes.size() - 1),
+                    output,
+                    StandardCopyOption.REPLACE_EXISTING);
+            volumes.set(volumes.size() - 1, output);
+        }
+    }
+}
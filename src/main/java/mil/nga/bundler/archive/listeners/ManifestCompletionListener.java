@@ -0,0 +1,194 @@
+package mil.nga.bundler.archive.listeners;
+
+import java.io.Closeable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.exceptions.ServiceUnavailableException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.interfaces.FileCompletionListenerI;
+import mil.nga.bundler.model.ArchiveElement;
+import mil.nga.bundler.services.ArchiveJobService;
+
+/**
+ * Alternate implementation of the <code>FileCompletionListenerI</code>
+ * interface used when the archive job stores its list of files as a
+ * compressed manifest rather than individual <code>FILE_ENTRY</code> rows.
+ *
+ * The <code>Archiver</code> classes process files in manifest order so the
+ * state of every file can be described by a single high-water mark (the
+ * number of files completed) and the associated uncompressed size.  Rather
+ * than going back to the data store after each file (which is what the
+ * <code>FileCompletionListener</code> does) the high-water mark is
+ * maintained in memory and written to the <code>ARCHIVE_JOBS</code>
+ * record at most once per update interval, and once more when the listener
+ * is closed.
+ *
+ * @author L. Craig Carpenter
+ */
+public class ManifestCompletionListener
+        extends PropertyLoader
+        implements FileCompletionListenerI, Closeable, BundlerConstantsI {
+
+	/**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+    		ManifestCompletionListener.class);
+
+    /**
+     * The job ID that this listener is associated with.
+     */
+    private final String jobID;
+
+    /**
+     * The archive ID that this listener is associated with.
+     */
+    private final long archiveID;
+
+    /**
+     * Minimum interval between updates to the data store.
+     */
+    private final long updateInterval;
+
+    /**
+     * The number of files completed.
+     */
+    private long filesComplete = 0L;
+
+    /**
+     * The uncompressed size of the files completed.
+     */
+    private long sizeComplete = 0L;
+
+    /**
+     * The number of files completed at the time of the last update.
+     */
+    private long lastFilesComplete = 0L;
+
+    /**
+     * The time of the last update.
+     */
+    private long lastUpdate = System.currentTimeMillis();
+
+    /**
+     * Class-level handle to the ArchiveJobService
+     */
+    private ArchiveJobService service;
+
+    /**
+     * Constructor requiring the job and archive ID.
+     *
+     * @param jobID The job ID.
+     * @param archiveID The archive ID.
+     */
+    public ManifestCompletionListener(String jobID, long archiveID) {
+    	super(PROPERTY_FILE_NAME);
+    	this.jobID     = jobID;
+    	this.archiveID = archiveID;
+    	updateInterval = getLongProperty(
+    			MANIFEST_UPDATE_INTERVAL_PROPERTY,
+    			DEFAULT_MANIFEST_UPDATE_INTERVAL);
+    }
+
+    /**
+     * Getter method for the class-level <code>ArchiveJobService</code>
+     * object.
+     * @return Handle to the ArchiveJobService object.
+     */
+    private ArchiveJobService getArchiveJobService() {
+    	if (service == null) {
+    		service = new ArchiveJobService();
+    	}
+    	return service;
+    }
+
+    /**
+     * Write the current high-water mark to the data store if it has
+     * changed since the last update.
+     */
+    private void update() {
+    	if (filesComplete != lastFilesComplete) {
+	    	try {
+	    		getArchiveJobService().updateProgress(
+	    				getJobID(),
+	    				getArchiveID(),
+	    				filesComplete,
+	    				sizeComplete);
+	    		lastFilesComplete = filesComplete;
+	    		lastUpdate        = System.currentTimeMillis();
+	    	}
+	    	catch (ServiceUnavailableException sue) {
+	        	LOGGER.error("Internal system failure.  Target JPA service "
+	        			+ "is unavailable.  Exception message => [ "
+	        			+ sue.getMessage()
+	        			+ " ].");
+	    	}
+    	}
+    }
+
+    /**
+     * Method called when an individual file has completed the bundle
+     * process.  The in-memory high-water mark is advanced and flushed to
+     * the data store if the update interval has elapsed.
+     *
+     * @param element The file that has just completed the bundle operation.
+     */
+    @Override
+    public synchronized void notify(ArchiveElement element) {
+    	if (element != null) {
+    		filesComplete++;
+    		sizeComplete += element.getSize();
+    		if ((System.currentTimeMillis() - lastUpdate) >= updateInterval) {
+    			update();
+    		}
+    	}
+    }
+
+    /**
+     * Getter method for the archive ID that this listener is associated with.
+     * @return value The archive ID.
+     */
+    public long getArchiveID() {
+    	return archiveID;
+    }
+
+    /**
+     * Getter method for the number of files completed.
+     * @return The number of files completed.
+     */
+    public synchronized long getFilesComplete() {
+    	return filesComplete;
+    }
+
+    /**
+     * Getter method for the job ID that this listener is associated with.
+     * @return value The job ID.
+     */
+    public String getJobID() {
+    	return jobID;
+    }
+
+    /**
+     * Getter method for the uncompressed size of the files completed.
+     * @return The uncompressed size of the files completed.
+     */
+    public synchronized long getSizeComplete() {
+    	return sizeComplete;
+    }
+
+    /**
+     * Method required by the implementation of the <code>Closeable</code>
+     * interface.  The final high-water mark is written to the data store
+     * and the class-level <code>ArchiveJobService</code> object is closed.
+     */
+    @Override
+    public synchronized void close() {
+    	update();
+    	if (service != null) {
+    		service.close();
+    	}
+    }
+}
@@ -0,0 +1,23 @@
+package mil.nga.bundler.exceptions;
+
+/**
+ * Exception raised by the archivers when the job associated with the 
+ * archive being created has been cancelled.
+ * 
+ * @author carpenlc
+ */
+public class ArchiveCancelledException extends ArchiveException {
+
+    /**
+     * Eclipse generated serialVersionUID
+     */
+    private static final long serialVersionUID = -7207151932476403318L;
+
+    /** 
+     * Default constructor requiring a message String.
+     * @param msg Information identifying why the exception was raised.
+     */
+    public ArchiveCancelledException(String msg) {
+        super(msg);
+    }
+}
@@ -11,7 +11,11 @@ public enum ValidationErrorCodes {
     NO_VALID_INPUT_FILES_FOUND(
             1015,
             "A request was received that did not contain any valid input "
-            + "files.");
+            + "files."),
+    STREAM_LIMIT_EXCEEDED(
+            1020,
+            "A request was received that exceeds the size limits for "
+            + "streamed archives.  Submit the request to BundleFiles.");
     
     /**
      * Error code ID
@@ -55,6 +55,23 @@ public interface BundlerConstantsI {
      */
     public static final String S3_END_POINT_PROPERTY = "aws.s3_endpoint";
     
+    /**
+     * Property identifying the region used to sign requests to the S3 
+     * end-point.
+     */
+    public static final String S3_REGION_PROPERTY = "aws.s3_region";
+    
+    /**
+     * Default S3 signing region.
+     */
+    public static final String DEFAULT_S3_REGION = "us-east-1";
+    
+    /**
+     * Property used to enable path-style S3 requests (required by most 
+     * S3-compatible stores such as MinIO).
+     */
+    public static final String S3_PATH_STYLE_PROPERTY = "aws.s3_path_style";
+    
     /**
      * Property identifying the IAM role to use for accessing the S3 
      * file system.
@@ -115,10 +132,796 @@ public interface BundlerConstantsI {
     public static final int MAX_NUM_EXCLUSIONS = 100;
     
     /**
-     * The number of milliseconds in a 30 day period.
+     * The number of milliseconds in a day.
+     */
+    public static final long MILLISECONDS_PER_DAY = 1000L * 60 * 60 * 24;
+    
+    /**
+     * The number of milliseconds in a 30 day period.  This is the default 
+     * retention window for completed jobs.  (Note: the calculation must be 
+     * performed using long arithmetic, the int result overflows.)
+     */
+    public static final long MILLISECONDS_PER_30_DAYS = 
+            MILLISECONDS_PER_DAY * 30;
+    
+    /**
+     * Prefix of the properties defining the retention window (in days) for 
+     * jobs in a given state.  The state text is appended along with the 
+     * "_days" suffix (e.g. <code>bundler.retention.complete_days</code>).  
+     * Terminal states default to 30 days.  Non-terminal states are never 
+     * purged unless a window is configured.
+     */
+    public static final String RETENTION_PROPERTY_PREFIX = 
+            "bundler.retention.";
+    
+    /**
+     * Suffix of the per-state retention window properties.
+     */
+    public static final String RETENTION_PROPERTY_SUFFIX = "_days";
+    
+    /**
+     * Property defining how often (in minutes) the retention engine runs.  
+     * A value of zero or less disables the retention engine.
+     */
+    public static final String RETENTION_INTERVAL_PROPERTY = 
+            "bundler.retention.interval_minutes";
+    
+    /**
+     * Default interval (in minutes) between retention engine runs.
+     */
+    public static final long DEFAULT_RETENTION_INTERVAL = 60L;
+    
+    /**
+     * Property defining the maximum number of jobs purged per batch.
+     */
+    public static final String RETENTION_BATCH_SIZE_PROPERTY = 
+            "bundler.retention.batch_size";
+    
+    /**
+     * Default number of jobs purged per batch.  Must remain below the 
+     * Oracle limit of 1000 elements in an IN list.
+     */
+    public static final long DEFAULT_RETENTION_BATCH_SIZE = 100L;
+    
+    /**
+     * Property defining the pause (in milliseconds) between purge batches.
+     */
+    public static final String RETENTION_BATCH_DELAY_PROPERTY = 
+            "bundler.retention.batch_delay_ms";
+    
+    /**
+     * Default pause (in milliseconds) between purge batches.
+     */
+    public static final long DEFAULT_RETENTION_BATCH_DELAY = 2000L;
+    
+    /**
+     * Property defining the maximum number of purge batches per run.
+     */
+    public static final String RETENTION_MAX_BATCHES_PROPERTY = 
+            "bundler.retention.max_batches";
+    
+    /**
+     * Default maximum number of purge batches per run.
+     */
+    public static final long DEFAULT_RETENTION_MAX_BATCHES = 20L;
+    
+    /**
+     * Property defining the number of in-progress archive jobs above which 
+     * the retention engine will defer purge batches.
+     */
+    public static final String RETENTION_BUSY_THRESHOLD_PROPERTY = 
+            "bundler.retention.busy_threshold";
+    
+    /**
+     * Default number of in-progress archive jobs above which the retention 
+     * engine will defer purge batches.
      */
-    public static long MILLISECONDS_PER_30_DAYS = 1000 * 60 * 60 * 24 * 30;
+    public static final long DEFAULT_RETENTION_BUSY_THRESHOLD = 4L;
     
+    /**
+     * Property identifying how the list of files associated with each 
+     * archive job is persisted.  Allowable values are "rows" (one 
+     * <code>FILE_ENTRY</code> record per file, the default) and 
+     * "manifest" (one compressed blob per archive job).
+     */
+    public static final String FILE_STORAGE_PROPERTY = 
+            "bundler.file_storage";
+    
+    /**
+     * Property identifying the minimum interval (in milliseconds) between 
+     * updates to the archive job high-water mark when running in 
+     * "manifest" file storage mode.
+     */
+    public static final String MANIFEST_UPDATE_INTERVAL_PROPERTY = 
+            "bundler.manifest_update_interval";
+    
+    /**
+     * Default interval (in milliseconds) between high-water mark updates.
+     */
+    public static final long DEFAULT_MANIFEST_UPDATE_INTERVAL = 5000L;
+    
+    /**
+     * Property used to disable the start up recovery of NOT_STARTED and 
+     * IN_PROGRESS jobs (set to "false").  Recovery is enabled by default.
+     */
+    public static final String RECOVERY_ENABLED_PROPERTY = 
+            "bundler.recovery.enabled";
+    
+    /**
+     * Property defining the delay (in milliseconds) between restarting 
+     * individual archive jobs during start up recovery.
+     */
+    public static final String RECOVERY_DELAY_PROPERTY = 
+            "bundler.recovery.delay_ms";
+    
+    /**
+     * Default delay (in milliseconds) between restarting archive jobs.
+     */
+    public static final long DEFAULT_RECOVERY_DELAY = 2000L;
+    
+    /**
+     * Property defining the maximum number of in-progress archive jobs 
+     * allowed before start up recovery waits to restart the next one.
+     */
+    public static final String RECOVERY_MAX_ACTIVE_PROPERTY = 
+            "bundler.recovery.max_active";
+    
+    /**
+     * Default maximum number of in-progress archive jobs during recovery.
+     */
+    public static final long DEFAULT_RECOVERY_MAX_ACTIVE = 4L;
+
+    /**
+     * Property defining how much data (in MB) is added to a TAR-family
+     * archive between checkpoints.  Set to 0 to disable checkpointing.
+     */
+    public static final String CHECKPOINT_INTERVAL_PROPERTY =
+            "bundler.checkpoint.interval_mb";
+
+    /**
+     * Default amount of data (in MB) written between checkpoints.
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 256L;
+
+    /**
+     * Property defining the number of times the archiver will roll back to
+     * the last checkpoint and retry after an I/O error.
+     */
+    public static final String CHECKPOINT_RETRIES_PROPERTY =
+            "bundler.checkpoint.retries";
+
+    /**
+     * Default number of retries after an I/O error.
+     */
+    public static final long DEFAULT_CHECKPOINT_RETRIES = 3L;
+
+    /**
+     * Property defining the delay (in milliseconds) before retrying from
+     * the last checkpoint.
+     */
+    public static final String CHECKPOINT_RETRY_DELAY_PROPERTY =
+            "bundler.checkpoint.retry_delay_ms";
+
+    /**
+     * Default delay (in milliseconds) before retrying from the last
+     * checkpoint.
+     */
+    public static final long DEFAULT_CHECKPOINT_RETRY_DELAY = 5000L;
+
+    /**
+     * Property defining the number of archive jobs that may execute
+     * concurrently (i.e. the number of archive worker threads).
+     */
+    public static final String QUEUE_MAX_WORKERS_PROPERTY =
+            "bundler.queue.max_workers";
+
+    /**
+     * Default number of archive worker threads.
+     */
+    public static final long DEFAULT_QUEUE_MAX_WORKERS = 8L;
+
+    /**
+     * Property used to enable/disable the adaptive concurrency controller
+     * that adjusts the number of active archive workers (up to
+     * <code>bundler.queue.max_workers</code>) from the observed source
+     * read throughput and latency.
+     */
+    public static final String ADAPTIVE_ENABLED_PROPERTY =
+            "bundler.adaptive.enabled";
+
+    /**
+     * Property defining the minimum number of active archive workers the
+     * adaptive concurrency controller may select.
+     */
+    public static final String ADAPTIVE_MIN_WORKERS_PROPERTY =
+            "bundler.adaptive.min_workers";
+
+    /**
+     * Default minimum number of active archive workers.
+     */
+    public static final long DEFAULT_ADAPTIVE_MIN_WORKERS = 1L;
+
+    /**
+     * Property defining the interval (in seconds) between adjustments
+     * made by the adaptive concurrency controller.
+     */
+    public static final String ADAPTIVE_INTERVAL_PROPERTY =
+            "bundler.adaptive.interval_seconds";
+
+    /**
+     * Default adjustment interval.
+     */
+    public static final long DEFAULT_ADAPTIVE_INTERVAL = 30L;
+
+    /**
+     * Property defining how far (as a percentage of the baseline) the
+     * source read latency may rise before the adaptive concurrency
+     * controller backs off.
+     */
+    public static final String ADAPTIVE_LATENCY_TOLERANCE_PROPERTY =
+            "bundler.adaptive.latency_tolerance_percent";
+
+    /**
+     * Default latency tolerance (twice the baseline latency).
+     */
+    public static final long DEFAULT_ADAPTIVE_LATENCY_TOLERANCE = 200L;
+
+    /**
+     * Property defining the maximum amount of data (in GB) that may be
+     * waiting in the archive queue before new requests are rejected.
+     */
+    public static final String ADMISSION_MAX_QUEUED_GB_PROPERTY =
+            "bundler.admission.max_queued_gb";
+
+    /**
+     * Default maximum amount of queued data (in GB).
+     */
+    public static final long DEFAULT_ADMISSION_MAX_QUEUED_GB = 500L;
+
+    /**
+     * Property defining the maximum number of archive jobs that may be
+     * waiting in the archive queue before new requests are rejected.
+     */
+    public static final String ADMISSION_MAX_QUEUED_ARCHIVES_PROPERTY =
+            "bundler.admission.max_queued_archives";
+
+    /**
+     * Default maximum number of queued archive jobs.
+     */
+    public static final long DEFAULT_ADMISSION_MAX_QUEUED_ARCHIVES = 1000L;
+
+    /**
+     * Property defining the minimum free space (in MB) required in the
+     * staging area before new requests are accepted.
+     */
+    public static final String ADMISSION_MIN_FREE_MB_PROPERTY =
+            "bundler.admission.min_free_mb";
+
+    /**
+     * Default minimum free staging space (in MB).
+     */
+    public static final long DEFAULT_ADMISSION_MIN_FREE_MB = 10240L;
+
+    /**
+     * Property defining the margin (percent) added to the estimated
+     * staging space reserved for each archive job.
+     */
+    public static final String STAGING_RESERVE_OVERHEAD_PROPERTY =
+            "bundler.staging.reserve_overhead_percent";
+
+    /**
+     * Default staging space reservation margin (percent).
+     */
+    public static final long DEFAULT_STAGING_RESERVE_OVERHEAD = 5L;
+
+    /**
+     * Property defining the Retry-After value (in seconds) returned when
+     * the drain rate is not yet known.
+     */
+    public static final String ADMISSION_RETRY_AFTER_PROPERTY =
+            "bundler.admission.default_retry_after";
+
+    /**
+     * Default Retry-After value (in seconds).
+     */
+    public static final long DEFAULT_ADMISSION_RETRY_AFTER = 60L;
+
+    /**
+     * Property defining the number of threads expanding accepted bundle
+     * requests into jobs.
+     */
+    public static final String ADMISSION_JOB_FACTORY_THREADS_PROPERTY =
+            "bundler.admission.job_factory_threads";
+
+    /**
+     * Default number of job factory threads.
+     */
+    public static final long DEFAULT_ADMISSION_JOB_FACTORY_THREADS = 4L;
+
+    /**
+     * Property defining the number of accepted bundle requests that may
+     * wait for a job factory thread before new requests are rejected.
+     */
+    public static final String ADMISSION_JOB_FACTORY_QUEUE_PROPERTY =
+            "bundler.admission.job_factory_queue";
+
+    /**
+     * Default number of bundle requests waiting for a job factory thread.
+     */
+    public static final long DEFAULT_ADMISSION_JOB_FACTORY_QUEUE = 100L;
+
+    /**
+     * Property defining the amount of data (in MB) credited to each user on
+     * each round of the fair-share (deficit round-robin) scheduler.
+     */
+    public static final String SCHEDULER_QUANTUM_PROPERTY =
+            "bundler.scheduler.quantum_mb";
+
+    /**
+     * Default fair-share scheduler quantum (in MB).
+     */
+    public static final long DEFAULT_SCHEDULER_QUANTUM = 256L;
+
+    /**
+     * Property defining the maximum number of archive jobs a single user
+     * may have executing at the same time.
+     */
+    public static final String SCHEDULER_MAX_PER_USER_PROPERTY =
+            "bundler.scheduler.max_per_user";
+
+    /**
+     * Default per-user concurrency cap.
+     */
+    public static final long DEFAULT_SCHEDULER_MAX_PER_USER = 4L;
+
+    /**
+     * Prefix of the properties defining the fair-share weight of individual
+     * users (e.g. <code>bundler.scheduler.weight.jsmith=2</code>).
+     */
+    public static final String SCHEDULER_WEIGHT_PROPERTY_PREFIX =
+            "bundler.scheduler.weight.";
+
+    /**
+     * Default fair-share weight for users without a weight property.
+     */
+    public static final long DEFAULT_SCHEDULER_WEIGHT = 1L;
+
+    /**
+     * Property defining the policy used to order waiting archive jobs 
+     * (<code>fair_share</code> or <code>shortest_first</code>).
+     */
+    public static final String SCHEDULER_POLICY_PROPERTY =
+            "bundler.scheduler.policy";
+
+    /**
+     * Property defining how quickly (in MB per minute of waiting) the 
+     * effective size of a waiting archive job shrinks under the 
+     * shortest-first policy.
+     */
+    public static final String SCHEDULER_AGING_PROPERTY =
+            "bundler.scheduler.aging_mb_per_minute";
+
+    /**
+     * Default shortest-first aging rate (in MB per minute).
+     */
+    public static final long DEFAULT_SCHEDULER_AGING = 1024L;
+
+    /**
+     * Property controlling whether client-supplied deadlines are honored
+     * (earliest-deadline-first) by the shortest-first policy.
+     */
+    public static final String SCHEDULER_DEADLINES_PROPERTY =
+            "bundler.scheduler.deadlines";
+
+    /**
+     * Property controlling whether I/O-bound stages (validation, directory
+     * expansion) run on virtual threads.  Requires JDK 21 or later; older
+     * JVMs fall back to a platform thread pool.
+     */
+    public static final String EXECUTION_VIRTUAL_THREADS_PROPERTY =
+            "bundler.execution.virtual_threads";
+
+    /**
+     * Property defining the size of the platform thread pool used for
+     * I/O-bound stages when virtual threads are not in use.
+     */
+    public static final String EXECUTION_IO_THREADS_PROPERTY =
+            "bundler.execution.io_threads";
+
+    /**
+     * Default size of the platform I/O thread pool.
+     */
+    public static final long DEFAULT_EXECUTION_IO_THREADS = 16L;
+
+    /**
+     * Property defining the maximum number of concurrent I/O operations
+     * (file stats, directory listings and source file reads).
+     */
+    public static final String EXECUTION_IO_CONCURRENCY_PROPERTY =
+            "bundler.execution.io_concurrency";
+
+    /**
+     * Default maximum number of concurrent I/O operations.
+     */
+    public static final long DEFAULT_EXECUTION_IO_CONCURRENCY = 64L;
+
+    /**
+     * Property defining per-mount I/O concurrency limits as a comma 
+     * separated list of <code>prefix=limit</code> pairs (e.g. 
+     * <code>/mnt/raster=8,/mnt/nonstd=4,s3://=32</code>).
+     */
+    public static final String MOUNT_LIMITS_PROPERTY =
+            "bundler.io.mount_limits";
+
+    /**
+     * Property defining the I/O concurrency limit applied to mounts (file
+     * stores) that are not listed in <code>bundler.io.mount_limits</code>.
+     */
+    public static final String MOUNT_DEFAULT_LIMIT_PROPERTY =
+            "bundler.io.mount_default_limit";
+
+    /**
+     * Default per-mount I/O concurrency limit.
+     */
+    public static final long DEFAULT_MOUNT_LIMIT = 16L;
+
+    /**
+     * Property defining per-mount bandwidth limits (MB per second) as a
+     * comma separated list of <code>mount=limit</code> pairs.  The mount
+     * names are the keys assigned by the <code>MountLimiter</code> (a
+     * prefix from <code>bundler.io.mount_limits</code>,
+     * <code>store:&lt;name&gt;</code> or <code>s3://&lt;bucket&gt;</code>).
+     */
+    public static final String BANDWIDTH_MOUNT_LIMITS_PROPERTY =
+            "bundler.bandwidth.mount_limits";
+
+    /**
+     * Property defining the bandwidth limit (MB per second) applied to
+     * mounts not listed in <code>bundler.bandwidth.mount_limits</code>.
+     */
+    public static final String BANDWIDTH_MOUNT_DEFAULT_PROPERTY =
+            "bundler.bandwidth.mount_default_mb";
+
+    /**
+     * Property defining the bandwidth limit (MB per second) applied to
+     * each job across all of its archives.
+     */
+    public static final String BANDWIDTH_JOB_LIMIT_PROPERTY =
+            "bundler.bandwidth.job_mb";
+
+    /**
+     * Default bandwidth limit.  Zero indicates no limit.
+     */
+    public static final long DEFAULT_BANDWIDTH_LIMIT = 0L;
+
+    /**
+     * Property used to enable/disable the pipelined archive build (source
+     * read-ahead and asynchronous output writes).
+     */
+    public static final String PIPELINE_ENABLED_PROPERTY =
+            "bundler.pipeline.enabled";
+
+    /**
+     * Property defining the total memory (in MB) available to the buffers
+     * used by the archive build pipelines.
+     */
+    public static final String PIPELINE_BUFFER_MB_PROPERTY =
+            "bundler.pipeline.buffer_mb";
+
+    /**
+     * Default total pipeline buffer memory (in MB).
+     */
+    public static final long DEFAULT_PIPELINE_BUFFER_MB = 64L;
+
+    /**
+     * Property defining the size (in KB) of each pipeline buffer.
+     */
+    public static final String PIPELINE_CHUNK_KB_PROPERTY =
+            "bundler.pipeline.chunk_kb";
+
+    /**
+     * Default pipeline buffer size (in KB).
+     */
+    public static final long DEFAULT_PIPELINE_CHUNK_KB = 256L;
+
+    /**
+     * Property defining the number of source files read ahead of the file
+     * being written to the archive.
+     */
+    public static final String PIPELINE_READ_AHEAD_PROPERTY =
+            "bundler.pipeline.read_ahead";
+
+    /**
+     * Default number of source files read ahead.
+     */
+    public static final long DEFAULT_PIPELINE_READ_AHEAD = 4L;
+
+    /**
+     * Property defining the number of reader threads per archive.
+     */
+    public static final String PIPELINE_READERS_PROPERTY =
+            "bundler.pipeline.readers";
+
+    /**
+     * Default number of reader threads per archive.
+     */
+    public static final long DEFAULT_PIPELINE_READERS = 2L;
+
+    /**
+     * Property defining the size (in KB) of the pooled buffers used to
+     * copy source files into archives and to compress intermediate TAR
+     * files.
+     */
+    public static final String IO_BUFFER_KB_PROPERTY =
+            "bundler.io.buffer_kb";
+
+    /**
+     * Default size (in KB) of the pooled I/O buffers.
+     */
+    public static final long DEFAULT_IO_BUFFER_KB = 64L;
+
+    /**
+     * Property defining the maximum number of idle I/O buffers and idle
+     * <code>Deflater</code>/<code>Inflater</code> instances kept for reuse.
+     */
+    public static final String IO_MAX_IDLE_PROPERTY =
+            "bundler.io.max_idle";
+
+    /**
+     * Default maximum number of idle pooled objects of each kind.
+     */
+    public static final long DEFAULT_IO_MAX_IDLE = 32L;
+
+    /**
+     * Property defining the largest request (in MB of input data) that may
+     * be streamed directly to the client.
+     */
+    public static final String STREAM_MAX_SIZE_MB_PROPERTY =
+            "bundler.stream.max_size_mb";
+
+    /**
+     * Default largest streamed request (in MB).
+     */
+    public static final long DEFAULT_STREAM_MAX_SIZE_MB = 1024L;
+
+    /**
+     * Property defining the largest number of files that may be streamed
+     * directly to the client in one request.
+     */
+    public static final String STREAM_MAX_FILES_PROPERTY =
+            "bundler.stream.max_files";
+
+    /**
+     * Default largest number of streamed files.
+     */
+    public static final long DEFAULT_STREAM_MAX_FILES = 10000L;
+
+    /**
+     * Property defining the number of archives that may be streamed to
+     * clients at the same time.
+     */
+    public static final String STREAM_MAX_CONCURRENT_PROPERTY =
+            "bundler.stream.max_concurrent";
+
+    /**
+     * Default number of concurrent streamed archives.
+     */
+    public static final long DEFAULT_STREAM_MAX_CONCURRENT = 4L;
+
+    /**
+     * Property used to enable/disable the <code>Download</code> end point
+     * serving staged archives and hash files with HTTP range support.
+     */
+    public static final String DOWNLOAD_ENABLED_PROPERTY =
+            "bundler.download.enabled";
+
+    /**
+     * Property used to enable/disable the use of the container's sendfile
+     * support (Tomcat NIO/APR connectors) for the <code>Download</code>
+     * end point.  When disabled, or not supported by the connector, the
+     * file is copied into the response through a <code>FileChannel</code>.
+     */
+    public static final String DOWNLOAD_SENDFILE_PROPERTY =
+            "bundler.download.sendfile";
+
+    /**
+     * Property used to enable streaming output archives with an
+     * <code>s3://</code> staging area directly into S3 multipart uploads
+     * rather than through the S3 file system provider (which buffers the
+     * whole archive in a local temporary file).
+     */
+    public static final String S3_DIRECT_UPLOAD_PROPERTY =
+            "bundler.s3.direct_upload";
+
+    /**
+     * Property defining the size (in MB) of each part of an S3 multipart
+     * upload.  S3 requires at least 5 MB.
+     */
+    public static final String S3_PART_SIZE_MB_PROPERTY =
+            "bundler.s3.part_size_mb";
+
+    /**
+     * Default S3 multipart upload part size (in MB).
+     */
+    public static final long DEFAULT_S3_PART_SIZE_MB = 8L;
+
+    /**
+     * Property defining the number of threads uploading parts to S3
+     * (shared by all archives).
+     */
+    public static final String S3_UPLOAD_THREADS_PROPERTY =
+            "bundler.s3.upload_threads";
+
+    /**
+     * Default number of S3 part upload threads.
+     */
+    public static final long DEFAULT_S3_UPLOAD_THREADS = 4L;
+
+    /**
+     * Property defining the number of part buffers each archive may hold
+     * in memory while its parts are uploaded.
+     */
+    public static final String S3_MAX_BUFFERED_PARTS_PROPERTY =
+            "bundler.s3.max_buffered_parts";
+
+    /**
+     * Default number of buffered parts per archive.
+     */
+    public static final long DEFAULT_S3_MAX_BUFFERED_PARTS = 3L;
+
+    /**
+     * Property used to enable reading <code>s3://</code> source files with
+     * concurrent ranged GET requests rather than through the S3 file
+     * system provider.
+     */
+    public static final String S3_RANGED_READS_PROPERTY =
+            "bundler.s3.ranged_reads";
+
+    /**
+     * Property defining the number of threads performing S3 GET requests
+     * for source files (shared by all archives).
+     */
+    public static final String S3_READ_THREADS_PROPERTY =
+            "bundler.s3.read_threads";
+
+    /**
+     * Default number of S3 read threads.
+     */
+    public static final long DEFAULT_S3_READ_THREADS = 8L;
+
+    /**
+     * Property defining the size (in MB) of each ranged GET used to read
+     * large S3 source objects.
+     */
+    public static final String S3_RANGE_SIZE_MB_PROPERTY =
+            "bundler.s3.range_size_mb";
+
+    /**
+     * Default ranged GET size (in MB).
+     */
+    public static final long DEFAULT_S3_RANGE_SIZE_MB = 8L;
+
+    /**
+     * Property defining the number of ranged GETs of one object that may
+     * be in flight at once.
+     */
+    public static final String S3_RANGES_IN_FLIGHT_PROPERTY =
+            "bundler.s3.ranges_in_flight";
+
+    /**
+     * Default number of ranged GETs in flight per object.
+     */
+    public static final long DEFAULT_S3_RANGES_IN_FLIGHT = 4L;
+
+    /**
+     * Property defining the size (in KB) below which S3 source objects
+     * are fetched ahead of time, several at once.
+     */
+    public static final String S3_SMALL_OBJECT_KB_PROPERTY =
+            "bundler.s3.small_object_kb";
+
+    /**
+     * Default small S3 object size (in KB).
+     */
+    public static final long DEFAULT_S3_SMALL_OBJECT_KB = 1024L;
+
+    /**
+     * Property defining how many small S3 source objects following the
+     * current file are fetched concurrently.
+     */
+    public static final String S3_FAN_OUT_PROPERTY =
+            "bundler.s3.fan_out";
+
+    /**
+     * Default number of small S3 objects fetched ahead.
+     */
+    public static final long DEFAULT_S3_FAN_OUT = 8L;
+
+    /**
+     * Property used to enable the expansion of <code>s3://</code>
+     * directories (prefixes) with concurrent delimited list requests
+     * rather than a walk of the S3 file system provider.
+     */
+    public static final String S3_PARALLEL_LISTING_PROPERTY =
+            "bundler.s3.parallel_listing";
+
+    /**
+     * Property defining the number of threads issuing S3 list requests.
+     */
+    public static final String S3_LIST_THREADS_PROPERTY =
+            "bundler.s3.list_threads";
+
+    /**
+     * Default number of S3 list threads.
+     */
+    public static final long DEFAULT_S3_LIST_THREADS = 8L;
+
+    /**
+     * Property used to enable size-exact archive rollover.  When enabled
+     * ZIP and TAR jobs are planned as a single ordered archive and the
+     * archiver starts the next archive when the next entry would take the
+     * output past the target archive size (instead of splitting the files
+     * up front on estimated compressed sizes).
+     */
+    public static final String EXACT_ROLLOVER_PROPERTY =
+            "bundler.archive.exact_rollover";
+
+    /**
+     * Property used to enable split ZIP output.  When enabled ZIP jobs are
+     * planned as a single archive which is written as a series of volumes
+     * (name.z01, name.z02, ..., name.zip) of the target archive size.
+     */
+    public static final String SPLIT_ZIP_PROPERTY =
+            "bundler.zip.split_volumes";
+
+    /**
+     * Property defining the directory holding the cache of compressed ZIP
+     * entries.  The cache is disabled if not set.
+     */
+    public static final String DEFLATE_CACHE_DIR_PROPERTY =
+            "bundler.zip.deflate_cache_dir";
+
+    /**
+     * Property defining the disk quota of the compressed entry cache (in
+     * MB).
+     */
+    public static final String DEFLATE_CACHE_MB_PROPERTY =
+            "bundler.zip.deflate_cache_mb";
+
+    /**
+     * Default disk quota of the compressed entry cache (in MB).
+     */
+    public static final long DEFAULT_DEFLATE_CACHE_MB = 10240L;
+
+    /**
+     * Property defining the smallest file (in KB) whose compressed entry
+     * is cached.
+     */
+    public static final String DEFLATE_CACHE_MIN_KB_PROPERTY =
+            "bundler.zip.deflate_cache_min_kb";
+
+    /**
+     * Default smallest file (in KB) whose compressed entry is cached.
+     */
+    public static final long DEFAULT_DEFLATE_CACHE_MIN_KB = 1024L;
+
+    /**
+     * Property used to enable the job result cache.  When enabled a
+     * request identical to an earlier completed job (same files, entry
+     * paths, modification times and archive options) reuses the archives
+     * of that job instead of building them again.
+     */
+    public static final String RESULT_CACHE_PROPERTY =
+            "bundler.result_cache.enabled";
+
+    /**
+     * Property used to enable coalescing of duplicate requests.  When
+     * enabled a request identical to a job that is still in progress
+     * shares that job's archives instead of building them in parallel.
+     */
+    public static final String COALESCE_PROPERTY =
+            "bundler.result_cache.coalesce";
+
     /**
      * Default minimum size for the archive if it wasn't supplied by the 
      * caller (in MB).
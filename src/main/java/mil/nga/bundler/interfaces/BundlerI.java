@@ -3,6 +3,7 @@ package mil.nga.bundler.interfaces;
 import java.io.IOException;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import mil.nga.bundler.exceptions.ArchiveException;
 import mil.nga.bundler.model.ArchiveElement;
@@ -23,6 +24,25 @@ public interface BundlerI {
      * processing.
      */
     public void addFileCompletionListener(FileCompletionListenerI listener);
+    
+    /**
+     * Supply the flag used to signal that the job associated with the 
+     * output archive has been cancelled.  Implementations check the flag 
+     * between entries and while copying data and abort the bundle operation 
+     * with an <code>ArchiveCancelledException</code> when it is set.
+     * 
+     * @param flag The cancellation flag.
+     */
+    public void setCancellationFlag(AtomicBoolean flag);
+    
+    /**
+     * Supply the ID of the job associated with the output archive.  The 
+     * job ID is used to charge the data read by the bundler against the 
+     * job's bandwidth limit.
+     * 
+     * @param jobID The job ID.
+     */
+    public void setJobID(String jobID);
 	
 	 /**
      * Bundle each file in the input list.  Each entry in the list will contain
@@ -0,0 +1,57 @@
+package mil.nga.bundler.interfaces;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+
+import mil.nga.bundler.exceptions.ArchiveException;
+import mil.nga.bundler.model.ArchiveElement;
+
+/**
+ * Interface implemented by the archive classes that can account for the
+ * exact number of bytes their output will occupy.  Rather than bundling
+ * every input file, these archivers stop at the first file that would
+ * take the archive past the size limit so the caller can roll the
+ * remaining files over into a new archive.
+ *
+ * @author L. Craig Carpenter
+ */
+public interface RolloverBundlerI extends BundlerI {
+
+    /**
+     * Bundle the files in the input list (in order) into the output
+     * archive, stopping before the first file that would make the
+     * completed archive larger than <code>limit</code> bytes.  The first
+     * file is always written, so an archive may only exceed the limit if
+     * its first file does not fit on its own.
+     *
+     * @param files The list of files to bundle.
+     * @param limit The maximum size of the output archive in bytes.
+     * @param outputFile The output archive.
+     * @return The number of files written to the archive.
+     * @throws ArchiveException Raised if the bundle operation is cancelled.
+     * @throws IOException Raised if there are issues constructing the
+     * output archive.
+     */
+    public int bundle(List<ArchiveElement> files, long limit, URI outputFile)
+            throws ArchiveException, IOException;
+
+    /**
+     * Bundle the files in the input list (in order) writing the archive
+     * to the input stream.  See
+     * <code>bundle(List, long, URI)</code>.  The stream is closed when
+     * the archive is complete.
+     *
+     * @param files The list of files to bundle.
+     * @param limit The maximum size of the output archive in bytes.
+     * @param out The stream to which the archive is written.
+     * @return The number of files written to the archive.
+     * @throws ArchiveException Raised if the bundle operation is cancelled.
+     * @throws IOException Raised if there are issues constructing the
+     * output archive.
+     */
+    public int bundle(List<ArchiveElement> files, long limit, OutputStream out)
+            throws ArchiveException, IOException;
+
+}
@@ -0,0 +1,53 @@
+package mil.nga.bundler.interfaces;
+
+import java.util.Set;
+
+import mil.nga.bundler.services.QueuedArchive;
+import mil.nga.bundler.types.SchedulingPolicyType;
+
+/**
+ * Interface implemented by the policies used by the 
+ * <code>ArchiveQueue</code> to order waiting archive jobs.  The 
+ * <code>ArchiveQueue</code> serializes all calls so implementations do not
+ * need to be thread-safe.
+ * 
+ * @author L. Craig Carpenter
+ */
+public interface SchedulingPolicyI {
+
+    /**
+     * Add a waiting archive job.
+     * 
+     * @param archive The archive job.
+     */
+    public void add(QueuedArchive archive);
+    
+    /**
+     * Remove and return the next archive job to execute.
+     * 
+     * @param saturated Users that have reached the per-user concurrency 
+     * limit.  Archive jobs belonging to these users must not be selected.
+     * @param available The staging space available.  Archive jobs needing 
+     * more space than this must not be selected.
+     * @return The next archive job, or null if there are no waiting archive
+     * jobs that may be selected.
+     */
+    public QueuedArchive next(Set<String> saturated, long available);
+    
+    /**
+     * Estimate the position of the first waiting archive job associated 
+     * with the input job ID.
+     * 
+     * @param jobID The job ID.
+     * @return The 1-based position, or 0 if no archive jobs associated with
+     * the job are waiting.
+     */
+    public int getPosition(String jobID);
+    
+    /**
+     * Getter method for the type of policy implemented.
+     * 
+     * @return The policy type.
+     */
+    public SchedulingPolicyType getType();
+}
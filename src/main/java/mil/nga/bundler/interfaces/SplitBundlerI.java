@@ -0,0 +1,41 @@
+package mil.nga.bundler.interfaces;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+import mil.nga.bundler.exceptions.ArchiveException;
+import mil.nga.bundler.model.ArchiveElement;
+
+/**
+ * Interface implemented by the archive classes that can write a single
+ * logical archive as a series of fixed-size volumes (a split archive).
+ * All of the input files are written in one pass; a file larger than the
+ * volume size simply continues in the next volume.
+ *
+ * @author L. Craig Carpenter
+ */
+public interface SplitBundlerI extends BundlerI {
+
+    /**
+     * Bundle the files in the input list into a split archive.  The last
+     * volume is written to <code>outputFile</code> and the others are
+     * written alongside it (for ZIP, <code>name.z01</code>,
+     * <code>name.z02</code>, ...).
+     *
+     * @param files The list of files to bundle.
+     * @param volumeSize The size of each volume in bytes.
+     * @param outputFile The output archive.
+     * @return The volumes written, in order.  The last element is the
+     * output archive.
+     * @throws ArchiveException Raised if the bundle operation is cancelled.
+     * @throws IOException Raised if there are issues constructing the
+     * output archive.
+     */
+    public List<URI> bundleVolumes(
+            List<ArchiveElement> files,
+            long                 volumeSize,
+            URI                  outputFile)
+                    throws ArchiveException, IOException;
+
+}
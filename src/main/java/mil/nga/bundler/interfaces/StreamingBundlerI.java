@@ -0,0 +1,32 @@
+package mil.nga.bundler.interfaces;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import mil.nga.bundler.exceptions.ArchiveException;
+import mil.nga.bundler.model.ArchiveElement;
+
+/**
+ * Interface implemented by the archive/compressor classes that can write
+ * their output directly to a stream (i.e. without seeking and without an
+ * intermediate file).  Used to stream archives straight to the client.
+ *
+ * @author L. Craig Carpenter
+ */
+public interface StreamingBundlerI extends BundlerI {
+
+    /**
+     * Bundle each file in the input list, writing the archive to the
+     * input stream.  The stream is closed when the archive is complete.
+     *
+     * @param files The list of files to bundle.
+     * @param out The stream to which the archive is written.
+     * @throws ArchiveException Raised if the bundle operation is cancelled.
+     * @throws IOException Raised if there are issues constructing the
+     * output archive.
+     */
+    public void bundle(List<ArchiveElement> files, OutputStream out)
+            throws ArchiveException, IOException;
+
+}
@@ -50,6 +50,7 @@ public class BundleRequestMessage implements Serializable, BundlerConstantsI {
     // Internal members
     private final boolean    redirect;
     private final int         maxSize;
+    private final long        deadline;
     private final String      outputFilename;
     private final ArchiveType type;
     
@@ -71,6 +72,7 @@ public class BundleRequestMessage implements Serializable, BundlerConstantsI {
     private BundleRequestMessage(BundleRequestMessageBuilder builder) {
     	redirect       = builder.redirect;
     	maxSize        = builder.maxSize;
+    	deadline       = builder.deadline;
     	outputFilename = builder.outputFilename;
     	userName       = builder.userName;
     	type           = builder.type;
@@ -128,6 +130,19 @@ public class BundleRequestMessage implements Serializable, BundlerConstantsI {
         return files;
     }
     
+    /**
+     * Getter method for the optional deadline supplied by the client.  
+     * When the earliest-deadline-first scheduling policy is in use, archive 
+     * jobs with a deadline are started ahead of those without one.
+     * @return The deadline (milliseconds since the epoch), or 0 if none 
+     * was supplied.
+     */
+    @XmlElement(name="deadline")
+    @JsonProperty(value="deadline")
+    public long getDeadline() {
+        return deadline;
+    }
+    
     /**
      * Getter method for the maximum size of output archive files.
      * @return The maximum size (in MBytes) of output archive files.
@@ -211,6 +226,9 @@ public class BundleRequestMessage implements Serializable, BundlerConstantsI {
         sb.append("Max Size        : "); 
         sb.append(maxSize);
         sb.append(newLine);
+        sb.append("Deadline        : "); 
+        sb.append(deadline);
+        sb.append(newLine);
         sb.append("Redirect        : ");
         sb.append(redirect);
         sb.append(newLine);
@@ -243,6 +261,7 @@ public class BundleRequestMessage implements Serializable, BundlerConstantsI {
     
     	// Private internal members
     	private int               maxSize        = -1;
+    	private long              deadline       = 0L;
         private boolean          redirect       = false;
     	private String            outputFilename = null;
     	private String            userName       = null;
@@ -260,6 +279,18 @@ public class BundleRequestMessage implements Serializable, BundlerConstantsI {
         	return new BundleRequestMessage(this);
         }
         
+        /**
+         * Setter method for the optional deadline.
+         * 
+         * @param value The deadline (milliseconds since the epoch).
+         * @return Handle to the builder object.
+         */
+        @JsonProperty(value="deadline")
+        public BundleRequestMessageBuilder deadline(long value) {
+            deadline = value;
+            return this;
+        }
+        
         /**
          * Setter method for the maximum size of output archive files.
          * 
@@ -344,6 +375,9 @@ public class BundleRequestMessage implements Serializable, BundlerConstantsI {
         	if ((maxSize <= MIN_ARCHIVE_SIZE) || (maxSize > MAX_ARCHIVE_SIZE)) {
         		maxSize = DEFAULT_ARCHIVE_SIZE;
         	}
+        	if (deadline < 0) {
+        		deadline = 0L;
+        	}
         	if ((userName == null) || (userName.isEmpty())) {
         		userName = DEFAULT_USERNAME;
         	}
@@ -51,6 +51,8 @@ public class JobTrackerMessage implements BundlerConstantsI, Serializable {
     private final long             numFiles;
     private final long             numFilesComplete;
     private final int              numHashesComplete;
+    private final int              queuePosition;
+    private final int              queuedArchives;
     private final JobStateType     state;
     private final long             totalSize;
     private final long             totalSizeComplete;
@@ -65,6 +67,8 @@ public class JobTrackerMessage implements BundlerConstantsI, Serializable {
     	this.numArchivesComplete = builder.numArchivesComplete;
         this.elapsedTime         = builder.elapsedTime;
         this.numHashesComplete   = builder.numHashesComplete;
+        this.queuePosition       = builder.queuePosition;
+        this.queuedArchives      = builder.queuedArchives;
         this.numFiles            = builder.numFiles;
         this.numFilesComplete    = builder.numFilesComplete;
         this.totalSize           = builder.totalSize;
@@ -175,6 +179,28 @@ public class JobTrackerMessage implements BundlerConstantsI, Serializable {
         return totalSizeComplete;
     }
     
+    /**
+     * Getter method for the position of the job in the archive queue.
+     * @return The 1-based queue position of the first archive job waiting
+     * to run, or 0 if no archive jobs are waiting.
+     */
+    @JsonProperty(value="queue_position")
+    public int getQueuePosition() {
+        return queuePosition;
+    }
+    
+    /**
+     * Getter method for the number of archive jobs that were waiting to 
+     * run when the job was accepted.  The job's own archive jobs are 
+     * queued once the request has been expanded, so a newly accepted job 
+     * does not yet have a queue position.
+     * @return The number of archive jobs waiting ahead of the job.
+     */
+    @JsonProperty(value="queued_archives")
+    public int getQueuedArchives() {
+        return queuedArchives;
+    }
+    
     /**
      * Getter method for the current state of the job in progress.
      * @return The current state of the job.
@@ -223,6 +249,12 @@ public class JobTrackerMessage implements BundlerConstantsI, Serializable {
         sb.append("Total Number of Files Complete : ");
         sb.append(getNumFilesComplete());
         sb.append(newLine);
+        sb.append("Queue Position                 : ");
+        sb.append(getQueuePosition());
+        sb.append(newLine);
+        sb.append("Queued Archives                : ");
+        sb.append(getQueuedArchives());
+        sb.append(newLine);
         sb.append("Total Size                     : ");
         sb.append(getTotalSize());
         sb.append("  (Uncompressed)");
@@ -263,6 +295,8 @@ public class JobTrackerMessage implements BundlerConstantsI, Serializable {
         private int             numArchivesComplete = 0;
         private long            elapsedTime         = 0L;
         private int             numHashesComplete   = 0;
+        private int             queuePosition       = 0;
+        private int             queuedArchives      = 0;
         private long            numFiles            = 0;
         private long            numFilesComplete    = 0;
         private long            totalSize           = 0L;
@@ -398,6 +432,27 @@ public class JobTrackerMessage implements BundlerConstantsI, Serializable {
             return this;
         }
         
+        /**
+         * Setter method for the position of the job in the archive queue.
+         * @param value The 1-based queue position (0 if not queued).
+         */
+        @JsonProperty(value="queue_position")
+        public JobTrackerMessageBuilder queuePosition(int value) {
+            queuePosition = value;
+            return this;
+        }
+        
+        /**
+         * Setter method for the number of archive jobs waiting to run when
+         * the job was accepted.
+         * @param value The number of archive jobs waiting.
+         */
+        @JsonProperty(value="queued_archives")
+        public JobTrackerMessageBuilder queuedArchives(int value) {
+            queuedArchives = value;
+            return this;
+        }
+        
         /**
          * Setter method for the current state of the job.
          * @param state The state of the job
@@ -12,6 +12,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonRootName;
 
+import mil.nga.bundler.ManifestCodec;
 import mil.nga.bundler.interfaces.BundlerConstantsI;
 import mil.nga.bundler.types.ArchiveType;
 import mil.nga.bundler.types.JobStateType;
@@ -63,6 +64,37 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
     @JsonIgnore
     List<FileEntry> files = new ArrayList<FileEntry>();
     
+    /**
+     * Compressed manifest containing the list of files to be included in 
+     * the Archive.  This is only populated when the bundler is configured 
+     * to use the <code>MANIFEST</code> file storage mode, in which case the 
+     * <code>files</code> list above will be empty.  The manifest is written 
+     * once when the job is created and never updated.
+     */
+    @Lob
+    @Column(name="FILE_MANIFEST", updatable=false)
+    @JsonIgnore
+    private byte[] manifest = null;
+    
+    /**
+     * High-water mark identifying the number of files (in manifest order) 
+     * that have been added to the output archive.  Only used in 
+     * <code>MANIFEST</code> file storage mode.  This is an object type 
+     * because the column will be null for records created before the 
+     * column was added.
+     */
+    @Column(name="FILES_COMPLETE")
+    @JsonIgnore
+    private Long filesComplete = 0L;
+    
+    /**
+     * The uncompressed size of the files identified by the high-water 
+     * mark.  Only used in <code>MANIFEST</code> file storage mode.
+     */
+    @Column(name="SIZE_COMPLETE")
+    @JsonIgnore
+    private Long sizeComplete = 0L;
+    
     /**
      * Local path of the  the output archive file
      */
@@ -148,6 +180,26 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
     @Column(name="NUM_FILES")
     @JsonIgnore
     private int numFiles = 0;
+    
+    /**
+     * The number of volumes written for a split archive.  Volumes other 
+     * than the last are stored alongside the archive file as 
+     * <code>name.z01</code>, <code>name.z02</code>, ...  Null for archives 
+     * written as a single file.
+     */
+    @Column(name="NUM_VOLUMES")
+    @JsonProperty(value="num_volumes")
+    private Integer numVolumes = null;
+    
+    /**
+     * Size limit (in bytes) of an archive built with size-exact rollover.  
+     * Files that do not fit are moved to a new archive job when the 
+     * archive is built.  Null for archives whose file list is fixed 
+     * (including records created before the column was added).
+     */
+    @Column(name="ROLLOVER_LIMIT")
+    @JsonIgnore
+    private Long rolloverLimit = null;
 
     /**
      * The JBoss JVM server name that is responsible for processing the 
@@ -164,6 +216,15 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
     @JsonIgnore
     private long startTime = 0L;
     
+    /**
+     * Size (in bytes) of each volume of an archive written as a split 
+     * archive.  Null for archives written as a single file (including 
+     * records created before the column was added).
+     */
+    @Column(name="VOLUME_SIZE")
+    @JsonIgnore
+    private Long volumeSize = null;
+    
     /**
      * Default Eclipse-generated constructor.
      */
@@ -214,6 +275,61 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
         setSize(sizeAccumulator);
     }
     
+    /**
+     * Calculate the number of files that have been added to the output 
+     * archive.  In <code>MANIFEST</code> mode this is the high-water mark, 
+     * otherwise the individual <code>FileEntry</code> states are counted.
+     * 
+     * @return The number of files completed.
+     */
+    public long calculateFilesComplete() {
+        long numComplete = 0L;
+        if (isManifest()) {
+            if (getArchiveState() == JobStateType.COMPLETE) {
+                numComplete = getNumFiles();
+            }
+            else {
+                numComplete = Math.min(getFilesComplete(), getNumFiles());
+            }
+        }
+        else if (getFiles() != null) {
+            for (FileEntry file : getFiles()) {
+                if (file.getFileState() == JobStateType.COMPLETE) {
+                    numComplete++;
+                }
+            }
+        }
+        return numComplete;
+    }
+    
+    /**
+     * Calculate the uncompressed size of the files that have been added to 
+     * the output archive.  In <code>MANIFEST</code> mode this is the size 
+     * recorded with the high-water mark, otherwise the individual 
+     * <code>FileEntry</code> sizes are summed.
+     * 
+     * @return The uncompressed size of the files completed.
+     */
+    public long calculateSizeComplete() {
+        long size = 0L;
+        if (isManifest()) {
+            if (getArchiveState() == JobStateType.COMPLETE) {
+                size = getSize();
+            }
+            else {
+                size = Math.min(getSizeComplete(), getSize());
+            }
+        }
+        else if (getFiles() != null) {
+            for (FileEntry file : getFiles()) {
+                if (file.getFileState() == JobStateType.COMPLETE) {
+                    size += file.getSize();
+                }
+            }
+        }
+        return size;
+    }
+    
     /**
      * Getter method for the external accessible URL of the output archive 
      * file.
@@ -319,6 +435,51 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
             return files;
     }
     
+    /**
+     * Getter method for the list of files to include in the output archive 
+     * regardless of the storage mode.  In <code>MANIFEST</code> mode the 
+     * <code>FileEntry</code> objects are materialized from the manifest 
+     * on demand (with the file state derived from the high-water mark) and 
+     * are not attached to the persistence context.  This is intended for 
+     * archive processing and diagnostics.  The manifest is never updated, 
+     * so when files have been rolled over to another archive job only the 
+     * first <code>numFiles</code> entries belong to this archive.
+     * 
+     * @return The list of files in the output archive.
+     */
+    @JsonIgnore
+    public List<FileEntry> getFileEntries() {
+        if (isManifest()) {
+            List<FileEntry> entries = 
+                    ManifestCodec.getInstance().decode(getManifest());
+            if (entries.size() > getNumFiles()) {
+                entries = new ArrayList<FileEntry>(
+                        entries.subList(0, getNumFiles()));
+            }
+            long numComplete = calculateFilesComplete();
+            for (int i=0; i<entries.size(); i++) {
+                FileEntry entry = entries.get(i);
+                entry.setJobID(getJobID());
+                entry.setArchiveID(getArchiveID());
+                if (i < numComplete) {
+                    entry.setFileState(JobStateType.COMPLETE);
+                }
+            }
+            return entries;
+        }
+        return getFiles();
+    }
+    
+    /**
+     * Getter method for the high-water mark identifying the number of 
+     * files added to the output archive (<code>MANIFEST</code> mode only).
+     * @return The number of files completed.
+     */
+    @JsonIgnore
+    public long getFilesComplete() {
+        return (filesComplete == null ? 0L : filesComplete.longValue());
+    }
+    
     /**
      * Getter method for the local path of the file containing 
      * the hash of the output archive file.
@@ -380,6 +541,15 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
         return jobID;
     }
     
+    /**
+     * Getter method for the compressed file manifest.
+     * @return The compressed file manifest (may be null).
+     */
+    @JsonIgnore
+    public byte[] getManifest() {
+        return manifest;
+    }
+    
     /**
      * Getter method for the number of files contained in the output archive.
      * @return The number of files contained in the output archive.
@@ -389,6 +559,34 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
             return numFiles;
     }
     
+    /**
+     * Getter method for the number of volumes of a split archive.
+     * @return The number of volumes (0 if the archive is not split).
+     */
+    public int getNumVolumes() {
+        return (numVolumes == null ? 0 : numVolumes.intValue());
+    }
+    
+    /**
+     * Getter method for the size limit of an archive built with size-exact 
+     * rollover.
+     * @return The size limit in bytes (null if the file list is fixed).
+     */
+    @JsonIgnore
+    public Long getRolloverLimit() {
+        return rolloverLimit;
+    }
+    
+    /**
+     * Getter method for the uncompressed size of the files identified by 
+     * the high-water mark (<code>MANIFEST</code> mode only).
+     * @return The uncompressed size of the files completed.
+     */
+    @JsonIgnore
+    public long getSizeComplete() {
+        return (sizeComplete == null ? 0L : sizeComplete.longValue());
+    }
+    
     /**
      * Getter method for the time the job was started
      * @param state The start time of the job
@@ -398,6 +596,28 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
         return startTime;
     }
     
+    /**
+     * Getter method for the volume size of an archive written as a split 
+     * archive.
+     * @return The volume size in bytes (null if the archive is written 
+     * as a single file).
+     */
+    @JsonIgnore
+    public Long getVolumeSize() {
+        return volumeSize;
+    }
+    
+    /**
+     * Flag indicating whether or not the list of files is stored as a 
+     * compressed manifest rather than individual <code>FileEntry</code> 
+     * rows.
+     * @return True if the file list is stored in a manifest.
+     */
+    @JsonIgnore
+    public boolean isManifest() {
+        return ((manifest != null) && (manifest.length > 0));
+    }
+    
     /** 
      * Setter method for the local path of the file containing 
      * the hash of the output archive file.
@@ -473,6 +693,15 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
             files = value;
     }
     
+    /**
+     * Setter method for the high-water mark identifying the number of 
+     * files added to the output archive.
+     * @param value The number of files completed.
+     */
+    public void setFilesComplete(long value) {
+        filesComplete = value;
+    }
+    
     /**
      * Setter method for the local path to the hash file.
      * @param value The local path of the hash file.
@@ -513,6 +742,14 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
         jobID = value;
     }
     
+    /**
+     * Setter method for the compressed file manifest.
+     * @param value The compressed file manifest.
+     */
+    public void setManifest(byte[] value) {
+        manifest = value;
+    }
+    
     /**
      * The number of files contained in the output archive.
      * @param value The number of files contained in the output archive.
@@ -521,6 +758,33 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
             numFiles = value;
     }
     
+    /**
+     * Setter method for the number of volumes of a split archive.
+     * @param value The number of volumes written.
+     */
+    public void setNumVolumes(int value) {
+        numVolumes = value;
+    }
+    
+    /**
+     * Setter method for the size limit of an archive built with size-exact 
+     * rollover.
+     * @param value The size limit in bytes (null if the file list is 
+     * fixed).
+     */
+    public void setRolloverLimit(Long value) {
+        rolloverLimit = value;
+    }
+    
+    /**
+     * Setter method for the uncompressed size of the files identified by 
+     * the high-water mark.
+     * @param value The uncompressed size of the files completed.
+     */
+    public void setSizeComplete(long value) {
+        sizeComplete = value;
+    }
+    
     /**
      * Setter method for the time the job was started
      * @param state The start time of the job
@@ -529,6 +793,16 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
         startTime = value;
     }
     
+    /**
+     * Setter method for the volume size of an archive written as a split 
+     * archive.
+     * @param value The volume size in bytes (null if the archive is 
+     * written as a single file).
+     */
+    public void setVolumeSize(Long value) {
+        volumeSize = value;
+    }
+    
     /**
      * Convert the internal members to a String (for logging purposes).
      * @return Printable string
@@ -582,6 +856,12 @@ public class ArchiveJob implements BundlerConstantsI, Serializable {
         sb.append("  File Size        : ");
         sb.append(getSize());
         sb.append(newLine);
+        sb.append("  Manifest         : ");
+        sb.append(isManifest() ? getManifest().length + " bytes" : "<none>");
+        sb.append(newLine);
+        sb.append("  Files Complete   : ");
+        sb.append(calculateFilesComplete());
+        sb.append(newLine);
         sb.append("  Start Time       : ");
         sb.append(FileUtils.getTimeAsString(
                 UNIVERSAL_DATE_STRING, 
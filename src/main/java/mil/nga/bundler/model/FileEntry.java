@@ -80,6 +80,14 @@ public class FileEntry implements Serializable {
     @Column(name="FILE_SIZE")
     private long size = 0L;
     
+    /**
+     * The modification time of the on-disk file (milliseconds since the 
+     * epoch) as observed during validation, or -1 if it was not recorded.
+     * Not persisted.
+     */
+    @Transient
+    private long lastModified = -1L;
+    
     /**
      * Default Eclipse-generated constructor.
      */
@@ -223,6 +231,15 @@ public class FileEntry implements Serializable {
         return jobID;
     }
     
+    /**
+     * Getter method for the modification time recorded during validation.
+     * @return The modification time in milliseconds, or -1 if it was not 
+     * recorded.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+    
     /**
      * Getter method for the uncompressed size of the file.
      * @return The size of the target file.
@@ -281,6 +298,14 @@ public class FileEntry implements Serializable {
         jobID = value;
     }
     
+    /**
+     * Setter method for the modification time recorded during validation.
+     * @param value The modification time in milliseconds.
+     */
+    public void setLastModified(long value) {
+        lastModified = value;
+    }
+    
     /**
      * Getter method for the uncompressed size of the file.
      * @param value The size of the target file.
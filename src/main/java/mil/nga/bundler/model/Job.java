@@ -57,6 +57,31 @@ public class Job implements Serializable {
     @Column(name="END_TIME")
     private long endTime = 0L;
     
+    /**
+     * Optional client-supplied deadline (milliseconds since the epoch).  
+     * Zero if the client did not supply a deadline.  Null in the rows of 
+     * jobs created before the column was added, hence the object type.
+     */
+    @Column(name="DEADLINE")
+    private Long deadline = 0L;
+    
+    /**
+     * Fingerprint of the request (see <code>ResultCacheService</code>) 
+     * used to find an earlier job that produced the same output.  Null if 
+     * the result cache is disabled or the fingerprint could not be 
+     * calculated.
+     */
+    @Column(name="FINGERPRINT", length=64)
+    private String fingerprint = null;
+    
+    /**
+     * ID of the in-flight job whose archives this job shares (see 
+     * <code>ResultCacheService</code>).  Null if the job builds its own 
+     * archives.
+     */
+    @Column(name="LEADER_JOB_ID")
+    private String leaderJobID = null;
+    
     /**
      * Primary key.
      */
@@ -187,6 +212,14 @@ public class Job implements Serializable {
             return archives;
     }
     
+    /**
+     * Getter method for the client-supplied deadline.
+     * @return The deadline (milliseconds since the epoch), or 0 if none.
+     */
+    public long getDeadline() {
+        return (deadline == null ? 0L : deadline.longValue());
+    }
+    
     /**
      * Getter method for the time when the archive job completed.
      * @return The time the archive job completed.
@@ -195,6 +228,23 @@ public class Job implements Serializable {
         return endTime;
     }
     
+    /**
+     * Getter method for the request fingerprint.
+     * @return The request fingerprint, or null if not calculated.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+    
+    /**
+     * Getter method for the ID of the job whose archives this job shares.
+     * @return The leader job ID, or null if the job builds its own 
+     * archives.
+     */
+    public String getLeaderJobID() {
+        return leaderJobID;
+    }
+    
     /**
      * Getter method for total number of archives in the job.
      * @return Total number of archives in the job.
@@ -307,6 +357,14 @@ public class Job implements Serializable {
         archiveType = value;
     }
     
+    /**
+     * Setter method for the client-supplied deadline.
+     * @param value The deadline (milliseconds since the epoch).
+     */
+    public void setDeadline(long value) {
+        deadline = value;
+    }
+    
     /**
      * Setter method for the time the job was completed
      * @param state The completion time of the job
@@ -315,6 +373,22 @@ public class Job implements Serializable {
         endTime = value;
     }
     
+    /**
+     * Setter method for the request fingerprint.
+     * @param value The request fingerprint.
+     */
+    public void setFingerprint(String value) {
+        fingerprint = value;
+    }
+    
+    /**
+     * Setter method for the ID of the job whose archives this job shares.
+     * @param value The leader job ID.
+     */
+    public void setLeaderJobID(String value) {
+        leaderJobID = value;
+    }
+    
     /**
      * Setter method for total number of archives in the job.
      * @param value Total number of archives in the job.
@@ -431,6 +505,9 @@ public class Job implements Serializable {
         sb.append("Total Size            : ");
         sb.append(getTotalSize());
         sb.append(newLine);
+        sb.append("Deadline              : ");
+        sb.append(getDeadline());
+        sb.append(newLine);
         sb.append("Num Archives Complete : ");
         sb.append(getNumArchivesComplete());
         sb.append(newLine);
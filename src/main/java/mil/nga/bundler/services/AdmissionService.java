@@ -0,0 +1,255 @@
+package mil.nga.bundler.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+
+/**
+ * Class implementing admission control for the bundle submission
+ * end points.  A new request is rejected if any of the following are
+ * true:
+ *
+ * <li>The amount of data waiting in the <code>ArchiveQueue</code> exceeds
+ * <code>bundler.admission.max_queued_gb</code> (HTTP 429).</li>
+ * <li>The number of archive jobs waiting in the <code>ArchiveQueue</code>
+ * exceeds <code>bundler.admission.max_queued_archives</code> (HTTP 429).
+ * </li>
+ * <li>The staging space available (free space less the space reserved by
+ * running archive jobs, see <code>StagingSpaceManager</code>) is below
+ * <code>bundler.admission.min_free_mb</code> (HTTP 503).</li>
+ *
+ * Rejected requests are given a Retry-After estimate based on how long the
+ * queue will take to drain back under the limit at the current drain rate.
+ *
+ * @author L. Craig Carpenter
+ */
+public class AdmissionService extends PropertyLoader
+        implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            AdmissionService.class);
+
+    /**
+     * Upper bound on the Retry-After estimate (in seconds).
+     */
+    public static final long MAX_RETRY_AFTER = 3600L;
+
+    /**
+     * HTTP status returned when the queue limits are exceeded.  Defined
+     * here because <code>Response.Status</code> in the JAX-RS 2.0 API does
+     * not include 429.
+     */
+    public static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * HTTP status returned when the staging area is nearly full.
+     */
+    public static final int SERVICE_UNAVAILABLE = 503;
+
+    /**
+     * HTTP status associated with an accepted request.
+     */
+    public static final int OK = 200;
+
+    // Private internal members
+    private final long maxQueuedBytes;
+    private final long maxQueuedArchives;
+    private final long minFreeBytes;
+    private final long defaultRetryAfter;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private AdmissionService() {
+        super(PROPERTY_FILE_NAME);
+        maxQueuedBytes    = getLongProperty(
+                ADMISSION_MAX_QUEUED_GB_PROPERTY,
+                DEFAULT_ADMISSION_MAX_QUEUED_GB) * 1024L * BYTES_PER_MEGABYTE;
+        maxQueuedArchives = getLongProperty(
+                ADMISSION_MAX_QUEUED_ARCHIVES_PROPERTY,
+                DEFAULT_ADMISSION_MAX_QUEUED_ARCHIVES);
+        minFreeBytes      = getLongProperty(
+                ADMISSION_MIN_FREE_MB_PROPERTY,
+                DEFAULT_ADMISSION_MIN_FREE_MB) * BYTES_PER_MEGABYTE;
+        defaultRetryAfter = getLongProperty(
+                ADMISSION_RETRY_AFTER_PROPERTY,
+                DEFAULT_ADMISSION_RETRY_AFTER);
+    }
+
+    /**
+     * Return a singleton instance to the AdmissionService object.
+     * @return The AdmissionService
+     */
+    public static AdmissionService getInstance() {
+        return AdmissionServiceHolder.getFactorySingleton();
+    }
+
+    /**
+     * Estimate how long it will take to drain the input excess at the
+     * input rate.
+     *
+     * @param excess The amount over the limit.
+     * @param rate The drain rate (per second).
+     * @return The estimate in seconds.
+     */
+    private long estimate(double excess, double rate) {
+        long seconds = defaultRetryAfter;
+        if (rate > 0.0) {
+            seconds = (long)Math.ceil(excess / rate);
+        }
+        return Math.max(1L, Math.min(MAX_RETRY_AFTER, seconds));
+    }
+
+    /**
+     * Getter method for the Retry-After value used when no drain rate is
+     * available.
+     *
+     * @return The default Retry-After value (in seconds).
+     */
+    public long getDefaultRetryAfter() {
+        return defaultRetryAfter;
+    }
+
+    /**
+     * Decide whether a new bundle request should be accepted.
+     *
+     * @return The admission decision.
+     */
+    public AdmissionDecision admit() {
+
+        ArchiveQueue queue    = ArchiveQueue.getInstance();
+        long         bytes    = queue.getQueuedBytes();
+        long         archives = queue.getQueuedArchives();
+
+        if (bytes >= maxQueuedBytes) {
+            long retry = estimate(
+                    bytes - maxQueuedBytes + 1,
+                    queue.getByteDrainRate());
+            LOGGER.warn("Request rejected.  Queued data [ "
+                    + bytes
+                    + " ] bytes exceeds the limit of [ "
+                    + maxQueuedBytes
+                    + " ] bytes.  Retry after [ "
+                    + retry
+                    + " ] seconds.");
+            return new AdmissionDecision(
+                    TOO_MANY_REQUESTS, retry,
+                    "Too much data is waiting to be bundled.");
+        }
+        if (archives >= maxQueuedArchives) {
+            long retry = estimate(
+                    archives - maxQueuedArchives + 1,
+                    queue.getArchiveDrainRate());
+            LOGGER.warn("Request rejected.  Queued archive jobs [ "
+                    + archives
+                    + " ] exceeds the limit of [ "
+                    + maxQueuedArchives
+                    + " ].  Retry after [ "
+                    + retry
+                    + " ] seconds.");
+            return new AdmissionDecision(
+                    TOO_MANY_REQUESTS, retry,
+                    "Too many archive jobs are waiting to be bundled.");
+        }
+        long free = StagingSpaceManager.getInstance().getAvailableSpace();
+        if ((free >= 0) && (free < minFreeBytes)) {
+            // Completed archives free up space slowly (they are only
+            // removed by the retention engine) so use the default.
+            LOGGER.warn("Request rejected.  Available staging space [ "
+                    + free
+                    + " ] bytes is below the minimum of [ "
+                    + minFreeBytes
+                    + " ] bytes.");
+            return new AdmissionDecision(
+                    SERVICE_UNAVAILABLE, defaultRetryAfter,
+                    "Insufficient staging space is available.");
+        }
+        return new AdmissionDecision(OK, 0L, null);
+    }
+
+    /**
+     * Simple immutable class holding the result of an admission check.
+     */
+    public static class AdmissionDecision {
+
+        // Private internal members
+        private final int    status;
+        private final long   retryAfter;
+        private final String reason;
+
+        /**
+         * Constructor.
+         *
+         * @param status The HTTP status to return.
+         * @param retryAfter The Retry-After estimate in seconds.
+         * @param reason Explanation for the rejection.
+         */
+        public AdmissionDecision(int status, long retryAfter, String reason) {
+            this.status     = status;
+            this.retryAfter = retryAfter;
+            this.reason     = reason;
+        }
+
+        /**
+         * Getter method indicating whether the request was accepted.
+         * @return True if the request was accepted.
+         */
+        public boolean isAdmitted() {
+            return (status == OK);
+        }
+
+        /**
+         * Getter method for the explanation of the rejection.
+         * @return The reason the request was rejected.
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        /**
+         * Getter method for the Retry-After estimate.
+         * @return The number of seconds after which to retry.
+         */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+
+        /**
+         * Getter method for the HTTP status.
+         * @return The HTTP status to return.
+         */
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class AdmissionServiceHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static AdmissionService _factory = new AdmissionService();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static AdmissionService getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import javax.persistence.Persistence;
 import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
 import javax.persistence.criteria.Root;
 
 import org.slf4j.Logger;
@@ -54,6 +55,18 @@ public class ArchiveJobService implements BundlerConstantsI, Closeable {
     	}
     }
     
+    /**
+     * Detach all entities from the persistence context so that the next 
+     * query reads the current contents of the data store.  Used after the 
+     * archive job has been changed through another service (e.g. files 
+     * rolled over into a new archive job).
+     */
+    public void clear() {
+    	if (em != null) {
+    		em.clear();
+    	}
+    }
+    
     /**
      * Accessor method for the EntityManager object that will be used to 
      * interact with the backing data store.
@@ -181,4 +194,84 @@ public class ArchiveJobService implements BundlerConstantsI, Closeable {
                     + "The ArchiveJob will not be updated.");
         }
     }
+    
+    /**
+     * Method used to update the completion high-water mark associated with 
+     * an archive job that stores its file list in a manifest.  This is 
+     * implemented as a set-based update so that only the two progress 
+     * columns are written (i.e. the manifest blob is not re-written and 
+     * there is no requirement to load the entity).
+     * 
+     * @param jobID The target job ID.
+     * @param archiveID The target archive ID.
+     * @param filesComplete The number of files added to the archive.
+     * @param sizeComplete The uncompressed size of the files added to the 
+     * archive.
+     * @return The number of records updated.
+     */
+    public int updateProgress(
+    		String jobID, 
+    		long   archiveID, 
+    		long   filesComplete, 
+    		long   sizeComplete) throws ServiceUnavailableException {
+    	
+    	long startTime = System.currentTimeMillis();
+    	int  updated   = 0;
+    	
+    	if ((jobID != null) && (!jobID.isEmpty())) {
+    		
+    		CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+    		CriteriaUpdate<ArchiveJob> cu = 
+    				cb.createCriteriaUpdate(ArchiveJob.class);
+    		Root<ArchiveJob> root = cu.from(ArchiveJob.class);
+    		
+    		cu.set(root.<Long>get("filesComplete"), filesComplete);
+    		cu.set(root.<Long>get("sizeComplete"), sizeComplete);
+    		cu.where(
+    				cb.equal(
+    						root.get("jobID"), 
+    						cb.parameter(String.class, "jobID")),
+    				cb.equal(root.get("archiveID"), 
+    						cb.parameter(Long.class, "archiveID")));
+    		
+    		try {
+    			getEntityManager().getTransaction().begin();
+    			Query query = getEntityManager().createQuery(cu);
+    			query.setParameter("jobID", jobID);
+    			query.setParameter("archiveID", archiveID);
+    			updated = query.executeUpdate();
+    			getEntityManager().getTransaction().commit();
+    		}
+    		catch (RuntimeException re) {
+    			if (getEntityManager().getTransaction().isActive()) {
+    				getEntityManager().getTransaction().rollback();
+    			}
+    			LOGGER.error("Unexpected exception raised while updating "
+    					+ "the progress of job ID [ "
+    					+ jobID
+    					+ " ] and archive ID [ "
+    					+ archiveID
+    					+ " ].  Exception message => [ "
+    					+ re.getMessage()
+    					+ " ].");
+    		}
+    		
+    		if (LOGGER.isDebugEnabled()) {
+            	LOGGER.debug("Progress for job ID [ "
+            			+ jobID
+            			+ " ] and archive ID [ "
+            			+ archiveID
+            			+ " ] set to [ "
+            			+ filesComplete
+            			+ " ] files in [ "
+            			+ (System.currentTimeMillis() - startTime)
+            			+ " ] ms.");
+    		}
+    	}
+    	else {
+    		LOGGER.warn("The input job ID is null or empty.  "
+                    + "Archive progress will not be updated.");
+    	}
+    	return updated;
+    }
 }
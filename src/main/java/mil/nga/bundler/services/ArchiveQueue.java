@@ -0,0 +1,623 @@
+package mil.nga.bundler.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.interfaces.SchedulingPolicyI;
+import mil.nga.bundler.types.SchedulingPolicyType;
+
+/**
+ * Central queue through which all archive jobs are executed.  Previously
+ * each archive job was started in its own thread as soon as the job was
+ * created, so during peak periods the host could end up with thousands of
+ * runnable threads all competing for the same disks.  Archive jobs are now
+ * placed in a queue and executed by a fixed number of worker threads
+ * (<code>bundler.queue.max_workers</code>).
+ *
+ * The order in which waiting archive jobs are executed is delegated to a
+ * pluggable <code>SchedulingPolicyI</code> selected through
+ * <code>bundler.scheduler.policy</code>: fair-share (deficit round-robin
+ * across users, the default) or shortest-first with aging and
+ * earliest-deadline-first.  Regardless of policy, a user never has more
+ * than <code>bundler.scheduler.max_per_user</code> archive jobs executing.
+ *
+ * Unless <code>bundler.adaptive.enabled</code> is false, the number of
+ * workers allowed to execute archive jobs at any one time is adjusted
+ * between <code>bundler.adaptive.min_workers</code> and
+ * <code>bundler.queue.max_workers</code> by a
+ * <code>ConcurrencyController</code> based on the observed source read
+ * throughput and latency.
+ *
+ * Archive jobs are only dispatched when the staging space they are
+ * estimated to need fits in the space available.  The space is reserved
+ * through the <code>StagingSpaceManager</code> when the archive job starts
+ * and released when it finishes.
+ *
+ * Wait times are published to the <code>MetricsService</code> per size
+ * class (<code>queue.wait_ms.&lt;class&gt;</code>) along with the number
+ * of client deadlines met and missed.
+ *
+ * The queue also maintains the statistics used for admission control: the
+ * number and total size of the archive jobs waiting to run, the number of
+ * jobs that have been accepted but not yet expanded into archive jobs, and
+ * the recent drain rate (bytes and archives completed per second).
+ *
+ * @author L. Craig Carpenter
+ */
+public class ArchiveQueue extends PropertyLoader implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            ArchiveQueue.class);
+
+    /**
+     * Length of the sliding window (in milliseconds) used to calculate the
+     * drain rate.
+     */
+    private static final long DRAIN_WINDOW = 15L * 60L * 1000L;
+
+    /**
+     * Interval (in milliseconds) at which waiting workers re-check the
+     * staging space.  Space may be freed without an archive job completing
+     * (e.g. by the retention engine).
+     */
+    private static final long SPACE_POLL_INTERVAL = 30L * 1000L;
+
+    /**
+     * Time (in milliseconds) <code>shutdown()</code> waits for each worker
+     * thread to finish.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10L * 1000L;
+
+    /**
+     * Used for thread-safety.
+     */
+    private final Object MUTEX = new Object();
+
+    /**
+     * Upper bounds (exclusive) of the size classes used when reporting
+     * wait times.  Archive jobs larger than the last bound are "xlarge".
+     */
+    private static final long[] SIZE_CLASS_BOUNDS = {
+            100L * BYTES_PER_MEGABYTE,
+            10L * 1024L * BYTES_PER_MEGABYTE,
+            100L * 1024L * BYTES_PER_MEGABYTE };
+
+    /**
+     * Names of the size classes used when reporting wait times.
+     */
+    private static final String[] SIZE_CLASS_NAMES = {
+            "small", "medium", "large", "xlarge" };
+
+    /**
+     * Number of archive jobs executing per user.
+     */
+    private final Map<String, Integer> runningByUser =
+            new HashMap<String, Integer>();
+
+    /**
+     * Users that have reached the per-user concurrency limit.
+     */
+    private final Set<String> saturated = new HashSet<String>();
+
+    /**
+     * Recently completed archive jobs used to calculate the drain rate.
+     * Each element holds the completion time and the size of the archive.
+     */
+    private final Deque<long[]> completions = new ArrayDeque<long[]>();
+
+    /**
+     * The worker threads and the concurrency controller thread.
+     */
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    // Private internal members
+    private final int  maxWorkers;
+    private final int               maxPerUser;
+    private final SchedulingPolicyI policy;
+    private int                     limit;
+    private final long startTime    = System.currentTimeMillis();
+    private int        pending      = 0;
+    private int        running      = 0;
+    private int        reservations = 0;
+    private long       queuedBytes  = 0L;
+    private boolean    stopped      = false;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.  The
+     * worker threads are started here.
+     */
+    private ArchiveQueue() {
+        super(PROPERTY_FILE_NAME);
+        maxWorkers = (int)Math.max(1L, getLongProperty(
+                QUEUE_MAX_WORKERS_PROPERTY,
+                DEFAULT_QUEUE_MAX_WORKERS));
+        maxPerUser = (int)Math.max(1L, getLongProperty(
+                SCHEDULER_MAX_PER_USER_PROPERTY,
+                DEFAULT_SCHEDULER_MAX_PER_USER));
+        policy     = createPolicy();
+        limit      = maxWorkers;
+        for (int i = 0; i < maxWorkers; i++) {
+            Thread t = new Thread(new Worker(), "bundler-archive-" + i);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        if (isAdaptive()) {
+            ConcurrencyController controller =
+                    new ConcurrencyController(this, maxWorkers);
+            limit = controller.getInitialLimit();
+            Thread t = new Thread(controller, "bundler-concurrency");
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        MetricsService.getInstance().set("adaptive.limit", limit);
+        LOGGER.info("Archive queue started with [ "
+                + maxWorkers
+                + " ] worker threads ([ "
+                + limit
+                + " ] active), a per-user limit of [ "
+                + maxPerUser
+                + " ] and scheduling policy [ "
+                + policy.getType().getText()
+                + " ].");
+    }
+
+    /**
+     * Stop the worker threads and the concurrency controller.  Running 
+     * archive jobs are interrupted and archive jobs still queued are not 
+     * started; both are picked up by start up recovery.  Each thread is 
+     * given <code>SHUTDOWN_TIMEOUT</code> ms to finish.
+     */
+    public void shutdown() {
+        synchronized (MUTEX) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            MUTEX.notifyAll();
+        }
+        LOGGER.info("Stopping the archive queue.  [ "
+                + getRunning()
+                + " ] archive jobs running, [ "
+                + getQueuedArchives()
+                + " ] queued.");
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join(SHUTDOWN_TIMEOUT);
+                if (t.isAlive()) {
+                    LOGGER.warn("Thread [ "
+                            + t.getName()
+                            + " ] did not stop within [ "
+                            + SHUTDOWN_TIMEOUT
+                            + " ] ms.");
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Determine whether the adaptive concurrency controller is enabled.
+     *
+     * @return True only if <code>bundler.adaptive.enabled</code> is true.
+     */
+    private boolean isAdaptive() {
+        String value = null;
+        try {
+            value = getProperty(ADAPTIVE_ENABLED_PROPERTY);
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        return ((value != null) &&
+                (value.trim().equalsIgnoreCase("true")));
+    }
+
+    /**
+     * Construct the scheduling policy identified in the properties file.
+     *
+     * @return The scheduling policy.
+     */
+    private SchedulingPolicyI createPolicy() {
+        String value = null;
+        try {
+            value = getProperty(SCHEDULER_POLICY_PROPERTY);
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        switch (SchedulingPolicyType.fromString(value)) {
+            case SHORTEST_FIRST:
+                return new ShortestFirstPolicy();
+            default:
+                return new FairSharePolicy();
+        }
+    }
+
+    /**
+     * Calculate the size class used when reporting metrics for an archive
+     * job of the input size.
+     *
+     * @param size The size of the archive job.
+     * @return The size class name.
+     */
+    public static String getSizeClass(long size) {
+        for (int i = 0; i < SIZE_CLASS_BOUNDS.length; i++) {
+            if (size < SIZE_CLASS_BOUNDS[i]) {
+                return SIZE_CLASS_NAMES[i];
+            }
+        }
+        return SIZE_CLASS_NAMES[SIZE_CLASS_NAMES.length - 1];
+    }
+
+    /**
+     * Return a singleton instance to the ArchiveQueue object.
+     * @return The ArchiveQueue
+     */
+    public static ArchiveQueue getInstance() {
+        return ArchiveQueueHolder.getFactorySingleton();
+    }
+
+    /**
+     * Add an archive job to the queue.
+     *
+     * @param task The archive job to execute.
+     * @param jobID The job ID associated with the archive job.
+     * @param userName The user that submitted the job.
+     * @param size The (uncompressed) size of the archive job.
+     * @param space The estimated staging space needed by the archive job.
+     * @param deadline The client-supplied deadline (0 if none).
+     */
+    public void submit(
+            Runnable task,
+            String   jobID,
+            String   userName,
+            long     size,
+            long     space,
+            long     deadline) {
+        if (task != null) {
+            if ((userName == null) || (userName.isEmpty())) {
+                userName = DEFAULT_USERNAME;
+            }
+            synchronized (MUTEX) {
+                policy.add(new QueuedArchive(
+                        task, jobID, userName, Math.max(0L, size),
+                        Math.max(0L, space), deadline));
+                queuedBytes += Math.max(0L, size);
+                pending++;
+                MUTEX.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Reserve a place in the queue for a job that has been accepted but
+     * has not yet been expanded into archive jobs.
+     */
+    public void reserve() {
+        synchronized (MUTEX) {
+            reservations++;
+        }
+    }
+
+    /**
+     * Release a reservation made by <code>reserve()</code>.
+     */
+    public void release() {
+        synchronized (MUTEX) {
+            reservations = Math.max(0, reservations - 1);
+        }
+    }
+
+    /**
+     * Getter method for the total size of the archive jobs waiting to run.
+     * @return The number of bytes queued.
+     */
+    public long getQueuedBytes() {
+        synchronized (MUTEX) {
+            return queuedBytes;
+        }
+    }
+
+    /**
+     * Getter method for the number of archive jobs waiting to run,
+     * including one for each accepted job that has not yet been expanded.
+     * @return The number of archive jobs queued.
+     */
+    public int getQueuedArchives() {
+        synchronized (MUTEX) {
+            return pending + reservations;
+        }
+    }
+
+    /**
+     * Getter method for the number of archive jobs currently executing.
+     * @return The number of archive jobs running.
+     */
+    public int getRunning() {
+        synchronized (MUTEX) {
+            return running;
+        }
+    }
+
+    /**
+     * Getter method for the number of worker threads.
+     * @return The maximum number of concurrent archive jobs.
+     */
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    /**
+     * Getter method for the number of archive jobs currently allowed to
+     * execute concurrently.
+     * @return The current concurrency limit.
+     */
+    public int getLimit() {
+        synchronized (MUTEX) {
+            return limit;
+        }
+    }
+
+    /**
+     * Setter method for the number of archive jobs allowed to execute
+     * concurrently.  Lowering the limit does not interrupt running archive
+     * jobs; the excess workers simply wait once they finish.
+     *
+     * @param value The new limit (bounded by the number of workers).
+     */
+    void setLimit(int value) {
+        synchronized (MUTEX) {
+            limit = Math.max(1, Math.min(maxWorkers, value));
+            MUTEX.notifyAll();
+        }
+    }
+
+    /**
+     * Getter method for the scheduling policy in use.
+     * @return The scheduling policy type.
+     */
+    public SchedulingPolicyType getPolicyType() {
+        return policy.getType();
+    }
+
+    /**
+     * Estimate the position of the first queued archive job associated
+     * with the input job ID.
+     *
+     * @param jobID The job ID.
+     * @return The 1-based position in the queue, or 0 if none of the
+     * archive jobs associated with the job are waiting.
+     */
+    public int getPosition(String jobID) {
+        if (jobID == null) {
+            return 0;
+        }
+        synchronized (MUTEX) {
+            return policy.getPosition(jobID);
+        }
+    }
+
+    /**
+     * Remove archive jobs completed outside the drain window.  Must be
+     * called while holding the MUTEX.
+     *
+     * @param now The current time.
+     */
+    private void expireCompletions(long now) {
+        Iterator<long[]> iter = completions.iterator();
+        while (iter.hasNext()) {
+            if ((now - iter.next()[0]) > DRAIN_WINDOW) {
+                iter.remove();
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Calculate the length of the drain window actually observed (the
+     * window is shorter than <code>DRAIN_WINDOW</code> just after start
+     * up).  Must be called while holding the MUTEX.
+     *
+     * @param now The current time.
+     * @return The window length in seconds.
+     */
+    private double getWindowSeconds(long now) {
+        return Math.max(1.0, Math.min(DRAIN_WINDOW, now - startTime) / 1000.0);
+    }
+
+    /**
+     * Calculate the rate at which data has recently drained from the queue.
+     * @return The drain rate in bytes per second (0 if unknown).
+     */
+    public double getByteDrainRate() {
+        long now = System.currentTimeMillis();
+        synchronized (MUTEX) {
+            expireCompletions(now);
+            long bytes = 0L;
+            for (long[] completion : completions) {
+                bytes += completion[1];
+            }
+            return bytes / getWindowSeconds(now);
+        }
+    }
+
+    /**
+     * Calculate the rate at which archive jobs have recently drained from
+     * the queue.
+     * @return The drain rate in archive jobs per second (0 if unknown).
+     */
+    public double getArchiveDrainRate() {
+        long now = System.currentTimeMillis();
+        synchronized (MUTEX) {
+            expireCompletions(now);
+            return completions.size() / getWindowSeconds(now);
+        }
+    }
+
+    /**
+     * Remove the next archive job from the queue, waiting if necessary
+     * (including while the concurrency limit has been reached or while no
+     * waiting archive job fits in the available staging space).  The
+     * staging space needed by the archive job is reserved.
+     *
+     * @return The next archive job.
+     * @throws InterruptedException Thrown if the worker is interrupted or 
+     * the queue has been shut down.
+     */
+    private QueuedArchive take() throws InterruptedException {
+        QueuedArchive archive = null;
+        StagingSpaceManager space = StagingSpaceManager.getInstance();
+        synchronized (MUTEX) {
+            if (stopped) {
+                throw new InterruptedException("Archive queue stopped.");
+            }
+            archive = (running < limit ? policy.next(
+                    saturated, space.getSchedulableSpace()) : null);
+            while (archive == null) {
+                MUTEX.wait(pending > 0 ? SPACE_POLL_INTERVAL : 0L);
+                if (stopped) {
+                    throw new InterruptedException("Archive queue stopped.");
+                }
+                archive = (running < limit ? policy.next(
+                        saturated, space.getSchedulableSpace()) : null);
+            }
+            space.reserve(archive.getSpace());
+            queuedBytes -= archive.getSize();
+            pending--;
+            running++;
+            Integer count = runningByUser.get(archive.getUserName());
+            count = (count == null ? 1 : count + 1);
+            runningByUser.put(archive.getUserName(), count);
+            if (count >= maxPerUser) {
+                saturated.add(archive.getUserName());
+            }
+        }
+        String sizeClass = getSizeClass(archive.getSize());
+        MetricsService.getInstance().record(
+                "queue.wait_ms." + sizeClass,
+                System.currentTimeMillis() - archive.getEnqueueTime());
+        MetricsService.getInstance().increment(
+                "queue.dispatched." + policy.getType().getText()
+                + "." + sizeClass);
+        return archive;
+    }
+
+    /**
+     * Record the completion of an archive job.
+     *
+     * @param archive The archive job that finished.
+     */
+    private void complete(QueuedArchive archive) {
+        long now = System.currentTimeMillis();
+        synchronized (MUTEX) {
+            StagingSpaceManager.getInstance().release(archive.getSpace());
+            running--;
+            Integer count = runningByUser.get(archive.getUserName());
+            if ((count == null) || (count <= 1)) {
+                runningByUser.remove(archive.getUserName());
+            }
+            else {
+                runningByUser.put(archive.getUserName(), count - 1);
+            }
+            saturated.remove(archive.getUserName());
+            completions.addLast(new long[] { now, archive.getSize() });
+            expireCompletions(now);
+            MUTEX.notifyAll();
+        }
+        if (archive.getDeadline() > 0) {
+            MetricsService.getInstance().increment(
+                    (now <= archive.getDeadline() ?
+                            "queue.deadline.met" : "queue.deadline.missed"));
+        }
+    }
+
+    /**
+     * Worker thread that executes queued archive jobs.
+     */
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                QueuedArchive archive = null;
+                try {
+                    archive = take();
+                    archive.getTask().run();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                catch (RuntimeException re) {
+                    LOGGER.error("Unexpected exception raised by archive "
+                            + "job for job ID [ "
+                            + (archive != null ? archive.getJobID() : "unknown")
+                            + " ].  Exception message => [ "
+                            + re.getMessage()
+                            + " ].", re);
+                }
+                finally {
+                    if (archive != null) {
+                        complete(archive);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class ArchiveQueueHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static ArchiveQueue _factory = new ArchiveQueue();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static ArchiveQueue getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
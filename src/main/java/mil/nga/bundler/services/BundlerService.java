@@ -3,17 +3,27 @@ package mil.nga.bundler.services;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import mil.nga.bundler.BandwidthLimiter;
 import mil.nga.bundler.archive.ArchiveFactory;
+import mil.nga.bundler.archive.TarCheckpoint;
 import mil.nga.bundler.archive.listeners.FileCompletionListener;
+import mil.nga.bundler.archive.listeners.ManifestCompletionListener;
+import mil.nga.bundler.exceptions.ArchiveCancelledException;
 import mil.nga.bundler.exceptions.ArchiveException;
 import mil.nga.bundler.exceptions.ServiceUnavailableException;
 import mil.nga.bundler.exceptions.UnknownArchiveTypeException;
@@ -21,12 +31,17 @@ import mil.nga.bundler.interfaces.ArchiveCompletionListenerI;
 import mil.nga.bundler.interfaces.BundlerConstantsI;
 import mil.nga.bundler.interfaces.BundlerI;
 import mil.nga.bundler.interfaces.FileCompletionListenerI;
+import mil.nga.bundler.interfaces.RolloverBundlerI;
+import mil.nga.bundler.interfaces.SplitBundlerI;
+import mil.nga.bundler.interfaces.StreamingBundlerI;
 import mil.nga.bundler.messages.ArchiveMessage;
 import mil.nga.bundler.model.ArchiveElement;
 import mil.nga.bundler.model.ArchiveJob;
 import mil.nga.bundler.model.FileEntry;
+import mil.nga.bundler.types.ArchiveType;
 import mil.nga.bundler.types.JobStateType;
 import mil.nga.util.FileUtils;
+import mil.nga.util.S3MultipartOutputStream;
 import mil.nga.util.URIUtils;
 
 /**
@@ -51,6 +66,13 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
      */
     private List<ArchiveCompletionListenerI> listeners;
     
+    /**
+     * The number of archive jobs currently being processed by this JVM.  
+     * This is used by background tasks (e.g. the retention engine) that 
+     * should back off while archiving is busy.
+     */
+    private static final AtomicInteger ACTIVE_ARCHIVES = new AtomicInteger(0);
+    
     /**
      * Used for thread-safety.
      */
@@ -60,8 +82,24 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
     private final String            jobID;
     private final long             archiveID;
     private final long             startTime;
+    private final long             size;
+    private final String            userName;
+    private final long             deadline;
+    private final ArchiveType      archiveType;
     private final ArchiveJobService service;
     
+    /**
+     * Listener tracking the high-water mark for archives that store their 
+     * file list as a manifest.  Null in the default storage mode.
+     */
+    private ManifestCompletionListener manifestListener;
+    
+    /**
+     * The number of volumes written if the archive was written as a split 
+     * archive.
+     */
+    private int numVolumes = 0;
+    
 	/**
      * Default constructor ensuring the required internal member objects are
      * set.
@@ -70,6 +108,10 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
     	archiveID = builder.archiveID;
     	jobID     = builder.jobID;
     	service   = builder.service;
+    	size      = builder.size;
+    	userName  = builder.userName;
+    	deadline  = builder.deadline;
+    	archiveType = builder.archiveType;
     	startTime = System.currentTimeMillis();
     	addListener(builder.listener);
     }
@@ -136,7 +178,8 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
     
     /**
      * Method used to update the archive to reflect that archive processing 
-     * has started.
+     * has started.  If the job has been cancelled the archive is marked 
+     * <code>CANCELLED</code> instead.
      * 
      * @throws ServiceUnavailableException Thrown if we are unable to 
      * establish a connection to the back-end data store.
@@ -147,7 +190,21 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
 				getJobID(), 
 				getArchiveID());
             
-        if (archiveJob != null) {
+        if ((archiveJob != null) && 
+        		((archiveJob.getArchiveState() == JobStateType.CANCELLED) || 
+        		(CancellationService.getInstance().isCancelled(getJobID())))) {
+        	LOGGER.info("Job ID [ "
+        			+ getJobID()
+        			+ " ] has been cancelled.  Archive ID [ "
+        			+ getArchiveID()
+        			+ " ] will not be processed.");
+        	if (archiveJob.getArchiveState() != JobStateType.CANCELLED) {
+        		archiveJob.setArchiveState(JobStateType.CANCELLED);
+        		archiveJob.setEndTime(System.currentTimeMillis());
+        		getArchiveJobService().update(archiveJob);
+        	}
+        }
+        else if (archiveJob != null) {
         	archiveJob.setHostName(FileUtils.getHostName());
         	archiveJob.setServerName(DEFAULT_SERVER_NAME);
         	archiveJob.setStartTime(System.currentTimeMillis());
@@ -200,6 +257,24 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
 	        		getArchiveFileSize(
 	                		archiveJob.getArchive());
 	        	}
+	        	// The high-water mark is written by the listener using a 
+	        	// set-based update so the managed copy is stale.  Reset it 
+	        	// before the merge so the progress is not overwritten.
+	        	if (archiveJob.isManifest()) {
+	        		if (endState == JobStateType.COMPLETE) {
+	        			archiveJob.setFilesComplete(archiveJob.getNumFiles());
+	        			archiveJob.setSizeComplete(archiveJob.getSize());
+	        		}
+	        		else if (manifestListener != null) {
+	        			archiveJob.setFilesComplete(
+	        					manifestListener.getFilesComplete());
+	        			archiveJob.setSizeComplete(
+	        					manifestListener.getSizeComplete());
+	        		}
+	        	}
+	        	if (numVolumes > 0) {
+	        		archiveJob.setNumVolumes(numVolumes);
+	        	}
 	        	archiveJob.setEndTime(endTime);
 	        	getArchiveJobService().update(archiveJob);
 	        }
@@ -255,19 +330,238 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
     
 
 
+    /**
+     * Build the archive directly into an S3 multipart upload (see 
+     * <code>S3UploadService</code>).  The SHA-1 hash is calculated from 
+     * the data as it is uploaded and written to the hash file once the 
+     * archive object has been completed.  If the archive fails or the job 
+     * is cancelled the upload is aborted, so no partial archive is left 
+     * in the bucket.
+     * 
+     * @param bundler The archiver.
+     * @param archive The archive job.
+     * @param elements The files to archive.
+     * @param output The S3 URI of the output archive.
+     * @return The number of files written to the archive (fewer than the 
+     * input files if an archive built with rollover reached its limit).
+     * @throws ArchiveException Thrown if the archive cannot be built or 
+     * the job is cancelled.
+     * @throws IOException Thrown if the upload fails.
+     */
+    private int bundleToS3(
+    		StreamingBundlerI    bundler, 
+    		ArchiveJob           archive, 
+    		List<ArchiveElement> elements,
+    		URI                  output) throws ArchiveException, IOException {
+    	
+    	long                    start   = System.currentTimeMillis();
+    	int                     written = elements.size();
+    	MessageDigest           digest  = DigestUtils.getSha1Digest();
+    	S3MultipartOutputStream upload  = 
+    			S3UploadService.getInstance().open(output);
+    	try {
+    		if (isRollover(archive, bundler)) {
+    			written = ((RolloverBundlerI)bundler).bundle(
+    					elements, 
+    					archive.getRolloverLimit(), 
+    					new DigestOutputStream(upload, digest));
+    		}
+    		else {
+    			bundler.bundle(
+    					elements, 
+    					new DigestOutputStream(upload, digest));
+    		}
+    		if (CancellationService.getInstance().isCancelled(getJobID())) {
+    			throw new ArchiveCancelledException("Job cancelled "
+    					+ "before the upload was completed.");
+    		}
+    		upload.complete();
+    	}
+    	finally {
+    		upload.abort();
+    	}
+    	if ((archive.getHash() != null) && (!archive.getHash().isEmpty())) {
+    		S3UploadService.getInstance().putText(
+    				URIUtils.getInstance().getURI(archive.getHash()), 
+    				Hex.encodeHexString(digest.digest()));
+    	}
+    	MetricsService.getInstance().increment("s3.direct_uploads");
+    	MetricsService.getInstance().add("s3.direct_bytes", upload.getSize());
+    	LOGGER.info("Archive [ "
+    			+ output.toString()
+    			+ " ] of [ "
+    			+ upload.getSize()
+    			+ " ] bytes uploaded directly to S3 in [ "
+    			+ (System.currentTimeMillis() - start)
+    			+ " ] ms.");
+    	return written;
+    }
+    
+    /**
+     * Determine whether the archive is built with size-exact rollover.
+     * 
+     * @param archive The archive job.
+     * @param bundler The archiver.
+     * @return True if the archive has a rollover limit and the archiver 
+     * supports it.
+     */
+    private boolean isRollover(ArchiveJob archive, BundlerI bundler) {
+    	return ((archive.getRolloverLimit() != null) && 
+    			(bundler instanceof RolloverBundlerI));
+    }
+    
+    /**
+     * Determine whether the archive is written as a split archive.
+     * 
+     * @param archive The archive job.
+     * @param bundler The archiver.
+     * @return True if the archive has a volume size and the archiver 
+     * supports split output.
+     */
+    private boolean isSplit(ArchiveJob archive, BundlerI bundler) {
+    	return ((archive.getVolumeSize() != null) && 
+    			(bundler instanceof SplitBundlerI));
+    }
+    
+    /**
+     * Generate the hash of each volume of a split archive.  The hash file 
+     * holds one line per volume containing the hash and the volume file 
+     * name (the format read by <code>sha1sum -c</code>).
+     * 
+     * @param hashFile The output hash file.
+     * @param volumes The volumes of the archive.
+     */
+    private void saveVolumeHashes(String hashFile, List<URI> volumes) {
+    	if ((hashFile != null) && (!hashFile.isEmpty())) {
+    		StringBuilder        sb        = new StringBuilder();
+    		HashGeneratorService generator = null;
+    		for (URI volume : volumes) {
+    			generator = new HashGeneratorService.HashGeneratorServiceBuilder()
+    					.inputFile(volume.toString())
+    					.outputFile(hashFile)
+    					.build();
+    			sb.append(generator.getHash());
+    			sb.append("  ");
+    			sb.append(Paths.get(volume).getFileName().toString());
+    			sb.append("\n");
+    		}
+    		if (generator != null) {
+    			generator.saveHash(sb.toString());
+    		}
+    	}
+    }
+    
+    /**
+     * Move the files that did not fit into an archive built with 
+     * size-exact rollover into a new archive job and queue it.  The job 
+     * is changed through the <code>JobTracker</code> of the job so the 
+     * change is serialized with the archive completion notifications.
+     * 
+     * @param remaining The files that were not written (in order).
+     * @throws ArchiveException Thrown if the new archive job could not be 
+     * created.
+     */
+    private void rollover(List<FileEntry> remaining) throws ArchiveException {
+    	
+    	ArchiveCompletionListenerI listener = null;
+    	JobTracker                 tracker  = null;
+    	if (listeners != null) {
+    		synchronized (MUTEX) {
+    			for (ArchiveCompletionListenerI current : listeners) {
+    				listener = (listener == null ? current : listener);
+    				if (current instanceof JobTracker) {
+    					listener = current;
+    					tracker  = (JobTracker)current;
+    				}
+    			}
+    		}
+    	}
+    	boolean    temporary = (tracker == null);
+    	ArchiveJob next      = null;
+    	try {
+    		if (temporary) {
+    			tracker = new JobTracker.JobTrackerBuilder()
+    					.jobID(getJobID())
+    					.build();
+    		}
+    		next = tracker.rollover(getArchiveID(), remaining);
+    	}
+    	catch (ServiceUnavailableException sue) {
+    		LOGGER.error("ServiceUnavailableException raised while rolling "
+    				+ "files over from job ID [ "
+    				+ getJobID()
+    				+ " ] archive ID [ "
+    				+ getArchiveID()
+    				+ " ].  Exception message => [ "
+    				+ sue.getMessage()
+    				+ " ].");
+    	}
+    	finally {
+    		if (temporary && (tracker != null)) {
+    			tracker.close();
+    		}
+    	}
+    	if (next == null) {
+    		throw new ArchiveException("Unable to roll [ "
+    				+ remaining.size()
+    				+ " ] files over from job ID [ "
+    				+ getJobID()
+    				+ " ] archive ID [ "
+    				+ getArchiveID()
+    				+ " ] into a new archive.");
+    	}
+    	
+    	// The archive job was changed through another persistence context.
+    	getArchiveJobService().clear();
+    	MetricsService.getInstance().increment("archive.rollovers");
+    	
+    	new BundlerServiceBuilder()
+    			.jobID(getJobID())
+    			.archiveID(next.getArchiveID())
+    			.size(Math.min(next.getSize(), next.getRolloverLimit()))
+    			.userName(userName)
+    			.deadline(deadline)
+    			.archiveType(archiveType)
+    			.completionListener(listener)
+    			.build()
+    			.start();
+    }
+    
     /**
      * 
      */
     @Override
     public void run() {
         
-        try (FileCompletionListener listener = new FileCompletionListener(
-        			getJobID(), getArchiveID())) {
+        Closeable  listener  = null;
+        ArchiveJob archive   = null;
+        boolean    bandwidth = false;
+        
+        ACTIVE_ARCHIVES.incrementAndGet();
+        try {
         	
         	// Retrieve the ArchiveJob from the data store.
-        	ArchiveJob archive = startArchiveJob();
+        	archive = startArchiveJob();
             
-            if (archive != null) {
+        	if ((archive != null) && 
+        			(archive.getArchiveState() == JobStateType.CANCELLED)) {
+        		// Let the job tracker know this archive is finished.
+        		notify(getArchiveID());
+        	}
+        	else if (archive != null) {
+            	
+            	// Archives that store their file list in a manifest track 
+            	// progress with a high-water mark rather than updating one 
+            	// FILE_ENTRY row per file.
+            	if (archive.isManifest()) {
+            		manifestListener = new ManifestCompletionListener(
+            				getJobID(), getArchiveID());
+            		listener = manifestListener;
+            	}
+            	else {
+            		listener = new FileCompletionListener(
+            				getJobID(), getArchiveID());
+            	}
             	
                 // Get the concrete Bundler object.
                 BundlerI bundler = ArchiveFactory.getInstance()
@@ -277,19 +571,80 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
                 // archives.  This was added at the request of the MPSU team and 
                 // may need to be removed if too much of an impact to 
                 // performance.
-                bundler.addFileCompletionListener(listener);
+                bundler.addFileCompletionListener(
+                		(FileCompletionListenerI)listener);
+                
+                // Allow the job to be cancelled while the archive is being 
+                // created.
+                bundler.setCancellationFlag(
+                		CancellationService.getInstance().getFlag(getJobID()));
                 
-                // Here's where the magic happens.
-                bundler.bundle(
-                		getArchiveElements(archive.getFiles()), 
-                		URIUtils.getInstance().getURI(archive.getArchive()));
+                // Charge the data read against the job's bandwidth limit.
+                bundler.setJobID(getJobID());
+                BandwidthLimiter.getInstance().openJob(getJobID());
+                bandwidth = true;
                 
-                // Generate the hash for the completed archive.
-                new HashGeneratorService.HashGeneratorServiceBuilder()
-                		.inputFile(archive.getArchive())
-                		.outputFile(archive.getHash())
-                	.build()
-                	.generate();
+                URI                  output   = URIUtils.getInstance().getURI(
+                		archive.getArchive());
+                List<FileEntry>      files    = archive.getFileEntries();
+                List<ArchiveElement> elements = getArchiveElements(files);
+                int                  written  = elements.size();
+                if (isSplit(archive, bundler)) {
+                	
+                	// Split archives are written as a series of volume 
+                	// files, each of which gets a hash.
+                	List<URI> volumes = ((SplitBundlerI)bundler).bundleVolumes(
+                			elements, 
+                			archive.getVolumeSize(), 
+                			output);
+	                if (CancellationService.getInstance().isCancelled(getJobID())) {
+	                	throw new ArchiveCancelledException("Job cancelled "
+	                			+ "before hash generation.");
+	                }
+	                saveVolumeHashes(archive.getHash(), volumes);
+	                numVolumes = volumes.size();
+                }
+                else if (S3UploadService.getInstance().isDirect(output, bundler)) {
+                	
+                	// Stream the archive straight into S3, calculating the 
+                	// hash on the way.
+                	written = bundleToS3(
+                			(StreamingBundlerI)bundler, archive, elements, output);
+                }
+                else {
+                	
+	                // Here's where the magic happens.
+                	if (isRollover(archive, bundler)) {
+                		written = ((RolloverBundlerI)bundler).bundle(
+                				elements, 
+                				archive.getRolloverLimit(), 
+                				output);
+                	}
+                	else {
+                		bundler.bundle(elements, output);
+                	}
+	                
+	                // Skip the hash if the job was cancelled after the last 
+	                // entry was written.
+	                if (CancellationService.getInstance().isCancelled(getJobID())) {
+	                	throw new ArchiveCancelledException("Job cancelled "
+	                			+ "before hash generation.");
+	                }
+	                
+	                // Generate the hash for the completed archive.
+	                new HashGeneratorService.HashGeneratorServiceBuilder()
+	                		.inputFile(archive.getArchive())
+	                		.outputFile(archive.getHash())
+	                	.build()
+	                	.generate();
+                }
+                
+                // Files that did not fit go to a new archive job, which 
+                // must exist before this archive is reported complete.
+                if (written < files.size()) {
+                	rollover(new ArrayList<FileEntry>(
+                			files.subList(written, files.size())));
+                }
                 
                 // Update the status of the job appropriately.
                 endArchiveJob(JobStateType.COMPLETE);
@@ -318,6 +673,15 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
                     + " ].");
             endArchiveJob(JobStateType.ERROR);
         }
+        catch (ArchiveCancelledException ace) {
+        	LOGGER.info("Archive processing cancelled for job ID [ "
+        			+ getJobID()
+        			+ " ] archive ID [ "
+        			+ getArchiveID()
+        			+ " ].  Removing partial output.");
+        	deleteOutputs(archive);
+        	endArchiveJob(JobStateType.CANCELLED);
+        }
         catch (ArchiveException ae) {
             LOGGER.error("Unexpected ArchiveException raised "
                     + "while "
@@ -338,10 +702,126 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
         			+ " ].");
         }
         finally {
+        	if (listener != null) {
+        		try {
+        			listener.close();
+        		}
+        		catch (IOException ioe) {
+        			LOGGER.warn("Unexpected IOException raised while closing "
+        					+ "the file completion listener for job ID [ "
+        					+ getJobID()
+        					+ " ] and archive ID [ "
+        					+ getArchiveID()
+        					+ " ].  Exception message => [ "
+        					+ ioe.getMessage()
+        					+ " ].");
+        		}
+        	}
+        	if (bandwidth) {
+        		BandwidthLimiter.getInstance().closeJob(getJobID());
+        	}
         	getArchiveJobService().close();
+        	ACTIVE_ARCHIVES.decrementAndGet();
         }
     }
     
+    /**
+     * Getter method for the number of archive jobs currently being 
+     * processed by this JVM.
+     * 
+     * @return The number of active archive jobs.
+     */
+    public static int getActiveArchiveCount() {
+    	return ACTIVE_ARCHIVES.get();
+    }
+    
+    /**
+     * Remove any output associated with an archive job that did not 
+     * complete.  This includes the output archive, the hash file, and any 
+     * intermediate files (e.g. the TAR file created prior to compression) 
+     * which share the output archive file name as a prefix, and the 
+     * volumes of a split archive.
+     * 
+     * @param archive The archive job whose output should be discarded.
+     */
+    public static void deleteOutputs(ArchiveJob archive) {
+    	deleteOutputs(archive, false);
+    }
+    
+    /**
+     * Remove any output associated with an archive job that did not 
+     * complete.  If requested, TAR files that have an associated 
+     * <code>TarCheckpoint</code> (and the checkpoint itself) are retained 
+     * so the archive job can resume from the checkpoint.
+     * 
+     * @param archive The archive job whose output should be discarded.
+     * @param retainCheckpoints True if checkpointed TAR files should be 
+     * retained.
+     */
+    public static void deleteOutputs(
+    		ArchiveJob archive, 
+    		boolean    retainCheckpoints) {
+    	if ((archive != null) && 
+    			(archive.getArchive() != null) && 
+    			(!archive.getArchive().isEmpty())) {
+    		try {
+    			Path output = Paths.get(
+    					URIUtils.getInstance().getURI(archive.getArchive()));
+    			if ((archive.getHash() != null) && 
+    					(!archive.getHash().isEmpty())) {
+    				Files.deleteIfExists(Paths.get(URIUtils.getInstance()
+    						.getURI(archive.getHash())));
+    			}
+    			Path dir = output.getParent();
+    			if ((dir != null) && (Files.isDirectory(dir))) {
+    				String prefix = output.getFileName().toString();
+    				
+    				// The volumes of a split archive (name.z01, name.z02, 
+    				// ...) are removed along with the last volume.
+    				String volumes = FileUtils.removeExtension(prefix) + ".z";
+    				try (DirectoryStream<Path> stream = 
+    						Files.newDirectoryStream(dir)) {
+    					for (Path file : stream) {
+    						String name = file.getFileName().toString();
+    						if ((!name.startsWith(prefix)) && 
+    								(!((archive.getVolumeSize() != null) && 
+    								(name.startsWith(volumes)) && 
+    								(name.substring(volumes.length())
+    										.matches("[0-9]+"))))) {
+    							continue;
+    						}
+    						if (retainCheckpoints && 
+    								(name.endsWith(
+    										TarCheckpoint.CHECKPOINT_SUFFIX) || 
+    								(Files.exists(
+    										TarCheckpoint.getSidecar(file))))) {
+    							LOGGER.info("Retaining checkpointed output [ "
+    									+ file.toString()
+    									+ " ].");
+    						}
+    						else {
+    							LOGGER.info("Deleting partial output [ "
+    									+ file.toString()
+    									+ " ].");
+    							Files.deleteIfExists(file);
+    						}
+    					}
+    				}
+    			}
+    		}
+    		catch (IOException ioe) {
+    			LOGGER.warn("Unexpected IOException raised while removing "
+    					+ "the partial output for job ID [ "
+    					+ archive.getJobID()
+    					+ " ] and archive ID [ "
+    					+ archive.getArchiveID()
+    					+ " ].  Exception message => [ "
+    					+ ioe.getMessage()
+    					+ " ].");
+    		}
+    	}
+    }
+    
     /**
      * Getter method for the service responsible for updating the ArchiveJob 
      * in the back-end data store. 
@@ -409,16 +889,20 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
     }
     
     /**
-     * Public method used to start the thread encapsulating the processing 
-     * for a single archive job.
+     * Public method used to submit the processing for a single archive job
+     * to the <code>ArchiveQueue</code>.  The archive job will be executed 
+     * once a worker thread becomes available.
      */
     public void start() {
-    	LOGGER.info("Starting thread to process archive job for job ID [ "
+    	LOGGER.info("Queueing archive job for job ID [ "
     			+ getJobID()
     			+ " ] and archive ID [ "
     			+ getArchiveID()
     			+ " ]...");
-    	new Thread(this).start();
+    	ArchiveQueue.getInstance().submit(
+    			this, getJobID(), userName, size, 
+    			StagingSpaceManager.getInstance().estimate(size, archiveType), 
+    			deadline);
     }
     
     /**
@@ -432,6 +916,10 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
     	// Private internal members
         private String                     jobID     = null;
         private long                      archiveID = -1L;
+        private long                      size      = 0L;
+        private String                     userName  = null;
+        private long                      deadline  = 0L;
+        private ArchiveType                archiveType = null;
         private ArchiveJobService          service   = null;
         private ArchiveCompletionListenerI listener = null;
         
@@ -453,6 +941,46 @@ public class BundlerService implements Runnable, Closeable, BundlerConstantsI {
             return this;
         }
         
+        /**
+         * Setter method for the (uncompressed) size of the archive.  Used
+         * for queue accounting only.
+         * @param value The size of the archive in bytes.
+         */
+        public BundlerServiceBuilder size(long value) {
+            size = value;
+            return this;
+        }
+        
+        /**
+         * Setter method for the user that submitted the job.  Used by the
+         * <code>ArchiveQueue</code> for fair-share scheduling.
+         * @param value The user name.
+         */
+        public BundlerServiceBuilder userName(String value) {
+            userName = value;
+            return this;
+        }
+        
+        /**
+         * Setter method for the client-supplied deadline.  Used by the
+         * <code>ArchiveQueue</code> for earliest-deadline-first scheduling.
+         * @param value The deadline (milliseconds since the epoch).
+         */
+        public BundlerServiceBuilder deadline(long value) {
+            deadline = value;
+            return this;
+        }
+        
+        /**
+         * Setter method for the type of archive that will be created.  
+         * Used to estimate the staging space the archive needs.
+         * @param value The archive type.
+         */
+        public BundlerServiceBuilder archiveType(ArchiveType value) {
+            archiveType = value;
+            return this;
+        }
+        
         /**
          * Setter method for the archive completion listener.  
          * @param value The archive completion listener.
@@ -0,0 +1,187 @@
+package mil.nga.bundler.services;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.bundler.exceptions.ServiceUnavailableException;
+import mil.nga.bundler.model.ArchiveJob;
+import mil.nga.bundler.model.Job;
+import mil.nga.bundler.types.JobStateType;
+
+/**
+ * Class responsible for job cancellation.  Each job that has archive work
+ * in progress on this JVM is associated with a cancellation flag that is
+ * shared by all of the archivers working on the job.  Cancelling a job
+ * sets the flag (the archivers check it between entries and while copying
+ * data so the worker threads are freed almost immediately) and marks the
+ * job and any archive jobs that have not yet started as
+ * <code>CANCELLED</code> in the data store.
+ *
+ * Flags are released by the <code>JobTracker</code> once every archive job
+ * associated with the job has reached a terminal state.
+ *
+ * @author L. Craig Carpenter
+ */
+public class CancellationService {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            CancellationService.class);
+
+    /**
+     * Cancellation flags keyed by job ID.
+     */
+    private final ConcurrentMap<String, AtomicBoolean> flags =
+            new ConcurrentHashMap<String, AtomicBoolean>();
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private CancellationService() { }
+
+    /**
+     * Return a singleton instance to the CancellationService object.
+     * @return The CancellationService
+     */
+    public static CancellationService getInstance() {
+        return CancellationServiceHolder.getFactorySingleton();
+    }
+
+    /**
+     * Get the cancellation flag associated with the input job ID, creating
+     * it if necessary.
+     *
+     * @param jobID The job ID.
+     * @return The shared cancellation flag.
+     */
+    public AtomicBoolean getFlag(String jobID) {
+        AtomicBoolean flag = flags.get(jobID);
+        if (flag == null) {
+            AtomicBoolean created  = new AtomicBoolean(false);
+            AtomicBoolean existing = flags.putIfAbsent(jobID, created);
+            flag = (existing == null ? created : existing);
+        }
+        return flag;
+    }
+
+    /**
+     * Determine whether the input job has been cancelled on this JVM.
+     *
+     * @param jobID The job ID.
+     * @return True if the job has been cancelled.
+     */
+    public boolean isCancelled(String jobID) {
+        AtomicBoolean flag = flags.get(jobID);
+        return ((flag != null) && (flag.get()));
+    }
+
+    /**
+     * Release the cancellation flag associated with the input job ID.
+     *
+     * @param jobID The job ID.
+     */
+    public void release(String jobID) {
+        if (jobID != null) {
+            flags.remove(jobID);
+        }
+    }
+
+    /**
+     * Determine whether the input state is a terminal state.
+     *
+     * @param state The job or archive state.
+     * @return True if no further processing will occur.
+     */
+    public static boolean isTerminal(JobStateType state) {
+        return ((state == JobStateType.COMPLETE) ||
+                (state == JobStateType.ERROR) ||
+                (state == JobStateType.INVALID_REQUEST) ||
+                (state == JobStateType.CANCELLED));
+    }
+
+    /**
+     * Cancel the input job.  The cancellation flag is set before the data
+     * store is updated so that any archive worker that subsequently starts
+     * will see it.
+     *
+     * @param jobID The job ID to cancel.
+     * @return True if the job was cancelled, false if it does not exist or
+     * had already finished.
+     * @throws ServiceUnavailableException Thrown if the data store is not
+     * available.
+     */
+    public boolean cancel(String jobID) throws ServiceUnavailableException {
+
+        boolean cancelled = false;
+
+        if ((jobID != null) && (!jobID.isEmpty())) {
+            int inProgress = 0;
+            getFlag(jobID).set(true);
+            try (JobService service = new JobService()) {
+                cancelled = (service.cancel(jobID) > 0);
+                if (cancelled) {
+                    Job job = service.getJob(jobID);
+                    if ((job != null) && (job.getArchives() != null)) {
+                        for (ArchiveJob archive : job.getArchives()) {
+                            if (!isTerminal(archive.getArchiveState())) {
+                                inProgress++;
+                            }
+                        }
+                    }
+                }
+            }
+            if (cancelled) {
+                LOGGER.info("Job ID [ "
+                        + jobID
+                        + " ] cancelled.  Archive jobs still in progress [ "
+                        + inProgress
+                        + " ].");
+            }
+            else {
+                LOGGER.info("Job ID [ "
+                        + jobID
+                        + " ] does not exist or has already finished.  "
+                        + "Job not cancelled.");
+            }
+            // Archive workers that start after this point see the
+            // CANCELLED state in the data store, so the flag is only
+            // needed while archive jobs are in progress.
+            if (inProgress == 0) {
+                release(jobID);
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class CancellationServiceHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static CancellationService _factory =
+                new CancellationService();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static CancellationService getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
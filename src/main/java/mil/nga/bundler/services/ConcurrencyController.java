@@ -0,0 +1,216 @@
+package mil.nga.bundler.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+
+/**
+ * Feedback controller adjusting the number of archive jobs the
+ * <code>ArchiveQueue</code> executes concurrently.  A static number of
+ * workers is wrong much of the time: too high while the filers are busy
+ * with other work and too low when they are idle.  The controller is 
+ * only started if <code>bundler.adaptive.enabled</code> is true.
+ *
+ * Every <code>bundler.adaptive.interval_seconds</code> the controller
+ * samples the source read throughput (bytes per second) and latency (mean
+ * time per read call) published by the archivers to the
+ * <code>MetricsService</code> and applies an AIMD (additive increase,
+ * multiplicative decrease) rule:
+ *
+ * <li>If the read latency has risen above
+ * <code>bundler.adaptive.latency_tolerance_percent</code> of the baseline
+ * (the lowest latency recently observed) the filers are overloaded and the
+ * limit is cut by a quarter.</li>
+ * <li>If the last increase did not improve throughput the limit is
+ * stepped back down by one.</li>
+ * <li>Otherwise, if archive jobs are waiting because the limit has been
+ * reached, the limit is increased by one to probe for more throughput.
+ * </li>
+ *
+ * The limit stays between <code>bundler.adaptive.min_workers</code> and
+ * <code>bundler.queue.max_workers</code>.  The baseline latency drifts up
+ * slowly so that the controller adapts if the filers become permanently
+ * slower.  The controller state is published to the
+ * <code>MetricsService</code> (<code>adaptive.*</code>).
+ *
+ * @author L. Craig Carpenter
+ */
+public class ConcurrencyController extends PropertyLoader
+        implements Runnable, BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            ConcurrencyController.class);
+
+    /**
+     * Metric names of the source read counters maintained by the
+     * archivers.
+     */
+    public static final String SOURCE_BYTES_METRIC = "io.source_bytes";
+    public static final String SOURCE_READS_METRIC = "io.source_reads";
+    public static final String SOURCE_NANOS_METRIC = "io.source_read_ns";
+
+    /**
+     * Minimum number of read calls in an interval before the sample is
+     * used.  Intervals with less activity are ignored.
+     */
+    private static final long MIN_SAMPLES = 64L;
+
+    /**
+     * Fraction by which the limit is multiplied when backing off.
+     */
+    private static final double BACKOFF = 0.75;
+
+    /**
+     * Relative change in throughput treated as noise.
+     */
+    private static final double THROUGHPUT_TOLERANCE = 0.05;
+
+    /**
+     * Rate (per interval) at which the baseline latency drifts up.
+     */
+    private static final double BASELINE_DRIFT = 0.01;
+
+    // Private internal members
+    private final ArchiveQueue queue;
+    private final int          minLimit;
+    private final int          maxLimit;
+    private final long         interval;
+    private final double       tolerance;
+    private long               lastBytes      = 0L;
+    private long               lastReads      = 0L;
+    private long               lastNanos      = 0L;
+    private double             baseline       = 0.0;
+    private double             lastThroughput = 0.0;
+    private boolean            increased      = false;
+
+    /**
+     * Constructor.
+     *
+     * @param queue The queue whose concurrency limit is controlled.
+     * @param maxLimit The maximum concurrency limit (number of workers).
+     */
+    ConcurrencyController(ArchiveQueue queue, int maxLimit) {
+        super(PROPERTY_FILE_NAME);
+        this.queue    = queue;
+        this.maxLimit = maxLimit;
+        minLimit  = (int)Math.min(maxLimit, Math.max(1L, getLongProperty(
+                ADAPTIVE_MIN_WORKERS_PROPERTY,
+                DEFAULT_ADAPTIVE_MIN_WORKERS)));
+        interval  = Math.max(1L, getLongProperty(
+                ADAPTIVE_INTERVAL_PROPERTY,
+                DEFAULT_ADAPTIVE_INTERVAL)) * 1000L;
+        tolerance = Math.max(100L, getLongProperty(
+                ADAPTIVE_LATENCY_TOLERANCE_PROPERTY,
+                DEFAULT_ADAPTIVE_LATENCY_TOLERANCE)) / 100.0;
+    }
+
+    /**
+     * Getter method for the initial concurrency limit (half way between
+     * the minimum and maximum).
+     * @return The initial limit.
+     */
+    int getInitialLimit() {
+        return Math.max(minLimit, (minLimit + maxLimit) / 2);
+    }
+
+    /**
+     * Sample the source read counters and adjust the concurrency limit.
+     */
+    void adjust() {
+
+        MetricsService metrics = MetricsService.getInstance();
+        long bytes = metrics.get(SOURCE_BYTES_METRIC);
+        long reads = metrics.get(SOURCE_READS_METRIC);
+        long nanos = metrics.get(SOURCE_NANOS_METRIC);
+        long deltaBytes = bytes - lastBytes;
+        long deltaReads = reads - lastReads;
+        long deltaNanos = nanos - lastNanos;
+        lastBytes = bytes;
+        lastReads = reads;
+        lastNanos = nanos;
+
+        int limit = queue.getLimit();
+        if (deltaReads >= MIN_SAMPLES) {
+
+            double throughput = deltaBytes / (interval / 1000.0);
+            double latency    = deltaNanos / (double)deltaReads;
+            baseline = ((baseline <= 0.0) ? latency :
+                    Math.min(latency, baseline * (1.0 + BASELINE_DRIFT)));
+            boolean blocked = ((queue.getRunning() >= limit) &&
+                    (queue.getQueuedArchives() > 0));
+
+            int newLimit = limit;
+            if (latency > (baseline * tolerance)) {
+                newLimit = Math.max(minLimit, (int)(limit * BACKOFF));
+            }
+            else if (increased && (throughput <
+                    (lastThroughput * (1.0 - THROUGHPUT_TOLERANCE)))) {
+                newLimit = Math.max(minLimit, limit - 1);
+            }
+            else if (blocked) {
+                newLimit = Math.min(maxLimit, limit + 1);
+            }
+            increased = (newLimit > limit);
+            if (newLimit != limit) {
+                metrics.increment(increased ?
+                        "adaptive.increases" : "adaptive.decreases");
+                LOGGER.info("Archive concurrency limit changed from [ "
+                        + limit
+                        + " ] to [ "
+                        + newLimit
+                        + " ].  Throughput [ "
+                        + (long)throughput
+                        + " ] bytes/s, read latency [ "
+                        + (long)(latency / 1000.0)
+                        + " ] us, baseline [ "
+                        + (long)(baseline / 1000.0)
+                        + " ] us.");
+                queue.setLimit(newLimit);
+                limit = newLimit;
+            }
+            lastThroughput = throughput;
+            metrics.set("adaptive.throughput_bps", (long)throughput);
+            metrics.set("adaptive.read_latency_us", (long)(latency / 1000.0));
+            metrics.set("adaptive.baseline_latency_us",
+                    (long)(baseline / 1000.0));
+        }
+        else {
+            increased = false;
+        }
+        metrics.set("adaptive.limit", limit);
+    }
+
+    /**
+     * Periodically adjust the concurrency limit until interrupted.
+     */
+    @Override
+    public void run() {
+        LOGGER.info("Adaptive concurrency controller started.  Limit range [ "
+                + minLimit
+                + " - "
+                + maxLimit
+                + " ] adjusted every [ "
+                + (interval / 1000L)
+                + " ] seconds.");
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(interval);
+                adjust();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            catch (RuntimeException re) {
+                LOGGER.error("Unexpected exception raised by the adaptive "
+                        + "concurrency controller.  Exception message => [ "
+                        + re.getMessage()
+                        + " ].");
+            }
+        }
+    }
+}
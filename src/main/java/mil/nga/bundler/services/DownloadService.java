@@ -0,0 +1,577 @@
+package mil.nga.bundler.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.EntityTag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.UrlGenerator;
+import mil.nga.bundler.archive.ZipArchiver;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.exceptions.ServiceUnavailableException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.model.ArchiveJob;
+import mil.nga.bundler.model.Job;
+import mil.nga.bundler.types.ArchiveType;
+import mil.nga.bundler.types.JobStateType;
+import mil.nga.util.URIUtils;
+
+/**
+ * Class supporting the <code>Download</code> end point.  The archive URLs
+ * generated by <code>UrlGenerator</code> point at a separate web server,
+ * so an interrupted download of a multi-GB archive has to start again
+ * from the beginning.  This class allows the bundler to serve the staged
+ * archives (and their hash files) itself with:
+ *
+ * <li>Strong entity tags derived from the file size and modification
+ * time.</li>
+ * <li>Single byte range requests (<code>Range: bytes=a-b</code>,
+ * <code>bytes=a-</code> and <code>bytes=-n</code>) honoring
+ * <code>If-Range</code>, so clients can resume a download or fetch parts
+ * of it in parallel.  Requests for several ranges are answered with the
+ * whole file.</li>
+ * <li>Zero-copy transfer using the container's sendfile support where the
+ * connector offers it, falling back to <code>FileChannel</code>
+ * transfers.</li>
+ *
+ * Only the outputs (archive, hash file and split archive volumes) of
+ * archive jobs in the <code>COMPLETE</code> state are served, and only if
+ * they are regular files below the staging base directory
+ * (<code>bundler.staging_directory_base</code>) on the default file
+ * system.  Files of jobs that are still running (partial archives,
+ * checkpoints, intermediate and spool files) are never served.
+ *
+ * @author L. Craig Carpenter
+ */
+public class DownloadService extends PropertyLoader
+        implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            DownloadService.class);
+
+    /**
+     * Request attributes used by Tomcat to advertise and trigger sendfile.
+     */
+    private static final String SENDFILE_SUPPORT  =
+            "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME =
+            "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START    =
+            "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END      =
+            "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Format of HTTP dates (RFC 7231 IMF-fixdate).
+     */
+    private static final String HTTP_DATE_FORMAT =
+            "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /**
+     * Largest number of bytes handed to a single
+     * <code>FileChannel.transferTo</code> call.
+     */
+    private static final long MAX_TRANSFER = 8L * BYTES_PER_MEGABYTE;
+
+    // Private internal members
+    private final boolean enabled;
+    private final boolean sendfile;
+    private final Path    baseDir;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private DownloadService() {
+        super(PROPERTY_FILE_NAME);
+        enabled  = getBooleanProperty(DOWNLOAD_ENABLED_PROPERTY);
+        sendfile = getBooleanProperty(DOWNLOAD_SENDFILE_PROPERTY);
+        baseDir  = getLocalBaseDir(UrlGenerator.getInstance().getBaseDir());
+    }
+
+    /**
+     * Return a singleton instance to the DownloadService object.
+     * @return The DownloadService
+     */
+    public static DownloadService getInstance() {
+        return DownloadServiceHolder.getFactorySingleton();
+    }
+
+    /**
+     * Read a boolean property that defaults to true.
+     *
+     * @param key The property name.
+     * @return False only if the property is set to "false".
+     */
+    private boolean getBooleanProperty(String key) {
+        String value = null;
+        try {
+            value = getProperty(key);
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        return ((value == null) ||
+                (!value.trim().equalsIgnoreCase("false")));
+    }
+
+    /**
+     * Convert the staging base directory to a real path on the default
+     * file system.
+     *
+     * @param base The staging base directory.
+     * @return The real path, or null if the base directory is not defined,
+     * is not on the default file system or does not exist.
+     */
+    private static Path getLocalBaseDir(String base) {
+        if ((base == null) || (base.trim().isEmpty())) {
+            LOGGER.warn("The staging base directory is not defined.  "
+                    + "Staged archives cannot be downloaded.");
+            return null;
+        }
+        try {
+            URI uri = URIUtils.getInstance().getURI(base.trim());
+            if (!"file".equalsIgnoreCase(uri.getScheme())) {
+                LOGGER.warn("The staging base directory [ "
+                        + base
+                        + " ] is not on the default file system.  Staged "
+                        + "archives cannot be downloaded.");
+                return null;
+            }
+            return Paths.get(uri).toRealPath();
+        }
+        catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to resolve the staging base directory [ "
+                    + base
+                    + " ].  Staged archives cannot be downloaded.  "
+                    + "Exception message => [ "
+                    + e.getMessage()
+                    + " ].");
+        }
+        return null;
+    }
+
+    /**
+     * Determine whether the <code>Download</code> end point is available.
+     *
+     * @return True if downloads are enabled and the staging base directory
+     * could be resolved.
+     */
+    public boolean isEnabled() {
+        return (enabled && (baseDir != null));
+    }
+
+    /**
+     * Convert an archive or hash file URI string to a path.
+     *
+     * @param file The URI string.
+     * @return The path.
+     */
+    private static Path getPath(String file) {
+        return Paths.get(URIUtils.getInstance().getURI(file));
+    }
+
+    /**
+     * Collect the output files of a completed archive job: the volumes of
+     * a split archive, the archive and the hash file.
+     *
+     * @param archive The completed archive job.
+     * @return The output files.
+     */
+    private static List<Path> getOutputs(ArchiveJob archive) {
+        List<Path> outputs = new ArrayList<Path>();
+        if ((archive.getArchive() != null) && (!archive.getArchive().isEmpty())) {
+            Path output = getPath(archive.getArchive());
+            for (int i=1; i<archive.getNumVolumes(); i++) {
+                outputs.add(ZipArchiver.getVolume(output, i));
+            }
+            outputs.add(output);
+        }
+        if ((archive.getHash() != null) && (!archive.getHash().isEmpty())) {
+            outputs.add(getPath(archive.getHash()));
+        }
+        return outputs;
+    }
+
+    /**
+     * Determine whether the input staged file is an output of a completed
+     * archive job.  Staged files are written to a directory named after
+     * the job ID, so the job is looked up through the name of the parent
+     * directory.
+     *
+     * @param file The real path of the staged file.
+     * @return True if the file is the archive, hash file or a volume of an
+     * archive job in the <code>COMPLETE</code> state.
+     */
+    private boolean isCompleteOutput(Path file) {
+        Path dir = file.getParent();
+        if ((dir == null) || (dir.getFileName() == null)) {
+            return false;
+        }
+        try (JobService service = new JobService()) {
+            Job job = service.getJob(dir.getFileName().toString());
+            if ((job != null) && (job.getArchives() != null)) {
+                for (ArchiveJob archive : job.getArchives()) {
+                    if (archive.getArchiveState() != JobStateType.COMPLETE) {
+                        continue;
+                    }
+                    for (Path output : getOutputs(archive)) {
+                        if ((output.getFileSystem() == file.getFileSystem()) &&
+                                (Files.exists(output)) &&
+                                (Files.isSameFile(output, file))) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        catch (ServiceUnavailableException | IOException | RuntimeException e) {
+            LOGGER.warn("Unable to determine whether staged file [ "
+                    + file.toString()
+                    + " ] belongs to a completed job.  Exception message => [ "
+                    + e.getMessage()
+                    + " ].");
+        }
+        return false;
+    }
+
+    /**
+     * Resolve a path (relative to the staging base directory, i.e. the
+     * path of an archive URL) to a staged file.
+     *
+     * @param path The requested path.
+     * @return The real path of the file, or null if it does not exist, is
+     * not a regular file, lies outside the staging base directory or is
+     * not an output of a completed archive job.
+     */
+    public Path resolve(String path) {
+        if ((!isEnabled()) || (path == null) || (path.isEmpty())) {
+            return null;
+        }
+        String relative = path;
+        while (relative.startsWith("/")) {
+            relative = relative.substring(1);
+        }
+        try {
+            Path file = baseDir.resolve(relative).normalize();
+            if (file.startsWith(baseDir) && Files.isRegularFile(file)) {
+                // Resolve symbolic links before re-checking the location.
+                file = file.toRealPath();
+                if (file.startsWith(baseDir) && isCompleteOutput(file)) {
+                    return file;
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            LOGGER.debug("Unable to resolve download path [ "
+                    + path
+                    + " ].  Exception message => [ "
+                    + e.getMessage()
+                    + " ].");
+        }
+        return null;
+    }
+
+    /**
+     * Calculate the strong entity tag of a staged file.  Staged files are
+     * written once, so the size and modification time identify the
+     * content.
+     *
+     * @param size The file size.
+     * @param lastModified The modification time (milliseconds).
+     * @return The entity tag.
+     */
+    public EntityTag getEntityTag(long size, long lastModified) {
+        return new EntityTag(Long.toHexString(size)
+                + "-"
+                + Long.toHexString(lastModified));
+    }
+
+    /**
+     * Getter method for the MIME type of a staged file.
+     *
+     * @param file The staged file.
+     * @return The MIME type.
+     */
+    public String getContentType(Path file) {
+        String name      = file.getFileName().toString();
+        int    index     = name.lastIndexOf('.');
+        String extension = (index < 0) ? "" : name.substring(index + 1);
+        if (extension.equalsIgnoreCase(HASH_FILE_EXTENSION)) {
+            return "text/plain";
+        }
+        for (ArchiveType type : ArchiveType.values()) {
+            if (extension.equalsIgnoreCase(type.getText())) {
+                if (StreamingService.getInstance().isStreamable(type)) {
+                    return StreamingService.getInstance()
+                            .getContentType(type);
+                }
+                break;
+            }
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * Determine whether the <code>Range</code> header should be honored.
+     * The range applies only if there is no <code>If-Range</code> header
+     * or it matches the current representation: a strong entity tag equal
+     * to the current one, or a date equal to the modification time.
+     *
+     * @param ifRange The <code>If-Range</code> header (may be null).
+     * @param tag The current entity tag.
+     * @param lastModified The modification time (milliseconds).
+     * @return True if the range should be honored.
+     */
+    public boolean isRangeApplicable(
+            String    ifRange,
+            EntityTag tag,
+            long      lastModified) {
+        if ((ifRange == null) || (ifRange.trim().isEmpty())) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            // Weak tags never match for ranges.
+            return value.equals(tag.toString());
+        }
+        SimpleDateFormat format = new SimpleDateFormat(
+                HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return (format.parse(value).getTime() / 1000L)
+                    == (lastModified / 1000L);
+        }
+        catch (ParseException pe) {
+            return false;
+        }
+    }
+
+    /**
+     * Parse a <code>Range</code> header.
+     *
+     * @param range The <code>Range</code> header (may be null).
+     * @param length The file size.
+     * @return The requested range, or null if the whole file should be
+     * returned (no header, a malformed header, a unit other than bytes or
+     * more than one range).  Check <code>isSatisfiable()</code> before
+     * using the range.
+     */
+    public ByteRange parseRange(String range, long length) {
+        if (range == null) {
+            return null;
+        }
+        String value = range.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        value = value.substring(6).trim();
+        if (value.indexOf(',') >= 0) {
+            return null;
+        }
+        int dash = value.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        String first = value.substring(0, dash).trim();
+        String last  = value.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                // Suffix range: the final n bytes.
+                long suffix = Long.parseLong(last);
+                if ((suffix <= 0L) || (length == 0L)) {
+                    return new ByteRange(-1L, -1L);
+                }
+                return new ByteRange(
+                        Math.max(0L, length - suffix), length - 1L);
+            }
+            long start = Long.parseLong(first);
+            long end   = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if ((start < 0L) || (end < start)) {
+                return null;
+            }
+            if (start >= length) {
+                return new ByteRange(-1L, -1L);
+            }
+            return new ByteRange(start, Math.min(end, length - 1L));
+        }
+        catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    /**
+     * Hand the transfer of the input byte range to the container's
+     * sendfile implementation, if it is available.  On success the caller
+     * must not write a response body.
+     *
+     * @param request The servlet request (may be null).
+     * @param file The staged file.
+     * @param start The first byte to send.
+     * @param end The last byte to send (inclusive).
+     * @return True if the container will send the file.
+     */
+    public boolean sendfile(
+            HttpServletRequest request,
+            Path               file,
+            long               start,
+            long               end) {
+        if ((!sendfile) || (request == null) ||
+                (!Boolean.TRUE.equals(
+                        request.getAttribute(SENDFILE_SUPPORT)))) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME, file.toString());
+        request.setAttribute(SENDFILE_START, Long.valueOf(start));
+        // Tomcat's end attribute is exclusive.
+        request.setAttribute(SENDFILE_END, Long.valueOf(end + 1L));
+        record(end - start + 1L, true);
+        return true;
+    }
+
+    /**
+     * Copy the input byte range of a staged file to the input stream
+     * using <code>FileChannel.transferTo</code>.
+     *
+     * @param file The staged file.
+     * @param start The first byte to send.
+     * @param end The last byte to send (inclusive).
+     * @param out The stream (i.e. the HTTP response).
+     * @throws IOException Thrown if the file cannot be read or the client
+     * goes away.
+     */
+    public void transfer(
+            Path         file,
+            long         start,
+            long         end,
+            OutputStream out) throws IOException {
+
+        long sent = 0L;
+        try (FileChannel channel = FileChannel.open(
+                file, StandardOpenOption.READ)) {
+            WritableByteChannel target   = Channels.newChannel(out);
+            long                position = start;
+            long                limit    = end + 1L;
+            while (position < limit) {
+                long count = channel.transferTo(position,
+                        Math.min(MAX_TRANSFER, limit - position), target);
+                if (count <= 0L) {
+                    // The file was truncated while it was being sent.
+                    throw new IOException("Unexpected end of file [ "
+                            + file.toString()
+                            + " ] at offset [ "
+                            + position
+                            + " ].");
+                }
+                position += count;
+                sent     += count;
+            }
+            out.flush();
+        }
+        finally {
+            record(sent, false);
+        }
+    }
+
+    /**
+     * Update the download metrics.
+     *
+     * @param bytes The number of bytes sent.
+     * @param sendfile True if the bytes were sent by the container.
+     */
+    private void record(long bytes, boolean sendfile) {
+        MetricsService metrics = MetricsService.getInstance();
+        metrics.add("download.bytes", bytes);
+        if (sendfile) {
+            metrics.increment("download.sendfile");
+        }
+    }
+
+    /**
+     * Byte range (both ends inclusive) requested by a client.
+     */
+    public static final class ByteRange {
+
+        private final long start;
+        private final long end;
+
+        private ByteRange(long start, long end) {
+            this.start = start;
+            this.end   = end;
+        }
+
+        /**
+         * Getter method for the first byte of the range.
+         * @return The offset of the first byte.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Getter method for the last byte of the range.
+         * @return The offset of the last byte.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * Determine whether any of the range lies within the file.
+         * @return False if the server must respond with HTTP 416.
+         */
+        public boolean isSatisfiable() {
+            return (start >= 0L);
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class DownloadServiceHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static DownloadService _factory = new DownloadService();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static DownloadService getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package mil.nga.bundler.services;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.interfaces.SchedulingPolicyI;
+import mil.nga.bundler.types.SchedulingPolicyType;
+
+/**
+ * Scheduling policy implementing deficit round-robin (DRR) across users on
+ * archive size.  Each user with waiting work is visited in turn and
+ * credited <code>bundler.scheduler.quantum_mb</code> (multiplied by the
+ * user's weight) per visit, and an archive job is dispatched once the
+ * user's credit covers its size.  Users that have reached the per-user
+ * concurrency limit, or whose next archive job does not fit in the
+ * available staging space, are skipped.  Each user's archive jobs are
+ * executed in the order they were submitted.
+ *
+ * @author L. Craig Carpenter
+ */
+public class FairSharePolicy extends PropertyLoader
+        implements SchedulingPolicyI, BundlerConstantsI {
+
+    /**
+     * Per-user queues keyed by user name.  A user is present while they
+     * have archive jobs waiting.
+     */
+    private final Map<String, UserQueue> users =
+            new HashMap<String, UserQueue>();
+
+    /**
+     * Round-robin ring of the users that have archive jobs waiting.
+     */
+    private final LinkedList<UserQueue> active = new LinkedList<UserQueue>();
+
+    // Private internal members
+    private final long quantum;
+
+    /**
+     * Default constructor.
+     */
+    public FairSharePolicy() {
+        super(PROPERTY_FILE_NAME);
+        quantum = Math.max(1L, getLongProperty(
+                SCHEDULER_QUANTUM_PROPERTY,
+                DEFAULT_SCHEDULER_QUANTUM)) * BYTES_PER_MEGABYTE;
+    }
+
+    /**
+     * Add a waiting archive job to the queue of the user that submitted it.
+     *
+     * @param archive The archive job.
+     */
+    @Override
+    public void add(QueuedArchive archive) {
+        UserQueue user = users.get(archive.getUserName());
+        if (user == null) {
+            user = new UserQueue(archive.getUserName(), getLongProperty(
+                    SCHEDULER_WEIGHT_PROPERTY_PREFIX + archive.getUserName(),
+                    DEFAULT_SCHEDULER_WEIGHT));
+            users.put(archive.getUserName(), user);
+            active.addLast(user);
+        }
+        user.items.addLast(archive);
+    }
+
+    /**
+     * Select the next archive job using deficit round-robin.
+     *
+     * @param saturated Users that have reached the per-user limit.
+     * @param available The staging space available.
+     * @return The next archive job, or null if no user with waiting work
+     * is below the per-user concurrency limit with an archive job that
+     * fits in the available staging space.
+     */
+    @Override
+    public QueuedArchive next(Set<String> saturated, long available) {
+
+        long rounds = Long.MAX_VALUE;
+        for (UserQueue user : active) {
+            if (isEligible(user, saturated, available)) {
+                long shortfall = user.items.getFirst().getSize() - user.deficit;
+                rounds = Math.min(rounds, (shortfall <= 0 ? 0 :
+                        (shortfall + user.getQuantum() - 1) / user.getQuantum()));
+            }
+        }
+        if (rounds == Long.MAX_VALUE) {
+            return null;
+        }
+        // Large archive jobs may need many rounds of credit before they can
+        // be dispatched.  Skip the rounds in which nobody would be served.
+        if (rounds > 1) {
+            for (UserQueue user : active) {
+                if (isEligible(user, saturated, available)) {
+                    user.deficit += (rounds - 1) * user.getQuantum();
+                }
+            }
+        }
+        while (true) {
+            UserQueue user = active.getFirst();
+            if (isEligible(user, saturated, available)) {
+                QueuedArchive head = user.items.getFirst();
+                if (user.deficit >= head.getSize()) {
+                    user.items.removeFirst();
+                    user.deficit -= head.getSize();
+                    if (user.items.isEmpty()) {
+                        active.removeFirst();
+                        users.remove(user.name);
+                    }
+                    return head;
+                }
+                user.deficit += user.getQuantum();
+            }
+            active.addLast(active.removeFirst());
+        }
+    }
+
+    /**
+     * Determine whether the input user may be served.
+     *
+     * @param user The user.
+     * @param saturated Users that have reached the per-user limit.
+     * @param available The staging space available.
+     * @return True if the user is below the per-user limit and their next
+     * archive job fits in the available staging space.
+     */
+    private boolean isEligible(
+            UserQueue   user,
+            Set<String> saturated,
+            long        available) {
+        return ((!saturated.contains(user.name)) &&
+                (user.items.getFirst().getSpace() <= available));
+    }
+
+    /**
+     * Estimate the position of the first waiting archive job associated
+     * with the input job ID.  Because users are served round-robin, the
+     * estimate assumes every other user with waiting work is served once
+     * for each archive job ahead of it in its own user's queue.
+     *
+     * @param jobID The job ID.
+     * @return The 1-based position, or 0 if not waiting.
+     */
+    @Override
+    public int getPosition(String jobID) {
+        for (int i = 0; i < active.size(); i++) {
+            int index = 0;
+            for (QueuedArchive archive : active.get(i).items) {
+                if (jobID.equals(archive.getJobID())) {
+                    int position = index + 1;
+                    for (int j = 0; j < active.size(); j++) {
+                        if (j != i) {
+                            position += Math.min(
+                                    active.get(j).items.size(),
+                                    (j < i ? index + 1 : index));
+                        }
+                    }
+                    return position;
+                }
+                index++;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Getter method for the type of policy implemented.
+     * @return FAIR_SHARE.
+     */
+    @Override
+    public SchedulingPolicyType getType() {
+        return SchedulingPolicyType.FAIR_SHARE;
+    }
+
+    /**
+     * Scheduling state maintained for each user.
+     */
+    private class UserQueue {
+        private final String                    name;
+        private final long                      weight;
+        private final LinkedList<QueuedArchive> items =
+                new LinkedList<QueuedArchive>();
+        private long                            deficit = 0L;
+
+        private UserQueue(String name, long weight) {
+            this.name   = name;
+            this.weight = Math.max(1L, weight);
+        }
+
+        /**
+         * The credit given to the user on each round.
+         * @return The quantum multiplied by the user's weight.
+         */
+        private long getQuantum() {
+            return quantum * weight;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import javax.persistence.Persistence;
 import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
 import javax.persistence.criteria.Root;
 
 import org.slf4j.Logger;
@@ -248,4 +249,64 @@ public class FileEntryService implements BundlerConstantsI, Closeable {
                     + "FileEntry state will not be updated.");
         }
     }
+    
+    /**
+     * Method used to reset the state of every <code>FileEntry</code> 
+     * associated with the input job and archive ID.  This is used when an 
+     * interrupted archive job is restarted.  The update is set-based.
+     * 
+     * @param jobID The target job ID.
+     * @param archiveID The target archive ID.
+     * @param state The new state.
+     * @return The number of records updated.
+     */
+    public int resetState(
+    		String       jobID, 
+    		long         archiveID, 
+    		JobStateType state) throws ServiceUnavailableException {
+    	
+    	int updated = 0;
+    	
+    	if ((jobID != null) && (!jobID.isEmpty()) && (state != null)) {
+    		
+    		CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+    		CriteriaUpdate<FileEntry> cu = 
+    				cb.createCriteriaUpdate(FileEntry.class);
+    		Root<FileEntry> root = cu.from(FileEntry.class);
+    		cu.set(root.<JobStateType>get("fileState"), state);
+    		cu.where(
+    				cb.equal(
+    						root.get("jobID"), 
+    						cb.parameter(String.class, "jobID")),
+    				cb.equal(root.get("archiveID"), 
+    						cb.parameter(Long.class, "archiveID")));
+    		
+    		try {
+    			getEntityManager().getTransaction().begin();
+    			Query query = getEntityManager().createQuery(cu);
+    			query.setParameter("jobID", jobID);
+    			query.setParameter("archiveID", archiveID);
+    			updated = query.executeUpdate();
+    			getEntityManager().getTransaction().commit();
+    		}
+    		catch (RuntimeException re) {
+    			if (getEntityManager().getTransaction().isActive()) {
+    				getEntityManager().getTransaction().rollback();
+    			}
+    			LOGGER.error("Unexpected exception raised while resetting "
+    					+ "the FileEntry state for job ID [ "
+    					+ jobID
+    					+ " ] and archive ID [ "
+    					+ archiveID
+    					+ " ].  Exception message => [ "
+    					+ re.getMessage()
+    					+ " ].");
+    		}
+    	}
+    	else {
+    		LOGGER.warn("Invalid input parameters.  FileEntry state will "
+    				+ "not be reset.");
+    	}
+    	return updated;
+    }
 }
@@ -0,0 +1,143 @@
+package mil.nga.bundler.services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.exceptions.ServiceUnavailableException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+
+/**
+ * Executor running the <code>JobFactoryService</code> tasks that expand
+ * accepted bundle requests into jobs.  Expansion validates (and may list)
+ * every requested file so it can take a while; rather than starting a
+ * thread per request, requests are run by a fixed pool of
+ * <code>bundler.admission.job_factory_threads</code> threads.  At most
+ * <code>bundler.admission.job_factory_queue</code> requests wait for a
+ * thread, further requests are rejected with a
+ * <code>ServiceUnavailableException</code>.
+ *
+ * @author L. Craig Carpenter
+ */
+public class JobFactoryExecutor extends PropertyLoader
+        implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            JobFactoryExecutor.class);
+
+    // Private internal members
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private JobFactoryExecutor() {
+        super(PROPERTY_FILE_NAME);
+        int threads  = (int)Math.max(1L, getLongProperty(
+                ADMISSION_JOB_FACTORY_THREADS_PROPERTY,
+                DEFAULT_ADMISSION_JOB_FACTORY_THREADS));
+        int capacity = (int)Math.max(1L, getLongProperty(
+                ADMISSION_JOB_FACTORY_QUEUE_PROPERTY,
+                DEFAULT_ADMISSION_JOB_FACTORY_QUEUE));
+        executor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity),
+                new JobFactoryThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        LOGGER.info("Job factory executor started with [ "
+                + threads
+                + " ] threads and room for [ "
+                + capacity
+                + " ] waiting requests.");
+    }
+
+    /**
+     * Return a singleton instance to the JobFactoryExecutor object.
+     * @return The JobFactoryExecutor
+     */
+    public static JobFactoryExecutor getInstance() {
+        return JobFactoryExecutorHolder.getFactorySingleton();
+    }
+
+    /**
+     * Queue the input task for execution.
+     *
+     * @param task The task expanding a bundle request into a job.
+     * @throws ServiceUnavailableException Thrown if too many requests are
+     * already waiting or the executor has been shut down.
+     */
+    public void submit(Runnable task) throws ServiceUnavailableException {
+        try {
+            executor.execute(task);
+        }
+        catch (RejectedExecutionException ree) {
+            LOGGER.warn("Request rejected.  [ "
+                    + executor.getQueue().size()
+                    + " ] requests are waiting to be expanded into jobs.");
+            throw new ServiceUnavailableException(
+                    "Too many requests are waiting to be processed.");
+        }
+    }
+
+    /**
+     * Stop the job factory threads.  Requests still waiting for a thread
+     * are discarded and running requests are interrupted.
+     */
+    public void shutdown() {
+        LOGGER.info("Stopping the job factory executor.  [ "
+                + executor.getQueue().size()
+                + " ] waiting requests will be discarded.");
+        executor.shutdownNow();
+    }
+
+    /**
+     * Thread factory naming the job factory threads.
+     */
+    private static class JobFactoryThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r,
+                    "bundler-job-factory-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class JobFactoryExecutorHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static JobFactoryExecutor _factory = new JobFactoryExecutor();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static JobFactoryExecutor getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
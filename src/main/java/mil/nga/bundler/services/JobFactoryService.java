@@ -8,6 +8,7 @@ import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 import mil.nga.PropertyLoader;
@@ -15,6 +16,7 @@ import mil.nga.bundler.ArchiveJobFactory;
 import mil.nga.bundler.BundleRequest;
 import mil.nga.bundler.FileSystemFactory;
 import mil.nga.bundler.FileValidator;
+import mil.nga.bundler.ManifestCodec;
 import mil.nga.bundler.UrlGenerator;
 import mil.nga.bundler.exceptions.InvalidRequestException;
 import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
@@ -29,6 +31,7 @@ import mil.nga.bundler.model.FileEntry;
 import mil.nga.bundler.model.Job;
 import mil.nga.bundler.services.BundlerService.BundlerServiceBuilder;
 import mil.nga.bundler.types.ArchiveType;
+import mil.nga.bundler.types.FileStorageType;
 import mil.nga.bundler.types.JobStateType;
 import mil.nga.util.FileUtils;
 import mil.nga.util.URIUtils;
@@ -58,6 +61,22 @@ public class JobFactoryService
      */
     private URI stagingArea;
     
+    /**
+     * How the list of files associated with each archive job is persisted.
+     */
+    private FileStorageType storageType = FileStorageType.ROWS;
+    
+    /**
+     * Flag indicating that ZIP and TAR archives are split by the archiver 
+     * as they are written (size-exact rollover).
+     */
+    private boolean rollover = false;
+    
+    /**
+     * Flag indicating that ZIP jobs are written as a single split archive.
+     */
+    private boolean splitVolumes = false;
+    
     /**
      * Class-level handle to the JobService
      */
@@ -85,6 +104,14 @@ public class JobFactoryService
         
         try {
         	stagingArea = super.getProperty(STAGING_DIRECTORY_PROPERTY);
+        	storageType = FileStorageType.fromString(
+        			super.getProperty(FILE_STORAGE_PROPERTY));
+        	String value = super.getProperty(EXACT_ROLLOVER_PROPERTY);
+        	rollover = ((value != null) && 
+        			(value.trim().equalsIgnoreCase("true")));
+        	value = super.getProperty(SPLIT_ZIP_PROPERTY);
+        	splitVolumes = ((value != null) && 
+        			(value.trim().equalsIgnoreCase("true")));
         }
         catch (PropertiesNotLoadedException pnle) {
             LOGGER.error("An unexpected PropertiesNotLoadedException " 
@@ -226,17 +253,48 @@ public class JobFactoryService
 	    			UrlGenerator.getInstance().toURL(
 	    					archiveJob.getHash()));
 	    	archiveJob.setArchiveState(JobStateType.NOT_STARTED);
+	    	// Owning host, used to decide which host recovers the job.
+	    	archiveJob.setHostName(FileUtils.getHostName());
+	    	
+	    	List<FileEntry> manifest = new ArrayList<FileEntry>();
 	    	
     		for (ArchiveElement element : archive.getElementList()) {
     			numFiles++;
     			size += element.getSize();
-	    		archiveJob.add(
-	    				createFileEntryInstance(
-	    						jobID, 
-	    						archive.getID(), 
-	    						element));
+    			FileEntry entry = createFileEntryInstance(
+						jobID, 
+						archive.getID(), 
+						element);
+    			if (storageType == FileStorageType.MANIFEST) {
+    				manifest.add(entry);
+    			}
+    			else {
+    				archiveJob.add(entry);
+    			}
 	    	}
     		
+    		// In manifest mode the files are stored as a single compressed 
+    		// blob rather than individual FILE_ENTRY rows.
+    		if (storageType == FileStorageType.MANIFEST) {
+    			byte[] encoded = ManifestCodec.getInstance().encode(manifest);
+    			if (encoded != null) {
+    				archiveJob.setManifest(encoded);
+    			}
+    			else {
+    				// Without the manifest the archive job would have no 
+    				// files at all.  Store the individual rows instead.
+    				LOGGER.warn("Unable to encode the manifest for job ID [ "
+    						+ jobID
+    						+ " ] and archive ID [ "
+    						+ archive.getID()
+    						+ " ].  The file list will be stored as "
+    						+ "individual FILE_ENTRY rows.");
+    				for (FileEntry entry : manifest) {
+    					archiveJob.add(entry);
+    				}
+    			}
+    		}
+    		
     		archiveJob.setNumFiles(numFiles);
     		archiveJob.setSize(size);
     		
@@ -248,6 +306,37 @@ public class JobFactoryService
     	return archiveJob;
     }
     
+    /**
+     * Mark the archives of the input job for size-exact rollover.  The 
+     * archiver moves the files that would take an archive past the limit 
+     * into a new archive job.
+     * 
+     * @param job The job.
+     * @param limit The target archive size in bytes.
+     */
+    private void setRolloverLimit(Job job, long limit) {
+    	if (job.getArchives() != null) {
+    		for (ArchiveJob archive : job.getArchives()) {
+    			archive.setRolloverLimit(limit);
+    		}
+    	}
+    }
+    
+    /**
+     * Mark the archives of the input job to be written as split archives 
+     * made of volumes of the input size.
+     * 
+     * @param job The job.
+     * @param volumeSize The volume size in bytes.
+     */
+    private void setVolumeSize(Job job, long volumeSize) {
+    	if (job.getArchives() != null) {
+    		for (ArchiveJob archive : job.getArchives()) {
+    			archive.setVolumeSize(volumeSize);
+    		}
+    	}
+    }
+    
     /**
      * Create a concrete instance of a <code>FileEntry</code> object that 
      * we can add to the target Job.
@@ -290,6 +379,9 @@ public class JobFactoryService
     	job.setArchiveType(type);
     	job.setArchiveSize(getSizeInBytes(archiveSize));
     	job.setState(JobStateType.INVALID_REQUEST);
+    	// Invalid jobs are never started.  Record the end time so that the 
+    	// retention engine is able to age them out.
+    	job.setEndTime(System.currentTimeMillis());
     	return job;
     }
     
@@ -374,6 +466,8 @@ public class JobFactoryService
 		        		request.getMaxSize(),
 		        		jobID,
 		        		request.getOutputFilename());
+		        factory.setRollover(rollover);
+		        factory.setSplitVolumes(splitVolumes);
 		        
 		        List<Archive> archives = factory
 		        		.createArchivesFromFileEntry(files);
@@ -385,6 +479,21 @@ public class JobFactoryService
 			        		request.getType(), 
 			        		request.getMaxSize(),
 			        		archives);
+			        if (factory.isSplitVolumes()) {
+			        	setVolumeSize(job, factory.getTargetArchiveSize());
+			        }
+			        else if (factory.isRollover()) {
+			        	setRolloverLimit(job, factory.getTargetArchiveSize());
+			        }
+			        job.setFingerprint(ResultCacheService
+			        		.getInstance()
+			        		.getFingerprint(
+			        				files, 
+			        				request.getType(), 
+			        				request.getMaxSize(), 
+			        				request.getOutputFilename(), 
+			        				factory.isRollover(), 
+			        				factory.isSplitVolumes()));
 		        }
 		        else {
 		        	LOGGER.error("There are no archive jobs to process.  "
@@ -419,9 +528,27 @@ public class JobFactoryService
 	        		request.getMaxSize());
     	}
     	
-    	// Save the job to the target data store.
+    	if (job != null) {
+    		job.setDeadline(request.getDeadline());
+    	}
+    	
+    	// An identical request that has already completed is satisfied 
+    	// with the outputs of the earlier job, and one that is still in 
+    	// flight shares the archives of that job.
+    	boolean cached = ResultCacheService.getInstance().reuse(
+    			job, getJobService());
+    	if (!cached) {
+    		cached = ResultCacheService.getInstance().attach(
+    				job, getJobService());
+    	}
+    	
+    	// Save the job to the target data store.  The job is registered 
+    	// as in flight only once it has been saved.
     	if (getJobService() != null) {
     		getJobService().persist(job);
+    		if (!cached) {
+    			ResultCacheService.getInstance().register(job);
+    		}
     	}
     	else {
     		LOGGER.error("Unable to look up the target JobService EJB.  "
@@ -437,7 +564,9 @@ public class JobFactoryService
     				+ " ].");
     	}
     	
-        runJob(job);
+    	if (!cached) {
+    		runJob(job);
+    	}
     }
     
     public void createJob(String jobID, BundleRequest request) 
@@ -466,6 +595,8 @@ public class JobFactoryService
 		        		request.getMaxSize(),
 		        		jobID,
 		        		request.getOutputFilename());
+		        factory.setRollover(rollover);
+		        factory.setSplitVolumes(splitVolumes);
 		        
 		        List<Archive> archives = factory
 		        		.createArchivesFromFileEntry(files);
@@ -477,6 +608,21 @@ public class JobFactoryService
 			        		request.getType(), 
 			        		request.getMaxSize(),
 			        		archives);
+			        if (factory.isSplitVolumes()) {
+			        	setVolumeSize(job, factory.getTargetArchiveSize());
+			        }
+			        else if (factory.isRollover()) {
+			        	setRolloverLimit(job, factory.getTargetArchiveSize());
+			        }
+			        job.setFingerprint(ResultCacheService
+			        		.getInstance()
+			        		.getFingerprint(
+			        				files, 
+			        				request.getType(), 
+			        				request.getMaxSize(), 
+			        				request.getOutputFilename(), 
+			        				factory.isRollover(), 
+			        				factory.isSplitVolumes()));
 		        }
 		        else {
 		        	LOGGER.error("There are no archive jobs to process.  "
@@ -510,9 +656,27 @@ public class JobFactoryService
 	        		request.getMaxSize());
 		}
     	
-    	// Save the job to the target data store.
+    	if (job != null) {
+    		job.setDeadline(request.getDeadline());
+    	}
+    	
+    	// An identical request that has already completed is satisfied 
+    	// with the outputs of the earlier job, and one that is still in 
+    	// flight shares the archives of that job.
+    	boolean cached = ResultCacheService.getInstance().reuse(
+    			job, getJobService());
+    	if (!cached) {
+    		cached = ResultCacheService.getInstance().attach(
+    				job, getJobService());
+    	}
+    	
+    	// Save the job to the target data store.  The job is registered 
+    	// as in flight only once it has been saved.
     	if (getJobService() != null) {
     		getJobService().persist(job);
+    		if (!cached) {
+    			ResultCacheService.getInstance().register(job);
+    		}
     	}
     	else {
     		LOGGER.error("Unable to look up the target JobService EJB.  "
@@ -528,7 +692,9 @@ public class JobFactoryService
     				+ " ].");
     	}
     	
-    	runJob(job);
+    	if (!cached) {
+    		runJob(job);
+    	}
     }
     
     /**
@@ -573,17 +739,88 @@ public class JobFactoryService
     	catch (ServiceUnavailableException sue) {
     		
     	}
+    	finally {
+    		// The archive jobs (if any) are now in the ArchiveQueue.
+    		ArchiveQueue.getInstance().release();
+    	}
     }
 
     /**
-     * Public method used to start the thread encapsulating the processing 
-     * for a user submitted job.
+     * Public method used to queue the processing for a user submitted job 
+     * on the <code>JobFactoryExecutor</code>.
+     * 
+     * @throws ServiceUnavailableException Thrown if too many submitted 
+     * jobs are already waiting to be created.
      */
-    public void start() {
-    	LOGGER.info("Starting thread to create job ID [ "
+    public void start() throws ServiceUnavailableException {
+    	LOGGER.info("Queueing creation of job ID [ "
     			+ getJobID()
     			+ " ]...");
-    	new Thread(this).start();
+    	// Hold a place in the ArchiveQueue until the job has been expanded
+    	// into archive jobs so admission control can see it.
+    	ArchiveQueue.getInstance().reserve();
+    	try {
+    		JobFactoryExecutor.getInstance().submit(this);
+    	}
+    	catch (ServiceUnavailableException sue) {
+    		ArchiveQueue.getInstance().release();
+    		throw sue;
+    	}
+    }
+    
+    /**
+     * Preflight check of the staging space needed by the input job.  The 
+     * completed archives of the job remain in the staging area, and the 
+     * largest archive job may need additional room for an intermediate 
+     * TAR file.  Archive jobs are held in the <code>ArchiveQueue</code> 
+     * until their staging space can be reserved, so a job exceeding the 
+     * space currently available is only delayed.  A job exceeding the size 
+     * of the staging file system cannot complete without the retention 
+     * engine removing its earlier archives.
+     * 
+     * @param job The job to check.
+     */
+    private void checkStagingSpace(Job job) {
+    	
+    	StagingSpaceManager space  = StagingSpaceManager.getInstance();
+    	long                needed = 0L;
+    	long                peak   = 0L;
+    	
+    	if (job.getArchives() != null) {
+    		for (ArchiveJob archive : job.getArchives()) {
+    			long estimate = space.estimate(
+    					archive.getSize(), archive.getArchiveType());
+    			needed += archive.getSize();
+    			peak    = Math.max(peak, estimate - archive.getSize());
+    		}
+    	}
+    	needed += peak;
+    	long total     = space.getTotalSpace();
+    	long available = space.getAvailableSpace();
+    	if ((total >= 0) && (needed > total)) {
+    		MetricsService.getInstance().increment(
+    				"staging.preflight.exceeds_capacity");
+    		LOGGER.error("Job ID [ "
+    				+ job.getJobID()
+    				+ " ] needs an estimated [ "
+    				+ needed
+    				+ " ] bytes of staging space which exceeds the size of "
+    				+ "the staging area [ "
+    				+ total
+    				+ " ] bytes.");
+    	}
+    	else if ((available >= 0) && (needed > available)) {
+    		MetricsService.getInstance().increment(
+    				"staging.preflight.exceeds_available");
+    		LOGGER.warn("Job ID [ "
+    				+ job.getJobID()
+    				+ " ] needs an estimated [ "
+    				+ needed
+    				+ " ] bytes of staging space but only [ "
+    				+ available
+    				+ " ] bytes are available.  Archive jobs will be held "
+    				+ "until staging space is released.");
+    	}
     }
     
     /**
@@ -597,6 +834,7 @@ public class JobFactoryService
     		
     		// Ensure the output directory is created.
 			createOutputDirectory(job.getJobID());
+			checkStagingSpace(job);
     		
 			if (job.getState() == JobStateType.NOT_STARTED) {
     			
@@ -615,9 +853,19 @@ public class JobFactoryService
 							+ " ] and archive ID [ "
 							+ archive.getArchiveID()
 							+ " ].");
+					// An archive built with rollover will hold at most the 
+					// rollover limit.
+					long size = (archive.getRolloverLimit() == null ? 
+							archive.getSize() : 
+							Math.min(archive.getSize(), 
+									archive.getRolloverLimit()));
 					new BundlerService.BundlerServiceBuilder()
 							.jobID(archive.getJobID())
 							.archiveID(archive.getArchiveID())
+							.size(size)
+							.userName(job.getUserName())
+							.deadline(job.getDeadline())
+							.archiveType(archive.getArchiveType())
 							.completionListener(listener)
 							.build()
 							.start();
@@ -10,7 +10,10 @@ import javax.persistence.NoResultException;
 import javax.persistence.Persistence;
 import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
 import org.slf4j.Logger;
@@ -18,7 +21,10 @@ import org.slf4j.LoggerFactory;
 
 import mil.nga.bundler.exceptions.ServiceUnavailableException;
 import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.model.ArchiveJob;
+import mil.nga.bundler.model.FileEntry;
 import mil.nga.bundler.model.Job;
+import mil.nga.bundler.types.JobStateType;
 
 /**
  * Non-ejb implementation of the JobService class.  This class implements
@@ -154,6 +160,336 @@ public class JobService implements BundlerConstantsI, Closeable {
         return jobIDs;
     }
     
+    /**
+     * Determine whether or not a job with the input job ID exists in the 
+     * target data store.  This is a count query so the (potentially very 
+     * large) archive and file lists are not loaded.
+     * 
+     * @param jobID The job ID to look for.
+     * @return True if the job exists.
+     */
+    public boolean exists(String jobID) throws ServiceUnavailableException {
+    	boolean exists = false;
+    	if ((jobID != null) && (!jobID.isEmpty())) {
+    		CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+    		CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+    		Root<Job> root = cq.from(Job.class);
+    		cq.select(cb.count(root));
+    		cq.where(cb.equal(
+    				root.get("jobID"), 
+    				cb.parameter(String.class, "jobID")));
+    		Query query = getEntityManager().createQuery(cq);
+    		query.setParameter("jobID", jobID);
+    		exists = ((Long)query.getSingleResult()).longValue() > 0;
+    	}
+    	return exists;
+    }
+    
+    /**
+     * Retrieve all jobs that are in one of the input states.  The jobs are 
+     * returned in the order they were started (jobs that were never 
+     * started are returned last).
+     * 
+     * @param states The list of job states to look for.
+     * @return A list of matching jobs.  The output may be empty, but it will 
+     * not be null.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Job> getJobsByState(List<JobStateType> states) 
+    		throws ServiceUnavailableException {
+    	
+    	List<Job> jobs = new ArrayList<Job>();
+    	
+    	if ((states != null) && (!states.isEmpty())) {
+    		CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+    		CriteriaQuery<Job> cq = cb.createQuery(Job.class);
+    		Root<Job> root = cq.from(Job.class);
+    		cq.select(root).distinct(true);
+    		cq.where(root.get("state").in(states));
+    		cq.orderBy(cb.asc(root.get("startTime")));
+    		Query query = getEntityManager().createQuery(cq);
+    		jobs = query.getResultList();
+    	}
+    	return jobs;
+    }
+    
+    /**
+     * Get a list of job IDs in the input state that finished (or, if the 
+     * end time was never set, started) before the input cutoff time.  The 
+     * oldest jobs are returned first.
+     * 
+     * @param state The job state to look for.
+     * @param cutoff Jobs older than this time (in milliseconds since the 
+     * epoch) are returned.
+     * @param maxResults The maximum number of job IDs to return.
+     * @return A list of job IDs.  The output may be empty, but it will not 
+     * be null.
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getExpiredJobIDs(
+    		JobStateType state, 
+    		long         cutoff, 
+    		int          maxResults) throws ServiceUnavailableException {
+    	
+    	List<String> jobIDs = new ArrayList<String>();
+    	
+    	if (state != null) {
+	    	CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+	    	CriteriaQuery<String> cq = cb.createQuery(String.class);
+	    	Root<Job> root = cq.from(Job.class);
+	    	
+	    	Predicate ended = cb.and(
+	    			cb.gt(root.<Long>get("endTime"), 0L),
+	    			cb.lt(root.<Long>get("endTime"), 
+	    					cb.parameter(Long.class, "cutoff")));
+	    	Predicate neverEnded = cb.and(
+	    			cb.equal(root.<Long>get("endTime"), 0L),
+	    			cb.gt(root.<Long>get("startTime"), 0L),
+	    			cb.lt(root.<Long>get("startTime"), 
+	    					cb.parameter(Long.class, "cutoff")));
+	    	
+	    	cq.select(root.<String>get("jobID"));
+	    	cq.where(
+	    			cb.equal(
+	    					root.get("state"), 
+	    					cb.parameter(JobStateType.class, "state")),
+	    			cb.or(ended, neverEnded));
+	    	cq.orderBy(cb.asc(root.get("endTime")), 
+	    			cb.asc(root.get("startTime")));
+	    	
+	    	Query query = getEntityManager().createQuery(cq);
+	    	query.setParameter("state", state);
+	    	query.setParameter("cutoff", cutoff);
+	    	query.setMaxResults(maxResults);
+	    	jobIDs = query.getResultList();
+    	}
+    	return jobIDs;
+    }
+
+    /**
+     * Get the completed jobs with the input request fingerprint.  The
+     * most recently completed jobs are returned first.
+     *
+     * @param fingerprint The request fingerprint.
+     * @param maxResults The maximum number of jobs to return.
+     * @return A list of matching jobs.  The output may be empty, but it
+     * will not be null.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Job> getCompletedJobs(
+    		String fingerprint,
+    		int    maxResults) throws ServiceUnavailableException {
+
+    	List<Job> jobs = new ArrayList<Job>();
+
+    	if ((fingerprint != null) && (!fingerprint.isEmpty())) {
+    		CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+    		CriteriaQuery<Job> cq = cb.createQuery(Job.class);
+    		Root<Job> root = cq.from(Job.class);
+    		cq.select(root).distinct(true);
+    		cq.where(
+    				cb.equal(
+    						root.get("fingerprint"),
+    						cb.parameter(String.class, "fingerprint")),
+    				cb.equal(
+    						root.get("state"),
+    						cb.parameter(JobStateType.class, "state")));
+    		cq.orderBy(cb.desc(root.get("endTime")));
+    		Query query = getEntityManager().createQuery(cq);
+    		query.setParameter("fingerprint", fingerprint);
+    		query.setParameter("state", JobStateType.COMPLETE);
+    		query.setMaxResults(maxResults);
+    		jobs = query.getResultList();
+    	}
+    	return jobs;
+    }
+    
+    /**
+     * Get the in-progress jobs sharing the archives of the input job.
+     *
+     * @param leaderJobID The ID of the job building the archives.
+     * @return A list of matching jobs.  The output may be empty, but it
+     * will not be null.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Job> getFollowers(String leaderJobID)
+    		throws ServiceUnavailableException {
+
+    	List<Job> jobs = new ArrayList<Job>();
+
+    	if ((leaderJobID != null) && (!leaderJobID.isEmpty())) {
+    		CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+    		CriteriaQuery<Job> cq = cb.createQuery(Job.class);
+    		Root<Job> root = cq.from(Job.class);
+    		cq.select(root).distinct(true);
+    		cq.where(
+    				cb.equal(
+    						root.get("leaderJobID"),
+    						cb.parameter(String.class, "leaderJobID")),
+    				cb.equal(
+    						root.get("state"),
+    						cb.parameter(JobStateType.class, "state")));
+    		Query query = getEntityManager().createQuery(cq);
+    		query.setParameter("leaderJobID", leaderJobID);
+    		query.setParameter("state", JobStateType.IN_PROGRESS);
+    		jobs = query.getResultList();
+    	}
+    	return jobs;
+    }
+    
+    /**
+     * Mark the input job as cancelled.  The job record is only updated if 
+     * it is still <code>NOT_STARTED</code> or <code>IN_PROGRESS</code>.  
+     * Archive jobs that have not yet started are marked cancelled in the 
+     * same transaction.  Archive jobs that are in progress are left for 
+     * the archive worker, which marks them cancelled when it stops.  The 
+     * updates are set-based so they do not overwrite changes made 
+     * concurrently by the archive workers.
+     * 
+     * @param jobID The job ID to cancel.
+     * @return The number of <code>JOBS</code> records updated (0 if the job 
+     * does not exist or has already finished).
+     */
+    public int cancel(String jobID) throws ServiceUnavailableException {
+    	
+    	int  cancelled = 0;
+    	long endTime   = System.currentTimeMillis();
+    	
+    	if ((jobID != null) && (!jobID.isEmpty())) {
+    		
+    		CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+    		
+    		CriteriaUpdate<Job> jobUpdate = cb.createCriteriaUpdate(Job.class);
+    		Root<Job> jobRoot = jobUpdate.from(Job.class);
+    		jobUpdate.set(jobRoot.<JobStateType>get("state"), 
+    				JobStateType.CANCELLED);
+    		jobUpdate.set(jobRoot.<Long>get("endTime"), endTime);
+    		jobUpdate.where(
+    				cb.equal(
+    						jobRoot.get("jobID"), 
+    						cb.parameter(String.class, "jobID")),
+    				jobRoot.get("state").in(
+    						JobStateType.NOT_STARTED, 
+    						JobStateType.IN_PROGRESS));
+    		
+    		CriteriaUpdate<ArchiveJob> archiveUpdate = 
+    				cb.createCriteriaUpdate(ArchiveJob.class);
+    		Root<ArchiveJob> archiveRoot = archiveUpdate.from(ArchiveJob.class);
+    		archiveUpdate.set(archiveRoot.<JobStateType>get("archiveState"), 
+    				JobStateType.CANCELLED);
+    		archiveUpdate.set(archiveRoot.<Long>get("endTime"), endTime);
+    		archiveUpdate.where(
+    				cb.equal(
+    						archiveRoot.get("jobID"), 
+    						cb.parameter(String.class, "jobID")),
+    				cb.equal(
+    						archiveRoot.get("archiveState"), 
+    						JobStateType.NOT_STARTED));
+    		
+    		try {
+    			getEntityManager().getTransaction().begin();
+    			Query query = getEntityManager().createQuery(jobUpdate);
+    			query.setParameter("jobID", jobID);
+    			cancelled = query.executeUpdate();
+    			if (cancelled > 0) {
+    				query = getEntityManager().createQuery(archiveUpdate);
+    				query.setParameter("jobID", jobID);
+    				query.executeUpdate();
+    			}
+    			getEntityManager().getTransaction().commit();
+    			
+    			// The bulk updates bypass the persistence context.
+    			getEntityManager().clear();
+    		}
+    		catch (RuntimeException re) {
+    			if (getEntityManager().getTransaction().isActive()) {
+    				getEntityManager().getTransaction().rollback();
+    			}
+    			LOGGER.error("Unexpected exception raised while cancelling "
+    					+ "job ID [ "
+    					+ jobID
+    					+ " ].  Exception message => [ "
+    					+ re.getMessage()
+    					+ " ].");
+    			cancelled = 0;
+    		}
+    	}
+    	return cancelled;
+    }
+    
+    /**
+     * Remove all data associated with the input list of job IDs from the 
+     * <code>FILE_ENTRY</code>, <code>ARCHIVE_JOBS</code>, and 
+     * <code>JOBS</code> tables.  The deletes are set-based (one statement 
+     * per table) and executed in a single transaction.  Callers are 
+     * responsible for bounding the size of the input list.
+     * 
+     * @param jobIDs The list of job IDs to purge.
+     * @return The number of <code>JOBS</code> records removed.
+     */
+    public int purge(List<String> jobIDs) throws ServiceUnavailableException {
+    	
+    	long startTime = System.currentTimeMillis();
+    	int  purged    = 0;
+    	
+    	if ((jobIDs != null) && (!jobIDs.isEmpty())) {
+    		
+    		CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+    		
+    		CriteriaDelete<FileEntry> fileDelete = 
+    				cb.createCriteriaDelete(FileEntry.class);
+    		Root<FileEntry> fileRoot = fileDelete.from(FileEntry.class);
+    		fileDelete.where(fileRoot.get("jobID").in(jobIDs));
+    		
+    		CriteriaDelete<ArchiveJob> archiveDelete = 
+    				cb.createCriteriaDelete(ArchiveJob.class);
+    		Root<ArchiveJob> archiveRoot = archiveDelete.from(ArchiveJob.class);
+    		archiveDelete.where(archiveRoot.get("jobID").in(jobIDs));
+    		
+    		CriteriaDelete<Job> jobDelete = cb.createCriteriaDelete(Job.class);
+    		Root<Job> jobRoot = jobDelete.from(Job.class);
+    		jobDelete.where(jobRoot.get("jobID").in(jobIDs));
+    		
+    		try {
+    			getEntityManager().getTransaction().begin();
+    			int files    = getEntityManager()
+    					.createQuery(fileDelete).executeUpdate();
+    			int archives = getEntityManager()
+    					.createQuery(archiveDelete).executeUpdate();
+    			purged       = getEntityManager()
+    					.createQuery(jobDelete).executeUpdate();
+    			getEntityManager().getTransaction().commit();
+    			
+    			// The bulk deletes bypass the persistence context.
+    			getEntityManager().clear();
+    			
+    			if (LOGGER.isDebugEnabled()) {
+    				LOGGER.debug("Purged [ "
+    						+ purged
+    						+ " ] jobs, [ "
+    						+ archives
+    						+ " ] archives and [ "
+    						+ files
+    						+ " ] file entries in [ "
+    						+ (System.currentTimeMillis() - startTime)
+    						+ " ] ms.");
+    			}
+    		}
+    		catch (RuntimeException re) {
+    			if (getEntityManager().getTransaction().isActive()) {
+    				getEntityManager().getTransaction().rollback();
+    			}
+    			LOGGER.error("Unexpected exception raised while purging [ "
+    					+ jobIDs.size()
+    					+ " ] jobs.  Exception message => [ "
+    					+ re.getMessage()
+    					+ " ].");
+    			purged = 0;
+    		}
+    	}
+    	return purged;
+    }
+    
     /**
      * Update the data in the back end database with the current contents 
      * of the Job.
@@ -177,6 +513,17 @@ public class JobService implements BundlerConstantsI, Closeable {
         return managedJob;
     }
 
+    /**
+     * Detach all entities from the persistence context so that the next 
+     * query reads the current contents of the data store.  Used before 
+     * changes that must not be based on a stale copy of the job.
+     */
+    public void clear() {
+    	if (em != null) {
+    		em.clear();
+    	}
+    }
+    
     /**
      * Persist the input Job object into the back-end data store.
      * 
@@ -1,16 +1,24 @@
 package mil.nga.bundler.services;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
+import mil.nga.bundler.ManifestCodec;
+import mil.nga.bundler.UrlGenerator;
 import mil.nga.bundler.exceptions.ServiceUnavailableException;
 import mil.nga.bundler.interfaces.ArchiveCompletionListenerI;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
 import mil.nga.bundler.messages.ArchiveMessage;
 import mil.nga.bundler.model.ArchiveJob;
 import mil.nga.bundler.model.FileEntry;
 import mil.nga.bundler.model.Job;
 import mil.nga.bundler.services.JobFactoryService.JobFactoryServiceBuilder;
 import mil.nga.bundler.types.JobStateType;
+import mil.nga.util.FileUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -104,57 +112,61 @@ public class JobTracker implements Closeable, ArchiveCompletionListenerI {
     }
     
     /**
-     * Calculate the size completed by the archive by looping through the 
-     * FileEntry objects and summing the individual size of each archive.
+     * Calculate the size completed by the archive.  Depending on the file 
+     * storage mode this either sums the individual size of each completed 
+     * FileEntry or uses the high-water mark maintained on the archive.
      * 
      * @return The total size of all files in the archive job (uncompressed).
      */
-    private long getSizeComplete(List<FileEntry> files) {
-        long sizeComplete = 0L;
-        if ((files != null) && (files.size() > 0)) {
-            for (FileEntry file : files) {
-                if (file.getFileState() == JobStateType.COMPLETE) {
-                    sizeComplete += file.getSize();
-                }
-            }
-        }
-        else {
+    private long getSizeComplete(ArchiveJob archive) {
+        if ((!archive.isManifest()) && 
+                ((archive.getFiles() == null) || 
+                        (archive.getFiles().size() == 0))) {
             LOGGER.error("Input list of files is null or contains zero files.");
         }
-        return sizeComplete;
+        return archive.calculateSizeComplete();
     }
     
     /**
-     * Calculate the number of files completed by the archive by looping 
-     * through the 
-     * FileEntry objects and summing the individual size of each archive.
+     * Calculate the number of files completed by the archive.  Depending 
+     * on the file storage mode this either counts the completed FileEntry 
+     * objects or uses the high-water mark maintained on the archive.
      * 
-     * @return The total size of all files in the archive job (uncompressed).
+     * @return The number of files completed.
+     */
+    private long getFilesComplete(ArchiveJob archive) {
+        long numFiles = archive.calculateFilesComplete();
+        if (numFiles != archive.getNumFiles()) {
+            LOGGER.warn("There is a mismatch between the number of files "
+                    + "in the input list and the number of files that "
+                    + "were compressed in the output Archive.  The input "
+                    + "list contains [ "
+                    + archive.getNumFiles()
+                    + " ] files, but [ "
+                    + numFiles
+                    + " ] were marked complete by the archive processing "
+                    + "algorithm.");
+        }
+        return numFiles;
+    }
+    
+    /**
+     * Determine whether every archive associated with the input job has 
+     * reached a terminal state.
+     * 
+     * @param job The target job.
+     * @return True if no archive processing remains for the job.
      */
-    private long getFilesComplete(List<FileEntry> files) {
-        long numFiles = 0L;
-        if ((files != null) && (files.size() > 0)) {
-            for (FileEntry file : files) {
-                if (file.getFileState() == JobStateType.COMPLETE) {
-                    numFiles++;
+    private boolean isFinished(Job job) {
+        if (job.getArchives() != null) {
+            for (ArchiveJob archive : job.getArchives()) {
+                if (!CancellationService.isTerminal(
+                        archive.getArchiveState())) {
+                    return false;
                 }
             }
-            if (numFiles != files.size()) {
-                LOGGER.warn("There is a mismatch between the number of files "
-                        + "in the input list and the number of files that "
-                        + "were compressed in the output Archive.  The input "
-                        + "list contains [ "
-                        + files.size()
-                        + " ] files, but [ "
-                        + numFiles
-                        + " ] were marked complete by the archive processing "
-                        + "algorithm.");
-            }
-        }
-        else {
-            LOGGER.error("Input list of files is null or contains zero files.");
         }
-        return numFiles;
+        return true;
     }
     
     /**
@@ -167,7 +179,8 @@ public class JobTracker implements Closeable, ArchiveCompletionListenerI {
      * @param archive The archive that has complete.  
      */
     private void checkArchive(ArchiveJob archive) { 
-        if (archive.getArchiveState() != JobStateType.COMPLETE) {
+        if ((archive.getArchiveState() != JobStateType.COMPLETE) && 
+                (archive.getArchiveState() != JobStateType.CANCELLED)) {
             LOGGER.warn("Archive complete message received for Job ID [ "
                     + archive.getJobID()
                     + " ], archive ID [ " 
@@ -189,9 +202,9 @@ public class JobTracker implements Closeable, ArchiveCompletionListenerI {
      */
     private void updateJobState(Job job, ArchiveJob archive) {
         
-        long numFiles              = getFilesComplete(archive.getFiles());
+        long numFiles              = getFilesComplete(archive);
         long totalNumFilesComplete = job.getNumFilesComplete() + numFiles;
-        long sizeComplete          = getSizeComplete(archive.getFiles());
+        long sizeComplete          = getSizeComplete(archive);
         long totalSizeComplete     = job.getTotalSizeComplete() + sizeComplete;
         int  numArchivesComplete   = getNumArchivesComplete(job);
     
@@ -226,7 +239,24 @@ public class JobTracker implements Closeable, ArchiveCompletionListenerI {
         job.setTotalSizeComplete(totalSizeComplete);
         job.setNumArchivesComplete(numArchivesComplete);
         
-        if (job.getNumArchives() == numArchivesComplete) {
+        if ((job.getState() == JobStateType.CANCELLED) || 
+                (CancellationService.getInstance().isCancelled(getJobID()))) {
+            // The cancellation flag is set before the data store is 
+            // updated so it takes precedence over a stale job state.
+            if (job.getState() != JobStateType.CANCELLED) {
+                job.setState(JobStateType.CANCELLED);
+                job.setEndTime(System.currentTimeMillis());
+            }
+            if (isFinished(job)) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("All archives for cancelled job ID [ "
+                            + job.getJobID() 
+                            + " ] have stopped.");
+                }
+                CancellationService.getInstance().release(getJobID());
+            }
+        }
+        else if (job.getNumArchives() == numArchivesComplete) {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Marking job ID [ "
                         + job.getJobID() 
@@ -234,6 +264,7 @@ public class JobTracker implements Closeable, ArchiveCompletionListenerI {
             }
             job.setState(JobStateType.COMPLETE);
             job.setEndTime(System.currentTimeMillis());
+            CancellationService.getInstance().release(getJobID());
         }
         else { 
             if (LOGGER.isDebugEnabled()) {
@@ -283,6 +314,12 @@ public class JobTracker implements Closeable, ArchiveCompletionListenerI {
                          checkArchive(archive);
                          updateJobState(job, archive);
                          getJobService().update(job);
+                         if (isFinished(job)) {
+                             // Hand the outputs to any identical jobs 
+                             // that were waiting on this one.
+                             ResultCacheService.getInstance().release(
+                                     job, getJobService());
+                         }
                      }
                      else {
                           LOGGER.error("Unable to retrieve Archive "
@@ -309,6 +346,148 @@ public class JobTracker implements Closeable, ArchiveCompletionListenerI {
 		 }
     }
     
+    /**
+     * Move the files that did not fit into an archive built with 
+     * size-exact rollover into a new archive job.  The closed archive keeps 
+     * the files that were written, and the job gains one archive.  The 
+     * new archive is named after the closed one with the new archive ID 
+     * as suffix, and is itself built with rollover.  This method is 
+     * synchronized with <code>notify()</code> so that a concurrent 
+     * completion cannot write back a copy of the job without the new 
+     * archive.
+     * 
+     * @param archiveID The archive that was closed.
+     * @param remaining The files of the archive that were not written 
+     * (in order).
+     * @return The new archive job.  Null if the archive could not be 
+     * found.
+     * @throws ServiceUnavailableException Thrown if the back-end data 
+     * store is unavailable.
+     */
+    public synchronized ArchiveJob rollover(
+            long            archiveID, 
+            List<FileEntry> remaining) throws ServiceUnavailableException {
+        
+        // Start from the current contents of the data store.
+        getJobService().clear();
+        Job        job     = getJobService().getJob(getJobID());
+        ArchiveJob archive = (job == null ? null : job.getArchive(archiveID));
+        if (archive == null) {
+            LOGGER.error("Unable to retrieve Archive associated with job ID [ "
+                    + getJobID()
+                    + " ] and archive ID [ "
+                    + archiveID
+                    + " ].  Files will not be rolled over.");
+            return null;
+        }
+        
+        long nextID = 0L;
+        for (ArchiveJob current : job.getArchives()) {
+            nextID = Math.max(nextID, current.getArchiveID() + 1L);
+        }
+        if (nextID > BundlerConstantsI.MAX_NUM_ARCHIVES) {
+            LOGGER.error("Job ID [ "
+                    + getJobID()
+                    + " ] has reached the maximum number of archives [ "
+                    + BundlerConstantsI.MAX_NUM_ARCHIVES
+                    + " ].  Files will not be rolled over.");
+            return null;
+        }
+        
+        ArchiveJob next = new ArchiveJob(
+                getJobID(), nextID, archive.getArchiveType());
+        next.setArchive(getRolloverName(
+                archive.getArchive(), archiveID, nextID));
+        next.setArchiveURL(
+                UrlGenerator.getInstance().toURL(next.getArchive()));
+        next.setHash(FileUtils.removeExtension(next.getArchive()) 
+                + "." 
+                + BundlerConstantsI.HASH_FILE_EXTENSION);
+        next.setHashURL(
+                UrlGenerator.getInstance().toURL(next.getHash()));
+        next.setArchiveState(JobStateType.NOT_STARTED);
+        next.setHostName(FileUtils.getHostName());
+        next.setRolloverLimit(archive.getRolloverLimit());
+        
+        long            size     = 0L;
+        Set<Long>       moved    = new HashSet<Long>();
+        List<FileEntry> manifest = new ArrayList<FileEntry>();
+        for (FileEntry file : remaining) {
+            FileEntry entry = new FileEntry(
+                    getJobID(), 
+                    nextID, 
+                    file.getFilePath(), 
+                    file.getEntryPath(), 
+                    file.getSize());
+            size += file.getSize();
+            moved.add(file.getID());
+            if (archive.isManifest()) {
+                manifest.add(entry);
+            }
+            else {
+                next.add(entry);
+            }
+        }
+        if (archive.isManifest()) {
+            // The manifest of the closed archive is never re-written; only 
+            // its first numFiles entries are used.
+            next.setManifest(ManifestCodec.getInstance().encode(manifest));
+        }
+        else {
+            Iterator<FileEntry> iter = archive.getFiles().iterator();
+            while (iter.hasNext()) {
+                if (moved.contains(iter.next().getID())) {
+                    iter.remove();
+                }
+            }
+        }
+        next.setNumFiles(remaining.size());
+        next.setSize(size);
+        
+        archive.setNumFiles(archive.getNumFiles() - remaining.size());
+        archive.setSize(archive.getSize() - size);
+        archive.setRolloverLimit(null);
+        job.addArchive(next);
+        job.setNumArchives(job.getNumArchives() + 1);
+        getJobService().update(job);
+        
+        LOGGER.info("Rolled [ "
+                + remaining.size()
+                + " ] files of job ID [ "
+                + getJobID()
+                + " ] over from archive ID [ "
+                + archiveID
+                + " ] to new archive ID [ "
+                + nextID
+                + " ].");
+        return next;
+    }
+    
+    /**
+     * Name the archive that receives the files rolled over from another 
+     * archive.  The suffix of the closed archive (if any) is replaced with 
+     * the new archive ID, following the <code>FileNameGenerator</code> 
+     * convention (i.e. <code>name.zip</code>, <code>name_1.zip</code>, 
+     * ...).
+     * 
+     * @param archive The name of the closed archive.
+     * @param archiveID The ID of the closed archive.
+     * @param nextID The ID of the new archive.
+     * @return The name of the new archive.
+     */
+    private static String getRolloverName(
+            String archive, 
+            long   archiveID, 
+            long   nextID) {
+        String base      = FileUtils.removeExtension(archive);
+        String extension = archive.substring(base.length());
+        String suffix    = "_" + archiveID;
+        if ((archiveID > 0) && (base.endsWith(suffix))) {
+            base = base.substring(0, base.length() - suffix.length());
+        }
+        return base + "_" + nextID + extension;
+    }
+    
     /**
      * Internal static class implementing the Builder creation pattern for 
      * new <code>JobTracker</code> objects.  This was added to force clients
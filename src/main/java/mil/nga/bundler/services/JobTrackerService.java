@@ -8,7 +8,6 @@ import mil.nga.bundler.exceptions.ServiceUnavailableException;
 import mil.nga.bundler.messages.JobTrackerMessage;
 import mil.nga.bundler.messages.JobTrackerMessage.JobTrackerMessageBuilder;
 import mil.nga.bundler.model.ArchiveJob;
-import mil.nga.bundler.model.FileEntry;
 import mil.nga.bundler.model.Job;
 import mil.nga.bundler.types.JobStateType;
 
@@ -103,6 +102,8 @@ public class JobTrackerService implements Closeable {
             builder.numArchives(job.getNumArchives());
             builder.state(job.getState());
             builder.elapsedTime(getElapsedTime(job.getStartTime(), job.getEndTime()));
+            builder.queuePosition(
+                    ArchiveQueue.getInstance().getPosition(job.getJobID()));
           
             // Calculate the remaining fields
             if ((job.getArchives() != null) && (job.getArchives().size() > 0)) {
@@ -112,14 +113,11 @@ public class JobTrackerService implements Closeable {
                         numArchivesComplete++;
                         builder.archive(archive);
                     }
-                    if ((archive.getFiles() != null) && 
-                            (archive.getFiles().size() > 0)) {
-                        for (FileEntry file : archive.getFiles()) {
-                            if (file.getFileState() == JobStateType.COMPLETE) {
-                                numFilesComplete++;
-                                totalSizeComplete += file.getSize();
-                            }
-                        }
+                    if ((archive.isManifest()) || 
+                            ((archive.getFiles() != null) && 
+                            (archive.getFiles().size() > 0))) {
+                        numFilesComplete  += archive.calculateFilesComplete();
+                        totalSizeComplete += archive.calculateSizeComplete();
                     }
                     else {
                         LOGGER.warn("Job ID [ "
@@ -167,7 +165,23 @@ public class JobTrackerService implements Closeable {
         if ((jobID != null) && (!jobID.isEmpty())) {
         	builder.jobID(jobID);
             try {
-            	getJobTrackerMessage(getJobService().getJob(jobID), builder); 
+            	Job job    = getJobService().getJob(jobID);
+            	Job leader = ResultCacheService.getInstance().follow(
+            			job, getJobService());
+            	if (leader != null) {
+            		// The job shares the archives of an identical job that 
+            		// is still in flight.  Report that job's progress.
+            		getJobTrackerMessage(leader, builder);
+            		builder.jobID(job.getJobID());
+            		builder.userName(job.getUserName());
+            	}
+            	else {
+            		if ((job != null) && (job.getLeaderJobID() != null)) {
+            			// The follower may have just been resolved.
+            			job = getJobService().getJob(jobID);
+            		}
+            		getJobTrackerMessage(job, builder);
+            	}
             }
             catch (NoResultException nre) {
             	LOGGER.warn("The database tier raised a NoResultsException "
@@ -0,0 +1,204 @@
+package mil.nga.bundler.services;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simple in-memory registry of the operational metrics maintained by the
+ * bundler.  Three kinds of metric are supported:
+ *
+ * <li>Counters - monotonically increasing values (e.g. archive jobs
+ * dispatched).</li>
+ * <li>Gauges - values that are set rather than accumulated (e.g. the
+ * current concurrency limit).</li>
+ * <li>Timers - distributions of observed values, reported as count,
+ * mean and maximum (e.g. queue wait time).</li>
+ *
+ * Metrics are exposed in plain text through the <code>/Metrics</code>
+ * end point.  Values are not persisted and are reset when the application
+ * is restarted.
+ *
+ * @author L. Craig Carpenter
+ */
+public class MetricsService {
+
+    // Private internal members
+    private final ConcurrentMap<String, AtomicLong> counters =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> gauges =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Timer>      timers =
+            new ConcurrentHashMap<String, Timer>();
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private MetricsService() { }
+
+    /**
+     * Return a singleton instance to the MetricsService object.
+     * @return The MetricsService
+     */
+    public static MetricsService getInstance() {
+        return MetricsServiceHolder.getFactorySingleton();
+    }
+
+    /**
+     * Look up (creating if necessary) the value associated with the input
+     * name.
+     *
+     * @param map The map holding the values.
+     * @param name The metric name.
+     * @return The value.
+     */
+    private static AtomicLong lookup(
+            ConcurrentMap<String, AtomicLong> map, String name) {
+        AtomicLong value = map.get(name);
+        if (value == null) {
+            AtomicLong created  = new AtomicLong(0L);
+            AtomicLong existing = map.putIfAbsent(name, created);
+            value = (existing == null ? created : existing);
+        }
+        return value;
+    }
+
+    /**
+     * Add to the named counter.
+     *
+     * @param name The metric name.
+     * @param delta The amount to add.
+     */
+    public void add(String name, long delta) {
+        lookup(counters, name).addAndGet(delta);
+    }
+
+    /**
+     * Increment the named counter.
+     *
+     * @param name The metric name.
+     */
+    public void increment(String name) {
+        add(name, 1L);
+    }
+
+    /**
+     * Set the named gauge.
+     *
+     * @param name The metric name.
+     * @param value The current value.
+     */
+    public void set(String name, long value) {
+        lookup(gauges, name).set(value);
+    }
+
+    /**
+     * Record an observation in the named timer.
+     *
+     * @param name The metric name.
+     * @param value The observed value.
+     */
+    public void record(String name, long value) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            Timer created  = new Timer();
+            Timer existing = timers.putIfAbsent(name, created);
+            timer = (existing == null ? created : existing);
+        }
+        timer.record(value);
+    }
+
+    /**
+     * Getter method for the current value of a counter or gauge.
+     *
+     * @param name The metric name.
+     * @return The current value (0 if the metric does not exist).
+     */
+    public long get(String name) {
+        AtomicLong value = counters.get(name);
+        if (value == null) {
+            value = gauges.get(name);
+        }
+        return (value == null ? 0L : value.get());
+    }
+
+    /**
+     * Overridden toString method used to output all metrics in plain
+     * text, one metric per line, sorted by name.
+     */
+    @Override
+    public String toString() {
+        String              newLine = System.getProperty("line.separator");
+        StringBuilder       sb      = new StringBuilder();
+        Map<String, String> sorted  = new TreeMap<String, String>();
+
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            sorted.put(entry.getKey(), Long.toString(entry.getValue().get()));
+        }
+        for (Map.Entry<String, AtomicLong> entry : gauges.entrySet()) {
+            sorted.put(entry.getKey(), Long.toString(entry.getValue().get()));
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            sorted.put(entry.getKey(), entry.getValue().toString());
+        }
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            sb.append(entry.getKey());
+            sb.append(" ");
+            sb.append(entry.getValue());
+            sb.append(newLine);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Simple accumulator for a distribution of observed values.
+     */
+    private static class Timer {
+        private long count = 0L;
+        private long total = 0L;
+        private long max   = 0L;
+
+        private synchronized void record(long value) {
+            count++;
+            total += value;
+            max    = Math.max(max, value);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "count="
+                    + count
+                    + " mean="
+                    + (count == 0 ? 0L : total / count)
+                    + " max="
+                    + max;
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class MetricsServiceHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static MetricsService _factory = new MetricsService();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static MetricsService getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
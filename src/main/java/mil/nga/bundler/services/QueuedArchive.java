@@ -0,0 +1,100 @@
+package mil.nga.bundler.services;
+
+/**
+ * Simple holder for an archive job waiting in the <code>ArchiveQueue</code>.
+ * 
+ * @author L. Craig Carpenter
+ */
+public class QueuedArchive {
+
+    // Private internal members
+    private final Runnable task;
+    private final String   jobID;
+    private final String   userName;
+    private final long     size;
+    private final long     space;
+    private final long     deadline;
+    private final long     enqueueTime;
+    
+    /**
+     * Constructor.
+     * 
+     * @param task The archive job to execute.
+     * @param jobID The job ID associated with the archive job.
+     * @param userName The user that submitted the job.
+     * @param size The (uncompressed) size of the archive job.
+     * @param space The estimated staging space needed by the archive job.
+     * @param deadline The client-supplied deadline (0 if none).
+     */
+    QueuedArchive(
+            Runnable task, 
+            String   jobID, 
+            String   userName, 
+            long     size, 
+            long     space, 
+            long     deadline) {
+        this.task        = task;
+        this.jobID       = jobID;
+        this.userName    = userName;
+        this.size        = size;
+        this.space       = space;
+        this.deadline    = deadline;
+        this.enqueueTime = System.currentTimeMillis();
+    }
+    
+    /**
+     * Getter method for the client-supplied deadline.
+     * @return The deadline (milliseconds since the epoch), or 0 if none.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+    
+    /**
+     * Getter method for the time the archive job was queued.
+     * @return The time the archive job was queued.
+     */
+    public long getEnqueueTime() {
+        return enqueueTime;
+    }
+    
+    /**
+     * Getter method for the job ID.
+     * @return The job ID associated with the archive job.
+     */
+    public String getJobID() {
+        return jobID;
+    }
+    
+    /**
+     * Getter method for the size of the archive job.
+     * @return The (uncompressed) size of the archive job.
+     */
+    public long getSize() {
+        return size;
+    }
+    
+    /**
+     * Getter method for the staging space needed by the archive job.
+     * @return The estimated staging space in bytes.
+     */
+    public long getSpace() {
+        return space;
+    }
+    
+    /**
+     * Getter method for the archive job itself.
+     * @return The archive job to execute.
+     */
+    Runnable getTask() {
+        return task;
+    }
+    
+    /**
+     * Getter method for the user that submitted the job.
+     * @return The user name.
+     */
+    public String getUserName() {
+        return userName;
+    }
+}
@@ -0,0 +1,420 @@
+package mil.nga.bundler.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.FileSystemFactory;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.exceptions.ServiceUnavailableException;
+import mil.nga.bundler.interfaces.ArchiveCompletionListenerI;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.model.ArchiveJob;
+import mil.nga.bundler.model.Job;
+import mil.nga.bundler.types.JobStateType;
+import mil.nga.util.FileUtils;
+
+/**
+ * Class responsible for recovering jobs that were orphaned when the
+ * application was shut down (or crashed) while they were queued or in
+ * progress.  The recovery scan runs once in a background thread at start
+ * up and does the following for each job in the <code>NOT_STARTED</code>
+ * or <code>IN_PROGRESS</code> state:
+ *
+ * <li>Any archive job that did not reach a terminal state has its partial
+ * output (archive, hash, and intermediate files) discarded and its state
+ * and progress reset.  Checkpointed TAR files are kept and resumed.</li>
+ * <li>The unfinished archive jobs are re-submitted for processing.</li>
+ *
+ * Jobs are recovered in priority order: jobs that were already in progress
+ * are recovered before jobs that were never started, and older jobs are
+ * recovered first.  Archive jobs are restarted at a throttled rate and
+ * recovery waits while the number of in-progress archive jobs is at the
+ * configured limit so that recovery does not stampede the disks.
+ *
+ * Note: In deployments where multiple bundler instances share a single
+ * data store, each archive job is stamped with the host that accepted the
+ * job when it is queued.  Only jobs whose archives are all owned by this
+ * host are recovered; jobs queued or processed by another host (or
+ * created before archives were stamped at queue time) are left alone.
+ *
+ * @author L. Craig Carpenter
+ */
+public class RecoveryService
+        extends PropertyLoader
+        implements Runnable, BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            RecoveryService.class);
+
+    /**
+     * Job states that are candidates for recovery.
+     */
+    private static final List<JobStateType> RECOVERABLE_STATES =
+            Arrays.asList(JobStateType.IN_PROGRESS, JobStateType.NOT_STARTED);
+
+    // Private internal members.
+    private final boolean enabled;
+    private final long    delay;
+    private final long    maxActive;
+
+    /**
+     * Flag ensuring the recovery scan runs only once.
+     */
+    private boolean started = false;
+
+    /**
+     * The thread running the recovery scan (null once stopped).
+     */
+    private Thread thread = null;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.  The
+     * configuration is read from the bundler properties file.
+     */
+    private RecoveryService() {
+        super(PROPERTY_FILE_NAME);
+        String value = null;
+        try {
+            value = getProperty(RECOVERY_ENABLED_PROPERTY);
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        enabled   = ((value == null) ||
+                (!value.trim().equalsIgnoreCase("false")));
+        delay     = getLongProperty(
+                RECOVERY_DELAY_PROPERTY,
+                DEFAULT_RECOVERY_DELAY);
+        maxActive = Math.max(1L, getLongProperty(
+                RECOVERY_MAX_ACTIVE_PROPERTY,
+                DEFAULT_RECOVERY_MAX_ACTIVE));
+    }
+
+    /**
+     * Return a singleton instance to the RecoveryService object.
+     * @return The RecoveryService
+     */
+    public static RecoveryService getInstance() {
+        return RecoveryServiceHolder.getFactorySingleton();
+    }
+
+    /**
+     * Start the recovery scan in a background thread.  Subsequent calls
+     * have no effect.
+     */
+    public synchronized void start() {
+        if (!enabled) {
+            LOGGER.info("Start up job recovery is disabled.");
+        }
+        else if (!started) {
+            started = true;
+            thread  = new Thread(this, "bundler-recovery");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Interrupt the recovery scan if it is still running.  The jobs not 
+     * yet recovered are left for the next start up.
+     */
+    public synchronized void stop() {
+        if ((thread != null) && (thread.isAlive())) {
+            LOGGER.info("Stopping start up job recovery.");
+            thread.interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Sleep for the configured delay.
+     *
+     * @return False if the thread was interrupted.
+     */
+    private boolean pause() {
+        try {
+            Thread.sleep(Math.max(0L, delay));
+            return true;
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Wait until the number of in-progress archive jobs drops below the
+     * configured limit.
+     *
+     * @return False if the thread was interrupted.
+     */
+    private boolean throttle() {
+        while (BundlerService.getActiveArchiveCount() >= maxActive) {
+            if (!pause()) {
+                return false;
+            }
+        }
+        return pause();
+    }
+
+    /**
+     * Determine whether the input job can be recovered by this host.  A job
+     * is considered local only if every one of its archives is owned by
+     * this host.  Archives without an owner are not claimed, since there
+     * is no way to tell which host queued them.
+     *
+     * @param job The candidate job.
+     * @return True if this host should recover the job.
+     */
+    private boolean isLocal(Job job) {
+        String host = FileUtils.getHostName();
+        if ((job.getArchives() == null) || (job.getArchives().isEmpty())) {
+            return false;
+        }
+        for (ArchiveJob archive : job.getArchives()) {
+            if ((archive.getHostName() == null) ||
+                    (!archive.getHostName().equalsIgnoreCase(host))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether the input archive job needs to be re-processed.
+     *
+     * @param archive The candidate archive job.
+     * @return True if the archive job did not reach a terminal state.
+     */
+    private boolean isUnfinished(ArchiveJob archive) {
+        return (!CancellationService.isTerminal(archive.getArchiveState()));
+    }
+
+    /**
+     * Sort the candidate jobs into priority order.  Jobs that were in
+     * progress come first, then jobs that were never started.  Within each
+     * group older jobs come first.
+     *
+     * @param jobs The candidate jobs.
+     */
+    private void prioritize(List<Job> jobs) {
+        Collections.sort(jobs, new Comparator<Job>() {
+            @Override
+            public int compare(Job a, Job b) {
+                boolean aRunning = (a.getState() == JobStateType.IN_PROGRESS);
+                boolean bRunning = (b.getState() == JobStateType.IN_PROGRESS);
+                if (aRunning != bRunning) {
+                    return (aRunning ? -1 : 1);
+                }
+                long aStart = (a.getStartTime() > 0 ?
+                        a.getStartTime() : Long.MAX_VALUE);
+                long bStart = (b.getStartTime() > 0 ?
+                        b.getStartTime() : Long.MAX_VALUE);
+                return Long.compare(aStart, bStart);
+            }
+        });
+    }
+
+    /**
+     * Discard the partial output of an interrupted archive job and reset
+     * its state so that it can be processed again.  Checkpointed TAR files
+     * are retained so the archiver can resume from the last checkpoint
+     * rather than starting from the beginning.
+     *
+     * @param archive The archive job to reset.
+     * @param fileService Service used to reset the individual file states.
+     */
+    private void reset(ArchiveJob archive, FileEntryService fileService)
+            throws ServiceUnavailableException {
+        BundlerService.deleteOutputs(archive, true);
+        archive.setArchiveState(JobStateType.NOT_STARTED);
+        archive.setHostName(FileUtils.getHostName());
+        archive.setStartTime(0L);
+        archive.setEndTime(0L);
+        if (archive.isManifest()) {
+            archive.setFilesComplete(0L);
+            archive.setSizeComplete(0L);
+        }
+        else {
+            fileService.resetState(
+                    archive.getJobID(),
+                    archive.getArchiveID(),
+                    JobStateType.NOT_STARTED);
+        }
+    }
+
+    /**
+     * Recover a single job.
+     *
+     * @param job The job to recover.
+     * @param jobService Service used to update the job.
+     * @param fileService Service used to reset the individual file states.
+     * @return False if recovery was interrupted.
+     */
+    private boolean recover(
+            Job              job,
+            JobService       jobService,
+            FileEntryService fileService) throws ServiceUnavailableException {
+
+        List<ArchiveJob> pending = new ArrayList<ArchiveJob>();
+        for (ArchiveJob archive : job.getArchives()) {
+            if (isUnfinished(archive)) {
+                reset(archive, fileService);
+                pending.add(archive);
+            }
+        }
+        Collections.sort(pending, new Comparator<ArchiveJob>() {
+            @Override
+            public int compare(ArchiveJob a, ArchiveJob b) {
+                return Long.compare(a.getArchiveID(), b.getArchiveID());
+            }
+        });
+
+        if (job.getState() == JobStateType.NOT_STARTED) {
+            job.setStartTime(System.currentTimeMillis());
+        }
+        job.setState(JobStateType.IN_PROGRESS);
+        jobService.update(job);
+
+        ArchiveCompletionListenerI listener =
+                new JobTracker.JobTrackerBuilder()
+                    .jobID(job.getJobID())
+                    .build();
+
+        if (pending.isEmpty()) {
+            // Every archive reached a terminal state but the job tracker
+            // never saw the final notification.  Replay it.
+            if (!job.getArchives().isEmpty()) {
+                listener.notify(job.getArchives().get(0).getArchiveID());
+            }
+        }
+        else {
+            LOGGER.info("Recovering job ID [ "
+                    + job.getJobID()
+                    + " ].  Restarting [ "
+                    + pending.size()
+                    + " ] of [ "
+                    + job.getArchives().size()
+                    + " ] archive jobs.");
+            for (ArchiveJob archive : pending) {
+                if (!throttle()) {
+                    return false;
+                }
+                new BundlerService.BundlerServiceBuilder()
+                        .jobID(archive.getJobID())
+                        .archiveID(archive.getArchiveID())
+                        .size(archive.getSize())
+                        .userName(job.getUserName())
+                        .deadline(job.getDeadline())
+                        .archiveType(archive.getArchiveType())
+                        .completionListener(listener)
+                        .build()
+                        .start();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Execute the recovery scan.
+     */
+    @Override
+    public void run() {
+
+        long startTime = System.currentTimeMillis();
+        int  recovered = 0;
+
+        // Ensure the S3 file system provider is loaded.
+        FileSystemFactory.getInstance().loadS3Filesystem();
+
+        try (JobService jobService = new JobService();
+             FileEntryService fileService = new FileEntryService()) {
+
+            List<Job> jobs = new ArrayList<Job>(
+                    jobService.getJobsByState(RECOVERABLE_STATES));
+            prioritize(jobs);
+
+            LOGGER.info("Start up recovery found [ "
+                    + jobs.size()
+                    + " ] unfinished jobs.");
+
+            for (Job job : jobs) {
+                if (job.getLeaderJobID() != null) {
+                    // Jobs sharing the archives of another job are 
+                    // resolved when that job finishes (or now, if it 
+                    // already has).
+                    ResultCacheService.getInstance().follow(job, jobService);
+                    continue;
+                }
+                if (!isLocal(job)) {
+                    LOGGER.info("Job ID [ "
+                            + job.getJobID()
+                            + " ] is not owned by this host.  "
+                            + "Job will not be recovered.");
+                    continue;
+                }
+                if (!recover(job, jobService, fileService)) {
+                    LOGGER.warn("Start up recovery interrupted.");
+                    break;
+                }
+                recovered++;
+            }
+        }
+        catch (ServiceUnavailableException sue) {
+            LOGGER.error("Internal system failure.  JPA service "
+                    + "is unavailable.  Exception message => [ "
+                    + sue.getMessage()
+                    + " ].");
+        }
+        catch (RuntimeException re) {
+            LOGGER.error("Unexpected exception raised during start up "
+                    + "recovery.  Exception message => [ "
+                    + re.getMessage()
+                    + " ].", re);
+        }
+        LOGGER.info("Start up recovery complete.  Recovered [ "
+                + recovered
+                + " ] jobs in [ "
+                + (System.currentTimeMillis() - startTime)
+                + " ] ms.");
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class RecoveryServiceHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static RecoveryService _factory = new RecoveryService();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static RecoveryService getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
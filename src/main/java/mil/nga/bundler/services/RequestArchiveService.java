@@ -206,6 +206,36 @@ public class RequestArchiveService
         }
     }
     
+    /**
+     * Remove the archived request associated with the input job ID.  This 
+     * is invoked by the retention engine when the job is purged.
+     * 
+     * @param jobID The job ID associated with the archived request.
+     */
+    public void deleteRequest(String jobID) {
+    	if ((getOutputPath() != null) && 
+    			(jobID != null) && (!jobID.isEmpty())) {
+    		URI file = getFilePath(jobID);
+    		try {
+    			if (Files.deleteIfExists(Paths.get(file))) {
+    				if (LOGGER.isDebugEnabled()) {
+    					LOGGER.debug("Deleted archived request [ "
+    							+ file.toString()
+    							+ " ].");
+    				}
+    			}
+    		}
+    		catch (IOException ioe) {
+    			LOGGER.warn("Unexpected IOException encountered while "
+    					+ "attempting to delete the archived request [ "
+    					+ file.toString()
+    					+ " ].  Error message [ "
+    					+ ioe.getMessage()
+    					+ " ].");
+    		}
+    	}
+    }
+    
     /**
      * External interface used to marshal a BundleRequestMessage into a JSON-based
      * String and then store the results in an on-disk file.
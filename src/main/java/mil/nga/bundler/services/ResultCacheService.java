@@ -0,0 +1,926 @@
+package mil.nga.bundler.services;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.UrlGenerator;
+import mil.nga.bundler.archive.ZipArchiver;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.exceptions.ServiceUnavailableException;
+import mil.nga.bundler.interfaces.ArchiveCompletionListenerI;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.model.ArchiveJob;
+import mil.nga.bundler.model.FileEntry;
+import mil.nga.bundler.model.Job;
+import mil.nga.bundler.types.ArchiveType;
+import mil.nga.bundler.types.JobStateType;
+import mil.nga.util.FileUtils;
+import mil.nga.util.URIUtils;
+
+/**
+ * Cache of job results keyed by a fingerprint of the request.  Clients
+ * frequently submit the same request more than once (e.g. re-running a
+ * download); rather than bundling the same files again, a new job whose
+ * fingerprint matches a completed job reuses that job's archives.
+ *
+ * The fingerprint is a SHA-256 hash over the validated file list (sorted,
+ * so the order of the request does not matter), the entry path, size and
+ * modification time of each file, and the archive options (type, maximum
+ * archive size, output file name, rollover and split volumes).  A changed
+ * source file therefore produces a different fingerprint.
+ *
+ * On a hit the outputs of the completed job (archives, split volumes and
+ * hash files) are hard linked into the new job's staging directory, or
+ * copied if a link cannot be created, so each job keeps its own files
+ * and the retention engine can remove either job independently.  The new
+ * job is recorded as complete without starting any archive jobs.  A
+ * completed job whose outputs are no longer in the staging area (e.g.
+ * removed by the retention engine) is ignored.  Only outputs on the
+ * local file system are reused.
+ *
+ * Identical requests also arrive while the first is still being built
+ * (double submissions, client retries).  When coalescing is enabled the
+ * first job with a given fingerprint is registered as in flight and a
+ * later identical request becomes a follower: it gets its own job ID but
+ * no archive jobs, and its status mirrors the leader's progress.  When
+ * the leader completes its outputs are linked into each follower's
+ * directory as above.  If the leader does not complete (e.g. it was
+ * cancelled by its own client) the followers are started on their own
+ * using the leader's archive plan.  A follower that was persisted after
+ * the leader finished is resolved the next time its status is requested
+ * (or at start up recovery).  The in-flight registry is held in memory
+ * so requests are only coalesced within one bundler instance.
+ *
+ * The cache is disabled unless <code>bundler.result_cache.enabled</code>
+ * is set, and coalescing unless <code>bundler.result_cache.coalesce</code>
+ * is set.
+ *
+ * @author L. Craig Carpenter
+ */
+public class ResultCacheService extends PropertyLoader
+        implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            ResultCacheService.class);
+
+    /**
+     * The number of completed jobs with a matching fingerprint to check
+     * for available outputs.
+     */
+    private static final int MAX_CANDIDATES = 5;
+
+    // Private internal members
+    private boolean enabled  = false;
+    private boolean coalesce = false;
+
+    /**
+     * Map of the fingerprint of each in-flight leader job to its job ID.
+     */
+    private final Map<String, String> inFlight =
+            new HashMap<String, String>();
+
+    /**
+     * IDs of the follower jobs currently being resolved.
+     */
+    private final Set<String> resolving = new HashSet<String>();
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private ResultCacheService() {
+        super(PROPERTY_FILE_NAME);
+        try {
+            String value = getProperty(RESULT_CACHE_PROPERTY);
+            enabled = ((value != null) &&
+                    (value.trim().equalsIgnoreCase("true")));
+            value = getProperty(COALESCE_PROPERTY);
+            coalesce = ((value != null) &&
+                    (value.trim().equalsIgnoreCase("true")));
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        if (enabled) {
+            LOGGER.info("Job result cache enabled.");
+        }
+        if (coalesce) {
+            LOGGER.info("Coalescing of duplicate requests enabled.");
+        }
+    }
+
+    /**
+     * Return a singleton instance to the ResultCacheService object.
+     * @return The ResultCacheService
+     */
+    public static ResultCacheService getInstance() {
+        return ResultCacheServiceHolder.getFactorySingleton();
+    }
+
+    /**
+     * Determine whether the result cache is enabled.
+     *
+     * @return True if completed jobs are reused.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Determine whether duplicate in-flight requests are coalesced.
+     *
+     * @return True if duplicate requests share the leader's archives.
+     */
+    public boolean isCoalescing() {
+        return coalesce;
+    }
+
+    /**
+     * Calculate the fingerprint of a request.
+     *
+     * @param files The validated list of files in the request.
+     * @param type The type of output archive.
+     * @param maxSize The maximum archive size (in MB).
+     * @param outputFilename The client-supplied output file name (may be
+     * null).
+     * @param rollover True if the job uses size-exact rollover.
+     * @param splitVolumes True if the job is written as a split archive.
+     * @return The fingerprint (a hex-encoded SHA-256 hash), or null if the
+     * cache and coalescing are disabled or the modification time of a file could not be
+     * determined.
+     */
+    public String getFingerprint(
+            List<FileEntry> files,
+            ArchiveType     type,
+            long            maxSize,
+            String          outputFilename,
+            boolean         rollover,
+            boolean         splitVolumes) {
+
+        if (((!isEnabled()) && (!isCoalescing())) ||
+                (files == null) ||
+                (files.isEmpty())) {
+            return null;
+        }
+        List<String> entries = new ArrayList<String>(files.size());
+        for (FileEntry file : files) {
+            try {
+                // Use the modification time recorded during validation;
+                // only look it up if it was not recorded.
+                long lastModified = file.getLastModified();
+                if (lastModified < 0L) {
+                    lastModified = Files.getLastModifiedTime(
+                            Paths.get(URIUtils.getInstance().getURI(
+                                    file.getFilePath()))).toMillis();
+                }
+                entries.add(file.getFilePath()
+                        + "|"
+                        + (file.getEntryPath() == null ?
+                                "" : file.getEntryPath())
+                        + "|"
+                        + file.getSize()
+                        + "|"
+                        + lastModified);
+            }
+            catch (IOException | RuntimeException e) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Unable to determine the modification "
+                            + "time of file [ "
+                            + file.getFilePath()
+                            + " ].  The request will not be fingerprinted.  "
+                            + "Exception message => [ "
+                            + e.getMessage()
+                            + " ].");
+                }
+                return null;
+            }
+        }
+        Collections.sort(entries);
+
+        Charset       utf8   = Charset.forName("UTF-8");
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update((type
+                + "|"
+                + maxSize
+                + "|"
+                + (outputFilename == null ? "" : outputFilename)
+                + "|"
+                + rollover
+                + "|"
+                + splitVolumes
+                + "\n").getBytes(utf8));
+        for (String entry : entries) {
+            digest.update((entry + "\n").getBytes(utf8));
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Look for a completed job with the same fingerprint as the input job
+     * and, if its outputs are still in the staging area, reuse them.  On
+     * success the archive jobs of the input job are replaced with
+     * completed copies of the archive jobs of the earlier job and the
+     * input job is marked complete.  The input job is not modified
+     * otherwise.
+     *
+     * @param job The new (not yet persisted) job.
+     * @param service The service used to look up completed jobs.
+     * @return True if the job was satisfied from the cache.
+     */
+    public boolean reuse(Job job, JobService service) {
+
+        if ((!isEnabled()) ||
+                (job == null) ||
+                (service == null) ||
+                (job.getFingerprint() == null) ||
+                (job.getState() != JobStateType.NOT_STARTED) ||
+                (job.getArchives() == null) ||
+                (job.getArchives().isEmpty())) {
+            return false;
+        }
+
+        long startTime = System.currentTimeMillis();
+        try {
+            Path dir = getPath(job.getArchives().get(0).getArchive())
+                    .getParent();
+            if ((dir == null) ||
+                    (dir.getFileSystem() != FileSystems.getDefault())) {
+                return false;
+            }
+            for (Job cached : service.getCompletedJobs(
+                    job.getFingerprint(), MAX_CANDIDATES)) {
+                if (cached.getJobID().equals(job.getJobID())) {
+                    continue;
+                }
+                List<Path> outputs = getOutputs(cached);
+                if (outputs == null) {
+                    continue;
+                }
+                List<ArchiveJob> archives = copyArchives(
+                        cached, job.getJobID(), dir);
+                if (link(outputs, dir)) {
+                    complete(job, archives);
+                    MetricsService.getInstance().increment(
+                            "result_cache.hits");
+                    LOGGER.info("Job ID [ "
+                            + job.getJobID()
+                            + " ] reused the [ "
+                            + outputs.size()
+                            + " ] output files of completed job ID [ "
+                            + cached.getJobID()
+                            + " ] in [ "
+                            + (System.currentTimeMillis() - startTime)
+                            + " ] ms.");
+                    return true;
+                }
+            }
+        }
+        catch (ServiceUnavailableException | RuntimeException e) {
+            LOGGER.warn("Unexpected exception raised while looking up "
+                    + "the result cache for job ID [ "
+                    + job.getJobID()
+                    + " ].  The job will be built.  Exception message => [ "
+                    + e.getMessage()
+                    + " ].");
+        }
+        MetricsService.getInstance().increment("result_cache.misses");
+        return false;
+    }
+
+    /**
+     * Convert the String URI of an output file to a Path.
+     *
+     * @param file The String URI.
+     * @return The path.
+     */
+    private static Path getPath(String file) {
+        return Paths.get(URIUtils.getInstance().getURI(file));
+    }
+
+    /**
+     * Collect the output files of a completed job: the volumes of each
+     * split archive, each archive and each hash file.
+     *
+     * @param job The completed job.
+     * @return The output files, or null if any of the outputs is not
+     * a local file that still exists.
+     */
+    private List<Path> getOutputs(Job job) {
+        List<Path> outputs = new ArrayList<Path>();
+        if ((job.getArchives() == null) || (job.getArchives().isEmpty())) {
+            return null;
+        }
+        for (ArchiveJob archive : job.getArchives()) {
+            if ((archive.getArchiveState() != JobStateType.COMPLETE) ||
+                    (archive.getArchive() == null) ||
+                    (archive.getArchive().isEmpty())) {
+                return null;
+            }
+            Path output = getPath(archive.getArchive());
+            for (int i=1; i<archive.getNumVolumes(); i++) {
+                outputs.add(ZipArchiver.getVolume(output, i));
+            }
+            outputs.add(output);
+            if ((archive.getHash() != null) && (!archive.getHash().isEmpty())) {
+                outputs.add(getPath(archive.getHash()));
+            }
+        }
+        for (Path output : outputs) {
+            if ((output.getFileSystem() != FileSystems.getDefault()) ||
+                    (!Files.isRegularFile(output))) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Output [ "
+                            + output.toString()
+                            + " ] of completed job ID [ "
+                            + job.getJobID()
+                            + " ] is not available in the staging area.");
+                }
+                return null;
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * Hard link the input files into the target directory, copying any
+     * file that cannot be linked (e.g. a different file system).  If any
+     * file cannot be linked or copied the files already created are
+     * removed.
+     *
+     * @param outputs The files to link.
+     * @param dir The target directory.
+     * @return True if all of the files were linked or copied.
+     */
+    private boolean link(List<Path> outputs, Path dir) {
+        List<Path> created = new ArrayList<Path>();
+        try {
+            Files.createDirectories(dir);
+            for (Path output : outputs) {
+                Path target = dir.resolve(output.getFileName().toString());
+                Files.deleteIfExists(target);
+                try {
+                    Files.createLink(target, output);
+                }
+                catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(output, target,
+                            StandardCopyOption.REPLACE_EXISTING);
+                    MetricsService.getInstance().increment(
+                            "result_cache.copies");
+                }
+                created.add(target);
+            }
+            return true;
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("Unexpected IOException raised while linking "
+                    + "cached outputs into [ "
+                    + dir.toString()
+                    + " ].  Exception message => [ "
+                    + ioe.getMessage()
+                    + " ].");
+            for (Path target : created) {
+                try {
+                    Files.deleteIfExists(target);
+                }
+                catch (IOException e) {
+                    LOGGER.warn("Unable to remove [ "
+                            + target.toString()
+                            + " ].  Exception message => [ "
+                            + e.getMessage()
+                            + " ].");
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Coalesce the input job with an identical job that is still in
+     * flight.  If there is none, the input job will be built as usual and
+     * should be registered as the leader for its fingerprint once it has
+     * been persisted (see <code>register()</code>).  Otherwise the input
+     * job becomes a follower of the leader: its archive jobs are dropped
+     * and it is marked in progress.  Its archives are supplied when the
+     * leader finishes (see <code>release()</code>).
+     *
+     * @param job The new (not yet persisted) job.
+     * @param service The service used to look up the leader.
+     * @return True if the job is a follower and must not be started.
+     */
+    public synchronized boolean attach(Job job, JobService service) {
+
+        if ((!isCoalescing()) ||
+                (job == null) ||
+                (service == null) ||
+                (job.getFingerprint() == null) ||
+                (job.getState() != JobStateType.NOT_STARTED)) {
+            return false;
+        }
+
+        String leaderID = inFlight.get(job.getFingerprint());
+        if (leaderID != null) {
+            try {
+                // The registry entry is normally removed when the leader
+                // finishes; don't follow a leader that has already done so
+                // or that is no longer in the data store.
+                Job leader = service.getJob(leaderID);
+                if ((leader == null) || (isFinished(leader))) {
+                    inFlight.remove(job.getFingerprint());
+                    leaderID = null;
+                }
+            }
+            catch (ServiceUnavailableException | RuntimeException e) {
+                leaderID = null;
+            }
+        }
+        if (leaderID == null) {
+            return false;
+        }
+
+        job.setLeaderJobID(leaderID);
+        if (job.getArchives() != null) {
+            job.getArchives().clear();
+        }
+        job.setState(JobStateType.IN_PROGRESS);
+        job.setStartTime(System.currentTimeMillis());
+        MetricsService.getInstance().increment("result_cache.coalesced");
+        LOGGER.info("Job ID [ "
+                + job.getJobID()
+                + " ] is identical to in-flight job ID [ "
+                + leaderID
+                + " ] and will share its archives.");
+        return true;
+    }
+
+    /**
+     * Register the input job as the in-flight leader for its fingerprint.
+     * Called after the job has been persisted so that an identical
+     * request never follows a job that is not in the data store.  If
+     * another leader was registered in the meantime it is kept.
+     *
+     * @param job The persisted job that will be built.
+     */
+    public synchronized void register(Job job) {
+        if ((isCoalescing()) &&
+                (job != null) &&
+                (job.getFingerprint() != null) &&
+                (job.getLeaderJobID() == null) &&
+                (job.getState() == JobStateType.NOT_STARTED) &&
+                (!inFlight.containsKey(job.getFingerprint()))) {
+            inFlight.put(job.getFingerprint(), job.getJobID());
+        }
+    }
+
+    /**
+     * Called when every archive job of the input job has reached a
+     * terminal state.  The job is removed from the in-flight registry and
+     * its followers are completed (or started on their own if the job
+     * did not complete).
+     *
+     * @param job The finished job.
+     * @param service The service used to update the followers.
+     */
+    public void release(Job job, JobService service) {
+
+        if ((job == null) || (service == null)) {
+            return;
+        }
+        synchronized (this) {
+            if ((job.getFingerprint() != null) &&
+                    (job.getJobID().equals(
+                            inFlight.get(job.getFingerprint())))) {
+                inFlight.remove(job.getFingerprint());
+            }
+        }
+        if (isCoalescing()) {
+            try {
+                List<String> followers = new ArrayList<String>();
+                for (Job follower : service.getFollowers(job.getJobID())) {
+                    followers.add(follower.getJobID());
+                }
+                for (String followerID : followers) {
+                    resolve(followerID, job, service);
+                }
+            }
+            catch (ServiceUnavailableException | RuntimeException e) {
+                LOGGER.error("Unexpected exception raised while "
+                        + "releasing the followers of job ID [ "
+                        + job.getJobID()
+                        + " ].  Exception message => [ "
+                        + e.getMessage()
+                        + " ].");
+            }
+        }
+    }
+
+    /**
+     * Check on the leader of a follower job.  If the leader has finished
+     * but the follower was not resolved (e.g. it was persisted after the
+     * leader finished, or the bundler was restarted) the follower is
+     * resolved now.
+     *
+     * @param job The job.
+     * @param service The service used to look up and update the jobs.
+     * @return The leader if it is still in flight (the caller should
+     * report the leader's progress), otherwise null.  Also null if the
+     * input job is not a follower.
+     */
+    public Job follow(Job job, JobService service) {
+
+        if ((job == null) ||
+                (service == null) ||
+                (job.getLeaderJobID() == null) ||
+                (job.getState() != JobStateType.IN_PROGRESS)) {
+            return null;
+        }
+        try {
+            Job leader = service.getJob(job.getLeaderJobID());
+            if ((leader != null) && (!isFinished(leader))) {
+                return leader;
+            }
+            resolve(job.getJobID(), leader, service);
+        }
+        catch (ServiceUnavailableException | RuntimeException e) {
+            LOGGER.error("Unexpected exception raised while checking "
+                    + "the leader of job ID [ "
+                    + job.getJobID()
+                    + " ].  Exception message => [ "
+                    + e.getMessage()
+                    + " ].");
+        }
+        return null;
+    }
+
+    /**
+     * Determine whether all of the archive jobs of the input job have
+     * reached a terminal state.
+     *
+     * @param job The job.
+     * @return True if no further archive processing will occur.
+     */
+    private static boolean isFinished(Job job) {
+        if (CancellationService.isTerminal(job.getState())) {
+            return true;
+        }
+        if ((job.getArchives() == null) || (job.getArchives().isEmpty())) {
+            return false;
+        }
+        for (ArchiveJob archive : job.getArchives()) {
+            if (!CancellationService.isTerminal(archive.getArchiveState())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolve a follower whose leader has finished.  If the leader
+     * completed and its outputs are available they are linked into the
+     * follower's directory and the follower is marked complete.
+     * Otherwise the follower is started on its own.  The follower is
+     * claimed, and re-read, so that it is only resolved once.  The lock
+     * is only held while claiming so the file system work does not block
+     * <code>attach()</code>.
+     *
+     * @param followerID The ID of the follower job.
+     * @param leader The finished leader job (null if it no longer
+     * exists).
+     * @param service The service used to update the follower.
+     * @throws ServiceUnavailableException Thrown if the back-end data
+     * store is unavailable.
+     */
+    private void resolve(
+            String     followerID,
+            Job        leader,
+            JobService service) throws ServiceUnavailableException {
+
+        synchronized (this) {
+            if (!resolving.add(followerID)) {
+                return;
+            }
+        }
+        try {
+            resolveClaimed(followerID, leader, service);
+        }
+        finally {
+            synchronized (this) {
+                resolving.remove(followerID);
+            }
+        }
+    }
+
+    /**
+     * Resolve a follower that has been claimed by the calling thread.
+     *
+     * @param followerID The ID of the follower job.
+     * @param leader The finished leader job (null if it no longer
+     * exists).
+     * @param service The service used to update the follower.
+     * @throws ServiceUnavailableException Thrown if the back-end data
+     * store is unavailable.
+     */
+    private void resolveClaimed(
+            String     followerID,
+            Job        leader,
+            JobService service) throws ServiceUnavailableException {
+
+        // Start from the current contents of the data store.
+        service.clear();
+        Job job = service.getJob(followerID);
+        if ((job == null) ||
+                (job.getLeaderJobID() == null) ||
+                (job.getState() != JobStateType.IN_PROGRESS)) {
+            return;
+        }
+        if ((leader == null) ||
+                (leader.getArchives() == null) ||
+                (leader.getArchives().isEmpty())) {
+            LOGGER.error("The leader of job ID [ "
+                    + followerID
+                    + " ] (job ID [ "
+                    + job.getLeaderJobID()
+                    + " ]) no longer exists.  Setting job state to ERROR.");
+            job.setState(JobStateType.ERROR);
+            job.setEndTime(System.currentTimeMillis());
+            service.update(job);
+            return;
+        }
+
+        Path dir = getPath(leader.getArchives().get(0).getArchive())
+                .getParent().resolveSibling(followerID);
+        if (leader.getState() == JobStateType.COMPLETE) {
+            List<Path> outputs = getOutputs(leader);
+            if (outputs != null) {
+                List<ArchiveJob> archives = copyArchives(
+                        leader, followerID, dir);
+                if (link(outputs, dir)) {
+                    complete(job, archives);
+                    service.update(job);
+                    LOGGER.info("Job ID [ "
+                            + followerID
+                            + " ] completed with the [ "
+                            + outputs.size()
+                            + " ] output files of job ID [ "
+                            + leader.getJobID()
+                            + " ].");
+                    return;
+                }
+            }
+        }
+        start(job, leader, dir, service);
+    }
+
+    /**
+     * Start a follower whose leader did not complete on its own.  The
+     * archive jobs of the leader (including any added by rollover) are
+     * copied, unstarted, to the follower and submitted for processing.
+     *
+     * @param job The follower job.
+     * @param leader The finished leader job.
+     * @param dir The staging directory of the follower.
+     * @param service The service used to update the follower.
+     * @throws ServiceUnavailableException Thrown if the back-end data
+     * store is unavailable.
+     */
+    private void start(
+            Job        job,
+            Job        leader,
+            Path       dir,
+            JobService service) throws ServiceUnavailableException {
+
+        LOGGER.info("Job ID [ "
+                + leader.getJobID()
+                + " ] did not complete.  Starting job ID [ "
+                + job.getJobID()
+                + " ] on its own.");
+        MetricsService.getInstance().increment("result_cache.promoted");
+
+        long numFiles = 0L;
+        long size     = 0L;
+        for (ArchiveJob source : leader.getArchives()) {
+            ArchiveJob target = new ArchiveJob(
+                    job.getJobID(),
+                    source.getArchiveID(),
+                    source.getArchiveType());
+            target.setArchive(dir.resolve(getPath(source.getArchive())
+                    .getFileName().toString()).toUri().toString());
+            target.setArchiveURL(
+                    UrlGenerator.getInstance().toURL(target.getArchive()));
+            if ((source.getHash() != null) && (!source.getHash().isEmpty())) {
+                target.setHash(dir.resolve(getPath(source.getHash())
+                        .getFileName().toString()).toUri().toString());
+                target.setHashURL(
+                        UrlGenerator.getInstance().toURL(target.getHash()));
+            }
+            if (source.isManifest()) {
+                target.setManifest(source.getManifest());
+            }
+            else if (source.getFiles() != null) {
+                for (FileEntry file : source.getFiles()) {
+                    target.add(new FileEntry(
+                            job.getJobID(),
+                            source.getArchiveID(),
+                            file.getFilePath(),
+                            file.getEntryPath(),
+                            file.getSize()));
+                }
+            }
+            target.setNumFiles(source.getNumFiles());
+            target.setSize(source.getSize());
+            target.setRolloverLimit(source.getRolloverLimit());
+            target.setVolumeSize(source.getVolumeSize());
+            target.setArchiveState(JobStateType.NOT_STARTED);
+            target.setHostName(FileUtils.getHostName());
+            numFiles += source.getNumFiles();
+            size     += source.getSize();
+            job.addArchive(target);
+        }
+        job.setLeaderJobID(null);
+        job.setNumArchives(job.getArchives().size());
+        job.setNumArchivesComplete(0);
+        job.setNumFiles(numFiles);
+        job.setNumFilesComplete(0L);
+        job.setTotalSize(size);
+        job.setTotalSizeComplete(0L);
+        job = service.update(job);
+
+        try {
+            Files.createDirectories(dir);
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("Unexpected IOException raised while creating "
+                    + "the output directory [ "
+                    + dir.toString()
+                    + " ].  Exception message => [ "
+                    + ioe.getMessage()
+                    + " ].");
+        }
+
+        ArchiveCompletionListenerI listener =
+                new JobTracker.JobTrackerBuilder()
+                    .jobID(job.getJobID())
+                    .build();
+        for (ArchiveJob archive : job.getArchives()) {
+            // An archive built with rollover will hold at most the
+            // rollover limit.
+            long archiveSize = (archive.getRolloverLimit() == null ?
+                    archive.getSize() :
+                    Math.min(archive.getSize(), archive.getRolloverLimit()));
+            new BundlerService.BundlerServiceBuilder()
+                    .jobID(archive.getJobID())
+                    .archiveID(archive.getArchiveID())
+                    .size(archiveSize)
+                    .userName(job.getUserName())
+                    .deadline(job.getDeadline())
+                    .archiveType(archive.getArchiveType())
+                    .completionListener(listener)
+                    .build()
+                    .start();
+        }
+    }
+
+    /**
+     * Create completed copies of the archive jobs of the cached job for a
+     * new job, pointing at the outputs linked into the new job's
+     * directory.
+     *
+     * @param cached The completed job.
+     * @param jobID The ID of the new job.
+     * @param dir The staging directory of the new job.
+     * @return The archive jobs of the new job.
+     */
+    private List<ArchiveJob> copyArchives(Job cached, String jobID, Path dir) {
+
+        long             now      = System.currentTimeMillis();
+        List<ArchiveJob> archives = new ArrayList<ArchiveJob>();
+
+        for (ArchiveJob source : cached.getArchives()) {
+            ArchiveJob target = new ArchiveJob(
+                    jobID,
+                    source.getArchiveID(),
+                    source.getArchiveType());
+            target.setArchive(dir.resolve(getPath(source.getArchive())
+                    .getFileName().toString()).toUri().toString());
+            target.setArchiveURL(
+                    UrlGenerator.getInstance().toURL(target.getArchive()));
+            if ((source.getHash() != null) && (!source.getHash().isEmpty())) {
+                target.setHash(dir.resolve(getPath(source.getHash())
+                        .getFileName().toString()).toUri().toString());
+                target.setHashURL(
+                        UrlGenerator.getInstance().toURL(target.getHash()));
+            }
+            if (source.isManifest()) {
+                target.setManifest(source.getManifest());
+            }
+            else if (source.getFiles() != null) {
+                for (FileEntry file : source.getFiles()) {
+                    FileEntry entry = new FileEntry(
+                            jobID,
+                            source.getArchiveID(),
+                            file.getFilePath(),
+                            file.getEntryPath(),
+                            file.getSize());
+                    entry.setFileState(JobStateType.COMPLETE);
+                    target.add(entry);
+                }
+            }
+            if (source.getNumVolumes() > 0) {
+                target.setNumVolumes(source.getNumVolumes());
+            }
+            target.setVolumeSize(source.getVolumeSize());
+            target.setNumFiles(source.getNumFiles());
+            target.setSize(source.getSize());
+            target.setFilesComplete(source.getNumFiles());
+            target.setSizeComplete(source.getSize());
+            target.setArchiveState(JobStateType.COMPLETE);
+            target.setStartTime(now);
+            target.setEndTime(now);
+            archives.add(target);
+        }
+        return archives;
+    }
+
+    /**
+     * Replace the archive jobs of the input job with the (completed) 
+     * archive jobs supplied and mark the job complete.
+     *
+     * @param job The new job.
+     * @param archives The completed archive jobs.
+     */
+    private void complete(Job job, List<ArchiveJob> archives) {
+
+        long now      = System.currentTimeMillis();
+        long numFiles = 0L;
+        long size     = 0L;
+
+        for (ArchiveJob archive : archives) {
+            numFiles += archive.getNumFiles();
+            size     += archive.getSize();
+        }
+        if (job.getArchives() != null) {
+            job.getArchives().clear();
+        }
+        for (ArchiveJob archive : archives) {
+            job.addArchive(archive);
+        }
+        job.setNumArchives(archives.size());
+        job.setNumArchivesComplete(archives.size());
+        job.setNumFiles(numFiles);
+        job.setNumFilesComplete(numFiles);
+        job.setTotalSize(size);
+        job.setTotalSizeComplete(size);
+        job.setState(JobStateType.COMPLETE);
+        job.setStartTime(now);
+        job.setEndTime(now);
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class ResultCacheServiceHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static ResultCacheService _factory = new ResultCacheService();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static ResultCacheService getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package mil.nga.bundler.services;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.FileSystemFactory;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.exceptions.ServiceUnavailableException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.types.JobStateType;
+import mil.nga.util.FileUtils;
+import mil.nga.util.URIUtils;
+
+/**
+ * Scheduled retention engine responsible for removing old jobs.  Each run
+ * performs the following:
+ *
+ * <li>For each job state with a configured retention window, select the
+ * oldest expired job IDs in bounded batches, delete the associated job
+ * directory (output archives and hash sidecars) from the staging area,
+ * remove the archived request, and purge the <code>FILE_ENTRY</code>,
+ * <code>ARCHIVE_JOBS</code> and <code>JOBS</code> rows using set-based
+ * deletes.</li>
+ * <li>Sweep the staging area for job directories that no longer have an
+ * associated <code>JOBS</code> record (e.g. left behind by a failed purge)
+ * and are older than the shortest retention window.</li>
+ *
+ * Purging is rate limited so that it does not compete with live archive
+ * processing.  There is a pause between batches, a cap on the number of
+ * batches per run, and batches are deferred while the number of in-progress
+ * archive jobs exceeds a configurable threshold.
+ *
+ * @author L. Craig Carpenter
+ */
+public class RetentionService
+        extends PropertyLoader
+        implements Runnable, BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            RetentionService.class);
+
+    /**
+     * Job states that are purged after the default 30 day window if no
+     * retention window is configured.
+     */
+    private static final JobStateType[] TERMINAL_STATES = {
+        JobStateType.COMPLETE,
+        JobStateType.ERROR,
+        JobStateType.INVALID_REQUEST,
+        JobStateType.CANCELLED
+    };
+
+    /**
+     * Maximum number of times a batch is deferred while the bundler is busy
+     * before the remainder of the run is abandoned.
+     */
+    private static final int MAX_DEFERRALS = 30;
+
+    /**
+     * Retention window (in milliseconds) for each job state that will be
+     * purged.
+     */
+    private final Map<JobStateType, Long> retention =
+            new EnumMap<JobStateType, Long>(JobStateType.class);
+
+    // Private internal members.
+    private final long interval;
+    private final int  batchSize;
+    private final long batchDelay;
+    private final long maxBatches;
+    private final long busyThreshold;
+    private URI        stagingArea;
+
+    /**
+     * The scheduler thread (null if the engine is not running).
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.  The
+     * configuration is read from the bundler properties file.
+     */
+    private RetentionService() {
+        super(PROPERTY_FILE_NAME);
+
+        interval      = getLongProperty(
+                RETENTION_INTERVAL_PROPERTY,
+                DEFAULT_RETENTION_INTERVAL);
+        batchSize     = (int)Math.max(1L, Math.min(1000L, getLongProperty(
+                RETENTION_BATCH_SIZE_PROPERTY,
+                DEFAULT_RETENTION_BATCH_SIZE)));
+        batchDelay    = getLongProperty(
+                RETENTION_BATCH_DELAY_PROPERTY,
+                DEFAULT_RETENTION_BATCH_DELAY);
+        maxBatches    = getLongProperty(
+                RETENTION_MAX_BATCHES_PROPERTY,
+                DEFAULT_RETENTION_MAX_BATCHES);
+        busyThreshold = getLongProperty(
+                RETENTION_BUSY_THRESHOLD_PROPERTY,
+                DEFAULT_RETENTION_BUSY_THRESHOLD);
+
+        for (JobStateType state : JobStateType.values()) {
+            long defaultDays = -1L;
+            for (JobStateType terminal : TERMINAL_STATES) {
+                if (terminal == state) {
+                    defaultDays = MILLISECONDS_PER_30_DAYS / MILLISECONDS_PER_DAY;
+                }
+            }
+            long days = getLongProperty(
+                    RETENTION_PROPERTY_PREFIX
+                        + state.getText()
+                        + RETENTION_PROPERTY_SUFFIX,
+                    defaultDays);
+            if (days > 0) {
+                retention.put(state, days * MILLISECONDS_PER_DAY);
+            }
+        }
+
+        try {
+            String staging = getProperty(STAGING_DIRECTORY_PROPERTY);
+            if ((staging != null) && (!staging.isEmpty())) {
+                stagingArea = URIUtils.getInstance().getURI(staging);
+            }
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+    }
+
+    /**
+     * Return a singleton instance to the RetentionService object.
+     * @return The RetentionService
+     */
+    public static RetentionService getInstance() {
+        return RetentionServiceHolder.getFactorySingleton();
+    }
+
+    /**
+     * Start the scheduled retention engine.  The first run occurs one
+     * interval after startup so that it does not compete with application
+     * start up (and crash recovery).
+     */
+    public synchronized void start() {
+        if (interval <= 0) {
+            LOGGER.info("Retention engine is disabled.");
+        }
+        else if (scheduler == null) {
+            LOGGER.info("Starting retention engine.  Interval [ "
+                    + interval
+                    + " ] minutes, batch size [ "
+                    + batchSize
+                    + " ], retention windows [ "
+                    + retention.toString()
+                    + " ] ms.");
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "bundler-retention");
+                            t.setDaemon(true);
+                            t.setPriority(Thread.MIN_PRIORITY);
+                            return t;
+                        }
+                    });
+            scheduler.scheduleWithFixedDelay(
+                    this, interval, interval, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Stop the scheduled retention engine.  Any in-progress run is
+     * interrupted.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            LOGGER.info("Stopping retention engine.");
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Pause between batches.
+     *
+     * @return False if the thread was interrupted (i.e. the engine is
+     * shutting down).
+     */
+    private boolean pause() {
+        try {
+            Thread.sleep(Math.max(0L, batchDelay));
+            return true;
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Wait until the number of in-progress archive jobs drops to the
+     * configured threshold.
+     *
+     * @return False if the bundler remained busy (or the thread was
+     * interrupted) and the remainder of the run should be abandoned.
+     */
+    private boolean waitForIdle() {
+        int deferrals = 0;
+        while (BundlerService.getActiveArchiveCount() > busyThreshold) {
+            if ((++deferrals > MAX_DEFERRALS) || (!pause())) {
+                LOGGER.info("Bundler is busy.  Retention processing "
+                        + "deferred until the next run.");
+                return false;
+            }
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Get the path to the staging directory associated with the input job.
+     *
+     * @param jobID The job ID.
+     * @return The job staging directory (null if the staging area is not
+     * configured).
+     */
+    private Path getJobDirectory(String jobID) {
+        Path dir = null;
+        if (stagingArea != null) {
+            dir = Paths.get(stagingArea).resolve(jobID);
+        }
+        return dir;
+    }
+
+    /**
+     * Remove the staging directory (output archives and hash sidecars) and
+     * the archived request associated with each of the input jobs.
+     *
+     * @param jobIDs The jobs to clean up.
+     */
+    private void deleteStagingData(List<String> jobIDs) {
+        for (String jobID : jobIDs) {
+            Path dir = getJobDirectory(jobID);
+            try {
+                FileUtils.delete(dir);
+            }
+            catch (IOException ioe) {
+                LOGGER.warn("Unexpected IOException raised while deleting "
+                        + "the staging directory for job ID [ "
+                        + jobID
+                        + " ].  It will be removed by the orphan sweep.  "
+                        + "Exception message => [ "
+                        + ioe.getMessage()
+                        + " ].");
+            }
+            RequestArchiveService.getInstance().deleteRequest(jobID);
+        }
+    }
+
+    /**
+     * Purge expired jobs in bounded batches.
+     *
+     * @param service The JobService used for database access.
+     * @return The number of jobs purged.
+     */
+    private long purgeExpiredJobs(JobService service)
+            throws ServiceUnavailableException {
+
+        long batches = 0L;
+        long purged  = 0L;
+        long now     = System.currentTimeMillis();
+
+        for (Map.Entry<JobStateType, Long> entry : retention.entrySet()) {
+
+            long cutoff = now - entry.getValue().longValue();
+
+            while (batches < maxBatches) {
+
+                if (!waitForIdle()) {
+                    return purged;
+                }
+
+                List<String> jobIDs = service.getExpiredJobIDs(
+                        entry.getKey(), cutoff, batchSize);
+                if ((jobIDs == null) || (jobIDs.isEmpty())) {
+                    break;
+                }
+
+                deleteStagingData(jobIDs);
+                int count = service.purge(jobIDs);
+                batches++;
+                purged += count;
+
+                if ((count == 0) || (jobIDs.size() < batchSize) ||
+                        (!pause())) {
+                    break;
+                }
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Remove job directories from the staging area that no longer have an
+     * associated <code>JOBS</code> record.  Only directories that look like
+     * job directories and that have not been modified within the shortest
+     * retention window are considered.
+     *
+     * @param service The JobService used for database access.
+     * @return The number of orphaned directories removed.
+     */
+    private long sweepOrphanedDirectories(JobService service)
+            throws ServiceUnavailableException {
+
+        long removed = 0L;
+        long limit   = batchSize * Math.max(1L, maxBatches);
+        long window  = MILLISECONDS_PER_30_DAYS;
+
+        for (Long value : retention.values()) {
+            window = Math.min(window, value.longValue());
+        }
+        long cutoff = System.currentTimeMillis() - window;
+
+        if (stagingArea != null) {
+            Path staging = Paths.get(stagingArea);
+            if (Files.isDirectory(staging)) {
+                try (DirectoryStream<Path> stream =
+                        Files.newDirectoryStream(staging)) {
+                    for (Path dir : stream) {
+                        if (removed >= limit) {
+                            break;
+                        }
+                        String name = dir.getFileName().toString();
+                        if (name.endsWith("/")) {
+                            name = name.substring(0, name.length() - 1);
+                        }
+                        if ((name.length() == JOB_ID_LENGTH) &&
+                                (Files.isDirectory(dir)) &&
+                                (Files.getLastModifiedTime(dir).toMillis()
+                                        < cutoff) &&
+                                (!service.exists(name))) {
+                            if (!waitForIdle()) {
+                                break;
+                            }
+                            LOGGER.info("Removing orphaned staging "
+                                    + "directory [ "
+                                    + dir.toString()
+                                    + " ].");
+                            FileUtils.delete(dir);
+                            RequestArchiveService.getInstance()
+                                    .deleteRequest(name);
+                            removed++;
+                        }
+                    }
+                }
+                catch (IOException ioe) {
+                    LOGGER.warn("Unexpected IOException raised while "
+                            + "sweeping the staging area [ "
+                            + stagingArea.toString()
+                            + " ].  Exception message => [ "
+                            + ioe.getMessage()
+                            + " ].");
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Execute a single retention run.  Exceptions are caught and logged so
+     * that the scheduled task is not cancelled.
+     */
+    @Override
+    public void run() {
+
+        long startTime = System.currentTimeMillis();
+
+        // Ensure the S3 file system provider is loaded.
+        FileSystemFactory.getInstance().loadS3Filesystem();
+
+        try (JobService service = new JobService()) {
+            long purged  = purgeExpiredJobs(service);
+            long removed = 0L;
+            if (!Thread.currentThread().isInterrupted()) {
+                removed = sweepOrphanedDirectories(service);
+            }
+            LOGGER.info("Retention run complete.  Purged [ "
+                    + purged
+                    + " ] jobs and removed [ "
+                    + removed
+                    + " ] orphaned staging directories in [ "
+                    + (System.currentTimeMillis() - startTime)
+                    + " ] ms.");
+        }
+        catch (ServiceUnavailableException sue) {
+            LOGGER.error("Internal system failure.  JPA service "
+                    + "is unavailable.  Exception message => [ "
+                    + sue.getMessage()
+                    + " ].");
+        }
+        catch (RuntimeException re) {
+            LOGGER.error("Unexpected exception raised during retention "
+                    + "processing.  Exception message => [ "
+                    + re.getMessage()
+                    + " ].", re);
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class RetentionServiceHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static RetentionService _factory = new RetentionService();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static RetentionService getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
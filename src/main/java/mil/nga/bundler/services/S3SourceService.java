@@ -0,0 +1,638 @@
+package mil.nga.bundler.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.FileSystemFactory;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.model.ArchiveElement;
+import mil.nga.util.S3RangedInputStream;
+
+/**
+ * Class supporting the concurrent reading of <code>s3://</code> source
+ * files.  Through the S3 file system provider each file is read with a
+ * single sequential GET, so a large object is limited to the throughput
+ * of one connection and a run of small objects is limited by the latency
+ * of each request.  With <code>bundler.s3.ranged_reads</code> enabled the
+ * archivers read S3 source files as follows:
+ *
+ * <li>Objects larger than <code>bundler.s3.range_size_mb</code> are split
+ * into ranged GETs, up to <code>bundler.s3.ranges_in_flight</code> of
+ * which are downloaded at once and reassembled in order.</li>
+ * <li>Objects no larger than <code>bundler.s3.small_object_kb</code> are
+ * fetched whole ahead of the archive, up to
+ * <code>bundler.s3.fan_out</code> files beyond the file being
+ * written.</li>
+ *
+ * All requests run on a pool of <code>bundler.s3.read_threads</code>
+ * threads shared by all archives.
+ *
+ * With <code>bundler.s3.parallel_listing</code> enabled, requested S3
+ * directories are expanded with delimited list requests: each level of
+ * sub-prefixes is listed concurrently by
+ * <code>bundler.s3.list_threads</code> threads and the object sizes are
+ * taken from the listing, so validation needs no request per object.
+ * A requested URI not ending in "/" is checked with a HEAD request first
+ * and only listed if no such object exists.
+ *
+ * S3 URIs and the end-point follow the
+ * conventions described in <code>S3UploadService</code>, so the reads can
+ * be pointed at an S3-compatible store.
+ *
+ * @author L. Craig Carpenter
+ */
+public class S3SourceService extends PropertyLoader
+        implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            S3SourceService.class);
+
+    // Private internal members
+    private final boolean         enabled;
+    private final boolean         listing;
+    private final int             rangeSize;
+    private final int             rangesInFlight;
+    private final long            smallObject;
+    private final int             fanOut;
+    private final ExecutorService executor;
+    private final ExecutorService listExecutor;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private S3SourceService() {
+        super(PROPERTY_FILE_NAME);
+        String value = null;
+        try {
+            value = getProperty(S3_RANGED_READS_PROPERTY);
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        enabled        = ((value != null) &&
+                (value.trim().equalsIgnoreCase("true")));
+        value = null;
+        try {
+            value = getProperty(S3_PARALLEL_LISTING_PROPERTY);
+        }
+        catch (PropertiesNotLoadedException pnle) { }
+        listing        = ((value != null) &&
+                (value.trim().equalsIgnoreCase("true")));
+        rangeSize      = (int)Math.min(Integer.MAX_VALUE / 2, Math.max(
+                1L, getLongProperty(S3_RANGE_SIZE_MB_PROPERTY,
+                        DEFAULT_S3_RANGE_SIZE_MB)) * BYTES_PER_MEGABYTE);
+        rangesInFlight = (int)Math.max(1L, getLongProperty(
+                S3_RANGES_IN_FLIGHT_PROPERTY,
+                DEFAULT_S3_RANGES_IN_FLIGHT));
+        smallObject    = Math.min(rangeSize, Math.max(0L, getLongProperty(
+                S3_SMALL_OBJECT_KB_PROPERTY,
+                DEFAULT_S3_SMALL_OBJECT_KB)) * 1024L);
+        fanOut         = (int)Math.max(0L, getLongProperty(
+                S3_FAN_OUT_PROPERTY,
+                DEFAULT_S3_FAN_OUT));
+        int threads = (int)Math.max(1L, getLongProperty(
+                S3_READ_THREADS_PROPERTY,
+                DEFAULT_S3_READ_THREADS));
+        executor       = newPool(threads, "bundler-s3-read-");
+        listExecutor   = newPool((int)Math.max(1L, getLongProperty(
+                S3_LIST_THREADS_PROPERTY,
+                DEFAULT_S3_LIST_THREADS)), "bundler-s3-list-");
+        if (enabled) {
+            LOGGER.info("Ranged S3 reads enabled.  Range size [ "
+                    + rangeSize
+                    + " ] bytes, [ "
+                    + rangesInFlight
+                    + " ] ranges in flight, [ "
+                    + threads
+                    + " ] read threads, small objects [ "
+                    + smallObject
+                    + " ] bytes fetched [ "
+                    + fanOut
+                    + " ] ahead.");
+        }
+        if (listing) {
+            LOGGER.info("Parallel S3 listing enabled.");
+        }
+    }
+
+    /**
+     * Create a pool of daemon threads.
+     *
+     * @param threads The number of threads.
+     * @param name The thread name prefix.
+     * @return The pool.
+     */
+    private static ExecutorService newPool(int threads, final String name) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger number = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + number.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Return a singleton instance to the S3SourceService object.
+     * @return The S3SourceService
+     */
+    public static S3SourceService getInstance() {
+        return S3SourceServiceHolder.getFactorySingleton();
+    }
+
+    /**
+     * Determine whether the input file is read by this service.
+     *
+     * @param file The source file.
+     * @return True if ranged reads are enabled and the file is on S3.
+     */
+    public boolean handles(URI file) {
+        return (enabled &&
+                (file != null) &&
+                ("s3".equalsIgnoreCase(file.getScheme())));
+    }
+
+    /**
+     * Determine whether the input URI should be expanded with
+     * <code>list()</code>.
+     *
+     * @param dir The requested file or directory.
+     * @return True if parallel listing is enabled and the URI is on S3.
+     */
+    public boolean lists(URI dir) {
+        return (listing &&
+                (dir != null) &&
+                ("s3".equalsIgnoreCase(dir.getScheme())));
+    }
+
+    /**
+     * Retrieve the metadata of an S3 object with a HEAD request.
+     *
+     * @param file The S3 object
+     * (<code>s3://&lt;end-point&gt;/&lt;bucket&gt;/&lt;key&gt;</code>).
+     * @return The metadata (size, modification time and ETag), or null if
+     * there is no such object or the URI names a bucket or ends in "/".
+     * @throws IOException Thrown if the HEAD request fails for any reason
+     * other than a missing object.
+     */
+    public ObjectMetadata head(URI file) throws IOException {
+        String path = (file.getPath() == null ? "" : file.getPath());
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        int index = path.indexOf('/');
+        if ((index <= 0) || (path.endsWith("/"))) {
+            return null;
+        }
+        MetricsService.getInstance().increment("s3.object_heads");
+        try {
+            return FileSystemFactory.getInstance().getS3Client()
+                    .getObjectMetadata(
+                            path.substring(0, index),
+                            path.substring(index + 1));
+        }
+        catch (AmazonS3Exception ase) {
+            if (ase.getStatusCode() == 404) {
+                return null;
+            }
+            throw new IOException("Unable to retrieve the metadata of [ "
+                    + file.toString()
+                    + " ].  Exception message => [ "
+                    + ase.getMessage()
+                    + " ].", ase);
+        }
+        catch (AmazonClientException ace) {
+            throw new IOException("Unable to retrieve the metadata of [ "
+                    + file.toString()
+                    + " ].  Exception message => [ "
+                    + ace.getMessage()
+                    + " ].", ace);
+        }
+    }
+
+    /**
+     * List all objects below an S3 prefix.  The prefix is listed with a
+     * "/" delimiter and each sub-prefix found is listed concurrently, so
+     * the depth of the tree rather than the number of directories bounds
+     * the time taken.  Directory marker objects (keys ending in "/") are
+     * skipped.
+     *
+     * @param dir The S3 directory
+     * (<code>s3://&lt;end-point&gt;/&lt;bucket&gt;/&lt;prefix&gt;</code>).
+     * @return The objects, sorted by key, mapped to their listing entries
+     * (size, modification time and ETag).  Empty if nothing lies below the
+     * prefix (e.g. the URI names an object).
+     * @throws IOException Thrown if a list request fails.
+     */
+    public Map<URI, S3ObjectSummary> list(URI dir) throws IOException {
+        String path = (dir.getPath() == null ? "" : dir.getPath());
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        int index = path.indexOf('/');
+        if ((index == 0) || (path.isEmpty())) {
+            throw new IOException("S3 URI [ "
+                    + dir.toString()
+                    + " ] does not identify a bucket.");
+        }
+        final String bucket = (index < 0 ? path : path.substring(0, index));
+        String       prefix = (index < 0 ? "" : path.substring(index + 1));
+        if ((!prefix.isEmpty()) && (!prefix.endsWith("/"))) {
+            prefix = prefix + "/";
+        }
+        final AmazonS3 client = FileSystemFactory.getInstance().getS3Client();
+        TreeMap<String, S3ObjectSummary> objects =
+                new TreeMap<String, S3ObjectSummary>();
+        LinkedList<Future<Listing>> pending = new LinkedList<Future<Listing>>();
+        pending.add(listExecutor.submit(new Lister(client, bucket, prefix)));
+        try {
+            while (!pending.isEmpty()) {
+                Listing result = pending.removeFirst().get();
+                for (S3ObjectSummary summary : result.objects) {
+                    if (!summary.getKey().endsWith("/")) {
+                        objects.put(summary.getKey(), summary);
+                    }
+                }
+                for (String child : result.prefixes) {
+                    pending.add(listExecutor.submit(
+                            new Lister(client, bucket, child)));
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing [ "
+                    + dir.toString()
+                    + " ].");
+        }
+        catch (ExecutionException ee) {
+            throw new IOException("Unable to list [ "
+                    + dir.toString()
+                    + " ].  Exception message => [ "
+                    + ee.getCause().getMessage()
+                    + " ].", ee.getCause());
+        }
+        finally {
+            for (Future<Listing> future : pending) {
+                future.cancel(true);
+            }
+        }
+        Map<URI, S3ObjectSummary> files =
+                new LinkedHashMap<URI, S3ObjectSummary>();
+        try {
+            for (Map.Entry<String, S3ObjectSummary> object :
+                    objects.entrySet()) {
+                files.put(new URI(
+                        dir.getScheme(),
+                        dir.getAuthority(),
+                        "/" + bucket + "/" + object.getKey(),
+                        null,
+                        null), object.getValue());
+            }
+        }
+        catch (URISyntaxException use) {
+            throw new IOException("Unable to construct the URI of an object "
+                    + "below [ "
+                    + dir.toString()
+                    + " ].  Exception message => [ "
+                    + use.getMessage()
+                    + " ].");
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Listed [ "
+                    + files.size()
+                    + " ] objects below [ "
+                    + dir.toString()
+                    + " ].");
+        }
+        return files;
+    }
+
+    /**
+     * Create a reader for the source files of one archive.
+     *
+     * @param files The files in archive order.
+     * @param from Index of the first file that will be read.
+     * @return The reader, or null if ranged reads are disabled or none of
+     * the files are on S3.
+     */
+    public Reader newReader(List<ArchiveElement> files, int from) {
+        if ((!enabled) || (files == null)) {
+            return null;
+        }
+        for (int i = from; i < files.size(); i++) {
+            if (handles(files.get(i).getURI())) {
+                return new Reader(files, from);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Open an S3 source object.  Large objects are read with concurrent
+     * ranged GETs, smaller ones with a single GET.
+     *
+     * @param file The S3 object.
+     * @param size The object size, or a negative value if not known.
+     * @return The stream.
+     * @throws IOException Thrown if the object cannot be opened.
+     */
+    public InputStream open(URI file, long size) throws IOException {
+        String[] location = S3UploadService.getBucketAndKey(file);
+        AmazonS3 client   = FileSystemFactory.getInstance().getS3Client();
+        try {
+            if (size < 0L) {
+                size = client.getObjectMetadata(location[0], location[1])
+                        .getContentLength();
+            }
+            if (size > rangeSize) {
+                MetricsService.getInstance().increment("s3.ranged_reads");
+                return new S3RangedInputStream(client, executor,
+                        location[0], location[1],
+                        size, rangeSize, rangesInFlight);
+            }
+            return client.getObject(location[0], location[1])
+                    .getObjectContent();
+        }
+        catch (AmazonClientException ace) {
+            throw new IOException("Unable to open [ "
+                    + file.toString()
+                    + " ].  Exception message => [ "
+                    + ace.getMessage()
+                    + " ].", ace);
+        }
+    }
+
+    /**
+     * Download a whole (small) object.
+     *
+     * @param file The S3 object.
+     * @param size The object size.
+     * @return The data.
+     * @throws IOException Thrown if the object cannot be read.
+     */
+    private byte[] fetch(URI file, long size) throws IOException {
+        byte[] data = new byte[(int)size];
+        int    read = 0;
+        try (InputStream in = open(file, size)) {
+            int n = 0;
+            while ((read < data.length) &&
+                    (-1 != (n = in.read(data, read, data.length - read)))) {
+                read += n;
+            }
+        }
+        if (read < data.length) {
+            throw new IOException("Short read of [ "
+                    + file.toString()
+                    + " ].  Expected [ "
+                    + size
+                    + " ] bytes, received [ "
+                    + read
+                    + " ].");
+        }
+        return data;
+    }
+
+    /**
+     * Source reader of one archive.  Each call to <code>open</code> also
+     * starts fetching the small S3 objects that follow the opened file in
+     * the archive, so their request latencies overlap.  Files should be
+     * opened in list order (the pipeline reader threads may open a few
+     * files concurrently); a file that was not fetched ahead is simply
+     * read directly.
+     */
+    public final class Reader implements Closeable {
+
+        private final List<ArchiveElement>      files;
+        private final Map<URI, Future<byte[]>>  fetched =
+                new HashMap<URI, Future<byte[]>>();
+        private int                             cursor;
+        private int                             submitted;
+        private boolean                         closed  = false;
+
+        /**
+         * Constructor.
+         *
+         * @param files The files in archive order.
+         * @param from Index of the first file that will be read.
+         */
+        private Reader(List<ArchiveElement> files, int from) {
+            this.files = files;
+            cursor     = from;
+            submitted  = from;
+        }
+
+        /**
+         * Open a source file.
+         *
+         * @param file The source file.
+         * @return The stream, or null if the file is not on S3.
+         * @throws IOException Thrown if the file cannot be opened.
+         */
+        public InputStream open(URI file) throws IOException {
+            if (!handles(file)) {
+                return null;
+            }
+            Future<byte[]> future = null;
+            long           size   = -1L;
+            synchronized (this) {
+                for (int i = cursor; i < files.size(); i++) {
+                    if (files.get(i).getURI().equals(file)) {
+                        size   = files.get(i).getSize();
+                        cursor = i + 1;
+                        break;
+                    }
+                }
+                future = fetched.remove(file);
+                fanOut();
+            }
+            if (future == null) {
+                return S3SourceService.this.open(file, size);
+            }
+            try {
+                return new ByteArrayInputStream(future.get());
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting "
+                        + "for [ "
+                        + file.toString()
+                        + " ].");
+            }
+            catch (ExecutionException ee) {
+                if (ee.getCause() instanceof IOException) {
+                    throw (IOException)ee.getCause();
+                }
+                throw new IOException(ee.getCause());
+            }
+        }
+
+        /**
+         * Start fetching the small S3 objects within
+         * <code>fan_out</code> files of the cursor.
+         */
+        private void fanOut() {
+            if (closed) {
+                return;
+            }
+            submitted = Math.max(submitted, cursor);
+            int limit = Math.min(files.size(), cursor + fanOut);
+            for (; submitted < limit; submitted++) {
+                final ArchiveElement element = files.get(submitted);
+                if ((handles(element.getURI())) &&
+                        (element.getSize() >= 0L) &&
+                        (element.getSize() <= smallObject) &&
+                        (!fetched.containsKey(element.getURI()))) {
+                    MetricsService.getInstance().increment(
+                            "s3.small_prefetched");
+                    fetched.put(element.getURI(), executor.submit(
+                            new Callable<byte[]>() {
+                                @Override
+                                public byte[] call() throws IOException {
+                                    return fetch(element.getURI(),
+                                            element.getSize());
+                                }
+                            }));
+                }
+            }
+        }
+
+        /**
+         * Cancel the objects fetched ahead that were not used.
+         */
+        @Override
+        public synchronized void close() {
+            closed = true;
+            for (Future<byte[]> future : fetched.values()) {
+                future.cancel(true);
+            }
+            fetched.clear();
+        }
+    }
+
+    /**
+     * Objects and sub-prefixes found directly below one prefix.
+     */
+    private static final class Listing {
+        private final List<S3ObjectSummary> objects  =
+                new ArrayList<S3ObjectSummary>();
+        private final List<String>          prefixes = new ArrayList<String>();
+    }
+
+    /**
+     * Task listing (all pages of) one prefix with a "/" delimiter.
+     */
+    private static final class Lister implements Callable<Listing> {
+
+        private final AmazonS3 client;
+        private final String   bucket;
+        private final String   prefix;
+
+        /**
+         * Constructor.
+         *
+         * @param client The S3 client.
+         * @param bucket The bucket.
+         * @param prefix The prefix to list ("" for the whole bucket).
+         */
+        private Lister(AmazonS3 client, String bucket, String prefix) {
+            this.client = client;
+            this.bucket = bucket;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Listing call() {
+            MetricsService.getInstance().increment("s3.list_prefixes");
+            Listing              listing = new Listing();
+            ListObjectsV2Request request = new ListObjectsV2Request()
+                    .withBucketName(bucket)
+                    .withPrefix(prefix)
+                    .withDelimiter("/");
+            ListObjectsV2Result  result  = null;
+            do {
+                result = client.listObjectsV2(request);
+                listing.objects.addAll(result.getObjectSummaries());
+                listing.prefixes.addAll(result.getCommonPrefixes());
+                request.setContinuationToken(
+                        result.getNextContinuationToken());
+            } while (result.isTruncated());
+            return listing;
+        }
+    }
+
+    /**
+     * Stop the read and list threads.  Ranged reads, prefetches and 
+     * listings still running are interrupted.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        listExecutor.shutdownNow();
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class S3SourceServiceHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static S3SourceService _factory = new S3SourceService();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static S3SourceService getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package mil.nga.bundler.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.FileSystemFactory;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.interfaces.BundlerI;
+import mil.nga.bundler.interfaces.StreamingBundlerI;
+import mil.nga.util.S3MultipartOutputStream;
+
+/**
+ * Class supporting the direct upload of output archives to S3.  When the
+ * staging area is an <code>s3://</code> URI the archivers normally write
+ * through the S3 file system provider, which spools the whole archive to
+ * a local temporary file and uploads it when the file is closed (and the
+ * hash is then calculated by reading the archive back from S3).  With
+ * <code>bundler.s3.direct_upload</code> enabled, archive types that can be
+ * streamed (ZIP, TAR, GZIP, BZIP2) are instead written straight into an
+ * S3 multipart upload:
+ *
+ * <li>Parts of <code>bundler.s3.part_size_mb</code> are uploaded in
+ * parallel by <code>bundler.s3.upload_threads</code> threads shared by all
+ * archives.</li>
+ * <li>Each archive holds at most <code>bundler.s3.max_buffered_parts</code>
+ * part buffers, bounding the memory used.</li>
+ * <li>The hash file is calculated from the data as it is uploaded.</li>
+ *
+ * S3 URIs follow the S3 file system provider convention
+ * (<code>s3://&lt;end-point&gt;/&lt;bucket&gt;/&lt;key&gt;</code>); the
+ * requests go to the end-point configured by <code>aws.s3_endpoint</code>,
+ * which may name an S3-compatible store (e.g.
+ * <code>http://localhost:9000</code> with
+ * <code>aws.s3_path_style=true</code>).
+ *
+ * @author L. Craig Carpenter
+ */
+public class S3UploadService extends PropertyLoader
+        implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            S3UploadService.class);
+
+    // Private internal members
+    private final boolean         enabled;
+    private final int             partSize;
+    private final int             maxBuffers;
+    private final ExecutorService executor;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private S3UploadService() {
+        super(PROPERTY_FILE_NAME);
+        String value = null;
+        try {
+            value = getProperty(S3_DIRECT_UPLOAD_PROPERTY);
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        enabled    = ((value != null) &&
+                (value.trim().equalsIgnoreCase("true")));
+        partSize   = (int)Math.min(Integer.MAX_VALUE / 2, Math.max(
+                S3MultipartOutputStream.MIN_PART_SIZE,
+                getLongProperty(S3_PART_SIZE_MB_PROPERTY,
+                        DEFAULT_S3_PART_SIZE_MB) * BYTES_PER_MEGABYTE));
+        maxBuffers = (int)Math.max(1L, getLongProperty(
+                S3_MAX_BUFFERED_PARTS_PROPERTY,
+                DEFAULT_S3_MAX_BUFFERED_PARTS));
+        int threads = (int)Math.max(1L, getLongProperty(
+                S3_UPLOAD_THREADS_PROPERTY,
+                DEFAULT_S3_UPLOAD_THREADS));
+        executor   = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    private final AtomicInteger number = new AtomicInteger(0);
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                                "bundler-s3-upload-" + number.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        if (enabled) {
+            LOGGER.info("Direct S3 upload enabled.  Part size [ "
+                    + partSize
+                    + " ] bytes, [ "
+                    + threads
+                    + " ] upload threads, [ "
+                    + maxBuffers
+                    + " ] buffered parts per archive.");
+        }
+    }
+
+    /**
+     * Return a singleton instance to the S3UploadService object.
+     * @return The S3UploadService
+     */
+    public static S3UploadService getInstance() {
+        return S3UploadServiceHolder.getFactorySingleton();
+    }
+
+    /**
+     * Determine whether an archive should be uploaded directly to S3.
+     *
+     * @param output The output archive.
+     * @param bundler The archiver that will build it.
+     * @return True if direct upload is enabled, the output is on S3 and
+     * the archiver can write to a stream.
+     */
+    public boolean isDirect(URI output, BundlerI bundler) {
+        return (enabled &&
+                (output != null) &&
+                ("s3".equalsIgnoreCase(output.getScheme())) &&
+                (bundler instanceof StreamingBundlerI));
+    }
+
+    /**
+     * Split an S3 URI into bucket and key.  The first path element is the
+     * bucket (the URI authority, if any, is the end-point).
+     *
+     * @param uri The S3 URI.
+     * @return The bucket and key.
+     * @throws IOException Thrown if the URI does not name an object.
+     */
+    static String[] getBucketAndKey(URI uri) throws IOException {
+        String path = (uri.getPath() == null ? "" : uri.getPath());
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        int index = path.indexOf('/');
+        if ((index <= 0) || (index == path.length() - 1)) {
+            throw new IOException("S3 URI [ "
+                    + uri.toString()
+                    + " ] does not identify a bucket and key.");
+        }
+        return new String[] {
+                path.substring(0, index), path.substring(index + 1) };
+    }
+
+    /**
+     * Open a multipart upload stream to the input S3 object.  The caller
+     * must call <code>complete()</code> or <code>abort()</code> on the
+     * stream.
+     *
+     * @param output The S3 object.
+     * @return The upload stream.
+     * @throws IOException Thrown if the URI does not name an object.
+     */
+    public S3MultipartOutputStream open(URI output) throws IOException {
+        String[] location = getBucketAndKey(output);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Opening direct upload to bucket [ "
+                    + location[0]
+                    + " ] key [ "
+                    + location[1]
+                    + " ].");
+        }
+        return new S3MultipartOutputStream(
+                FileSystemFactory.getInstance().getS3Client(),
+                executor,
+                location[0],
+                location[1],
+                partSize,
+                maxBuffers);
+    }
+
+    /**
+     * Write a small text object (e.g. the hash file) to S3.
+     *
+     * @param output The S3 object.
+     * @param text The content.
+     * @throws IOException Thrown if the object could not be written.
+     */
+    public void putText(URI output, String text) throws IOException {
+        S3MultipartOutputStream stream = open(output);
+        try (OutputStream out = stream) {
+            out.write(text.getBytes(Charset.forName("UTF-8")));
+        }
+        stream.complete();
+    }
+
+    /**
+     * Stop the upload threads.  Part uploads still running are 
+     * interrupted, which fails (and aborts) their multipart uploads.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class S3UploadServiceHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static S3UploadService _factory = new S3UploadService();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static S3UploadService getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package mil.nga.bundler.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.interfaces.SchedulingPolicyI;
+import mil.nga.bundler.types.SchedulingPolicyType;
+
+/**
+ * Scheduling policy executing the smallest waiting archive job first.  To
+ * prevent large archive jobs from starving, the effective size of each
+ * waiting archive job shrinks by <code>bundler.scheduler.aging_mb_per_minute
+ * </code> for every minute it has waited.  With the default of 1024 MB per
+ * minute a 300 GB archive job waits at most about five hours behind a
+ * steady stream of small archive jobs.
+ *
+ * Archive jobs with a client-supplied deadline are executed
+ * earliest-deadline-first ahead of those without one (unless
+ * <code>bundler.scheduler.deadlines</code> is false).
+ *
+ * @author L. Craig Carpenter
+ */
+public class ShortestFirstPolicy extends PropertyLoader
+        implements SchedulingPolicyI, BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            ShortestFirstPolicy.class);
+
+    /**
+     * Waiting archive jobs.  The effective ordering changes with time so
+     * the list is searched rather than kept sorted.
+     */
+    private final List<QueuedArchive> items = new ArrayList<QueuedArchive>();
+
+    // Private internal members
+    private final double  agingPerMs;
+    private final boolean deadlines;
+
+    /**
+     * Default constructor.
+     */
+    public ShortestFirstPolicy() {
+        super(PROPERTY_FILE_NAME);
+        agingPerMs = Math.max(0L, getLongProperty(
+                SCHEDULER_AGING_PROPERTY,
+                DEFAULT_SCHEDULER_AGING)) * (double)BYTES_PER_MEGABYTE
+                / 60000.0;
+        String value = null;
+        try {
+            value = getProperty(SCHEDULER_DEADLINES_PROPERTY);
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        deadlines = ((value == null) ||
+                (!value.trim().equalsIgnoreCase("false")));
+    }
+
+    /**
+     * Add a waiting archive job.
+     *
+     * @param archive The archive job.
+     */
+    @Override
+    public void add(QueuedArchive archive) {
+        items.add(archive);
+    }
+
+    /**
+     * Calculate the effective size of a waiting archive job.
+     *
+     * @param archive The archive job.
+     * @param now The current time.
+     * @return The size less the aging credit.
+     */
+    private double getScore(QueuedArchive archive, long now) {
+        return archive.getSize() -
+                (agingPerMs * (now - archive.getEnqueueTime()));
+    }
+
+    /**
+     * Construct a comparator ordering archive jobs by deadline (if enabled)
+     * and then by effective size.
+     *
+     * @param now The time at which effective sizes are calculated.
+     * @return The comparator.
+     */
+    private Comparator<QueuedArchive> getComparator(final long now) {
+        return new Comparator<QueuedArchive>() {
+            @Override
+            public int compare(QueuedArchive a, QueuedArchive b) {
+                if (deadlines) {
+                    boolean aHas = (a.getDeadline() > 0);
+                    boolean bHas = (b.getDeadline() > 0);
+                    if (aHas != bHas) {
+                        return (aHas ? -1 : 1);
+                    }
+                    if (aHas && (a.getDeadline() != b.getDeadline())) {
+                        return Long.compare(a.getDeadline(), b.getDeadline());
+                    }
+                }
+                int result = Double.compare(getScore(a, now), getScore(b, now));
+                if (result == 0) {
+                    result = Long.compare(
+                            a.getEnqueueTime(), b.getEnqueueTime());
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Select the waiting archive job with the earliest deadline or the
+     * smallest effective size.
+     *
+     * @param saturated Users that have reached the per-user limit.
+     * @param available The staging space available.
+     * @return The next archive job, or null if none may be selected.
+     */
+    @Override
+    public QueuedArchive next(Set<String> saturated, long available) {
+
+        Comparator<QueuedArchive> comparator =
+                getComparator(System.currentTimeMillis());
+        QueuedArchive             best       = null;
+
+        for (QueuedArchive archive : items) {
+            if ((!saturated.contains(archive.getUserName())) &&
+                    (archive.getSpace() <= available) &&
+                    ((best == null) ||
+                            (comparator.compare(archive, best) < 0))) {
+                best = archive;
+            }
+        }
+        if (best != null) {
+            Iterator<QueuedArchive> iter = items.iterator();
+            while (iter.hasNext()) {
+                if (iter.next() == best) {
+                    iter.remove();
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Calculate the current position of the first waiting archive job
+     * associated with the input job ID.
+     *
+     * @param jobID The job ID.
+     * @return The 1-based position, or 0 if not waiting.
+     */
+    @Override
+    public int getPosition(String jobID) {
+        List<QueuedArchive> sorted = new ArrayList<QueuedArchive>(items);
+        Collections.sort(sorted, getComparator(System.currentTimeMillis()));
+        for (int i = 0; i < sorted.size(); i++) {
+            if (jobID.equals(sorted.get(i).getJobID())) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Getter method for the type of policy implemented.
+     * @return SHORTEST_FIRST.
+     */
+    @Override
+    public SchedulingPolicyType getType() {
+        return SchedulingPolicyType.SHORTEST_FIRST;
+    }
+}
@@ -0,0 +1,277 @@
+package mil.nga.bundler.services;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.exceptions.PropertiesNotLoadedException;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.types.ArchiveType;
+import mil.nga.util.URIUtils;
+
+/**
+ * Class maintaining reservation-based accounting of the space in the
+ * staging area.  Previously nothing checked that the staging file system
+ * could hold the archives being built, and when it filled every in-flight
+ * archive failed at once.
+ *
+ * Before an archive job starts, the <code>ArchiveQueue</code> reserves the
+ * estimated amount of staging space it needs and the reservation is
+ * released when the archive job finishes.  Archive jobs are only
+ * dispatched when their estimate fits in the available space (the free
+ * space less the outstanding reservations).  The estimate is the
+ * uncompressed size of the archive job, doubled for the compressed types
+ * (GZIP, BZIP2) that build an intermediate TAR file before compressing it,
+ * plus <code>bundler.staging.reserve_overhead_percent</code>.
+ *
+ * While an archive job runs, the data it has already written is counted
+ * both in its reservation and against the free space, so the accounting
+ * errs on the side of caution.  To guarantee progress an archive job is
+ * always allowed to start when there are no outstanding reservations.
+ *
+ * Free space is only known when staging on the default (local) file
+ * system.  When it is unknown no archive jobs are held back.
+ *
+ * @author L. Craig Carpenter
+ */
+public class StagingSpaceManager extends PropertyLoader
+        implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            StagingSpaceManager.class);
+
+    // Private internal members
+    private final long overhead;
+    private Path       stagingArea;
+    private long       reserved     = 0L;
+    private int        reservations = 0;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private StagingSpaceManager() {
+        super(PROPERTY_FILE_NAME);
+        overhead = Math.max(0L, getLongProperty(
+                STAGING_RESERVE_OVERHEAD_PROPERTY,
+                DEFAULT_STAGING_RESERVE_OVERHEAD));
+        try {
+            String value = getProperty(STAGING_DIRECTORY_PROPERTY);
+            if ((value == null) || (value.isEmpty())) {
+                value = System.getProperty("java.io.tmpdir");
+            }
+            stagingArea = Paths.get(URIUtils.getInstance().getURI(value));
+        }
+        catch (PropertiesNotLoadedException pnle) {
+            LOGGER.error("An unexpected PropertiesNotLoadedException "
+                    + "was encountered.  Please ensure the application "
+                    + "is properly configured.  Exception message => [ "
+                    + pnle.getMessage()
+                    + " ].");
+        }
+        catch (RuntimeException re) {
+            LOGGER.warn("Unable to resolve the staging area.  Staging "
+                    + "space will not be considered when scheduling.  "
+                    + "Exception message => [ "
+                    + re.getMessage()
+                    + " ].");
+        }
+    }
+
+    /**
+     * Return a singleton instance to the StagingSpaceManager object.
+     * @return The StagingSpaceManager
+     */
+    public static StagingSpaceManager getInstance() {
+        return StagingSpaceManagerHolder.getFactorySingleton();
+    }
+
+    /**
+     * Look up the file store holding the staging area.
+     *
+     * @return The file store, or null if it cannot be determined.
+     * @throws IOException Thrown if the file store cannot be accessed.
+     */
+    private FileStore getFileStore() throws IOException {
+        if ((stagingArea != null) &&
+                (stagingArea.getFileSystem() == FileSystems.getDefault())) {
+            Path target = stagingArea;
+            while ((target != null) && (!Files.exists(target))) {
+                target = target.getParent();
+            }
+            if (target != null) {
+                return Files.getFileStore(target);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Getter method for the staging area.
+     *
+     * @return The staging area, or null if it could not be resolved.
+     */
+    public Path getStagingArea() {
+        return stagingArea;
+    }
+
+    /**
+     * Calculate the free space in the staging area.
+     *
+     * @return The usable space in bytes, or -1 if unknown.
+     */
+    public long getFreeSpace() {
+        long free = -1L;
+        try {
+            FileStore store = getFileStore();
+            if (store != null) {
+                free = store.getUsableSpace();
+            }
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("Unable to determine the free space in the "
+                    + "staging area [ "
+                    + stagingArea.toString()
+                    + " ].  Exception message => [ "
+                    + ioe.getMessage()
+                    + " ].");
+        }
+        return free;
+    }
+
+    /**
+     * Calculate the total size of the staging file system.
+     *
+     * @return The total space in bytes, or -1 if unknown.
+     */
+    public long getTotalSpace() {
+        long total = -1L;
+        try {
+            FileStore store = getFileStore();
+            if (store != null) {
+                total = store.getTotalSpace();
+            }
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("Unable to determine the size of the staging area "
+                    + "[ "
+                    + stagingArea.toString()
+                    + " ].  Exception message => [ "
+                    + ioe.getMessage()
+                    + " ].");
+        }
+        return total;
+    }
+
+    /**
+     * Getter method for the amount of staging space currently reserved.
+     * @return The reserved space in bytes.
+     */
+    public synchronized long getReservedSpace() {
+        return reserved;
+    }
+
+    /**
+     * Calculate the staging space available for new archive jobs (the free
+     * space less the outstanding reservations).
+     *
+     * @return The available space in bytes, or -1 if unknown.
+     */
+    public long getAvailableSpace() {
+        long free = getFreeSpace();
+        if (free < 0) {
+            return -1L;
+        }
+        return Math.max(0L, free - getReservedSpace());
+    }
+
+    /**
+     * Calculate the amount of staging space that may be handed out to the
+     * next archive job.
+     *
+     * @return The space in bytes (Long.MAX_VALUE if free space is unknown
+     * or there are no outstanding reservations).
+     */
+    public long getSchedulableSpace() {
+        synchronized (this) {
+            if (reservations == 0) {
+                return Long.MAX_VALUE;
+            }
+        }
+        long available = getAvailableSpace();
+        return (available < 0 ? Long.MAX_VALUE : available);
+    }
+
+    /**
+     * Estimate the amount of staging space needed to build an archive.
+     *
+     * @param size The uncompressed size of the archive job.
+     * @param type The type of archive (null if unknown, in which case the
+     * compressed estimate is used).
+     * @return The estimated staging space in bytes.
+     */
+    public long estimate(long size, ArchiveType type) {
+        long needed = Math.max(0L, size);
+        if ((type == null) ||
+                (type == ArchiveType.GZIP) ||
+                (type == ArchiveType.BZIP2)) {
+            needed = needed * 2L;
+        }
+        return needed + (needed / 100L * overhead);
+    }
+
+    /**
+     * Reserve staging space for an archive job that is about to start.
+     *
+     * @param bytes The space to reserve.
+     */
+    public synchronized void reserve(long bytes) {
+        reserved += Math.max(0L, bytes);
+        reservations++;
+    }
+
+    /**
+     * Release a reservation made by <code>reserve</code>.
+     *
+     * @param bytes The space reserved.
+     */
+    public synchronized void release(long bytes) {
+        reserved     = Math.max(0L, reserved - Math.max(0L, bytes));
+        reservations = Math.max(0, reservations - 1);
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class StagingSpaceManagerHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static StagingSpaceManager _factory =
+                new StagingSpaceManager();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static StagingSpaceManager getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package mil.nga.bundler.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mil.nga.PropertyLoader;
+import mil.nga.bundler.BandwidthLimiter;
+import mil.nga.bundler.FileValidator;
+import mil.nga.bundler.archive.ArchiveFactory;
+import mil.nga.bundler.exceptions.ArchiveException;
+import mil.nga.bundler.exceptions.InvalidRequestException;
+import mil.nga.bundler.exceptions.UnknownArchiveTypeException;
+import mil.nga.bundler.exceptions.ValidationErrorCodes;
+import mil.nga.bundler.interfaces.BundlerConstantsI;
+import mil.nga.bundler.interfaces.BundlerI;
+import mil.nga.bundler.interfaces.StreamingBundlerI;
+import mil.nga.bundler.messages.BundleRequestMessage;
+import mil.nga.bundler.model.ArchiveElement;
+import mil.nga.bundler.model.FileEntry;
+import mil.nga.bundler.services.AdmissionService.AdmissionDecision;
+import mil.nga.bundler.types.ArchiveType;
+import mil.nga.util.FileUtils;
+
+/**
+ * Class supporting the synchronous <code>StreamFiles</code> end point.
+ * For small and medium requests, staging the archive, having the client
+ * poll for completion and then download it is pure overhead.  Instead the
+ * requested files are validated and the archive (ZIP, TAR, GZIP or BZIP2)
+ * is written straight into the HTTP response as it is built.  Nothing is
+ * written to the staging area and no job is persisted.
+ *
+ * Streamed requests bypass the <code>ArchiveQueue</code> so they are
+ * limited separately:
+ *
+ * <li>Requests larger than <code>bundler.stream.max_size_mb</code> or with
+ * more than <code>bundler.stream.max_files</code> files are refused (the
+ * client should submit them to <code>BundleFiles</code>).</li>
+ * <li>At most <code>bundler.stream.max_concurrent</code> archives are
+ * streamed at once; further requests are refused with HTTP 429.</li>
+ *
+ * Source reads still go through the I/O permits and bandwidth limits used
+ * by queued archive jobs.
+ *
+ * @author L. Craig Carpenter
+ */
+public class StreamingService extends PropertyLoader
+        implements BundlerConstantsI {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            StreamingService.class);
+
+    /**
+     * Retry-After (in seconds) suggested when all streams are busy.
+     * Streamed archives are small so slots free up quickly.
+     */
+    private static final long RETRY_AFTER = 5L;
+
+    // Private internal members
+    private final long      maxBytes;
+    private final long      maxFiles;
+    private final Semaphore streams;
+
+    /**
+     * Hidden constructor enforcing the singleton design pattern.
+     */
+    private StreamingService() {
+        super(PROPERTY_FILE_NAME);
+        maxBytes = Math.max(0L, getLongProperty(
+                STREAM_MAX_SIZE_MB_PROPERTY,
+                DEFAULT_STREAM_MAX_SIZE_MB)) * BYTES_PER_MEGABYTE;
+        maxFiles = Math.max(0L, getLongProperty(
+                STREAM_MAX_FILES_PROPERTY,
+                DEFAULT_STREAM_MAX_FILES));
+        streams  = new Semaphore((int)Math.max(1L, getLongProperty(
+                STREAM_MAX_CONCURRENT_PROPERTY,
+                DEFAULT_STREAM_MAX_CONCURRENT)));
+    }
+
+    /**
+     * Return a singleton instance to the StreamingService object.
+     * @return The StreamingService
+     */
+    public static StreamingService getInstance() {
+        return StreamingServiceHolder.getFactorySingleton();
+    }
+
+    /**
+     * Determine whether archives of the input type can be streamed.  CPIO
+     * and AR output require the archive to be written to a file.
+     *
+     * @param type The archive type.
+     * @return True if the type can be streamed.
+     */
+    public boolean isStreamable(ArchiveType type) {
+        return ((type == ArchiveType.ZIP) ||
+                (type == ArchiveType.TAR) ||
+                (type == ArchiveType.GZIP) ||
+                (type == ArchiveType.BZIP2));
+    }
+
+    /**
+     * Getter method for the MIME type of a streamed archive.
+     *
+     * @param type The archive type.
+     * @return The MIME type.
+     */
+    public String getContentType(ArchiveType type) {
+        switch (type) {
+            case ZIP:
+                return "application/zip";
+            case GZIP:
+                return "application/gzip";
+            case BZIP2:
+                return "application/x-bzip2";
+            default:
+                return "application/x-tar";
+        }
+    }
+
+    /**
+     * Calculate the file name suggested to the client for a streamed
+     * archive.  Compressed types get a double extension (e.g.
+     * <code>.tar.gz</code>) because the stream is a compressed TAR file.
+     *
+     * @param request The bundle request.
+     * @return The file name.
+     */
+    public String getFilename(BundleRequestMessage request) {
+        String name = request.getOutputFilename();
+        if ((name == null) || (name.trim().isEmpty())) {
+            name = DEFAULT_FILENAME_PREFIX;
+        }
+        // Keep only the final path component and strip any extension.
+        name = name.trim().replaceAll(".*[/\\\\]", "").replaceAll("\"", "");
+        int index = name.indexOf('.');
+        if (index > 0) {
+            name = name.substring(0, index);
+        }
+        ArchiveType type = request.getType();
+        if ((type == ArchiveType.GZIP) || (type == ArchiveType.BZIP2)) {
+            return name + "." + ArchiveType.TAR.getText()
+                    + "." + type.getText();
+        }
+        return name + "." + type.getText();
+    }
+
+    /**
+     * Obtain one of the streaming slots.  If the decision is admitted the
+     * caller must call <code>release()</code> when the stream completes.
+     *
+     * @return The admission decision.
+     */
+    public AdmissionDecision acquire() {
+        if (streams.tryAcquire()) {
+            return new AdmissionDecision(AdmissionService.OK, 0L, null);
+        }
+        MetricsService.getInstance().increment("stream.rejected");
+        LOGGER.warn("Streamed request rejected.  All streaming slots are "
+                + "in use.");
+        return new AdmissionDecision(
+                AdmissionService.TOO_MANY_REQUESTS, RETRY_AFTER,
+                "Too many archives are being streamed.");
+    }
+
+    /**
+     * Release a streaming slot obtained through <code>acquire()</code>.
+     */
+    public void release() {
+        streams.release();
+    }
+
+    /**
+     * Validate and expand the files in the input request, enforcing the
+     * streaming limits.
+     *
+     * @param request The bundle request.
+     * @return The files to stream, in archive order.
+     * @throws InvalidRequestException Thrown if the archive type cannot be
+     * streamed, there are no valid files, or the request exceeds the
+     * streaming limits (<code>STREAM_LIMIT_EXCEEDED</code>).
+     */
+    public List<ArchiveElement> validate(BundleRequestMessage request)
+            throws InvalidRequestException {
+
+        if (!isStreamable(request.getType())) {
+            throw new InvalidRequestException(
+                    ValidationErrorCodes.INVALID_ARCHIVE_TYPE);
+        }
+        List<FileEntry> files = FileValidator
+                .getInstance()
+                .validate(request.getFiles());
+        long size = 0L;
+        for (FileEntry file : files) {
+            size += file.getSize();
+        }
+        if ((size > maxBytes) || (files.size() > maxFiles)) {
+            LOGGER.warn("Streamed request rejected.  Request contains [ "
+                    + files.size()
+                    + " ] files, [ "
+                    + size
+                    + " ] bytes.  Limits are [ "
+                    + maxFiles
+                    + " ] files, [ "
+                    + maxBytes
+                    + " ] bytes.");
+            throw new InvalidRequestException(
+                    ValidationErrorCodes.STREAM_LIMIT_EXCEEDED);
+        }
+        return BundlerService.getArchiveElements(files);
+    }
+
+    /**
+     * Write the archive of the input files to the input stream.  The
+     * stream is closed on return.
+     *
+     * @param files The files to archive (see <code>validate</code>).
+     * @param type The archive type.
+     * @param out The stream (i.e. the HTTP response).
+     * @throws ArchiveException Thrown if the archive type cannot be
+     * streamed.
+     * @throws IOException Thrown if a source file cannot be read or the
+     * client goes away.
+     */
+    public void write(
+            List<ArchiveElement> files,
+            ArchiveType          type,
+            OutputStream         out) throws ArchiveException, IOException {
+
+        long    startTime = System.currentTimeMillis();
+        String  jobID     = FileUtils.generateUniqueToken(JOB_ID_LENGTH);
+        boolean complete  = false;
+
+        BandwidthLimiter.getInstance().openJob(jobID);
+        try {
+            BundlerI bundler = ArchiveFactory.getInstance().getBundler(type);
+            if (!(bundler instanceof StreamingBundlerI)) {
+                throw new ArchiveException("Archive type [ "
+                        + type.getText()
+                        + " ] cannot be streamed.");
+            }
+            bundler.setJobID(jobID);
+            ((StreamingBundlerI)bundler).bundle(files, out);
+            complete = true;
+        }
+        catch (UnknownArchiveTypeException uate) {
+            throw new ArchiveException(uate.getMessage());
+        }
+        finally {
+            BandwidthLimiter.getInstance().closeJob(jobID);
+            MetricsService metrics = MetricsService.getInstance();
+            metrics.increment(complete ?
+                    "stream.completed" : "stream.failed");
+            metrics.record("stream.time_ms",
+                    System.currentTimeMillis() - startTime);
+            LOGGER.info("Streamed archive of [ "
+                    + files.size()
+                    + " ] files "
+                    + (complete ? "completed" : "failed")
+                    + " in [ "
+                    + (System.currentTimeMillis() - startTime)
+                    + " ] ms.");
+        }
+    }
+
+    /**
+     * Static inner class used to construct the factory singleton.  This
+     * class exploits that fact that inner classes are not loaded until they
+     * referenced therefore enforcing thread safety without the performance
+     * hit imposed by the use of the "synchronized" keyword.
+     *
+     * @author L. Craig Carpenter
+     */
+    public static class StreamingServiceHolder {
+
+        /**
+         * Reference to the Singleton instance of the factory
+         */
+        private static StreamingService _factory = new StreamingService();
+
+        /**
+         * Accessor method for the singleton instance of the factory object.
+         *
+         * @return The singleton instance of the factory.
+         */
+        public static StreamingService getFactorySingleton() {
+            return _factory;
+        }
+    }
+}
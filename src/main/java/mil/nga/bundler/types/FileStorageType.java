@@ -0,0 +1,62 @@
+package mil.nga.bundler.types;
+
+/**
+ * Enumeration type identifying how the list of files associated with an
+ * individual archive job is persisted.
+ *
+ * <li>ROWS - The original storage mode.  Each file is stored as a single
+ * row in the <code>FILE_ENTRY</code> table and the state of each row is
+ * updated as the file is added to the output archive.</li>
+ * <li>MANIFEST - The list of files is stored as a single compressed blob
+ * on the <code>ARCHIVE_JOBS</code> record and completion is tracked
+ * through a high-water mark.  No <code>FILE_ENTRY</code> rows are written.
+ * </li>
+ *
+ * @author L. Craig Carpenter
+ */
+public enum FileStorageType {
+    ROWS("rows"),
+    MANIFEST("manifest");
+
+    /**
+     * The text field.
+     */
+    private final String text;
+
+    /**
+     * Default constructor
+     * @param text Text associated with the enumeration value.
+     */
+    private FileStorageType(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Getter method for the text associated with the enumeration value.
+     *
+     * @return The text associated with the instanced enumeration type.
+     */
+    public String getText() {
+        return this.text;
+    }
+
+    /**
+     * Convert an input String to it's associated enumeration type.  Unlike
+     * the other enumeration types, this value is read from the properties
+     * file so unknown (or missing) values fall back to the original
+     * <code>ROWS</code> storage mode rather than raising an exception.
+     *
+     * @param text Input text information
+     * @return The appropriate FileStorageType enum value.
+     */
+    public static FileStorageType fromString(String text) {
+        if (text != null) {
+            for (FileStorageType type : FileStorageType.values()) {
+                if (text.trim().equalsIgnoreCase(type.getText())) {
+                    return type;
+                }
+            }
+        }
+        return ROWS;
+    }
+}
@@ -15,7 +15,8 @@ public enum JobStateType {
     COMPRESSING("compressing"),
     CREATING_HASH("creating_hash"),
     COMPLETE("complete"),
-    ERROR("error");
+    ERROR("error"),
+    CANCELLED("cancelled");
     
     /**
      * The text field.
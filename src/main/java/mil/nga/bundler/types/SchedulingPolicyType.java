@@ -0,0 +1,61 @@
+package mil.nga.bundler.types;
+
+/**
+ * Enumeration type identifying the policy used by the 
+ * <code>ArchiveQueue</code> to select the next archive job to execute.
+ *
+ * <li>FAIR_SHARE - Deficit round-robin across users on archive size.  Each
+ * user's archive jobs are executed in the order they were submitted.</li>
+ * <li>SHORTEST_FIRST - The smallest waiting archive job is executed first.
+ * Waiting archive jobs age (their effective size shrinks the longer they
+ * wait) so large archive jobs are never starved.  Archive jobs with a 
+ * client-supplied deadline are executed earliest-deadline-first ahead of 
+ * those without one.</li>
+ *
+ * @author L. Craig Carpenter
+ */
+public enum SchedulingPolicyType {
+    FAIR_SHARE("fair_share"),
+    SHORTEST_FIRST("shortest_first");
+
+    /**
+     * The text field.
+     */
+    private final String text;
+
+    /**
+     * Default constructor
+     * @param text Text associated with the enumeration value.
+     */
+    private SchedulingPolicyType(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Getter method for the text associated with the enumeration value.
+     *
+     * @return The text associated with the instanced enumeration type.
+     */
+    public String getText() {
+        return this.text;
+    }
+
+    /**
+     * Convert an input String to it's associated enumeration type.  This 
+     * value is read from the properties file so unknown (or missing) values
+     * fall back to <code>FAIR_SHARE</code> rather than raising an exception.
+     *
+     * @param text Input text information
+     * @return The appropriate SchedulingPolicyType enum value.
+     */
+    public static SchedulingPolicyType fromString(String text) {
+        if (text != null) {
+            for (SchedulingPolicyType type : SchedulingPolicyType.values()) {
+                if (text.trim().equalsIgnoreCase(type.getText())) {
+                    return type;
+                }
+            }
+        }
+        return FAIR_SHARE;
+    }
+}
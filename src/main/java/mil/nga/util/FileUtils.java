@@ -4,6 +4,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Random;
@@ -103,6 +108,39 @@ public class FileUtils {
         }
     }
     
+    /**
+     * NIO2 version of the recursive delete method.  Unlike the 
+     * <code>java.io.File</code> versions above, this method works with any 
+     * installed file system provider (e.g. the S3 file system) and does not 
+     * raise an exception if the target does not exist.
+     * 
+     * @param path The file or directory to delete.
+     * @throws IOException Thrown if any file could not be deleted.
+     */
+    public static void delete(Path path) throws IOException {
+        if ((path != null) && (Files.exists(path))) {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(
+                        Path file, 
+                        BasicFileAttributes attrs) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult postVisitDirectory(
+                        Path dir, 
+                        IOException exc) throws IOException {
+                    if (exc != null) {
+                        throw exc;
+                    }
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+    
     /**
      * Check to see if the input file path contains a file extension.
      * 
@@ -0,0 +1,391 @@
+package mil.nga.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * Output stream writing an S3 object through a multipart upload.  Data is
+ * collected into part-sized buffers; each full buffer is uploaded as a
+ * part by the supplied executor while the caller carries on filling the
+ * next one.  At most <code>maxBuffers</code> buffers are held by a stream,
+ * so the caller waits when that many parts are waiting to be uploaded.
+ *
+ * Closing the stream uploads the remaining data but does NOT make the
+ * object visible: the caller must call <code>complete()</code> once the
+ * data is known to be good, or <code>abort()</code> to discard the
+ * upload (e.g. when the archive fails or is cancelled).  Objects smaller
+ * than one part are written with a single PUT.
+ *
+ * @author L. Craig Carpenter
+ */
+public class S3MultipartOutputStream extends OutputStream {
+
+    /**
+     * Set up the Log4j system for use throughout the class
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            S3MultipartOutputStream.class);
+
+    /**
+     * Minimum size of each part other than the last (S3 limit).
+     */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    /**
+     * Maximum number of parts in a multipart upload (S3 limit).
+     */
+    public static final int MAX_PARTS = 10000;
+
+    // Private internal members
+    private final AmazonS3               client;
+    private final ExecutorService        executor;
+    private final String                 bucket;
+    private final String                 key;
+    private final int                    partSize;
+    private final int                    maxBuffers;
+    private final BlockingQueue<byte[]>  free =
+            new LinkedBlockingQueue<byte[]>();
+    private final List<Future<PartETag>> parts =
+            new ArrayList<Future<PartETag>>();
+    private String                       uploadId  = null;
+    private byte[]                       current   = null;
+    private int                          count     = 0;
+    private int                          allocated = 0;
+    private long                         size      = 0L;
+    private boolean                      closed    = false;
+    private boolean                      completed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param client The S3 client.
+     * @param executor The executor uploading the parts.
+     * @param bucket The target bucket.
+     * @param key The target object key.
+     * @param partSize The part size (at least <code>MIN_PART_SIZE</code>).
+     * @param maxBuffers The number of part buffers the stream may hold.
+     */
+    public S3MultipartOutputStream(
+            AmazonS3        client,
+            ExecutorService executor,
+            String          bucket,
+            String          key,
+            int             partSize,
+            int             maxBuffers) {
+        this.client     = client;
+        this.executor   = executor;
+        this.bucket     = bucket;
+        this.key        = key;
+        this.partSize   = Math.max(MIN_PART_SIZE, partSize);
+        this.maxBuffers = Math.max(1, maxBuffers);
+    }
+
+    /**
+     * Getter method for the number of bytes written to the stream.
+     * @return The object size so far.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Make sure there is a buffer with free space, uploading the current
+     * buffer if it is full.
+     *
+     * @throws IOException Thrown if a part upload failed or the thread is
+     * interrupted.
+     */
+    private void reserve() throws IOException {
+        if ((current != null) && (count >= current.length)) {
+            uploadPart();
+        }
+        if (current == null) {
+            current = free.poll();
+            if ((current == null) && (allocated < maxBuffers)) {
+                current = new byte[partSize];
+                allocated++;
+            }
+            if (current == null) {
+                try {
+                    current = free.take();
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while "
+                            + "waiting for an S3 part buffer.");
+                }
+            }
+            count = 0;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        reserve();
+        current[count++] = (byte)b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        while (len > 0) {
+            reserve();
+            int n = Math.min(len, current.length - count);
+            System.arraycopy(b, off, current, count, n);
+            count += n;
+            off   += n;
+            len   -= n;
+            size  += n;
+        }
+    }
+
+    /**
+     * Re-throw the failure of any part upload that has already finished.
+     *
+     * @throws IOException The part upload failure.
+     */
+    private void checkParts() throws IOException {
+        for (Future<PartETag> part : parts) {
+            if (part.isDone()) {
+                getPart(part);
+            }
+        }
+    }
+
+    /**
+     * Wait for a part upload to finish.
+     *
+     * @param part The part upload.
+     * @return The ETag of the part.
+     * @throws IOException Thrown if the upload failed or the thread is
+     * interrupted.
+     */
+    private PartETag getPart(Future<PartETag> part) throws IOException {
+        try {
+            return part.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for "
+                    + "an S3 part upload.");
+        }
+        catch (ExecutionException ee) {
+            throw new IOException("Upload of part to [ s3://"
+                    + bucket
+                    + "/"
+                    + key
+                    + " ] failed.  Exception message => [ "
+                    + ee.getCause().getMessage()
+                    + " ].", ee.getCause());
+        }
+    }
+
+    /**
+     * Hand the current buffer to the executor as the next part, starting
+     * the multipart upload if necessary.
+     *
+     * @throws IOException Thrown if a part upload failed, the upload
+     * cannot be started or the object has too many parts.
+     */
+    private void uploadPart() throws IOException {
+        checkParts();
+        if (parts.size() >= MAX_PARTS) {
+            throw new IOException("Object [ s3://"
+                    + bucket
+                    + "/"
+                    + key
+                    + " ] exceeds [ "
+                    + MAX_PARTS
+                    + " ] parts.  Increase the part size.");
+        }
+        if (uploadId == null) {
+            try {
+                uploadId = client.initiateMultipartUpload(
+                        new InitiateMultipartUploadRequest(bucket, key))
+                        .getUploadId();
+            }
+            catch (AmazonClientException ace) {
+                throw new IOException("Unable to start the multipart "
+                        + "upload of [ s3://"
+                        + bucket
+                        + "/"
+                        + key
+                        + " ].  Exception message => [ "
+                        + ace.getMessage()
+                        + " ].", ace);
+            }
+        }
+        final byte[] data       = current;
+        final int    length     = count;
+        final int    partNumber = parts.size() + 1;
+        current = null;
+        count   = 0;
+        parts.add(executor.submit(new Callable<PartETag>() {
+            @Override
+            public PartETag call() {
+                try {
+                    return client.uploadPart(new UploadPartRequest()
+                            .withBucketName(bucket)
+                            .withKey(key)
+                            .withUploadId(uploadId)
+                            .withPartNumber(partNumber)
+                            .withPartSize(length)
+                            .withInputStream(new ByteArrayInputStream(
+                                    data, 0, length)))
+                            .getPartETag();
+                }
+                finally {
+                    free.add(data);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Upload any remaining buffered data.  Data smaller than one part is
+     * kept for <code>complete()</code>, which writes it with a single
+     * PUT.  The object is not visible until <code>complete()</code> is
+     * called.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if ((uploadId != null) && (count > 0)) {
+            uploadPart();
+        }
+    }
+
+    /**
+     * Close the stream, wait for all parts to be uploaded and make the
+     * object visible.  The upload is aborted if this fails.
+     *
+     * @throws IOException Thrown if the upload could not be completed.
+     */
+    public void complete() throws IOException {
+        boolean success = false;
+        try {
+            close();
+            if (uploadId == null) {
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(count);
+                client.putObject(bucket, key, new ByteArrayInputStream(
+                        (current == null ? new byte[0] : current), 0, count),
+                        metadata);
+            }
+            else {
+                List<PartETag> tags = new ArrayList<PartETag>();
+                for (Future<PartETag> part : parts) {
+                    tags.add(getPart(part));
+                }
+                Collections.sort(tags, new Comparator<PartETag>() {
+                    @Override
+                    public int compare(PartETag a, PartETag b) {
+                        return Integer.compare(
+                                a.getPartNumber(), b.getPartNumber());
+                    }
+                });
+                client.completeMultipartUpload(
+                        new CompleteMultipartUploadRequest(
+                                bucket, key, uploadId, tags));
+            }
+            completed = true;
+            success   = true;
+        }
+        catch (AmazonClientException ace) {
+            throw new IOException("Unable to complete the upload of [ s3://"
+                    + bucket
+                    + "/"
+                    + key
+                    + " ].  Exception message => [ "
+                    + ace.getMessage()
+                    + " ].", ace);
+        }
+        finally {
+            if (!success) {
+                abort();
+            }
+            current = null;
+        }
+    }
+
+    /**
+     * Discard the upload.  Parts that have not started uploading are
+     * cancelled and the parts already stored by S3 are deleted.  Has no
+     * effect once <code>complete()</code> has succeeded.
+     */
+    public void abort() {
+        if (completed) {
+            return;
+        }
+        closed = true;
+        for (Future<PartETag> part : parts) {
+            part.cancel(false);
+        }
+        // Wait for the parts in flight so S3 does not keep them.
+        for (Future<PartETag> part : parts) {
+            try {
+                if (!part.isCancelled()) {
+                    part.get();
+                }
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (ExecutionException ee) { }
+        }
+        if (uploadId != null) {
+            try {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(
+                        bucket, key, uploadId));
+            }
+            catch (AmazonClientException ace) {
+                LOGGER.warn("Unable to abort the multipart upload of [ s3://"
+                        + bucket
+                        + "/"
+                        + key
+                        + " ].  The incomplete parts will remain until "
+                        + "removed by a bucket lifecycle rule.  Exception "
+                        + "message => [ "
+                        + ace.getMessage()
+                        + " ].");
+            }
+            uploadId = null;
+        }
+        current = null;
+        count   = 0;
+    }
+}
@@ -0,0 +1,273 @@
+package mil.nga.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * Input stream reading an S3 object with several concurrent ranged GET
+ * requests.  A single GET is limited to the throughput of one connection;
+ * this stream splits the object into ranges of <code>rangeSize</code>
+ * bytes, keeps up to <code>maxInFlight</code> of them downloading on the
+ * supplied executor and returns the data in order.  The memory used is at
+ * most <code>maxInFlight</code> ranges.
+ *
+ * Every range after the first is requested with the ETag returned for the
+ * first range as a matching constraint, so an object that is overwritten
+ * while it is being read fails the read rather than mixing the bytes of
+ * two versions.  The later ranges wait for the first response before
+ * they are sent; because the executor runs requests in the order they
+ * were submitted the first range is always under way by then.
+ *
+ * @author L. Craig Carpenter
+ */
+public class S3RangedInputStream extends InputStream {
+
+    // Private internal members
+    private final AmazonS3                   client;
+    private final ExecutorService            executor;
+    private final String                     bucket;
+    private final String                     key;
+    private final long                       size;
+    private final int                        rangeSize;
+    private final int                        maxInFlight;
+    private final LinkedList<Future<byte[]>> ranges    =
+            new LinkedList<Future<byte[]>>();
+    private long                             requested = 0L;
+    private byte[]                           current   = null;
+    private int                              position  = 0;
+    private boolean                          closed    = false;
+    private final CountDownLatch             first     = new CountDownLatch(1);
+    private volatile String                  etag      = null;
+
+    /**
+     * Constructor.  The first ranges are requested immediately.
+     *
+     * @param client The S3 client.
+     * @param executor The executor performing the GET requests.
+     * @param bucket The bucket.
+     * @param key The object key.
+     * @param size The object size.
+     * @param rangeSize The size of each ranged GET.
+     * @param maxInFlight The number of ranges requested ahead.
+     */
+    public S3RangedInputStream(
+            AmazonS3        client,
+            ExecutorService executor,
+            String          bucket,
+            String          key,
+            long            size,
+            int             rangeSize,
+            int             maxInFlight) {
+        this.client      = client;
+        this.executor    = executor;
+        this.bucket      = bucket;
+        this.key         = key;
+        this.size        = size;
+        this.rangeSize   = Math.max(1, rangeSize);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        fill();
+    }
+
+    /**
+     * Request ranges until <code>maxInFlight</code> are outstanding or the
+     * whole object has been requested.
+     */
+    private void fill() {
+        while ((ranges.size() < maxInFlight) && (requested < size)) {
+            final long start = requested;
+            final long end   = Math.min(size, start + rangeSize) - 1L;
+            requested = end + 1L;
+            ranges.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return get(start, end);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Download one range of the object.
+     *
+     * @param start The first byte.
+     * @param end The last byte (inclusive).
+     * @return The data.
+     * @throws IOException Thrown if the range could not be read in full.
+     */
+    private byte[] get(long start, long end) throws IOException {
+        byte[] data = new byte[(int)(end - start + 1L)];
+        int    read = 0;
+        try {
+            GetObjectRequest request = 
+                    new GetObjectRequest(bucket, key).withRange(start, end);
+            if (start > 0L) {
+                request.withMatchingETagConstraint(getETag());
+            }
+            S3Object response = client.getObject(request);
+            if (response == null) {
+                // The ETag constraint was not met.
+                throw new IOException("Object [ s3://"
+                        + bucket
+                        + "/"
+                        + key
+                        + " ] changed while it was being read.");
+            }
+            try (S3Object object = response;
+                 InputStream in = object.getObjectContent()) {
+                if (start == 0L) {
+                    etag = object.getObjectMetadata().getETag();
+                }
+                int n = 0;
+                while ((read < data.length) &&
+                        (-1 != (n = in.read(data, read, data.length - read)))) {
+                    read += n;
+                }
+            }
+        }
+        catch (AmazonClientException ace) {
+            throw new IOException("Unable to read bytes [ "
+                    + start
+                    + "-"
+                    + end
+                    + " ] of [ s3://"
+                    + bucket
+                    + "/"
+                    + key
+                    + " ].  Exception message => [ "
+                    + ace.getMessage()
+                    + " ].", ace);
+        }
+        finally {
+            if (start == 0L) {
+                first.countDown();
+            }
+        }
+        if (read < data.length) {
+            throw new IOException("Short read of bytes [ "
+                    + start
+                    + "-"
+                    + end
+                    + " ] of [ s3://"
+                    + bucket
+                    + "/"
+                    + key
+                    + " ].  Received [ "
+                    + read
+                    + " ] bytes.");
+        }
+        return data;
+    }
+
+    /**
+     * Wait for the response to the first range and return its ETag.
+     *
+     * @return The ETag of the object.
+     * @throws IOException Thrown if the first range could not be read.
+     */
+    private String getETag() throws IOException {
+        try {
+            first.await();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for "
+                    + "S3 data.");
+        }
+        if (etag == null) {
+            throw new IOException("The ETag of [ s3://"
+                    + bucket
+                    + "/"
+                    + key
+                    + " ] is not available.");
+        }
+        return etag;
+    }
+
+    /**
+     * Make the next range current.
+     *
+     * @return False at the end of the object.
+     * @throws IOException Thrown if the range could not be read.
+     */
+    private boolean advance() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        if (ranges.isEmpty()) {
+            return false;
+        }
+        Future<byte[]> range = ranges.removeFirst();
+        try {
+            current  = range.get();
+            position = 0;
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for "
+                    + "S3 data.");
+        }
+        catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException)ee.getCause();
+            }
+            throw new IOException(ee.getCause());
+        }
+        fill();
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while ((current == null) || (position >= current.length)) {
+            if (!advance()) {
+                return -1;
+            }
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while ((current == null) || (position >= current.length)) {
+            if (!advance()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * Cancel the ranges that have not been consumed.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            for (Future<byte[]> range : ranges) {
+                range.cancel(true);
+            }
+            ranges.clear();
+            current = null;
+            // Release any range still waiting for the first response.
+            first.countDown();
+        }
+    }
+}
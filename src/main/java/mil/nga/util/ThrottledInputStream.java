@@ -0,0 +1,75 @@
+package mil.nga.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>InputStream</code> decorator limiting the rate at which data is
+ * read.  The bytes returned by each read are charged against each of the
+ * supplied token buckets (e.g. one for the source mount and one for the
+ * job) in order.
+ *
+ * @author L. Craig Carpenter
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    /**
+     * The token buckets charged for each read.
+     */
+    private final List<TokenBucket> buckets = new ArrayList<TokenBucket>();
+
+    /**
+     * Constructor.  Null buckets are ignored.
+     *
+     * @param in The underlying input stream.
+     * @param buckets The token buckets to charge.
+     */
+    public ThrottledInputStream(InputStream in, TokenBucket... buckets) {
+        super(in);
+        for (TokenBucket bucket : buckets) {
+            if (bucket != null) {
+                this.buckets.add(bucket);
+            }
+        }
+    }
+
+    /**
+     * Charge the input number of bytes against each bucket.
+     *
+     * @param bytes The number of bytes read.
+     * @throws InterruptedIOException Thrown if interrupted while throttled.
+     */
+    private void consume(long bytes) throws InterruptedIOException {
+        try {
+            for (TokenBucket bucket : buckets) {
+                bucket.consume(bytes);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled.");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value != -1) {
+            consume(1L);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            consume(n);
+        }
+        return n;
+    }
+}
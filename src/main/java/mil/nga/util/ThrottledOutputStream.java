@@ -0,0 +1,73 @@
+package mil.nga.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>OutputStream</code> decorator limiting the rate at which data is
+ * written.  The bytes written are charged against each of the supplied
+ * token buckets (e.g. one for the staging mount and one for the job) in
+ * order.
+ *
+ * @author L. Craig Carpenter
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+
+    /**
+     * The token buckets charged for each write.
+     */
+    private final List<TokenBucket> buckets = new ArrayList<TokenBucket>();
+
+    /**
+     * Constructor.  Null buckets are ignored.
+     *
+     * @param out The underlying output stream.
+     * @param buckets The token buckets to charge.
+     */
+    public ThrottledOutputStream(OutputStream out, TokenBucket... buckets) {
+        super(out);
+        for (TokenBucket bucket : buckets) {
+            if (bucket != null) {
+                this.buckets.add(bucket);
+            }
+        }
+    }
+
+    /**
+     * Charge the input number of bytes against each bucket.
+     *
+     * @param bytes The number of bytes written.
+     * @throws InterruptedIOException Thrown if interrupted while throttled.
+     */
+    private void consume(long bytes) throws InterruptedIOException {
+        try {
+            for (TokenBucket bucket : buckets) {
+                bucket.consume(bytes);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled.");
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        consume(1L);
+    }
+
+    /**
+     * Overridden to write the whole block to the underlying stream
+     * (<code>FilterOutputStream</code> writes one byte at a time).
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        consume(len);
+    }
+}
@@ -0,0 +1,77 @@
+package mil.nga.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <code>InputStream</code> decorator recording the number of bytes read,
+ * the number of read calls and the time spent blocked in the underlying
+ * stream.  Used to observe source read throughput and latency.
+ *
+ * @author L. Craig Carpenter
+ */
+public class TimedInputStream extends FilterInputStream {
+
+    // Private internal members
+    private long bytes = 0L;
+    private long reads = 0L;
+    private long nanos = 0L;
+
+    /**
+     * Constructor.
+     *
+     * @param in The underlying input stream.
+     */
+    public TimedInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Getter method for the number of bytes read.
+     * @return The number of bytes read.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Getter method for the number of read calls issued.
+     * @return The number of read calls.
+     */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * Getter method for the time spent in the underlying stream.
+     * @return The total read time in nanoseconds.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int value = super.read();
+        nanos += System.nanoTime() - start;
+        reads++;
+        if (value != -1) {
+            bytes++;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int n = in.read(b, off, len);
+        nanos += System.nanoTime() - start;
+        reads++;
+        if (n > 0) {
+            bytes += n;
+        }
+        return n;
+    }
+}
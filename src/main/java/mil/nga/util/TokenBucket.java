@@ -0,0 +1,110 @@
+package mil.nga.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simple token bucket used to limit the rate (bytes per second) at which
+ * data is read or written.  The bucket holds at most one second worth of
+ * tokens so short bursts are allowed but the long term rate never exceeds
+ * the configured limit.  Callers consume tokens after each read/write and
+ * are put to sleep when the bucket is overdrawn.  Because the debt is
+ * recorded before the caller sleeps, concurrent callers sharing a bucket
+ * queue up behind each other and the aggregate rate is respected.
+ *
+ * The rate may be changed at any time.  A rate of zero (or less) disables
+ * the limit.
+ *
+ * @author L. Craig Carpenter
+ */
+public class TokenBucket {
+
+    /**
+     * Number of nanoseconds in one second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    // Private internal members
+    private long   rate;
+    private double tokens;
+    private long   last;
+    private long   throttled = 0L;
+
+    /**
+     * Constructor setting the initial rate.
+     *
+     * @param rate The rate limit in bytes per second (0 for no limit).
+     */
+    public TokenBucket(long rate) {
+        this.rate   = Math.max(0L, rate);
+        this.tokens = this.rate;
+        this.last   = System.nanoTime();
+    }
+
+    /**
+     * Add the tokens accumulated since the last call.  Must be called
+     * while holding the lock.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0) {
+            tokens = Math.min(
+                    (double)rate,
+                    tokens + ((now - last) * (double)rate / NANOS_PER_SECOND));
+        }
+        last = now;
+    }
+
+    /**
+     * Getter method for the current rate limit.
+     * @return The rate limit in bytes per second (0 if not limited).
+     */
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * Setter method for the rate limit.  The new rate applies to callers
+     * consuming tokens after the change.
+     *
+     * @param value The rate limit in bytes per second (0 for no limit).
+     */
+    public synchronized void setRate(long value) {
+        refill();
+        rate   = Math.max(0L, value);
+        tokens = (rate > 0 ? Math.min(tokens, (double)rate) : 0.0);
+    }
+
+    /**
+     * Getter method for the total time callers have been put to sleep by
+     * this bucket.
+     * @return The total throttled time in milliseconds.
+     */
+    public synchronized long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttled);
+    }
+
+    /**
+     * Consume the tokens for the input number of bytes, sleeping if the
+     * bucket has been overdrawn.
+     *
+     * @param bytes The number of bytes read or written.
+     * @throws InterruptedException Thrown if interrupted while sleeping.
+     */
+    public void consume(long bytes) throws InterruptedException {
+        long wait = 0L;
+        synchronized(this) {
+            if ((rate <= 0) || (bytes <= 0)) {
+                return;
+            }
+            refill();
+            tokens -= bytes;
+            if (tokens < 0) {
+                wait = (long)(-tokens * NANOS_PER_SECOND / rate);
+                throttled += wait;
+            }
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
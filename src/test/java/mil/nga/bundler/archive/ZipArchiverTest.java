@@ -0,0 +1,204 @@
+package mil.nga.bundler.archive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mil.nga.bundler.model.ArchiveElement;
+import mil.nga.bundler.services.MetricsService;
+
+/**
+ * Tests of the split archives written by <code>ZipArchiver</code>.  The
+ * compressed entry cache is enabled by the test
+ * <code>bundler.properties</code>.
+ *
+ * @author L. Craig Carpenter
+ */
+public class ZipArchiverTest {
+
+    private static final long VOLUME_SIZE = 64L * 1024L;
+
+    private Path                 dir;
+    private List<ArchiveElement> files;
+    private Map<String, byte[]>  content;
+
+    @Before
+    public void setUp() throws IOException {
+        dir     = Files.createTempDirectory("zip_archiver_test");
+        files   = new ArrayList<ArchiveElement>();
+        content = new HashMap<String, byte[]>();
+        Random random = new Random(42L);
+        for (int i = 0; i < 24; i++) {
+
+            // Half random, half text so that the entries compress to
+            // uneven sizes.
+            byte[] data = new byte[4096 + random.nextInt(40000)];
+            random.nextBytes(data);
+            for (int j = data.length / 2; j < data.length; j++) {
+                data[j] = (byte)('a' + (j % 7));
+            }
+            Path file = dir.resolve("file" + i + ".dat");
+            Files.write(file, data);
+            String entryPath = "data/file" + i + ".dat";
+            files.add(new ArchiveElement.ArchiveElementBuilder()
+                    .uri(file.toUri())
+                    .entryPath(entryPath)
+                    .size(data.length)
+                    .build());
+            content.put(entryPath, data);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        List<Path> paths = new ArrayList<Path>();
+        try (java.nio.file.DirectoryStream<Path> stream =
+                Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * Concatenate the volumes of a split archive.
+     *
+     * @param volumes The volumes in order.
+     * @param starts Receives the offset of each volume in the result.
+     */
+    private static ByteBuffer join(List<URI> volumes, long[] starts)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < volumes.size(); i++) {
+            starts[i] = out.size();
+            out.write(Files.readAllBytes(Paths.get(volumes.get(i))));
+        }
+        return ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Find the volume holding the given offset of the joined volumes.
+     */
+    private static int volumeOf(long[] starts, int count, long offset) {
+        int volume = 0;
+        while ((volume + 1 < count) && (starts[volume + 1] <= offset)) {
+            volume++;
+        }
+        return volume;
+    }
+
+    /**
+     * Read back a split archive through its central directory.  Each
+     * entry must have the same flags in its local and central headers,
+     * inflate to the original content with the recorded CRC and be
+     * followed by a data descriptor lying within one volume.
+     */
+    private void verify(List<URI> volumes) throws Exception {
+        long[]     starts = new long[volumes.size()];
+        ByteBuffer zip    = join(volumes, starts);
+        int        last   = volumes.size() - 1;
+        assertEquals(0x08074b50, zip.getInt(0));
+
+        int eocd = zip.limit() - 22;
+        assertEquals(0x06054b50, zip.getInt(eocd));
+        int  entries   = zip.getShort(eocd + 10) & 0xffff;
+        long cdSize    = zip.getInt(eocd + 12) & 0xffffffffL;
+        int  cdVolume  = zip.getShort(eocd + 6) & 0xffff;
+        long cdOffset  = zip.getInt(eocd + 16) & 0xffffffffL;
+        assertEquals(files.size(), entries);
+        assertTrue(cdVolume <= last);
+
+        int central = (int)(starts[cdVolume] + cdOffset);
+        for (int i = 0; i < entries; i++) {
+            assertEquals(0x02014b50, zip.getInt(central));
+            int    flags       = zip.getShort(central + 8) & 0xffff;
+            long   crc         = zip.getInt(central + 16) & 0xffffffffL;
+            int    csize       = zip.getInt(central + 20);
+            int    size        = zip.getInt(central + 24);
+            int    nameLength  = zip.getShort(central + 28) & 0xffff;
+            int    extraLength = zip.getShort(central + 30) & 0xffff;
+            int    comment     = zip.getShort(central + 32) & 0xffff;
+            int    volume      = zip.getShort(central + 34) & 0xffff;
+            long   offset      = zip.getInt(central + 42) & 0xffffffffL;
+            byte[] name        = new byte[nameLength];
+            zip.position(central + 46);
+            zip.get(name);
+            byte[] expected = content.get(new String(name, "UTF-8"));
+
+            int local = (int)(starts[volume] + offset);
+            assertEquals(0x04034b50, zip.getInt(local));
+            assertEquals(flags, zip.getShort(local + 6) & 0xffff);
+            int data = local + 30
+                    + (zip.getShort(local + 26) & 0xffff)
+                    + (zip.getShort(local + 28) & 0xffff);
+
+            byte[] compressed = new byte[csize];
+            zip.position(data);
+            zip.get(compressed);
+            Inflater inflater = new Inflater(true);
+            inflater.setInput(compressed);
+            byte[] inflated = new byte[size];
+            assertEquals(size, inflater.inflate(inflated));
+            inflater.end();
+            CRC32 check = new CRC32();
+            check.update(inflated);
+            assertEquals(crc, check.getValue());
+            assertArrayEquals(expected, inflated);
+
+            // Data descriptor: signature, CRC and 4 byte sizes.
+            assertTrue((flags & 0x0008) != 0);
+            int descriptor = data + csize;
+            assertEquals(0x08074b50, zip.getInt(descriptor));
+            assertEquals((int)crc, zip.getInt(descriptor + 4));
+            assertEquals(volumeOf(starts, volumes.size(), descriptor),
+                    volumeOf(starts, volumes.size(), descriptor + 15));
+
+            central += 46 + nameLength + extraLength + comment;
+        }
+        assertEquals(starts[cdVolume] + cdOffset + cdSize, central);
+    }
+
+    @Test
+    public void testSplitArchiveWithCachedEntries() throws Exception {
+        assertTrue(DeflateCache.getInstance().isEnabled());
+        URI first  = dir.resolve("first.zip").toUri();
+        URI second = dir.resolve("second.zip").toUri();
+
+        // The first archive writes the files through to the cache, the
+        // second copies them from it as raw entries.
+        List<URI> volumes = new ZipArchiver().bundleVolumes(
+                files, VOLUME_SIZE, first);
+        assertTrue(volumes.size() > 3);
+        verify(volumes);
+
+        long hits = MetricsService.getInstance().get("deflate_cache.hits");
+        volumes = new ZipArchiver().bundleVolumes(files, VOLUME_SIZE, second);
+        assertEquals(hits + files.size(),
+                MetricsService.getInstance().get("deflate_cache.hits"));
+        verify(volumes);
+    }
+}
@@ -0,0 +1,410 @@
+package mil.nga.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal S3-compatible server used by the unit tests.  Objects are held
+ * in memory and addressed path style (<code>/bucket/key</code>).  Ranged
+ * GET requests, the <code>If-Match</code> constraint, single PUT requests
+ * and multipart uploads are supported.  Every request is recorded so the
+ * tests can check what the client sent.
+ *
+ * @author L. Craig Carpenter
+ */
+class LocalS3Server implements HttpHandler {
+
+    // Private internal members
+    private final HttpServer          server;
+    private final Map<String, byte[]> objects  = new HashMap<String, byte[]>();
+    private final List<String>        requests =
+            Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, TreeMap<Integer, byte[]>> uploads =
+            new HashMap<String, TreeMap<Integer, byte[]>>();
+    private int                       nextUpload  = 1;
+    private int                       failPart    = -1;
+    private String                    replaceKey  = null;
+    private byte[]                    replacement = null;
+
+    /**
+     * Start the server on an ephemeral port of the loopback interface.
+     *
+     * @throws IOException Thrown if the server cannot be started.
+     */
+    LocalS3Server() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this);
+        server.start();
+    }
+
+    /**
+     * Stop the server.
+     */
+    void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * Create an S3 client connected to the server.
+     *
+     * @return The client.
+     */
+    AmazonS3 getClient() {
+        return AmazonS3ClientBuilder.standard()
+                .withEndpointConfiguration(new EndpointConfiguration(
+                        "http://127.0.0.1:" + server.getAddress().getPort(),
+                        "us-east-1"))
+                .withPathStyleAccessEnabled(true)
+                .disableChunkedEncoding()
+                .withCredentials(new AWSStaticCredentialsProvider(
+                        new BasicAWSCredentials("test", "test")))
+                .build();
+    }
+
+    /**
+     * Store an object.
+     *
+     * @param bucket The bucket.
+     * @param key The key.
+     * @param data The content.
+     */
+    synchronized void put(String bucket, String key, byte[] data) {
+        objects.put("/" + bucket + "/" + key, data);
+    }
+
+    /**
+     * Get an object.
+     *
+     * @param bucket The bucket.
+     * @param key The key.
+     * @return The content, or null if there is no such object.
+     */
+    synchronized byte[] get(String bucket, String key) {
+        return objects.get("/" + bucket + "/" + key);
+    }
+
+    /**
+     * Overwrite an object with new content as soon as the first range of
+     * it has been served.
+     *
+     * @param bucket The bucket.
+     * @param key The key.
+     * @param data The new content.
+     */
+    synchronized void replaceAfterFirstRange(
+            String bucket,
+            String key,
+            byte[] data) {
+        replaceKey  = "/" + bucket + "/" + key;
+        replacement = data;
+    }
+
+    /**
+     * Reject every upload of the given part number.
+     *
+     * @param partNumber The part number.
+     */
+    synchronized void failPart(int partNumber) {
+        failPart = partNumber;
+    }
+
+    /**
+     * The number of multipart uploads started and neither completed nor
+     * aborted.
+     *
+     * @return The number of open uploads.
+     */
+    synchronized int getOpenUploads() {
+        return uploads.size();
+    }
+
+    /**
+     * The requests received, each as
+     * <code>METHOD path?query range if-match</code>.
+     *
+     * @return The requests in the order they were received.
+     */
+    List<String> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<String>(requests);
+        }
+    }
+
+    /**
+     * Compute the ETag of an object (the hex MD5 of its content).  It is
+     * quoted on the wire; like S3 the quotes are optional in
+     * <code>If-Match</code>.
+     *
+     * @param data The content.
+     * @return The ETag.
+     */
+    static String getETag(byte[] data) {
+        return DigestUtils.md5Hex(data);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path    = exchange.getRequestURI().getRawPath();
+            String query   = exchange.getRequestURI().getRawQuery();
+            String method  = exchange.getRequestMethod();
+            String range   = exchange.getRequestHeaders().getFirst("Range");
+            String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+            requests.add(method
+                    + " " + path + (query == null ? "" : "?" + query)
+                    + " " + range + " " + ifMatch);
+            byte[] body = drain(exchange.getRequestBody());
+            Map<String, String> params = parse(query);
+            if ("GET".equals(method)) {
+                doGet(exchange, path, range, ifMatch);
+            }
+            else if (("POST".equals(method)) && (params.containsKey("uploads"))) {
+                doInitiate(exchange, path);
+            }
+            else if (("PUT".equals(method)) && (params.containsKey("uploadId"))) {
+                doUploadPart(exchange, params, body);
+            }
+            else if (("POST".equals(method)) && (params.containsKey("uploadId"))) {
+                doComplete(exchange, path, params, body);
+            }
+            else if (("DELETE".equals(method)) && (params.containsKey("uploadId"))) {
+                synchronized (this) {
+                    uploads.remove(params.get("uploadId"));
+                }
+                send(exchange, 204, null, null);
+            }
+            else if ("PUT".equals(method)) {
+                synchronized (this) {
+                    objects.put(path, body);
+                }
+                send(exchange, 200, getETag(body), null);
+            }
+            else {
+                send(exchange, 501, null, null);
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Serve a (possibly ranged) GET request.
+     */
+    private void doGet(
+            HttpExchange exchange,
+            String       path,
+            String       range,
+            String       ifMatch) throws IOException {
+        byte[] data;
+        synchronized (this) {
+            data = objects.get(path);
+        }
+        if (data == null) {
+            send(exchange, 404, null, error("NoSuchKey"));
+            return;
+        }
+        String etag = getETag(data);
+        if ((ifMatch != null) && (!ifMatch.replace("\"", "").equals(etag))) {
+            send(exchange, 412, null, error("PreconditionFailed"));
+            return;
+        }
+        int start = 0;
+        int end   = data.length - 1;
+        if ((range != null) && (range.startsWith("bytes="))) {
+            String[] bounds = range.substring(6).split("-");
+            start = Integer.parseInt(bounds[0]);
+            if ((bounds.length > 1) && (!bounds[1].isEmpty())) {
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + start + "-" + end + "/" + data.length);
+        }
+        synchronized (this) {
+            if ((start == 0) && (path.equals(replaceKey))) {
+                objects.put(replaceKey, replacement);
+                replaceKey = null;
+            }
+        }
+        byte[] body = new byte[end - start + 1];
+        System.arraycopy(data, start, body, 0, body.length);
+        send(exchange, (range == null ? 200 : 206), etag, body);
+    }
+
+    /**
+     * Start a multipart upload.
+     */
+    private void doInitiate(HttpExchange exchange, String path)
+            throws IOException {
+        String uploadId;
+        synchronized (this) {
+            uploadId = "upload-" + (nextUpload++);
+            uploads.put(uploadId, new TreeMap<Integer, byte[]>());
+        }
+        int index = path.indexOf('/', 1);
+        send(exchange, 200, null, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<InitiateMultipartUploadResult><Bucket>"
+                + path.substring(1, index)
+                + "</Bucket><Key>"
+                + path.substring(index + 1)
+                + "</Key><UploadId>"
+                + uploadId
+                + "</UploadId></InitiateMultipartUploadResult>").getBytes());
+    }
+
+    /**
+     * Store one part of a multipart upload.
+     */
+    private void doUploadPart(
+            HttpExchange        exchange,
+            Map<String, String> params,
+            byte[]              body) throws IOException {
+        int partNumber = Integer.parseInt(params.get("partNumber"));
+        synchronized (this) {
+            TreeMap<Integer, byte[]> parts = uploads.get(params.get("uploadId"));
+            if (parts == null) {
+                send(exchange, 404, null, error("NoSuchUpload"));
+                return;
+            }
+            if (partNumber == failPart) {
+                send(exchange, 403, null, error("AccessDenied"));
+                return;
+            }
+            parts.put(partNumber, body);
+        }
+        send(exchange, 200, getETag(body), null);
+    }
+
+    /**
+     * Complete a multipart upload.  The parts named in the request must
+     * have been uploaded and be listed in ascending order.
+     */
+    private void doComplete(
+            HttpExchange        exchange,
+            String              path,
+            Map<String, String> params,
+            byte[]              body) throws IOException {
+        ByteArrayOutputStream object = new ByteArrayOutputStream();
+        synchronized (this) {
+            TreeMap<Integer, byte[]> parts = uploads.get(params.get("uploadId"));
+            if (parts == null) {
+                send(exchange, 404, null, error("NoSuchUpload"));
+                return;
+            }
+            Matcher matcher = Pattern.compile(
+                    "<PartNumber>(\\d+)</PartNumber>").matcher(
+                            new String(body, "UTF-8"));
+            int last = 0;
+            while (matcher.find()) {
+                int    partNumber = Integer.parseInt(matcher.group(1));
+                byte[] part       = parts.get(partNumber);
+                if ((part == null) || (partNumber <= last)) {
+                    send(exchange, 400, null, error("InvalidPartOrder"));
+                    return;
+                }
+                object.write(part);
+                last = partNumber;
+            }
+            uploads.remove(params.get("uploadId"));
+            objects.put(path, object.toByteArray());
+        }
+        int index = path.indexOf('/', 1);
+        send(exchange, 200, null, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<CompleteMultipartUploadResult><Location>"
+                + path
+                + "</Location><Bucket>"
+                + path.substring(1, index)
+                + "</Bucket><Key>"
+                + path.substring(index + 1)
+                + "</Key><ETag>&quot;"
+                + getETag(object.toByteArray())
+                + "&quot;</ETag></CompleteMultipartUploadResult>").getBytes());
+    }
+
+    /**
+     * Parse a query string.
+     */
+    static Map<String, String> parse(String query) {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                int index = param.indexOf('=');
+                if (index < 0) {
+                    params.put(param, "");
+                }
+                else {
+                    params.put(param.substring(0, index),
+                            param.substring(index + 1));
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Build an S3 error document.
+     */
+    static byte[] error(String code) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>"
+                + code
+                + "</Code><Message>"
+                + code
+                + "</Message></Error>").getBytes();
+    }
+
+    /**
+     * Send a response.
+     */
+    static void send(
+            HttpExchange exchange,
+            int          status,
+            String       etag,
+            byte[]       body) throws IOException {
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", "\"" + etag + "\"");
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Read a request body in full.
+     */
+    static byte[] drain(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int    n;
+        while (-1 != (n = in.read(buffer))) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,205 @@
+package mil.nga.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * Tests of <code>S3MultipartOutputStream</code> against a local S3
+ * stand-in.
+ *
+ * @author L. Craig Carpenter
+ */
+public class S3MultipartOutputStreamTest {
+
+    private static final String BUCKET = "bucket";
+    private static final String KEY    = "dir/archive.zip";
+    private static final int    PART   = S3MultipartOutputStream.MIN_PART_SIZE;
+
+    private LocalS3Server   server;
+    private AmazonS3        client;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        server   = new LocalS3Server();
+        client   = server.getClient();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        client.shutdown();
+        server.stop();
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Write the data in uneven chunks so that writes straddle the part
+     * boundaries.
+     */
+    private static void write(S3MultipartOutputStream out, byte[] data)
+            throws IOException {
+        int off = 0;
+        int len = 1;
+        while (off < data.length) {
+            int n = Math.min(len, data.length - off);
+            if (n == 1) {
+                out.write(data[off]);
+            }
+            else {
+                out.write(data, off, n);
+            }
+            off += n;
+            len  = (len * 7) % 300007 + 1;
+        }
+    }
+
+    /**
+     * The requests of the given type (e.g. "PUT" with "partNumber=").
+     */
+    private List<String> getRequests(String method, String query) {
+        List<String> matches = new ArrayList<String>();
+        for (String request : server.getRequests()) {
+            if ((request.startsWith(method + " ")) &&
+                    (request.contains(query))) {
+                matches.add(request);
+            }
+        }
+        return matches;
+    }
+
+    @Test
+    public void testSmallObjectUsesSinglePut() throws IOException {
+        byte[] data = random(1000);
+        S3MultipartOutputStream out = new S3MultipartOutputStream(
+                client, executor, BUCKET, KEY, PART, 2);
+        write(out, data);
+        out.complete();
+        assertArrayEquals(data, server.get(BUCKET, KEY));
+        assertEquals(1000L, out.getSize());
+        assertEquals(0, getRequests("POST", "uploads").size());
+        assertEquals(1, server.getRequests().size());
+    }
+
+    @Test
+    public void testEmptyObject() throws IOException {
+        S3MultipartOutputStream out = new S3MultipartOutputStream(
+                client, executor, BUCKET, KEY, PART, 2);
+        out.complete();
+        assertArrayEquals(new byte[0], server.get(BUCKET, KEY));
+    }
+
+    @Test
+    public void testPartBoundaries() throws IOException {
+        byte[] data = random((2 * PART) + 1);
+        S3MultipartOutputStream out = new S3MultipartOutputStream(
+                client, executor, BUCKET, KEY, PART, 2);
+        write(out, data);
+        out.complete();
+        assertArrayEquals(data, server.get(BUCKET, KEY));
+        assertEquals(1, getRequests("POST", "uploads").size());
+        assertEquals(3, getRequests("PUT", "partNumber=").size());
+        assertEquals(1, getRequests("POST", "uploadId=").size());
+        assertEquals(0, server.getOpenUploads());
+    }
+
+    @Test
+    public void testExactMultipleOfPartSize() throws IOException {
+        byte[] data = random(2 * PART);
+        S3MultipartOutputStream out = new S3MultipartOutputStream(
+                client, executor, BUCKET, KEY, PART, 1);
+        write(out, data);
+        out.complete();
+        assertArrayEquals(data, server.get(BUCKET, KEY));
+        assertEquals(2, getRequests("PUT", "partNumber=").size());
+    }
+
+    @Test
+    public void testObjectNotVisibleUntilComplete() throws IOException {
+        byte[] data = random(PART + 10);
+        S3MultipartOutputStream out = new S3MultipartOutputStream(
+                client, executor, BUCKET, KEY, PART, 2);
+        write(out, data);
+        out.close();
+        assertNull(server.get(BUCKET, KEY));
+        out.complete();
+        assertArrayEquals(data, server.get(BUCKET, KEY));
+    }
+
+    @Test
+    public void testPartFailureAbortsUpload() {
+        server.failPart(2);
+        byte[] data = random((2 * PART) + 100);
+        S3MultipartOutputStream out = new S3MultipartOutputStream(
+                client, executor, BUCKET, KEY, PART, 2);
+        try {
+            write(out, data);
+            out.complete();
+            fail("Expected the upload to fail.");
+        }
+        catch (IOException ioe) {
+            // Expected.
+        }
+        finally {
+            out.abort();
+        }
+        assertNull(server.get(BUCKET, KEY));
+        assertEquals(1, getRequests("DELETE", "uploadId=").size());
+        assertEquals(0, getRequests("POST", "uploadId=").size());
+        assertEquals(0, server.getOpenUploads());
+    }
+
+    @Test
+    public void testAbortDiscardsUpload() throws IOException {
+        byte[] data = random(PART + 100);
+        S3MultipartOutputStream out = new S3MultipartOutputStream(
+                client, executor, BUCKET, KEY, PART, 2);
+        write(out, data);
+        out.abort();
+        assertNull(server.get(BUCKET, KEY));
+        assertEquals(1, getRequests("DELETE", "uploadId=").size());
+        assertEquals(0, server.getOpenUploads());
+        try {
+            out.write(1);
+            fail("Expected a write after abort to fail.");
+        }
+        catch (IOException ioe) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testAbortAfterCompleteHasNoEffect() throws IOException {
+        byte[] data = random(PART + 100);
+        S3MultipartOutputStream out = new S3MultipartOutputStream(
+                client, executor, BUCKET, KEY, PART, 2);
+        write(out, data);
+        out.complete();
+        out.abort();
+        assertArrayEquals(data, server.get(BUCKET, KEY));
+        assertEquals(0, getRequests("DELETE", "uploadId=").size());
+        assertTrue(getRequests("POST", "uploadId=").size() == 1);
+    }
+}
@@ -0,0 +1,138 @@
+package mil.nga.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * Tests of <code>S3RangedInputStream</code> against a local S3 stand-in.
+ *
+ * @author L. Craig Carpenter
+ */
+public class S3RangedInputStreamTest {
+
+    private static final String BUCKET = "bucket";
+    private static final String KEY    = "dir/object.dat";
+
+    private LocalS3Server   server;
+    private AmazonS3        client;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        server   = new LocalS3Server();
+        client   = server.getClient();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        client.shutdown();
+        server.stop();
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[777];
+        int    n;
+        while (-1 != (n = in.read(buffer))) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testReadsRangesInOrder() throws IOException {
+        byte[] data = random(10000);
+        server.put(BUCKET, KEY, data);
+        try (InputStream in = new S3RangedInputStream(
+                client, executor, BUCKET, KEY, data.length, 1024, 3)) {
+            assertArrayEquals(data, readAll(in));
+            assertEquals(-1, in.read());
+        }
+        assertEquals(10, server.getRequests().size());
+    }
+
+    @Test
+    public void testLaterRangesArePinnedToFirstETag() throws IOException {
+        byte[] data = random(5000);
+        server.put(BUCKET, KEY, data);
+        try (InputStream in = new S3RangedInputStream(
+                client, executor, BUCKET, KEY, data.length, 1000, 5)) {
+            readAll(in);
+        }
+        List<String> requests = server.getRequests();
+        assertEquals(5, requests.size());
+        String etag = LocalS3Server.getETag(data);
+        for (String request : requests) {
+            if (request.contains("bytes=0-")) {
+                assertEquals("GET /" + BUCKET + "/" + KEY
+                        + " bytes=0-999 null", request);
+            }
+            else {
+                assertEquals(etag, request.substring(
+                        request.lastIndexOf(' ') + 1));
+            }
+        }
+    }
+
+    @Test
+    public void testOverwrittenObjectFailsTheRead() throws IOException {
+        byte[] data = random(4096);
+        server.put(BUCKET, KEY, data);
+        byte[] changed = data.clone();
+        changed[3000] ^= 0xff;
+        server.replaceAfterFirstRange(BUCKET, KEY, changed);
+        try (InputStream in = new S3RangedInputStream(
+                client, executor, BUCKET, KEY, data.length, 1024, 2)) {
+            readAll(in);
+            fail("Expected the read of a changed object to fail.");
+        }
+        catch (IOException ioe) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testSingleRangeIsNotConstrained() throws IOException {
+        byte[] data = random(100);
+        server.put(BUCKET, KEY, data);
+        try (InputStream in = new S3RangedInputStream(
+                client, executor, BUCKET, KEY, data.length, 1024, 2)) {
+            assertArrayEquals(data, readAll(in));
+        }
+        assertEquals(1, server.getRequests().size());
+        assertTrue(server.getRequests().get(0).endsWith(" null"));
+    }
+
+    @Test
+    public void testEmptyObject() throws IOException {
+        try (InputStream in = new S3RangedInputStream(
+                client, executor, BUCKET, KEY, 0L, 1024, 2)) {
+            assertEquals(-1, in.read());
+        }
+        assertEquals(0, server.getRequests().size());
+    }
+}
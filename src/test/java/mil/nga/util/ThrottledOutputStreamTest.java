@@ -0,0 +1,68 @@
+package mil.nga.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests of the write rate enforced by <code>ThrottledOutputStream</code>.
+ *
+ * @author L. Craig Carpenter
+ */
+public class ThrottledOutputStreamTest {
+
+    private static final int RATE  = 1024 * 1024;
+    private static final int CHUNK = 64 * 1024;
+
+    /**
+     * Write the given number of bytes in chunks and return the time taken
+     * in milliseconds.
+     */
+    private static long write(OutputStream out, int bytes) throws IOException {
+        byte[] chunk = new byte[CHUNK];
+        long   start = System.nanoTime();
+        for (int written = 0; written < bytes; written += CHUNK) {
+            out.write(chunk, 0, Math.min(CHUNK, bytes - written));
+        }
+        out.write(0);
+        return (System.nanoTime() - start) / 1000000L;
+    }
+
+    @Test
+    public void testWriteRateIsLimited() throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        TokenBucket bucket = new TokenBucket(RATE);
+        long elapsed = write(
+                new ThrottledOutputStream(sink, bucket), 3 * RATE);
+
+        // The bucket starts with one second of tokens, so 3 MB at 1 MB/s
+        // takes at least two seconds.
+        assertEquals((3 * RATE) + 1, sink.size());
+        assertTrue("Elapsed " + elapsed + " ms", elapsed >= 1900L);
+        assertTrue("Elapsed " + elapsed + " ms", elapsed < 4000L);
+        assertTrue(bucket.getThrottledMillis() > 0L);
+    }
+
+    @Test
+    public void testSlowestBucketWins() throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        long elapsed = write(new ThrottledOutputStream(sink,
+                new TokenBucket(8 * RATE),
+                new TokenBucket(RATE)), 2 * RATE);
+        assertTrue("Elapsed " + elapsed + " ms", elapsed >= 900L);
+    }
+
+    @Test
+    public void testUnlimitedAndNullBucketsDoNotThrottle() throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        long elapsed = write(new ThrottledOutputStream(sink,
+                new TokenBucket(0L), null), 8 * RATE);
+        assertEquals((8 * RATE) + 1, sink.size());
+        assertTrue("Elapsed " + elapsed + " ms", elapsed < 900L);
+    }
+}